@@ -0,0 +1,214 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * This ArrivalFeed class reads arrivals from a live source, such as the
+ * output of a loop-detector reader piped to the simulator or written to a
+ * named pipe, and pushes them into an ArrivalIngestion on a thread of its
+ * own while the simulation steps. Several feeds may push into the same
+ * ingestion at once, one per sensor.
+ *
+ * Each line of the source is one vehicle arriving, given as the indexes
+ * "ROAD WAY LANE" separated by spaces. Blank lines and lines starting with
+ * '#' are skipped. Lines that do not name a lane of the intersection are
+ * counted as malformed and skipped, so one bad reading does not stop the
+ * feed.
+ */
+public class ArrivalFeed implements Runnable {
+
+    /**
+     * The name of the source, for messages.
+     */
+    private String source;
+
+    /**
+     * Where the lines are read from.
+     */
+    private BufferedReader reader;
+
+    /**
+     * Where the arrivals read are pushed.
+     */
+    private ArrivalIngestion ingestion;
+
+    /**
+     * Whether the feed has been asked to stop.
+     */
+    private volatile boolean stopped;
+
+    /**
+     * Whether the feed has stopped reading.
+     */
+    private volatile boolean done;
+
+    /**
+     * The number of arrivals read. Written by the feed's thread only.
+     */
+    private volatile long arrivalsRead;
+
+    /**
+     * The number of lines skipped because they name no lane. Written by
+     * the feed's thread only.
+     */
+    private volatile long malformedLines;
+
+    /**
+     * The error that stopped the feed, or null.
+     */
+    private volatile IOException failure;
+
+    /**
+     * Default constructor.
+     * @param initSource
+     *      The name of the source, for messages.
+     * @param initReader
+     *      Where the lines are read from.
+     * @param initIngestion
+     *      Where the arrivals read are pushed.
+     */
+    public ArrivalFeed(String initSource, Reader initReader,
+      ArrivalIngestion initIngestion) {
+        source = initSource;
+        reader = new BufferedReader(initReader);
+        ingestion = initIngestion;
+    }
+
+    /**
+     * Opens a feed reading from a file, such as a named pipe, or from the
+     * standard input.
+     * @param source
+     *      The path of the file, or "-" for the standard input.
+     * @param ingestion
+     *      Where the arrivals read are pushed.
+     * @return
+     *      A feed which has not started reading.
+     * @throws IOException
+     *      Indicates that the file could not be opened.
+     */
+    public static ArrivalFeed open(String source, ArrivalIngestion ingestion)
+      throws IOException {
+        Reader reader = source.equals("-")
+          ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+          : Files.newBufferedReader(Paths.get(source),
+            StandardCharsets.UTF_8);
+        return new ArrivalFeed(source, reader, ingestion);
+    }
+
+    /**
+     * Reads the source line by line and pushes every arrival into the
+     * ingestion, until the source ends, fails or the feed is stopped.
+     */
+    public void run() {
+        try {
+            String line;
+            while (!stopped && (line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                if (!offer(line))
+                    malformedLines++;
+            }
+        }
+        catch(IOException e) {
+            failure = e;
+        }
+        finally {
+            done = true;
+        }
+    }
+
+    /**
+     * Asks the feed to stop once the line being read, if any, has been
+     * pushed. A feed waiting for its next line stops when the line comes.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Checks to see if the feed has stopped reading and pushes no more
+     * arrivals.
+     * @return
+     *      true if the feed is done, else false.
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Returns the ingestion the arrivals read are pushed into.
+     * @return
+     *      The ingestion.
+     */
+    public ArrivalIngestion getIngestion() {
+        return ingestion;
+    }
+
+    /**
+     * Returns the name of the source.
+     * @return
+     *      The path read, or "-" for the standard input.
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the number of arrivals read so far, accepted or not.
+     * @return
+     *      The number of arrivals read.
+     */
+    public long getArrivalsRead() {
+        return arrivalsRead;
+    }
+
+    /**
+     * Returns the number of lines skipped because they name no lane.
+     * @return
+     *      The number of malformed lines.
+     */
+    public long getMalformedLines() {
+        return malformedLines;
+    }
+
+    /**
+     * Returns the error that stopped the feed.
+     * @return
+     *      The error, or null if the feed has not failed.
+     */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * Pushes the arrival given by a line.
+     * @param line
+     *      The line, trimmed.
+     * @return
+     *      true if the line names a lane, else false.
+     */
+    private boolean offer(String line) {
+        String[] fields = line.split("\\s+");
+        if (fields.length != 3)
+            return false;
+        try {
+            int road = Integer.parseInt(fields[0]);
+            int way = Integer.parseInt(fields[1]);
+            int lane = Integer.parseInt(fields[2]);
+            //Refusals by a full lane are counted by the ingestion
+            ingestion.offer(road, way, lane);
+            arrivalsRead++;
+            return true;
+        }
+        //Not a number or not a lane of the intersection
+        catch(IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,354 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This ArrivalIngestion class feeds an intersection with arrivals pushed by
+ * other threads, such as one thread per approach sensor reading a live
+ * loop-detector feed, while the simulation thread steps the intersection.
+ *
+ * Producers call offer() from any thread and never block or lock. Arrivals
+ * are not queued as objects but batched as a pending count per lane, raised
+ * with a compare-and-set, and a lane becoming pending sets its bit in a
+ * bitmap of pending lanes. The simulation thread is the single consumer:
+ * at the start of each step arrivals() takes the whole bitmap a word at a
+ * time and lets one vehicle in on each pending lane, as a lane admits at
+ * most one arrival per step with every other arrival process. The vehicles
+ * left over stay pending for the next steps. Intersection and VehicleQueue
+ * are only ever touched by the simulation thread.
+ *
+ * Each lane holds at most a fixed number of pending arrivals. When
+ * producers outrun the simulation, an offer to a full lane is refused and
+ * counted, so a slow simulation shows up as rejected arrivals rather than
+ * as unbounded memory.
+ *
+ * ArrivalFeed threads push arrivals read from live sources, as the
+ * "--feed" option does. Live arrivals cannot be checkpointed.
+ */
+public class ArrivalIngestion implements ArrivalProcess {
+
+    /**
+     * The default number of arrivals a lane may hold pending.
+     */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    /**
+     * Gives atomic access to the words of the pending-lane bitmap.
+     */
+    private static final VarHandle WORDS =
+      MethodHandles.arrayElementVarHandle(long[].class);
+
+    /**
+     * The numbering of the lanes of the intersection fed.
+     */
+    private LaneLayout layout;
+
+    /**
+     * The number of arrivals a lane may hold pending.
+     */
+    private int capacity;
+
+    /**
+     * The number of arrivals pending on each lane, indexed by flat lane
+     * index. Raised by producers, lowered only by the consumer.
+     */
+    private AtomicIntegerArray pending;
+
+    /**
+     * Bit i % 64 of word i / 64 is set once lane i has arrivals pending.
+     * Accessed through WORDS only.
+     */
+    private long[] pendingLanes;
+
+    /**
+     * The number of offers refused on each lane because it was full.
+     */
+    private AtomicLongArray laneRejected;
+
+    /**
+     * The number of offers accepted.
+     */
+    private LongAdder accepted;
+
+    /**
+     * The number of offers refused because the lane was full.
+     */
+    private LongAdder rejected;
+
+    /**
+     * The number of arrivals let into the intersection. Written by the
+     * consumer only.
+     */
+    private volatile long delivered;
+
+    /**
+     * The time step last asked for by the consumer.
+     */
+    private int lastStep;
+
+    /**
+     * Default constructor.
+     * Each lane holds at most DEFAULT_CAPACITY pending arrivals.
+     * @param initLayout
+     *      The numbering of the lanes of the intersection fed.
+     */
+    public ArrivalIngestion(LaneLayout initLayout) {
+        this(initLayout, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor which sets how many arrivals a lane may hold pending.
+     * @param initLayout
+     *      The numbering of the lanes of the intersection fed.
+     * @param initCapacity
+     *      The number of arrivals a lane may hold pending. Must be > 0.
+     * @throws IllegalArgumentException
+     *      Indicates that initCapacity <= 0.
+     */
+    public ArrivalIngestion(LaneLayout initLayout, int initCapacity) {
+        if (initCapacity <= 0)
+            throw new IllegalArgumentException("Capacity must be > 0");
+        layout = initLayout;
+        capacity = initCapacity;
+        int numLanes = layout.getNumLanes();
+        pending = new AtomicIntegerArray(numLanes);
+        pendingLanes = new long[(numLanes + Long.SIZE - 1) / Long.SIZE];
+        laneRejected = new AtomicLongArray(numLanes);
+        accepted = new LongAdder();
+        rejected = new LongAdder();
+    }
+
+    /**
+     * Pushes the arrival of a vehicle on a lane. Safe to call from any
+     * number of threads at once, and never blocks.
+     * @param roadIndex
+     *      The index of the road.
+     * @param wayIndex
+     *      The direction the vehicle is headed.
+     * @param laneIndex
+     *      The lane the vehicle arrives in.
+     * @return
+     *      true if the arrival was accepted, false if the lane already had
+     *      as many arrivals pending as it may hold.
+     * @throws IllegalArgumentException
+     *      Indicates that the lane does not exist.
+     */
+    public boolean offer(int roadIndex, int wayIndex, int laneIndex) {
+        if (!layout.contains(roadIndex, wayIndex, laneIndex))
+            throw new IllegalArgumentException("No such lane");
+        return offer(layout.index(roadIndex, wayIndex, laneIndex));
+    }
+
+    /**
+     * Pushes the arrival of a vehicle on a lane given by its flat index.
+     * Safe to call from any number of threads at once, and never blocks.
+     * @param lane
+     *      The flat index of the lane.
+     * @return
+     *      true if the arrival was accepted, false if the lane already had
+     *      as many arrivals pending as it may hold.
+     * @throws IndexOutOfBoundsException
+     *      Indicates that the lane does not exist.
+     */
+    public boolean offer(int lane) {
+        int count;
+        do {
+            count = pending.get(lane);
+            if (count >= capacity) {
+                rejected.increment();
+                laneRejected.incrementAndGet(lane);
+                return false;
+            }
+        } while (!pending.compareAndSet(lane, count, count + 1));
+        accepted.increment();
+        //A lane that was pending already has its bit set, or the consumer
+        //sets it again after taking an arrival from it
+        if (count == 0)
+            WORDS.getAndBitwiseOr(pendingLanes, lane / Long.SIZE,
+              1L << lane);
+        return true;
+    }
+
+    /**
+     * Lets one vehicle in on every lane with arrivals pending. Called by
+     * the simulation thread only.
+     * @param timeStep
+     *      The time step vehicles arrive at.
+     * @param lanes
+     *      The caller-owned buffer the lanes are written to.
+     * @return
+     *      The number of lanes written to lanes.
+     */
+    public int arrivals(int timeStep, int[] lanes) {
+        int count = 0;
+        for (int word = 0; word < pendingLanes.length; word++) {
+            long bits = (long)WORDS.getAndSet(pendingLanes, word, 0L);
+            long stillPending = 0;
+            while (bits != 0) {
+                int bit = Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                int lane = word * Long.SIZE + bit;
+                //Only this thread lowers the count, so it is still > 0
+                if (pending.getAndDecrement(lane) > 1)
+                    stillPending |= 1L << bit;
+                lanes[count++] = lane;
+            }
+            if (stillPending != 0)
+                WORDS.getAndBitwiseOr(pendingLanes, word, stillPending);
+        }
+        delivered += count;
+        lastStep = timeStep;
+        return count;
+    }
+
+    /**
+     * Returns the step after the one last asked for, as an arrival may be
+     * pushed at any time.
+     * @return
+     *      The next time step.
+     */
+    public int nextArrivalStep() {
+        return lastStep + 1;
+    }
+
+    /**
+     * Arrivals pushed by producers draw no random values.
+     * @return
+     *      0.
+     */
+    public long getRandomDraws() {
+        return 0;
+    }
+
+    /**
+     * Returns the number of arrivals a lane may hold pending.
+     * @return
+     *      The capacity of each lane.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of arrivals accepted so far.
+     * @return
+     *      The number of accepted offers.
+     */
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    /**
+     * Returns the number of arrivals refused so far because their lane was
+     * full, the measure of how far producers outrun the simulation.
+     * @return
+     *      The number of rejected offers.
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Returns the number of arrivals refused so far on one lane.
+     * @param lane
+     *      The flat index of the lane.
+     * @return
+     *      The number of rejected offers on the lane.
+     */
+    public long getRejected(int lane) {
+        return laneRejected.get(lane);
+    }
+
+    /**
+     * Returns the number of arrivals let into the intersection so far.
+     * @return
+     *      The number of arrivals delivered.
+     */
+    public long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * Returns the number of arrivals pending on one lane.
+     * @param lane
+     *      The flat index of the lane.
+     * @return
+     *      The number of pending arrivals, at most getCapacity().
+     */
+    public int getPending(int lane) {
+        return pending.get(lane);
+    }
+
+    /**
+     * Returns the number of arrivals pending on every lane.
+     * @return
+     *      The number of arrivals accepted but not yet delivered.
+     */
+    public long getPendingTotal() {
+        long total = 0;
+        for (int lane = 0; lane < pending.length(); lane++)
+            total += pending.get(lane);
+        return total;
+    }
+
+    /**
+     * Checks that no arrival has been lost or counted twice: every accepted
+     * arrival has been delivered or is still pending, and exactly the lanes
+     * with arrivals pending have their bit set, so the consumer reaches
+     * each of them. The answer is only meaningful while no producer is
+     * offering and the consumer is not taking arrivals.
+     * @return
+     *      true if the counts and the bitmap of pending lanes agree, else
+     *      false.
+     */
+    public boolean isConsistent() {
+        long stillPending = 0;
+        for (int lane = 0; lane < pending.length(); lane++) {
+            int count = pending.get(lane);
+            long word = (long)WORDS.getVolatile(pendingLanes, lane / Long.SIZE);
+            if ((count > 0) != ((word & 1L << lane) != 0))
+                return false;
+            stillPending += count;
+        }
+        return accepted.sum() == delivered + stillPending;
+    }
+
+    /**
+     * Live arrivals cannot be checkpointed, as they come from outside.
+     * @return
+     *      Never returns.
+     * @throws UnsupportedOperationException
+     *      Always.
+     */
+    public int stateSize() {
+        throw new UnsupportedOperationException(
+          "Live arrivals cannot be checkpointed.");
+    }
+
+    /**
+     * Live arrivals cannot be checkpointed.
+     * @param state
+     *      Unused.
+     * @throws UnsupportedOperationException
+     *      Always.
+     */
+    public void saveState(long[] state) {
+        throw new UnsupportedOperationException(
+          "Live arrivals cannot be checkpointed.");
+    }
+
+    /**
+     * Live arrivals cannot be restored.
+     * @param state
+     *      Unused.
+     * @throws UnsupportedOperationException
+     *      Always.
+     */
+    public void restoreState(long[] state) {
+        throw new UnsupportedOperationException(
+          "Live arrivals cannot be checkpointed.");
+    }
+
+}
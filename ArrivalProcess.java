@@ -0,0 +1,68 @@
+/**
+ * This ArrivalProcess interface decides which lanes of an intersection a
+ * vehicle arrives on at each time step. Lanes are identified by their flat
+ * index in the LaneLayout of the intersection.
+ */
+public interface ArrivalProcess {
+
+    /**
+     * Writes the lanes a vehicle arrives on at the indicated time step into
+     * lanes, in increasing lane order. Time steps must be asked for in
+     * increasing order.
+     * @param timeStep
+     *      The time step vehicles arrive at.
+     * @param lanes
+     *      The caller-owned buffer the lanes are written to. Must be at
+     *      least as long as the number of lanes.
+     * @return
+     *      The number of lanes written to lanes.
+     */
+    int arrivals(int timeStep, int[] lanes);
+
+    /**
+     * Returns the earliest time step at which a vehicle may arrive on any
+     * lane, given the time steps already asked for.
+     * @return
+     *      The earliest possible arrival step, or Integer.MAX_VALUE if no
+     *      vehicle will ever arrive.
+     */
+    int nextArrivalStep();
+
+    /**
+     * Returns the number of values drawn from random streams so far, for
+     * monitoring. Draws before a checkpoint was restored are not counted.
+     * @return
+     *      The number of random draws.
+     */
+    long getRandomDraws();
+
+    /**
+     * Returns the number of longs needed to hold the state of this process.
+     * @return
+     *      The size of the state.
+     * @throws UnsupportedOperationException
+     *      Indicates that the process cannot be checkpointed.
+     */
+    int stateSize();
+
+    /**
+     * Copies the state of this process, including its random streams, so it
+     * can later continue exactly where it left off.
+     * @param state
+     *      The array to copy into, at least stateSize() long.
+     * @throws UnsupportedOperationException
+     *      Indicates that the process cannot be checkpointed.
+     */
+    void saveState(long[] state);
+
+    /**
+     * Replaces the state of this process with one copied by saveState() from
+     * a process built with the same parameters.
+     * @param state
+     *      The array to copy from.
+     * @throws UnsupportedOperationException
+     *      Indicates that the process cannot be checkpointed.
+     */
+    void restoreState(long[] state);
+
+}
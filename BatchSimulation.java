@@ -0,0 +1,700 @@
+/**
+ * This BatchSimulation class runs many independent single-intersection
+ * simulations side by side, all advanced by the same call to step().
+ *
+ * The intersections share their roads and lanes but may each have their
+ * own arrival probability, green and left signal times, and seed. They use
+ * the fixed cycle and a draw per lane per step, and each ends up with
+ * exactly the statistics a Simulation built with the same parameters would
+ * have. Instead of an Intersection per simulation, the whole batch is kept
+ * in primitive arrays indexed by intersection: the random stream of every
+ * lane, the queue of every lane, the occupancy masks, and the light and
+ * countdownTimer. The arrivals of every lane of every intersection are then
+ * drawn by one loop over flat arrays, and the lights are stepped by a
+ * second loop over the intersections still running.
+ */
+public class BatchSimulation {
+
+    /**
+     * The capacity each lane queue starts with. Must be a power of 2.
+     */
+    private static final int INITIAL_QUEUE_CAPACITY = 16;
+
+    /**
+     * The numbering of the lanes of every intersection.
+     */
+    private LaneLayout layout;
+
+    /**
+     * The number of roads of every intersection.
+     */
+    private int numRoads;
+
+    /**
+     * The number of lanes of every intersection.
+     */
+    private int numLanes;
+
+    /**
+     * The number of intersections.
+     */
+    private int size;
+
+    /**
+     * The number of time steps during which vehicles may arrive.
+     */
+    private int simulationTime;
+
+    /**
+     * The time step that will be executed by the next call to step().
+     */
+    private int timeStep;
+
+    /**
+     * The road of each lane of an intersection.
+     */
+    private int[] laneRoads;
+
+    /**
+     * The bit of each lane of an intersection in the lane mask of its road.
+     */
+    private int[] laneBits;
+
+    /**
+     * The bits of the left lanes in the lane mask of each road.
+     */
+    private int[] leftLanesMasks;
+
+    /**
+     * The arrival probability of each lane, indexed by
+     * intersection * numLanes + lane.
+     */
+    private double[] laneProbabilities;
+
+    /**
+     * The state of the random stream of each lane, indexed by
+     * intersection * numLanes + lane.
+     */
+    private long[] streamSeeds;
+
+    /**
+     * The increment of the random stream of each lane, indexed by
+     * intersection * numLanes + lane.
+     */
+    private long[] streamGammas;
+
+    /**
+     * Whether a vehicle arrives on each lane during the current step,
+     * indexed by intersection * numLanes + lane.
+     */
+    private boolean[] arriving;
+
+    /**
+     * The arrival times of the vehicles queued on each lane, as a ring
+     * buffer whose length is a power of 2, indexed by
+     * intersection * numLanes + lane.
+     */
+    private int[][] queueTimes;
+
+    /**
+     * The slot of the front vehicle of each lane queue.
+     */
+    private int[] queueHeads;
+
+    /**
+     * The number of vehicles queued on each lane.
+     */
+    private int[] queueSizes;
+
+    /**
+     * Bitmask of the occupied lanes of each road, indexed by
+     * intersection * numRoads + road.
+     */
+    private int[] laneMasks;
+
+    /**
+     * Bitmask of the roads of each intersection with a vehicle waiting.
+     */
+    private long[] roadMasks;
+
+    /**
+     * The green time of each road, indexed by intersection * numRoads + road.
+     */
+    private int[] greenTimes;
+
+    /**
+     * The left signal time of each road, indexed by
+     * intersection * numRoads + road.
+     */
+    private int[] leftSignalTimes;
+
+    /**
+     * The index of the road with the active light of each intersection.
+     */
+    private int[] lightIndexes;
+
+    /**
+     * The countdownTimer of each intersection.
+     */
+    private int[] countdownTimers;
+
+    /**
+     * The intersections that have not finished, in increasing order.
+     */
+    private int[] running;
+
+    /**
+     * The number of entries of running in use.
+     */
+    private int runningCount;
+
+    /**
+     * The number of time steps each intersection executed before it
+     * finished.
+     */
+    private int[] stepsExecuted;
+
+    /**
+     * The number of vehicles that have arrived at each intersection.
+     */
+    private long[] totalVehicles;
+
+    /**
+     * The number of vehicles that have passed through each intersection.
+     */
+    private long[] carsPassed;
+
+    /**
+     * The number of vehicles currently waiting at each intersection.
+     */
+    private long[] carsCurrently;
+
+    /**
+     * The longest wait of any vehicle that has passed through each
+     * intersection.
+     */
+    private int[] maxWaitTimes;
+
+    /**
+     * The sum of the waits of every vehicle that has passed through each
+     * intersection.
+     */
+    private long[] totalWaitTimes;
+
+    /**
+     * The waits of the vehicles that have passed through each lane,
+     * indexed by intersection * numLanes + lane.
+     */
+    private LogHistogram[] laneWaits;
+
+    /**
+     * Default constructor.
+     * Intersection k arrives with probability arrivalProbabilities[k], times
+     * its roads with maxGreenTimes[k] and draws from the streams of the
+     * master seed seeds[k], as a Simulation with those parameters would.
+     * @param initSimulationTime
+     *      The number of time steps during which vehicles may arrive.
+     * @param lanesPerWay
+     *      The number of lanes per way of each road, or null for
+     *      TwoWayRoad.DEFAULT_NUM_LANES on every road.
+     * @param arrivalProbabilities
+     *      The probability used to check if a car arrives on each lane of
+     *      each intersection. Each must be in (0, 1].
+     * @param maxGreenTimes
+     *      The "green" times of the roads of each intersection. Every
+     *      intersection must have the same number of roads.
+     * @param maxLeftSignalTimes
+     *      The left signal times of the roads of each intersection, or null
+     *      for a third of each green time, rounded down.
+     * @param seeds
+     *      The master seed of each intersection.
+     * @throws IllegalArgumentException
+     *      Indicates that initSimulationTime < 0, an array is null or of the
+     *      wrong length, or a probability, time or lane count is out of
+     *      range.
+     */
+    public BatchSimulation(int initSimulationTime, int[] lanesPerWay,
+      double[] arrivalProbabilities, int[][] maxGreenTimes,
+      int[][] maxLeftSignalTimes, long[] seeds) {
+        if (initSimulationTime < 0 || seeds == null
+          || arrivalProbabilities == null || maxGreenTimes == null
+          || arrivalProbabilities.length != seeds.length
+          || maxGreenTimes.length != seeds.length || seeds.length == 0
+          || maxGreenTimes[0] == null
+          || (maxLeftSignalTimes != null
+            && maxLeftSignalTimes.length != seeds.length))
+            throw new IllegalArgumentException("Invalid batch parameters.");
+        numRoads = maxGreenTimes[0].length;
+        if (numRoads == 0 || numRoads > Intersection.ROAD_LIMIT
+          || (lanesPerWay != null && lanesPerWay.length != numRoads))
+            throw new IllegalArgumentException("Invalid number of roads.");
+        layout = lanesPerWay == null
+          ? LaneLayout.uniform(numRoads, TwoWayRoad.DEFAULT_NUM_LANES)
+          : new LaneLayout(lanesPerWay);
+        numLanes = layout.getNumLanes();
+        size = seeds.length;
+        simulationTime = initSimulationTime;
+        timeStep = 1;
+
+        laneRoads = new int[numLanes];
+        laneBits = new int[numLanes];
+        for (int lane = 0; lane < numLanes; lane++) {
+            laneRoads[lane] = layout.getRoad(lane);
+            laneBits[lane] = lane - layout.getRoadOffset(laneRoads[lane]);
+        }
+        leftLanesMasks = new int[numRoads];
+        for (int road = 0; road < numRoads; road++)
+            leftLanesMasks[road] = 1 | (1 << layout.getLanesPerWay(road));
+
+        greenTimes = new int[size * numRoads];
+        leftSignalTimes = new int[size * numRoads];
+        lightIndexes = new int[size];
+        countdownTimers = new int[size];
+        for (int k = 0; k < size; k++) {
+            if (maxGreenTimes[k] == null || maxGreenTimes[k].length != numRoads
+              || (maxLeftSignalTimes != null
+                && (maxLeftSignalTimes[k] == null
+                  || maxLeftSignalTimes[k].length != numRoads)))
+                throw new IllegalArgumentException("Invalid number of roads.");
+            for (int road = 0; road < numRoads; road++) {
+                int greenTime = maxGreenTimes[k][road];
+                int leftSignalTime = maxLeftSignalTimes == null
+                  ? (int)(Math.floor((1.0/3) * greenTime))
+                  : maxLeftSignalTimes[k][road];
+                if (greenTime <= 0 || leftSignalTime < 0
+                  || leftSignalTime > greenTime)
+                    throw new IllegalArgumentException("Invalid signal time.");
+                greenTimes[k * numRoads + road] = greenTime;
+                leftSignalTimes[k * numRoads + road] = leftSignalTime;
+            }
+            countdownTimers[k] = greenTimes[k * numRoads];
+        }
+
+        //Lane i of intersection k draws from substream i of seeds[k], the
+        //same stream Simulation.laneSources() gives it
+        laneProbabilities = new double[size * numLanes];
+        streamSeeds = new long[size * numLanes];
+        streamGammas = new long[size * numLanes];
+        long[] state = new long[RandomStream.STATE_SIZE];
+        for (int k = 0; k < size; k++) {
+            double probability = arrivalProbabilities[k];
+            if (!(probability > 0 && probability <= 1))
+                throw new IllegalArgumentException("Invalid probability.");
+            RandomStream root = new RandomStream(seeds[k]);
+            for (int lane = 0; lane < numLanes; lane++) {
+                root.substream(lane).saveState(state, 0);
+                laneProbabilities[k * numLanes + lane] = probability;
+                streamSeeds[k * numLanes + lane] = state[1];
+                streamGammas[k * numLanes + lane] = state[2];
+            }
+        }
+        arriving = new boolean[size * numLanes];
+
+        queueTimes = new int[size * numLanes][];
+        for (int i = 0; i < queueTimes.length; i++)
+            queueTimes[i] = new int[INITIAL_QUEUE_CAPACITY];
+        queueHeads = new int[size * numLanes];
+        queueSizes = new int[size * numLanes];
+        laneMasks = new int[size * numRoads];
+        roadMasks = new long[size];
+
+        stepsExecuted = new int[size];
+        totalVehicles = new long[size];
+        carsPassed = new long[size];
+        carsCurrently = new long[size];
+        maxWaitTimes = new int[size];
+        totalWaitTimes = new long[size];
+        laneWaits = new LogHistogram[size * numLanes];
+        for (int i = 0; i < laneWaits.length; i++)
+            laneWaits[i] = new LogHistogram();
+
+        running = new int[size];
+        for (int k = 0; k < size; k++)
+            running[k] = k;
+        runningCount = size;
+        retireFinished();
+    }
+
+    /**
+     * Executes a single time step of every intersection that has not
+     * finished: vehicles arrive on each lane, each intersection lets
+     * vehicles through, and the statistics are updated.
+     */
+    public void step() {
+        if (runningCount == 0)
+            return;
+        if (timeStep <= simulationTime)
+            arrive();
+        for (int i = 0; i < runningCount; i++)
+            signal(running[i]);
+        timeStep++;
+        if (timeStep > simulationTime)
+            retireFinished();
+    }
+
+    /**
+     * Steps every intersection until it has finished.
+     */
+    public void run() {
+        while (runningCount > 0)
+            step();
+    }
+
+    /**
+     * Draws the arrivals of every lane of every intersection and enqueues
+     * them. Before the end of the simulation time no intersection has
+     * finished, so every lane draws.
+     */
+    private void arrive() {
+        //One draw per lane per step, branch free so the loop stays tight
+        for (int i = 0; i < streamSeeds.length; i++) {
+            long seed = streamSeeds[i] + streamGammas[i];
+            streamSeeds[i] = seed;
+            arriving[i] = (RandomStream.mix64(seed) >>> 11)
+              * RandomStream.DOUBLE_UNIT < laneProbabilities[i];
+        }
+        for (int k = 0; k < size; k++) {
+            int base = k * numLanes;
+            int count = 0;
+            for (int lane = 0; lane < numLanes; lane++) {
+                if (arriving[base + lane]) {
+                    enqueue(k, lane);
+                    count++;
+                }
+            }
+            totalVehicles[k] += count;
+            carsCurrently[k] += count;
+        }
+    }
+
+    /**
+     * Enqueues a vehicle arriving during the current step onto a lane.
+     * @param k
+     *      The index of the intersection.
+     * @param lane
+     *      The flat index of the lane in the intersection.
+     */
+    private void enqueue(int k, int lane) {
+        int i = k * numLanes + lane;
+        int[] times = queueTimes[i];
+        int count = queueSizes[i];
+        if (count == times.length) {
+            times = grow(i);
+        }
+        times[(queueHeads[i] + count) & (times.length - 1)] = timeStep;
+        queueSizes[i] = count + 1;
+        int road = laneRoads[lane];
+        laneMasks[k * numRoads + road] |= 1 << laneBits[lane];
+        roadMasks[k] |= 1L << road;
+    }
+
+    /**
+     * Doubles the capacity of a full lane queue, moving its front vehicle
+     * to slot 0.
+     * @param i
+     *      The index of the lane queue.
+     * @return
+     *      The new ring buffer.
+     */
+    private int[] grow(int i) {
+        int[] times = queueTimes[i];
+        int head = queueHeads[i];
+        int[] newTimes = new int[times.length * 2];
+        System.arraycopy(times, head, newTimes, 0, times.length - head);
+        System.arraycopy(times, 0, newTimes, times.length - head, head);
+        queueTimes[i] = newTimes;
+        queueHeads[i] = 0;
+        return newTimes;
+    }
+
+    /**
+     * Performs a single iteration through an intersection exactly as
+     * FixedCycleController.timeStep() does.
+     * @param k
+     *      The index of the intersection.
+     */
+    private void signal(int k) {
+        int lightIndex = lightIndexes[k];
+        int countdownTimer = countdownTimers[k];
+        if (countdownTimer == 0) {
+            lightIndex++;
+            if (lightIndex == numRoads)
+                lightIndex = 0;
+            countdownTimer = greenTimes[k * numRoads + lightIndex];
+        }
+        int removedCars = proceed(k, lightIndex, countdownTimer);
+        //Jump between roads with cars until there are cars or until we get
+        //back to this index
+        int currentIndex = lightIndex;
+        int currentTimer = countdownTimer;
+        while (removedCars == 0) {
+            lightIndex = nextRoadWithTraffic(k, lightIndex, currentIndex);
+            if (lightIndex == currentIndex) {
+                lightIndexes[k] = lightIndex;
+                countdownTimers[k] = currentTimer - 1;
+                return;
+            }
+            countdownTimer = greenTimes[k * numRoads + lightIndex];
+            removedCars = proceed(k, lightIndex, countdownTimer);
+        }
+        lightIndexes[k] = lightIndex;
+        countdownTimers[k] = countdownTimer - 1;
+    }
+
+    /**
+     * Lets the vehicles of one road through exactly as TwoWayRoad.proceed()
+     * does: the front vehicle of every occupied lane but the left lanes on
+     * GREEN, else the front vehicle of each occupied left lane.
+     * @param k
+     *      The index of the intersection.
+     * @param road
+     *      The index of the road.
+     * @param timerVal
+     *      The current value of the countdownTimer. Must be > 0.
+     * @return
+     *      The number of vehicles which passed through.
+     */
+    private int proceed(int k, int road, int timerVal) {
+        int mask = laneMasks[k * numRoads + road];
+        int leftLanesMask = leftLanesMasks[road];
+        int pending = mask & ~leftLanesMask;
+        //LEFT_SIGNAL once the left signal time starts or nothing else waits
+        if (timerVal <= leftSignalTimes[k * numRoads + road] || pending == 0)
+            pending = mask & leftLanesMask;
+        int departed = 0;
+        int base = k * numLanes + layout.getRoadOffset(road);
+        while (pending != 0) {
+            int bit = Integer.numberOfTrailingZeros(pending);
+            pending &= pending - 1;
+            dequeue(k, road, base + bit, bit);
+            departed++;
+        }
+        return departed;
+    }
+
+    /**
+     * Lets the front vehicle of a lane through and records its wait.
+     * @param k
+     *      The index of the intersection.
+     * @param road
+     *      The index of the road of the lane.
+     * @param i
+     *      The index of the lane queue.
+     * @param bit
+     *      The bit of the lane in the lane mask of its road.
+     */
+    private void dequeue(int k, int road, int i, int bit) {
+        int[] times = queueTimes[i];
+        int head = queueHeads[i];
+        int waitTime = timeStep - times[head];
+        queueHeads[i] = (head + 1) & (times.length - 1);
+        if (--queueSizes[i] == 0) {
+            int mask = laneMasks[k * numRoads + road] & ~(1 << bit);
+            laneMasks[k * numRoads + road] = mask;
+            if (mask == 0)
+                roadMasks[k] &= ~(1L << road);
+        }
+        totalWaitTimes[k] += waitTime;
+        if (waitTime > maxWaitTimes[k])
+            maxWaitTimes[k] = waitTime;
+        laneWaits[i].record(waitTime);
+        carsPassed[k]++;
+        carsCurrently[k]--;
+    }
+
+    /**
+     * Finds the next road after from, in light order, that holds a vehicle,
+     * without passing stop.
+     * @param k
+     *      The index of the intersection.
+     * @param from
+     *      The index to start searching after.
+     * @param stop
+     *      The index at which the search gives up.
+     * @return
+     *      The index of the next road with a vehicle, or stop if there is
+     *      none before it.
+     */
+    private int nextRoadWithTraffic(int k, int from, int stop) {
+        long roadMask = roadMasks[k];
+        if (roadMask == 0)
+            return stop;
+        long after = roadMask & (-2L << from);
+        int next = Long.numberOfTrailingZeros(after != 0 ? after : roadMask);
+        int toNext = Math.floorMod(next - from - 1, numRoads) + 1;
+        int toStop = Math.floorMod(stop - from - 1, numRoads) + 1;
+        return toNext < toStop ? next : stop;
+    }
+
+    /**
+     * Drops the intersections which have finished from the running list,
+     * keeping the rest in order. An intersection finishes once vehicles stop
+     * arriving and every lane has emptied.
+     */
+    private void retireFinished() {
+        if (timeStep <= simulationTime)
+            return;
+        int kept = 0;
+        for (int i = 0; i < runningCount; i++) {
+            int k = running[i];
+            if (roadMasks[k] == 0)
+                stepsExecuted[k] = timeStep - 1;
+            else
+                running[kept++] = k;
+        }
+        runningCount = kept;
+    }
+
+    /**
+     * Checks to see if every intersection has finished.
+     * @return
+     *      true if every intersection has finished, else false.
+     */
+    public boolean isFinished() {
+        return runningCount == 0;
+    }
+
+    /**
+     * Checks to see if an intersection has finished.
+     * @param k
+     *      The index of the intersection.
+     * @return
+     *      true if the intersection has finished, else false.
+     */
+    public boolean isFinished(int k) {
+        return timeStep > simulationTime && roadMasks[k] == 0;
+    }
+
+    /**
+     * Returns the number of intersections.
+     * @return
+     *      The number of intersections.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the numbering of the lanes of every intersection.
+     * @return
+     *      The lane layout.
+     */
+    public LaneLayout getLaneLayout() {
+        return layout;
+    }
+
+    /**
+     * Returns the number of time steps an intersection has executed.
+     * @param k
+     *      The index of the intersection.
+     * @return
+     *      The number of time steps executed.
+     */
+    public int getStepsExecuted(int k) {
+        return isFinished(k) ? stepsExecuted[k] : timeStep - 1;
+    }
+
+    /**
+     * Returns the number of vehicles that have arrived at an intersection.
+     * @param k
+     *      The index of the intersection.
+     * @return
+     *      The number of vehicles that have arrived.
+     */
+    public long getTotalVehicles(int k) {
+        return totalVehicles[k];
+    }
+
+    /**
+     * Returns the number of vehicles that have passed through an
+     * intersection.
+     * @param k
+     *      The index of the intersection.
+     * @return
+     *      The number of vehicles that have passed through.
+     */
+    public long getCarsPassed(int k) {
+        return carsPassed[k];
+    }
+
+    /**
+     * Returns the number of vehicles currently waiting at an intersection.
+     * @param k
+     *      The index of the intersection.
+     * @return
+     *      The number of vehicles waiting.
+     */
+    public long getCarsCurrently(int k) {
+        return carsCurrently[k];
+    }
+
+    /**
+     * Returns the longest wait of any vehicle that has passed through an
+     * intersection.
+     * @param k
+     *      The index of the intersection.
+     * @return
+     *      The longest wait.
+     */
+    public int getMaxWaitTime(int k) {
+        return maxWaitTimes[k];
+    }
+
+    /**
+     * Returns the sum of the waits of every vehicle that has passed through
+     * an intersection.
+     * @param k
+     *      The index of the intersection.
+     * @return
+     *      The total wait.
+     */
+    public long getTotalWaitTime(int k) {
+        return totalWaitTimes[k];
+    }
+
+    /**
+     * Returns the average wait of the vehicles that have passed through an
+     * intersection.
+     * @param k
+     *      The index of the intersection.
+     * @return
+     *      The average wait, or 0 if no vehicle has passed through.
+     */
+    public double getAverageWaitTime(int k) {
+        if (carsPassed[k] == 0)
+            return 0;
+        return (double)totalWaitTimes[k] / carsPassed[k];
+    }
+
+    /**
+     * Returns a snapshot of the wait times of the vehicles that have passed
+     * through each lane of an intersection.
+     * @param k
+     *      The index of the intersection.
+     * @return
+     *      A copy of the histogram of each lane, indexed by flat lane
+     *      index as numbered by getLaneLayout().
+     */
+    public LogHistogram[] getLaneWaitHistograms(int k) {
+        LogHistogram[] snapshot = new LogHistogram[numLanes];
+        for (int lane = 0; lane < numLanes; lane++)
+            snapshot[lane] = laneWaits[k * numLanes + lane].copy();
+        return snapshot;
+    }
+
+    /**
+     * Returns a snapshot of the wait times of the vehicles that have passed
+     * through every lane of an intersection.
+     * @param k
+     *      The index of the intersection.
+     * @return
+     *      The merged histogram of every lane.
+     */
+    public LogHistogram getWaitHistogram(int k) {
+        LogHistogram merged = new LogHistogram();
+        for (int lane = 0; lane < numLanes; lane++)
+            merged.add(laneWaits[k * numLanes + lane]);
+        return merged;
+    }
+
+}
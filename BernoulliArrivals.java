@@ -0,0 +1,107 @@
+/**
+ * This BernoulliArrivals class is the original arrival process: at every
+ * time step each lane draws from its own BooleanSource, so a vehicle
+ * arrives on a lane with the arrival probability independently of every
+ * other lane and step.
+ */
+public class BernoulliArrivals implements ArrivalProcess {
+
+    /**
+     * The source of each lane, indexed by flat lane index.
+     */
+    private BooleanSource[] sources;
+
+    /**
+     * The last time step arrivals were drawn for.
+     */
+    private int lastStep;
+
+    /**
+     * The number of values drawn from the sources so far.
+     */
+    private long randomDraws;
+
+    /**
+     * Default constructor.
+     * @param initSources
+     *      The source of each lane, indexed by flat lane index.
+     */
+    public BernoulliArrivals(BooleanSource[] initSources) {
+        sources = initSources;
+        lastStep = 0;
+    }
+
+    /**
+     * Draws once from every lane's source.
+     * @param timeStep
+     *      The time step vehicles arrive at.
+     * @param lanes
+     *      The caller-owned buffer the lanes are written to.
+     * @return
+     *      The number of lanes written to lanes.
+     */
+    public int arrivals(int timeStep, int[] lanes) {
+        int count = 0;
+        for (int i = 0; i < sources.length; i++) {
+            if (sources[i].occurs())
+                lanes[count++] = i;
+        }
+        lastStep = timeStep;
+        randomDraws += sources.length;
+        return count;
+    }
+
+    /**
+     * Any step may have an arrival, so the next one is the step after the
+     * last step drawn.
+     * @return
+     *      The step after the last step drawn.
+     */
+    public int nextArrivalStep() {
+        return lastStep + 1;
+    }
+
+    /**
+     * Returns the number of values drawn from the sources so far, one per
+     * lane per step.
+     * @return
+     *      The number of random draws.
+     */
+    public long getRandomDraws() {
+        return randomDraws;
+    }
+
+    /**
+     * Returns the number of longs needed to hold the state of this process.
+     * @return
+     *      The size of the state.
+     */
+    public int stateSize() {
+        return 1 + sources.length * RandomStream.STATE_SIZE;
+    }
+
+    /**
+     * Copies the last step and the stream of every lane.
+     * @param state
+     *      The array to copy into, at least stateSize() long.
+     */
+    public void saveState(long[] state) {
+        state[0] = lastStep;
+        for (int i = 0; i < sources.length; i++)
+            sources[i].getRandom().saveState(state,
+              1 + i * RandomStream.STATE_SIZE);
+    }
+
+    /**
+     * Replaces the last step and the stream of every lane.
+     * @param state
+     *      The array to copy from.
+     */
+    public void restoreState(long[] state) {
+        lastStep = (int)state[0];
+        for (int i = 0; i < sources.length; i++)
+            sources[i].getRandom().restoreState(state,
+              1 + i * RandomStream.STATE_SIZE);
+    }
+
+}
@@ -1,5 +1,8 @@
 /**
  * This BooleanSource class abstracts a random occurrence generator.
+ * Each BooleanSource draws from its own RandomStream, so separate lanes and
+ * simulations never share random state, and a seeded stream makes the
+ * occurrences reproducible.
  */
 public class BooleanSource {
 
@@ -10,6 +13,11 @@ public class BooleanSource {
      */
     private double probability;
 
+    /**
+     * The stream this BooleanSource draws from.
+     */
+    private RandomStream random;
+
     /**
      * Default constructor which initializes the probability to the indicated
      * parameter.
@@ -18,6 +26,20 @@ public class BooleanSource {
      *      0 < initProbability <= 1.
      */
     public BooleanSource(double initProbability) {
+        this(initProbability, new RandomStream(RandomStream.randomSeed()));
+    }
+
+    /**
+     * Constructor which initializes the probability and the stream the
+     * occurrences are drawn from.
+     * @param initProbability
+     *      Probability used to construct this BooleanSource object.
+     *      0 < initProbability <= 1.
+     * @param initRandom
+     *      The stream to draw from.
+     */
+    public BooleanSource(double initProbability, RandomStream initRandom) {
+        random = initRandom;
         try {
             if (initProbability <= 0 || initProbability > 1)
                 throw new IllegalArgumentException();
@@ -37,7 +59,7 @@ public class BooleanSource {
      *      Boolean value indicating whether an event occured or not.
      */
     public boolean occurs() {
-        return Math.random() < probability;
+        return random.nextDouble() < probability;
     }
 
     /**
@@ -59,4 +81,13 @@ public class BooleanSource {
         return probability;
     }
 
+    /**
+     * Returns the random stream this source draws from.
+     * @return
+     *      The random stream of this source.
+     */
+    public RandomStream getRandom() {
+        return random;
+    }
+
 }
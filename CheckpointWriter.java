@@ -0,0 +1,135 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This CheckpointWriter class writes checkpoints of a running Simulation to
+ * a file on a background thread.
+ *
+ * Two SimulationCheckpoints are used in turn. The simulation thread only
+ * copies its state into the one that is not being written, which costs as
+ * much as the vehicles waiting, and hands it to the writer thread. Only one
+ * write is in flight at a time; if the previous write has not finished by
+ * the next checkpoint, the simulation thread waits for it.
+ */
+public class CheckpointWriter implements Closeable {
+
+    /**
+     * The file each checkpoint replaces.
+     */
+    private Path path;
+
+    /**
+     * The two checkpoints captured into in turn.
+     */
+    private SimulationCheckpoint[] buffers;
+
+    /**
+     * The index in buffers of the checkpoint to capture into next.
+     */
+    private int nextBuffer;
+
+    /**
+     * The thread checkpoints are written on.
+     */
+    private ExecutorService writer;
+
+    /**
+     * The write in flight, or null.
+     */
+    private Future<?> pending;
+
+    /**
+     * The number of checkpoints written.
+     */
+    private int checkpointsWritten;
+
+    /**
+     * Default constructor.
+     * @param initPath
+     *      The file each checkpoint replaces.
+     */
+    public CheckpointWriter(Path initPath) {
+        path = initPath;
+        buffers = new SimulationCheckpoint[]{new SimulationCheckpoint(),
+          new SimulationCheckpoint()};
+        writer = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "checkpoint-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Captures the state of a simulation and writes it in the background.
+     * Must be called between steps, on the simulation's thread.
+     * @param simulation
+     *      The simulation to checkpoint.
+     * @throws IOException
+     *      Indicates that the previous checkpoint could not be written.
+     */
+    public void checkpoint(Simulation simulation) throws IOException {
+        //The other buffer may still be being written
+        SimulationCheckpoint checkpoint = buffers[nextBuffer];
+        nextBuffer ^= 1;
+        simulation.saveCheckpoint(checkpoint);
+        awaitPending();
+        pending = writer.submit(() -> {
+            checkpoint.write(path);
+            return null;
+        });
+    }
+
+    /**
+     * Returns the number of checkpoints written so far.
+     * @return
+     *      The number of checkpoints written.
+     */
+    public int getCheckpointsWritten() {
+        return checkpointsWritten;
+    }
+
+    /**
+     * Waits for the last checkpoint to be written and stops the writer
+     * thread.
+     * @throws IOException
+     *      Indicates that the last checkpoint could not be written.
+     */
+    public void close() throws IOException {
+        try {
+            awaitPending();
+        }
+        finally {
+            writer.shutdown();
+        }
+    }
+
+    /**
+     * Waits for the write in flight, if any, to finish.
+     * @throws IOException
+     *      Indicates that the write failed or was interrupted.
+     */
+    private void awaitPending() throws IOException {
+        if (pending == null)
+            return;
+        try {
+            pending.get();
+            checkpointsWritten++;
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted writing checkpoint.", e);
+        }
+        catch(ExecutionException e) {
+            throw new IOException("Cannot write checkpoint.", e.getCause());
+        }
+        finally {
+            pending = null;
+        }
+    }
+
+}
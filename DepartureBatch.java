@@ -0,0 +1,161 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * This DepartureBatch class holds a chunk of departures for DepartureExport
+ * as one primitive array per column, so recording a departure is a few
+ * array stores and no allocation. A full batch is written by the export's
+ * writer thread as one chunk of the column file, in the layout described
+ * by DepartureExport.
+ */
+class DepartureBatch {
+
+    /**
+     * The serialIds of the vehicles.
+     */
+    private long[] serialIds;
+
+    /**
+     * The time steps the vehicles arrived at.
+     */
+    private int[] arrivalSteps;
+
+    /**
+     * The time steps the vehicles passed through at.
+     */
+    private int[] departureSteps;
+
+    /**
+     * The number of steps each vehicle waited.
+     */
+    private int[] waits;
+
+    /**
+     * The indexes of the roads the vehicles left.
+     */
+    private byte[] roads;
+
+    /**
+     * The indexes of the directions the vehicles were headed.
+     */
+    private byte[] ways;
+
+    /**
+     * The indexes of the lanes the vehicles left.
+     */
+    private byte[] lanes;
+
+    /**
+     * The number of departures held.
+     */
+    private int size;
+
+    /**
+     * The chunk is encoded into this buffer before it is written.
+     */
+    private ByteBuffer encoded;
+
+    /**
+     * Default constructor.
+     * @param capacity
+     *      The number of departures the batch holds.
+     */
+    DepartureBatch(int capacity) {
+        serialIds = new long[capacity];
+        arrivalSteps = new int[capacity];
+        departureSteps = new int[capacity];
+        waits = new int[capacity];
+        roads = new byte[capacity];
+        ways = new byte[capacity];
+        lanes = new byte[capacity];
+        encoded = ByteBuffer.allocateDirect(chunkSize(capacity))
+          .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Adds a departure. The batch must not be full.
+     * @param road
+     *      The index of the road the vehicle left.
+     * @param way
+     *      The index of the direction the vehicle was headed.
+     * @param lane
+     *      The index of the lane the vehicle left.
+     * @param serialId
+     *      The serialId of the vehicle.
+     * @param arrivalStep
+     *      The time step the vehicle arrived at.
+     * @param departureStep
+     *      The time step the vehicle passed through at.
+     */
+    void add(int road, int way, int lane, long serialId, int arrivalStep,
+      int departureStep) {
+        serialIds[size] = serialId;
+        arrivalSteps[size] = arrivalStep;
+        departureSteps[size] = departureStep;
+        waits[size] = departureStep - arrivalStep;
+        roads[size] = (byte)road;
+        ways[size] = (byte)way;
+        lanes[size] = (byte)lane;
+        size++;
+    }
+
+    /**
+     * Returns whether the batch holds as many departures as it can.
+     * @return
+     *      true if the batch is full.
+     */
+    boolean isFull() {
+        return size == serialIds.length;
+    }
+
+    /**
+     * Returns the number of departures held.
+     * @return
+     *      The number of departures.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Writes the departures held as one chunk and empties the batch.
+     * @param channel
+     *      The file to append the chunk to.
+     * @throws IOException
+     *      Indicates that the chunk could not be written.
+     */
+    void write(FileChannel channel) throws IOException {
+        encoded.clear();
+        encoded.putInt(size).putInt(0);
+        encoded.asLongBuffer().put(serialIds, 0, size);
+        encoded.position(encoded.position() + 8 * size);
+        encoded.asIntBuffer().put(arrivalSteps, 0, size);
+        encoded.position(encoded.position() + 4 * size);
+        encoded.asIntBuffer().put(departureSteps, 0, size);
+        encoded.position(encoded.position() + 4 * size);
+        encoded.asIntBuffer().put(waits, 0, size);
+        encoded.position(encoded.position() + 4 * size);
+        encoded.put(roads, 0, size).put(ways, 0, size).put(lanes, 0, size);
+        //Pads the chunk so the next one starts 8-byte aligned
+        while (encoded.position() % 8 != 0)
+            encoded.put((byte)0);
+        encoded.flip();
+        while (encoded.hasRemaining())
+            channel.write(encoded);
+        size = 0;
+    }
+
+    /**
+     * Returns the number of bytes of a chunk.
+     * @param rows
+     *      The number of departures in the chunk.
+     * @return
+     *      The size of the chunk, padding included.
+     */
+    static int chunkSize(int rows) {
+        return (8 + 23 * rows + 7) & ~7;
+    }
+
+}
@@ -0,0 +1,176 @@
+import java.util.Arrays;
+
+/**
+ * This DepartureBuffer class is a caller-owned, reusable DepartureListener
+ * that stores each departure in parallel primitive columns. Clear it before
+ * each time step and read the departures back by index afterwards. It only
+ * allocates when it has to grow.
+ */
+public class DepartureBuffer implements DepartureListener {
+
+    /**
+     * The road of each departure.
+     */
+    private int[] roads;
+
+    /**
+     * The way of each departure.
+     */
+    private int[] ways;
+
+    /**
+     * The lane of each departure.
+     */
+    private int[] lanes;
+
+    /**
+     * The serialId of each departure.
+     */
+    private long[] serialIds;
+
+    /**
+     * The arrival time of each departure.
+     */
+    private int[] timesArrived;
+
+    /**
+     * The number of departures stored.
+     */
+    private int size;
+
+    /**
+     * Default constructor.
+     * Room is made for the 4 departures a single road can have per step.
+     */
+    public DepartureBuffer() {
+        this(4);
+    }
+
+    /**
+     * Constructor which sets the initial capacity.
+     * @param initCapacity
+     *      The number of departures the buffer holds before growing.
+     *      Must be > 0.
+     * @throws IllegalArgumentException
+     *      Indicates that initCapacity <= 0.
+     */
+    public DepartureBuffer(int initCapacity) {
+        if (initCapacity <= 0)
+            throw new IllegalArgumentException("initCapacity <= 0");
+        roads = new int[initCapacity];
+        ways = new int[initCapacity];
+        lanes = new int[initCapacity];
+        serialIds = new long[initCapacity];
+        timesArrived = new int[initCapacity];
+        size = 0;
+    }
+
+    /**
+     * Stores a departure at the end of the buffer.
+     * @param roadIndex
+     *      Index of the road the vehicle left.
+     * @param wayIndex
+     *      Index of the direction the vehicle was headed.
+     * @param laneIndex
+     *      Index of the lane the vehicle left.
+     * @param serialId
+     *      The serialId of the vehicle.
+     * @param timeArrived
+     *      The time the vehicle arrived.
+     */
+    public void departed(int roadIndex, int wayIndex, int laneIndex,
+      long serialId, int timeArrived) {
+        if (size == roads.length)
+            grow();
+        roads[size] = roadIndex;
+        ways[size] = wayIndex;
+        lanes[size] = laneIndex;
+        serialIds[size] = serialId;
+        timesArrived[size] = timeArrived;
+        size++;
+    }
+
+    /**
+     * Removes every departure, keeping the columns for reuse.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Returns the number of departures stored.
+     * @return
+     *      The number of departures stored.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the road of the indicated departure.
+     * @param index
+     *      The index of the departure, 0 <= index < size().
+     * @return
+     *      The road the vehicle left.
+     */
+    public int getRoad(int index) {
+        return roads[index];
+    }
+
+    /**
+     * Returns the way of the indicated departure.
+     * @param index
+     *      The index of the departure, 0 <= index < size().
+     * @return
+     *      The direction the vehicle was headed.
+     */
+    public int getWay(int index) {
+        return ways[index];
+    }
+
+    /**
+     * Returns the lane of the indicated departure.
+     * @param index
+     *      The index of the departure, 0 <= index < size().
+     * @return
+     *      The lane the vehicle left.
+     */
+    public int getLane(int index) {
+        return lanes[index];
+    }
+
+    /**
+     * Returns the serialId of the indicated departure.
+     * @param index
+     *      The index of the departure, 0 <= index < size().
+     * @return
+     *      The serialId of the vehicle.
+     */
+    public long getSerialId(int index) {
+        return serialIds[index];
+    }
+
+    /**
+     * Returns the arrival time of the indicated departure.
+     * @param index
+     *      The index of the departure, 0 <= index < size().
+     * @return
+     *      The time the vehicle arrived.
+     */
+    public int getTimeArrived(int index) {
+        return timesArrived[index];
+    }
+
+    /**
+     * Doubles the capacity of every column.
+     */
+    private void grow() {
+        int capacity = roads.length * 2;
+        roads = Arrays.copyOf(roads, capacity);
+        ways = Arrays.copyOf(ways, capacity);
+        lanes = Arrays.copyOf(lanes, capacity);
+        serialIds = Arrays.copyOf(serialIds, capacity);
+        timesArrived = Arrays.copyOf(timesArrived, capacity);
+    }
+
+}
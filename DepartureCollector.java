@@ -0,0 +1,78 @@
+/**
+ * This DepartureCollector class gathers the departures of one call to
+ * TwoWayRoad.proceed() into the Vehicle array that proceed(int) and
+ * Intersection.timeStep() return, using the fixed lane slots described by
+ * TwoWayRoad.proceed().
+ */
+class DepartureCollector implements DepartureListener {
+
+    /**
+     * The collected Vehicles, or null if nothing has departed.
+     */
+    private Vehicle[] output;
+
+    /**
+     * The lanes of the roads departures may come from, or null if they
+     * all come from a single road with numLanes lanes per way.
+     */
+    private LaneLayout layout;
+
+    /**
+     * The number of lanes per way of the road, when layout is null.
+     */
+    private int numLanes;
+
+    /**
+     * Creates a collector for the departures of a single road.
+     * @param initNumLanes
+     *      The number of lanes per way of the road.
+     */
+    DepartureCollector(int initNumLanes) {
+        numLanes = initNumLanes;
+    }
+
+    /**
+     * Creates a collector for the departures of any road of an
+     * intersection.
+     * @param initLayout
+     *      The lanes of the intersection's roads.
+     */
+    DepartureCollector(LaneLayout initLayout) {
+        layout = initLayout;
+    }
+
+    /**
+     * Stores a Vehicle view of the departure in its lane's slot.
+     * @param roadIndex
+     *      Index of the road the vehicle left.
+     * @param wayIndex
+     *      Index of the direction the vehicle was headed.
+     * @param laneIndex
+     *      Index of the lane the vehicle left.
+     * @param serialId
+     *      The serialId of the vehicle.
+     * @param timeArrived
+     *      The time the vehicle arrived.
+     */
+    public void departed(int roadIndex, int wayIndex, int laneIndex,
+      long serialId, int timeArrived) {
+        //Only left lanes proceed on a LEFT_SIGNAL, never on a GREEN
+        boolean left = laneIndex == 0;
+        int others = (layout == null ? numLanes
+          : layout.getLanesPerWay(roadIndex)) - 1;
+        if (output == null)
+            output = new Vehicle[left ? 2 : 2 * others];
+        int slot = left ? wayIndex : wayIndex * others + (laneIndex - 1);
+        output[slot] = Vehicle.view(serialId, timeArrived);
+    }
+
+    /**
+     * Returns the collected Vehicles.
+     * @return
+     *      The collected Vehicles, or null if nothing departed.
+     */
+    Vehicle[] getOutput() {
+        return output;
+    }
+
+}
@@ -0,0 +1,260 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This DepartureExport class writes the outcome of every vehicle that
+ * passes through the intersection (serialId, road, way, lane, arrival step,
+ * departure step and wait) to a column file for analysis with tools such
+ * as pandas or DuckDB.
+ *
+ * Departures are gathered in the column arrays of a DepartureBatch. Two
+ * batches are used in turn: when the one being filled is full, it is handed
+ * to a background thread which writes it while the simulation fills the
+ * other, so the simulation thread does no I/O. Only one write is in flight
+ * at a time; if it has not finished when the other batch fills, the
+ * simulation thread waits for it.
+ *
+ * The file starts with a HEADER_SIZE byte header of little-endian ints:
+ * MAGIC, VERSION, the number of roads and the most rows in a chunk. Chunks
+ * of up to that many rows follow, each laid out as
+ * <pre>
+ *     int rows, int 0,
+ *     long serialId[rows], int arrival[rows], int departure[rows],
+ *     int wait[rows], byte road[rows], byte way[rows], byte lane[rows]
+ * </pre>
+ * and padded with zeros to a multiple of 8 bytes, so every chunk and every
+ * long and int column starts aligned. Numbers are little-endian.
+ */
+public class DepartureExport implements Closeable {
+
+    /**
+     * The first int of the file, "DEP1" in ASCII.
+     */
+    public static final int MAGIC = 0x44455031;
+
+    /**
+     * The version of the chunk layout.
+     */
+    public static final int VERSION = 2;
+
+    /**
+     * The number of bytes in the file header.
+     */
+    public static final int HEADER_SIZE = 16;
+
+    /**
+     * The number of rows in a chunk unless told otherwise, making chunks
+     * of about 1.5 MB.
+     */
+    public static final int DEFAULT_CHUNK_ROWS = 1 << 16;
+
+    /**
+     * The most rows a chunk may be given.
+     */
+    public static final int MAX_CHUNK_ROWS = 1 << 24;
+
+    /**
+     * The file the chunks are appended to. Written by the writer thread
+     * only once the header is written.
+     */
+    private FileChannel channel;
+
+    /**
+     * The two batches filled in turn.
+     */
+    private DepartureBatch[] batches;
+
+    /**
+     * The index in batches of the batch being filled.
+     */
+    private int filling;
+
+    /**
+     * The thread chunks are written on.
+     */
+    private ExecutorService writer;
+
+    /**
+     * The write in flight, or null.
+     */
+    private Future<?> pending;
+
+    /**
+     * The number of departures recorded.
+     */
+    private long rowsRecorded;
+
+    /**
+     * Default constructor.
+     * Chunks hold DEFAULT_CHUNK_ROWS rows.
+     * @param path
+     *      The file to write. It is replaced if it exists.
+     * @param numRoads
+     *      The number of roads of the intersection.
+     * @throws IOException
+     *      Indicates that the file could not be created.
+     */
+    public DepartureExport(Path path, int numRoads) throws IOException {
+        this(path, numRoads, DEFAULT_CHUNK_ROWS);
+    }
+
+    /**
+     * Constructor which sets the number of rows in each chunk.
+     * @param path
+     *      The file to write. It is replaced if it exists.
+     * @param numRoads
+     *      The number of roads of the intersection. 0 < numRoads <= 127.
+     * @param chunkRows
+     *      The most rows in a chunk. 0 < chunkRows <= MAX_CHUNK_ROWS.
+     * @throws IllegalArgumentException
+     *      Indicates that numRoads or chunkRows is out of range.
+     * @throws IOException
+     *      Indicates that the file could not be created.
+     */
+    public DepartureExport(Path path, int numRoads, int chunkRows)
+      throws IOException {
+        if (numRoads <= 0 || numRoads > Byte.MAX_VALUE)
+            throw new IllegalArgumentException("Illegal number of roads");
+        if (chunkRows <= 0 || chunkRows > MAX_CHUNK_ROWS)
+            throw new IllegalArgumentException("Illegal chunk size");
+        channel = FileChannel.open(path, StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+          .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(numRoads)
+          .putInt(chunkRows).flip();
+        try {
+            while (header.hasRemaining())
+                channel.write(header);
+        }
+        catch(IOException e) {
+            channel.close();
+            throw e;
+        }
+        batches = new DepartureBatch[]{new DepartureBatch(chunkRows),
+          new DepartureBatch(chunkRows)};
+        writer = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "departure-export");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Records a vehicle passing through the intersection. Must be called
+     * on the simulation's thread.
+     * @param road
+     *      The index of the road the vehicle left.
+     * @param way
+     *      The index of the direction the vehicle was headed.
+     * @param lane
+     *      The index of the lane the vehicle left.
+     * @param serialId
+     *      The serialId of the vehicle.
+     * @param arrivalStep
+     *      The time step the vehicle arrived at.
+     * @param departureStep
+     *      The time step the vehicle passed through at.
+     * @throws UncheckedIOException
+     *      Indicates that an earlier chunk could not be written.
+     * @throws IllegalStateException
+     *      Indicates that the export is closed.
+     */
+    public void departure(int road, int way, int lane, long serialId,
+      int arrivalStep, int departureStep) {
+        if (batches == null)
+            throw new IllegalStateException("Export is closed.");
+        DepartureBatch batch = batches[filling];
+        batch.add(road, way, lane, serialId, arrivalStep, departureStep);
+        rowsRecorded++;
+        if (batch.isFull()) {
+            try {
+                flush();
+            }
+            catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of departures recorded.
+     * @return
+     *      The number of rows recorded, written or not.
+     */
+    public long getRowsRecorded() {
+        return rowsRecorded;
+    }
+
+    /**
+     * Writes the departures still gathered, waits for every chunk to be
+     * written and closes the file. Further departures are not allowed.
+     * @throws IOException
+     *      Indicates that a chunk could not be written.
+     */
+    public void close() throws IOException {
+        if (batches == null)
+            return;
+        try {
+            if (batches[filling].size() > 0)
+                flush();
+            awaitPending();
+        }
+        finally {
+            batches = null;
+            writer.shutdown();
+            channel.close();
+        }
+    }
+
+    /**
+     * Hands the batch being filled to the writer thread and starts filling
+     * the other one once its write has finished.
+     * @throws IOException
+     *      Indicates that the previous chunk could not be written.
+     */
+    private void flush() throws IOException {
+        DepartureBatch batch = batches[filling];
+        filling ^= 1;
+        //The batch filled next is the one in flight, if any
+        awaitPending();
+        pending = writer.submit(() -> {
+            batch.write(channel);
+            return null;
+        });
+    }
+
+    /**
+     * Waits for the write in flight, if any, to finish.
+     * @throws IOException
+     *      Indicates that the chunk could not be written.
+     */
+    private void awaitPending() throws IOException {
+        if (pending == null)
+            return;
+        try {
+            pending.get();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted writing departures.", e);
+        }
+        catch(ExecutionException e) {
+            throw new IOException("Cannot write departures.", e.getCause());
+        }
+        finally {
+            pending = null;
+        }
+    }
+
+}
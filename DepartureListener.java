@@ -0,0 +1,24 @@
+/**
+ * This DepartureListener interface is told about every vehicle that passes
+ * through an intersection, as primitive values, so departures can be
+ * handled without allocating a Vehicle or an array.
+ */
+public interface DepartureListener {
+
+    /**
+     * Called once for each vehicle that passes through.
+     * @param roadIndex
+     *      Index of the road the vehicle left.
+     * @param wayIndex
+     *      Index of the direction the vehicle was headed.
+     * @param laneIndex
+     *      Index of the lane the vehicle left.
+     * @param serialId
+     *      The serialId of the vehicle.
+     * @param timeArrived
+     *      The time the vehicle arrived.
+     */
+    void departed(int roadIndex, int wayIndex, int laneIndex, long serialId,
+      int timeArrived);
+
+}
@@ -0,0 +1,163 @@
+/**
+ * This FixedCycleController class gives the roads the light in turn, each
+ * for its green time. A road that has nothing to let through gives up the
+ * rest of its turn, and roads without vehicles are skipped. This is the
+ * controller every Intersection starts with.
+ */
+public class FixedCycleController implements SignalController {
+
+    /**
+     * Default constructor.
+     */
+    public FixedCycleController() {
+    }
+
+    /**
+     * Performs a single iteration through the intersection.
+     * @param intersection
+     *      The intersection being stepped.
+     * @param listener
+     *      Told about every Vehicle which passes through.
+     * @return
+     *      The number of Vehicles which passed through during this time
+     *      step.
+     */
+    public int timeStep(Intersection intersection, DepartureListener listener) {
+        int numRoads = intersection.getNumRoads();
+        int lightIndex = intersection.getLightIndex();
+        int countdownTimer = intersection.getCountdownTimer();
+        //Used if there are no cars in any of the lanes
+        //When the whole array is checked, stop while loop
+        if (countdownTimer == 0) {
+            lightIndex++;
+            if (lightIndex == numRoads)
+                lightIndex = 0;
+            countdownTimer = intersection.getRoad(lightIndex).getGreenTime();
+        }
+        int removedCars = intersection.getRoad(lightIndex).proceed(
+          countdownTimer, lightIndex, listener);
+        //Jump between roads with cars until there are cars or until we get
+        //back to this index. Empty roads would only turn RED, which every
+        //road but the active one already is, so they are skipped.
+        int currentIndex = lightIndex;
+        int currentTimer = countdownTimer;
+        while (removedCars == 0) {
+            lightIndex = nextRoadWithTraffic(intersection, lightIndex,
+              currentIndex);
+            //This means we looped through the whole array and still no cars
+            if (lightIndex == currentIndex) {
+                //Set countdownTimer since it still used up a timeStep
+                intersection.setSignal(lightIndex, currentTimer - 1);
+                return 0;
+            }
+            countdownTimer = intersection.getRoad(lightIndex).getGreenTime();
+            removedCars = intersection.getRoad(lightIndex).proceed(
+              countdownTimer, lightIndex, listener);
+        }
+        intersection.setSignal(lightIndex, countdownTimer - 1);
+        return removedCars;
+    }
+
+    /**
+     * Advances the light in time proportional to the number of roads rather
+     * than the number of steps. During an idle step the countdownTimer only
+     * counts down, and once it has run out the light moves to the next road
+     * with a fresh countdownTimer of that road's green time.
+     * @param intersection
+     *      The intersection being stepped. Every road is empty.
+     * @param steps
+     *      The number of idle steps to skip. Must be > 0.
+     */
+    public void skipIdleSteps(Intersection intersection, long steps) {
+        int numRoads = intersection.getNumRoads();
+        //An idle timeStep() tries every road, which leaves every light RED
+        for (int i = 0; i < numRoads; i++) {
+            TwoWayRoad road = intersection.getRoad(i);
+            road.proceed(road.getGreenTime());
+        }
+
+        int lightIndex = intersection.getLightIndex();
+        int countdownTimer = intersection.getCountdownTimer();
+        if (steps <= countdownTimer) {
+            intersection.setSignal(lightIndex, countdownTimer - (int)steps);
+            return;
+        }
+        steps -= countdownTimer;
+        countdownTimer = 0;
+        //From here each road in turn uses up its whole green time, so whole
+        //cycles through every road change nothing
+        long cycle = 0;
+        for (int i = 0; i < numRoads; i++)
+            cycle += intersection.getRoad(i).getGreenTime();
+        steps %= cycle;
+        while (steps > 0) {
+            lightIndex++;
+            if (lightIndex == numRoads)
+                lightIndex = 0;
+            int greenTime = intersection.getRoad(lightIndex).getGreenTime();
+            if (steps >= greenTime) {
+                steps -= greenTime;
+            }
+            else {
+                countdownTimer = greenTime - (int)steps;
+                steps = 0;
+            }
+        }
+        intersection.setSignal(lightIndex, countdownTimer);
+    }
+
+    /**
+     * Returns the number of longs needed to hold the state of this
+     * controller. The fixed cycle has no state beyond the light.
+     * @return
+     *      0.
+     */
+    public int stateSize() {
+        return 0;
+    }
+
+    /**
+     * Copies the state of this controller, which is empty.
+     * @param state
+     *      The array to copy into.
+     */
+    public void saveState(long[] state) {
+    }
+
+    /**
+     * Replaces the state of this controller, which is empty.
+     * @param state
+     *      The array to copy from.
+     */
+    public void restoreState(long[] state) {
+    }
+
+    /**
+     * Finds the next road after from, in light order, that holds a vehicle,
+     * without passing stop.
+     * @param intersection
+     *      The intersection being stepped.
+     * @param from
+     *      The index to start searching after.
+     * @param stop
+     *      The index at which the search gives up.
+     * @return
+     *      The index of the next road with a vehicle, or stop if there is
+     *      none before it.
+     */
+    private static int nextRoadWithTraffic(Intersection intersection,
+      int from, int stop) {
+        long roadMask = intersection.getRoadMask();
+        if (roadMask == 0)
+            return stop;
+        int numRoads = intersection.getNumRoads();
+        //Roads after from, then wrap around to the roads before it
+        long after = roadMask & (-2L << from);
+        int next = Long.numberOfTrailingZeros(after != 0 ? after : roadMask);
+        //Compare how many steps around the roads each index is from from
+        int toNext = Math.floorMod(next - from - 1, numRoads) + 1;
+        int toStop = Math.floorMod(stop - from - 1, numRoads) + 1;
+        return toNext < toStop ? next : stop;
+    }
+
+}
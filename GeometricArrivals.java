@@ -0,0 +1,221 @@
+/**
+ * This GeometricArrivals class produces the same arrival process as
+ * BernoulliArrivals without drawing for every lane at every step.
+ *
+ * When each step is an independent trial with probability p, the number of
+ * steps until the next arrival on a lane is geometrically distributed. Each
+ * lane therefore samples its gap to the next arrival once, and the lanes are
+ * kept in a binary min-heap ordered by their next arrival step, ties broken
+ * by lane index. A time step only touches the lanes that receive a vehicle,
+ * so the cost is proportional to the number of arrivals rather than to
+ * lanes times steps.
+ */
+public class GeometricArrivals implements ArrivalProcess {
+
+    /**
+     * The probability that a vehicle arrives on a lane at any step.
+     */
+    private double probability;
+
+    /**
+     * log(1 - probability), the denominator of the inverse geometric CDF.
+     */
+    private double logFailure;
+
+    /**
+     * The stream of each lane, indexed by flat lane index.
+     */
+    private RandomStream[] streams;
+
+    /**
+     * The next arrival step of each lane, indexed by flat lane index.
+     */
+    private int[] nextStep;
+
+    /**
+     * Binary min-heap of lane indexes ordered by nextStep, then lane index.
+     */
+    private int[] heap;
+
+    /**
+     * The number of values drawn from the streams so far.
+     */
+    private long randomDraws;
+
+    /**
+     * Default constructor.
+     * Lane i draws from substream i of the seed, as the BooleanSources built
+     * by Simulation.laneSources() do.
+     * @param initProbability
+     *      The probability that a vehicle arrives on a lane at any step.
+     *      0 < initProbability <= 1.
+     * @param seed
+     *      The master seed.
+     * @param numLanes
+     *      The number of lanes.
+     * @throws IllegalArgumentException
+     *      Indicates that initProbability is not in (0, 1] or numLanes < 0.
+     */
+    public GeometricArrivals(double initProbability, long seed, int numLanes) {
+        if (initProbability <= 0 || initProbability > 1 || numLanes < 0)
+            throw new IllegalArgumentException("Illegal probability");
+        probability = initProbability;
+        logFailure = Math.log1p(-initProbability);
+        RandomStream root = new RandomStream(seed);
+        streams = new RandomStream[numLanes];
+        nextStep = new int[numLanes];
+        heap = new int[numLanes];
+        for (int i = 0; i < numLanes; i++) {
+            streams[i] = root.substream(i);
+            //The first trial is step 1
+            nextStep[i] = advance(0, i);
+            heap[i] = i;
+        }
+        for (int i = numLanes / 2 - 1; i >= 0; i--)
+            siftDown(i);
+    }
+
+    /**
+     * Pops every lane whose next arrival is at the indicated step and
+     * samples its following arrival.
+     * @param timeStep
+     *      The time step vehicles arrive at. Must not be past
+     *      nextArrivalStep() of the previous call.
+     * @param lanes
+     *      The caller-owned buffer the lanes are written to.
+     * @return
+     *      The number of lanes written to lanes.
+     */
+    public int arrivals(int timeStep, int[] lanes) {
+        int count = 0;
+        while (heap.length > 0 && nextStep[heap[0]] <= timeStep) {
+            int lane = heap[0];
+            if (nextStep[lane] == timeStep)
+                lanes[count++] = lane;
+            nextStep[lane] = advance(timeStep, lane);
+            siftDown(0);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the earliest next arrival step of any lane.
+     * @return
+     *      The earliest next arrival step, or Integer.MAX_VALUE if there are
+     *      no lanes.
+     */
+    public int nextArrivalStep() {
+        if (heap.length == 0)
+            return Integer.MAX_VALUE;
+        return nextStep[heap[0]];
+    }
+
+    /**
+     * Returns the number of values drawn from the streams so far, one per
+     * arrival sampled.
+     * @return
+     *      The number of random draws.
+     */
+    public long getRandomDraws() {
+        return randomDraws;
+    }
+
+    /**
+     * Returns the number of longs needed to hold the state of this process.
+     * @return
+     *      The size of the state.
+     */
+    public int stateSize() {
+        return streams.length * (1 + RandomStream.STATE_SIZE);
+    }
+
+    /**
+     * Copies the next arrival step and the stream of every lane.
+     * @param state
+     *      The array to copy into, at least stateSize() long.
+     */
+    public void saveState(long[] state) {
+        for (int i = 0; i < streams.length; i++) {
+            int offset = i * (1 + RandomStream.STATE_SIZE);
+            state[offset] = nextStep[i];
+            streams[i].saveState(state, offset + 1);
+        }
+    }
+
+    /**
+     * Replaces the next arrival step and the stream of every lane. The heap
+     * is rebuilt; lanes are totally ordered by step and index, so it pops
+     * them in the same order as the saved process would.
+     * @param state
+     *      The array to copy from.
+     */
+    public void restoreState(long[] state) {
+        for (int i = 0; i < streams.length; i++) {
+            int offset = i * (1 + RandomStream.STATE_SIZE);
+            nextStep[i] = (int)state[offset];
+            streams[i].restoreState(state, offset + 1);
+            heap[i] = i;
+        }
+        for (int i = streams.length / 2 - 1; i >= 0; i--)
+            siftDown(i);
+    }
+
+    /**
+     * Samples the step of the next arrival on a lane after the indicated
+     * step by inverting the geometric CDF.
+     * @param fromStep
+     *      The step the gap is counted from.
+     * @param lane
+     *      The flat index of the lane.
+     * @return
+     *      The next arrival step, or Integer.MAX_VALUE if it is beyond the
+     *      range of an int.
+     */
+    private int advance(int fromStep, int lane) {
+        if (probability == 1)
+            return fromStep + 1;
+        randomDraws++;
+        //1 - nextDouble() is in (0, 1] so the log is finite
+        double uniform = 1.0 - streams[lane].nextDouble();
+        long gap = 1 + (long)Math.floor(Math.log(uniform) / logFailure);
+        long next = fromStep + gap;
+        return next >= Integer.MAX_VALUE ? Integer.MAX_VALUE : (int)next;
+    }
+
+    /**
+     * Checks to see if lane a comes before lane b in the heap.
+     * @param a
+     *      The flat index of the first lane.
+     * @param b
+     *      The flat index of the second lane.
+     * @return
+     *      true if a arrives earlier, or at the same step with a lower index.
+     */
+    private boolean before(int a, int b) {
+        return nextStep[a] < nextStep[b]
+          || (nextStep[a] == nextStep[b] && a < b);
+    }
+
+    /**
+     * Moves the lane at the indicated heap position down until the heap is
+     * ordered again.
+     * @param position
+     *      The heap position to sift down from.
+     */
+    private void siftDown(int position) {
+        int lane = heap[position];
+        int half = heap.length >>> 1;
+        while (position < half) {
+            int child = 2 * position + 1;
+            int right = child + 1;
+            if (right < heap.length && before(heap[right], heap[child]))
+                child = right;
+            if (!before(heap[child], lane))
+                break;
+            heap[position] = heap[child];
+            position = child;
+        }
+        heap[position] = lane;
+    }
+
+}
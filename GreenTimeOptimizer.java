@@ -0,0 +1,562 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This GreenTimeOptimizer class searches for the green time of every road,
+ * and the share of it given to the left signal, that minimizes the mean or
+ * the 95th percentile wait of one scenario.
+ *
+ * Candidate timings are sampled from the search space, starting with the
+ * timing given by hand. They are then narrowed down by successive halving.
+ * Every surviving candidate is run for the current number of replications,
+ * the better half is kept, and the number of replications doubles, until
+ * one candidate is left. Bad candidates are dropped after a few cheap runs
+ * and only the promising ones get long, precise estimates.
+ *
+ * Replication r of every candidate uses the same seed, so every candidate
+ * sees exactly the same arrivals and differences come from the timing
+ * alone. The seeds are the ones ReplicationRunner uses for the same master
+ * seed. The score of every replication is cached by timing, so a
+ * candidate is never run twice with the same seed, even across calls to
+ * optimize(). Replications run concurrently on a fixed pool of threads.
+ */
+public class GreenTimeOptimizer {
+
+    /**
+     * The measure of a run a timing is scored by; lower is better.
+     */
+    public enum Objective {
+        MEAN_WAIT,
+        P95_WAIT
+    }
+
+    /**
+     * The number of time steps during which vehicles may arrive.
+     */
+    private int simulationTime;
+
+    /**
+     * The probability used to check if a car arrives on each lane.
+     */
+    private double arrivalProbability;
+
+    /**
+     * The names of the roads.
+     */
+    private String[] roadNames;
+
+    /**
+     * The timing given by hand, always the first candidate.
+     */
+    private SignalTiming baseline;
+
+    /**
+     * The measure timings are scored by.
+     */
+    private Objective objective;
+
+    /**
+     * The smallest green time searched.
+     */
+    private int minGreenTime;
+
+    /**
+     * The largest green time searched.
+     */
+    private int maxGreenTime;
+
+    /**
+     * The shares of the green time the left signal may be given.
+     */
+    private double[] leftSignalShares;
+
+    /**
+     * The number of replications every candidate is first run for.
+     */
+    private int initialReplications;
+
+    /**
+     * The most replications any candidate is run for.
+     */
+    private int maxReplications;
+
+    /**
+     * The number of threads replications run on.
+     */
+    private int parallelism;
+
+    /**
+     * The master seed the replication seeds and candidates derive from.
+     */
+    private long seed;
+
+    /**
+     * Whether replications use geometric skip-ahead arrivals.
+     */
+    private boolean geometricArrivals;
+
+    /**
+     * Whether replications skip idle stretches.
+     */
+    private boolean eventDriven;
+
+    /**
+     * Whether replications use a MaxPressureController.
+     */
+    private boolean maxPressureControl;
+
+    /**
+     * The number of lanes per way of each road, or null for the default.
+     */
+    private int[] lanesPerWay;
+
+    /**
+     * The score of each replication run so far of each timing, in
+     * replication order.
+     */
+    private Map<SignalTiming, double[]> scores;
+
+    /**
+     * The number of replications run.
+     */
+    private int evaluations;
+
+    /**
+     * The number of replications answered from the cache.
+     */
+    private int cacheHits;
+
+    /**
+     * The number of replications the best timing was scored over.
+     */
+    private int finalReplications;
+
+    /**
+     * Default constructor.
+     * Green times from 1 to twice the largest given green time are searched,
+     * with the left signal given 0, 1/4, 1/3 or 1/2 of the green time, and
+     * the mean wait is minimized.
+     * @param initSimulationTime
+     *      The number of time steps during which vehicles may arrive.
+     * @param initArrivalProbability
+     *      The probability used to check if a car arrives on each lane.
+     * @param initRoadNames
+     *      The names of the roads.
+     * @param initMaxGreenTimes
+     *      The "green" times chosen by hand, used as the baseline.
+     * @throws IllegalArgumentException
+     *      Indicates that the arrays are null, empty or not the same length.
+     */
+    public GreenTimeOptimizer(int initSimulationTime,
+      double initArrivalProbability, String[] initRoadNames,
+      int[] initMaxGreenTimes) {
+        if (initRoadNames == null || initMaxGreenTimes == null
+          || initRoadNames.length == 0
+          || initRoadNames.length != initMaxGreenTimes.length)
+            throw new IllegalArgumentException("Invalid simulation parameters.");
+        simulationTime = initSimulationTime;
+        arrivalProbability = initArrivalProbability;
+        roadNames = initRoadNames.clone();
+        baseline = SignalTiming.withDefaultLeftSignal(initMaxGreenTimes);
+        objective = Objective.MEAN_WAIT;
+        minGreenTime = 1;
+        maxGreenTime = 2 * Arrays.stream(initMaxGreenTimes).max().getAsInt();
+        leftSignalShares = new double[]{0, 0.25, 1.0/3, 0.5};
+        initialReplications = 2;
+        maxReplications = 32;
+        parallelism = Runtime.getRuntime().availableProcessors();
+        seed = RandomStream.randomSeed();
+        scores = new HashMap<SignalTiming, double[]>();
+    }
+
+    /**
+     * Sets the measure timings are scored by.
+     * @param newObjective
+     *      The measure to minimize.
+     */
+    public void setObjective(Objective newObjective) {
+        objective = newObjective;
+        //Cached scores measure the old objective
+        scores.clear();
+    }
+
+    /**
+     * Sets the range of green times searched.
+     * @param newMinGreenTime
+     *      The smallest green time. Must be > 0.
+     * @param newMaxGreenTime
+     *      The largest green time. Must be >= newMinGreenTime.
+     * @throws IllegalArgumentException
+     *      Indicates that the range is empty or not positive.
+     */
+    public void setGreenTimeRange(int newMinGreenTime, int newMaxGreenTime) {
+        if (newMinGreenTime <= 0 || newMaxGreenTime < newMinGreenTime)
+            throw new IllegalArgumentException("Invalid green time range.");
+        minGreenTime = newMinGreenTime;
+        maxGreenTime = newMaxGreenTime;
+    }
+
+    /**
+     * Sets the shares of the green time the left signal may be given.
+     * @param newShares
+     *      The shares, each in [0, 1].
+     * @throws IllegalArgumentException
+     *      Indicates that newShares is empty or a share is out of range.
+     */
+    public void setLeftSignalShares(double[] newShares) {
+        if (newShares == null || newShares.length == 0)
+            throw new IllegalArgumentException("No left signal shares.");
+        for (int i = 0; i < newShares.length; i++) {
+            if (newShares[i] < 0 || newShares[i] > 1)
+                throw new IllegalArgumentException("Invalid share.");
+        }
+        leftSignalShares = newShares.clone();
+    }
+
+    /**
+     * Sets how many replications candidates are first run for and the most
+     * any candidate is run for.
+     * @param newInitialReplications
+     *      The replications of the first round. Must be > 0.
+     * @param newMaxReplications
+     *      The cap on replications. Must be >= newInitialReplications.
+     * @throws IllegalArgumentException
+     *      Indicates that either count is out of range.
+     */
+    public void setReplications(int newInitialReplications,
+      int newMaxReplications) {
+        if (newInitialReplications <= 0
+          || newMaxReplications < newInitialReplications)
+            throw new IllegalArgumentException("Invalid replications.");
+        initialReplications = newInitialReplications;
+        maxReplications = newMaxReplications;
+    }
+
+    /**
+     * Sets the number of threads replications run on.
+     * @param newParallelism
+     *      The number of threads. Must be > 0.
+     * @throws IllegalArgumentException
+     *      Indicates that newParallelism <= 0.
+     */
+    public void setParallelism(int newParallelism) {
+        if (newParallelism <= 0)
+            throw new IllegalArgumentException("parallelism <= 0");
+        parallelism = newParallelism;
+    }
+
+    /**
+     * Sets the master seed the replication seeds and candidates derive from.
+     * @param newSeed
+     *      The master seed.
+     */
+    public void setSeed(long newSeed) {
+        if (newSeed != seed)
+            scores.clear();
+        seed = newSeed;
+    }
+
+    /**
+     * Returns the master seed the replication seeds and candidates derive
+     * from.
+     * @return
+     *      The master seed.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Sets whether replications use geometric skip-ahead arrivals.
+     * @param newGeometricArrivals
+     *      true for geometric arrivals, false for a draw per lane per step.
+     */
+    public void setGeometricArrivals(boolean newGeometricArrivals) {
+        if (newGeometricArrivals != geometricArrivals)
+            scores.clear();
+        geometricArrivals = newGeometricArrivals;
+    }
+
+    /**
+     * Sets whether replications skip idle stretches. Results are the same
+     * either way.
+     * @param newEventDriven
+     *      true to skip idle stretches, else false.
+     */
+    public void setEventDriven(boolean newEventDriven) {
+        eventDriven = newEventDriven;
+    }
+
+    /**
+     * Sets whether replications give the light to the road with the most
+     * vehicles waiting instead of using the fixed cycle. The green times
+     * searched are then the longest turn of each road.
+     * @param newMaxPressureControl
+     *      true for a MaxPressureController, false for the fixed cycle.
+     */
+    public void setMaxPressureControl(boolean newMaxPressureControl) {
+        if (newMaxPressureControl != maxPressureControl)
+            scores.clear();
+        maxPressureControl = newMaxPressureControl;
+    }
+
+    /**
+     * Sets the number of lanes per way of each road.
+     * @param newLanesPerWay
+     *      The number of lanes per way of each road, one per road, or null
+     *      for the default.
+     * @throws IllegalArgumentException
+     *      Indicates that newLanesPerWay does not have a valid count for
+     *      every road.
+     */
+    public void setLanesPerWay(int[] newLanesPerWay) {
+        if (newLanesPerWay != null) {
+            if (newLanesPerWay.length != roadNames.length)
+                throw new IllegalArgumentException("Expected lanes for "
+                  + roadNames.length + " roads");
+            //Checks every count
+            new LaneLayout(newLanesPerWay);
+            newLanesPerWay = newLanesPerWay.clone();
+        }
+        if (!Arrays.equals(newLanesPerWay, lanesPerWay))
+            scores.clear();
+        lanesPerWay = newLanesPerWay;
+    }
+
+    /**
+     * Searches for the timing with the lowest score.
+     * @param candidates
+     *      The number of timings to sample, including the baseline. Must be
+     *      > 0.
+     * @return
+     *      The best timing found.
+     * @throws IllegalArgumentException
+     *      Indicates that candidates <= 0.
+     * @throws IllegalStateException
+     *      Indicates that a replication failed or was interrupted.
+     */
+    public SignalTiming optimize(int candidates) {
+        if (candidates <= 0)
+            throw new IllegalArgumentException("candidates <= 0");
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<SignalTiming> alive = sampleCandidates(candidates);
+            int replications = initialReplications;
+            while (true) {
+                evaluate(executor, alive, replications);
+                int rounds = replications;
+                //Stable, so ties go to the earlier candidate
+                alive.sort(Comparator.comparingDouble(
+                  timing -> meanScore(timing, rounds)));
+                if (alive.size() == 1 || replications == maxReplications)
+                    break;
+                alive = new ArrayList<SignalTiming>(
+                  alive.subList(0, (alive.size() + 1) / 2));
+                replications = Math.min(replications * 2, maxReplications);
+            }
+            finalReplications = replications;
+            //The baseline is compared at the same precision as the winner
+            evaluate(executor, List.of(baseline), replications);
+            return alive.get(0);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the score of a timing over the replications the best timing
+     * of the last call to optimize() was scored over.
+     * @param timing
+     *      A timing that was evaluated that far, such as the result of
+     *      optimize() or getBaseline().
+     * @return
+     *      The mean score of the timing.
+     * @throws IllegalArgumentException
+     *      Indicates that the timing was not evaluated that far.
+     */
+    public double getScore(SignalTiming timing) {
+        double[] timingScores = scores.get(timing);
+        if (timingScores == null || timingScores.length < finalReplications)
+            throw new IllegalArgumentException("Timing not evaluated.");
+        return meanScore(timing, finalReplications);
+    }
+
+    /**
+     * Returns the timing given by hand.
+     * @return
+     *      The baseline timing.
+     */
+    public SignalTiming getBaseline() {
+        return baseline;
+    }
+
+    /**
+     * Returns the number of replications the best timing of the last call
+     * to optimize() was scored over.
+     * @return
+     *      The number of replications.
+     */
+    public int getFinalReplications() {
+        return finalReplications;
+    }
+
+    /**
+     * Returns the number of replications run so far.
+     * @return
+     *      The number of replications run.
+     */
+    public int getEvaluations() {
+        return evaluations;
+    }
+
+    /**
+     * Returns the number of replications answered from the cache.
+     * @return
+     *      The number of cache hits.
+     */
+    public int getCacheHits() {
+        return cacheHits;
+    }
+
+    /**
+     * Samples distinct timings uniformly from the search space, after the
+     * baseline.
+     * @param candidates
+     *      The number of timings wanted.
+     * @return
+     *      The timings, fewer than asked for if the space is too small.
+     */
+    private List<SignalTiming> sampleCandidates(int candidates) {
+        LinkedHashSet<SignalTiming> sampled =
+          new LinkedHashSet<SignalTiming>();
+        sampled.add(baseline);
+        //Replications use the substreams from 0 up, as in ReplicationRunner
+        RandomStream random = new RandomStream(seed).substream(-1);
+        int range = maxGreenTime - minGreenTime + 1;
+        int numRoads = roadNames.length;
+        //Give up on finding new timings eventually if the space is small
+        for (int attempt = 0; sampled.size() < candidates
+          && attempt < candidates * 20; attempt++) {
+            int[] greenTimes = new int[numRoads];
+            int[] leftSignalTimes = new int[numRoads];
+            for (int i = 0; i < numRoads; i++) {
+                greenTimes[i] = minGreenTime
+                  + (int)(random.nextDouble() * range);
+                double share = leftSignalShares[
+                  (int)(random.nextDouble() * leftSignalShares.length)];
+                leftSignalTimes[i] = (int)Math.floor(share * greenTimes[i]);
+            }
+            sampled.add(new SignalTiming(greenTimes, leftSignalTimes));
+        }
+        return new ArrayList<SignalTiming>(sampled);
+    }
+
+    /**
+     * Runs every replication below the indicated count that is not cached
+     * yet for every timing, concurrently, and caches the scores.
+     * @param executor
+     *      The pool to run replications on.
+     * @param timings
+     *      The timings to evaluate.
+     * @param replications
+     *      The number of replications each timing needs.
+     * @throws IllegalStateException
+     *      Indicates that a replication failed or was interrupted.
+     */
+    private void evaluate(ExecutorService executor, List<SignalTiming> timings,
+      int replications) {
+        RandomStream root = new RandomStream(seed);
+        long[] replicationSeeds = new long[replications];
+        for (int r = 0; r < replications; r++)
+            replicationSeeds[r] = root.substream(r).nextLong();
+
+        List<List<Future<Double>>> pending =
+          new ArrayList<List<Future<Double>>>();
+        for (SignalTiming timing : timings) {
+            double[] cached = scores.getOrDefault(timing, new double[0]);
+            cacheHits += Math.min(cached.length, replications);
+            List<Future<Double>> runs = new ArrayList<Future<Double>>();
+            for (int r = cached.length; r < replications; r++) {
+                long replicationSeed = replicationSeeds[r];
+                runs.add(executor.submit(
+                  () -> runReplication(timing, replicationSeed)));
+            }
+            pending.add(runs);
+        }
+        try {
+            for (int i = 0; i < timings.size(); i++) {
+                List<Future<Double>> runs = pending.get(i);
+                if (runs.isEmpty())
+                    continue;
+                SignalTiming timing = timings.get(i);
+                double[] cached = scores.getOrDefault(timing, new double[0]);
+                double[] updated =
+                  Arrays.copyOf(cached, cached.length + runs.size());
+                for (int j = 0; j < runs.size(); j++)
+                    updated[cached.length + j] = runs.get(j).get();
+                scores.put(timing, updated);
+                evaluations += runs.size();
+            }
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Optimization interrupted.", e);
+        }
+        catch(ExecutionException e) {
+            throw new IllegalStateException("Replication failed.",
+              e.getCause());
+        }
+    }
+
+    /**
+     * Runs a single replication of a timing and scores it.
+     * @param timing
+     *      The timing to run.
+     * @param replicationSeed
+     *      The master seed of the replication.
+     * @return
+     *      The score of the replication.
+     */
+    private double runReplication(SignalTiming timing, long replicationSeed) {
+        Simulation simulation = new Simulation(simulationTime,
+          arrivalProbability, roadNames, timing.getGreenTimes(),
+          timing.getLeftSignalTimes(), lanesPerWay, replicationSeed);
+        if (geometricArrivals)
+            simulation.useGeometricArrivals();
+        if (maxPressureControl)
+            simulation.useMaxPressureControl();
+        simulation.setEventDriven(eventDriven);
+        simulation.run();
+        if (objective == Objective.P95_WAIT)
+            return simulation.getWaitHistogram().getValueAtPercentile(95);
+        return simulation.getAverageWaitTime();
+    }
+
+    /**
+     * Returns the mean score of a timing over its first replications.
+     * @param timing
+     *      The timing.
+     * @param replications
+     *      The number of replications to average over.
+     * @return
+     *      The mean score.
+     */
+    private double meanScore(SignalTiming timing, int replications) {
+        double[] timingScores = scores.get(timing);
+        double sum = 0;
+        for (int r = 0; r < replications; r++)
+            sum += timingScores[r];
+        return sum / replications;
+    }
+
+}
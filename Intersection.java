@@ -1,13 +1,31 @@
+import jdk.jfr.FlightRecorder;
+
 /**
  * This Intersection class represents a crossing of two or more roads at a stop
  * light in our simulation.
  */
 public class Intersection {
 
+    /**
+     * The maximum amount of roads an intersection can have unless another
+     * limit is given.
+     */
+    public static final int DEFAULT_MAX_ROADS = 4;
+
+    /**
+     * The largest limit on roads that can be given, one per bit of roadMask.
+     */
+    public static final int ROAD_LIMIT = Long.SIZE;
+
     /**
      * The maximum amount of roads the intersection can have.
      */
-    private int MAX_ROADS = 4;
+    private int MAX_ROADS;
+
+    /**
+     * The flat numbering of the lanes of every road.
+     */
+    private LaneLayout layout;
 
     /**
      * Array of roads which cross at this intersection.
@@ -25,17 +43,67 @@ public class Intersection {
      */
     private int countdownTimer;
 
+    /**
+     * Decides which road has the active light at each time step.
+     */
+    private SignalController controller;
+
+    /**
+     * Bitmask of the roads holding at least one vehicle. Bit i is set while
+     * roads[i] is not empty.
+     */
+    private long roadMask;
+
+    /**
+     * The number of vehicles waiting on all roads.
+     */
+    private int vehicleCount;
+
+    /**
+     * The buffer display() builds its picture in, created on first use.
+     */
+    private StringBuilder displayBuffer;
+
+    /**
+     * The number of times the light of any road has changed.
+     */
+    private long lightTransitions;
+
+    /**
+     * The number of times timeStep() has moved the active light to another
+     * road.
+     */
+    private long phaseChanges;
+
     /**
      * Default constructor.
      * @param initRoads
      *      The array of roads used to initialized instance variable roads.
      * @throws IllegalArgumentException
      *      Indicates that initRoads is null, any index of initRoads is null,
-     *      or initRoads.length > MAX_ROADS.
+     *      or initRoads.length > DEFAULT_MAX_ROADS.
      */
     public Intersection(TwoWayRoad[] initRoads) {
+        this(initRoads, DEFAULT_MAX_ROADS);
+    }
+
+    /**
+     * Constructor which sets the maximum amount of roads.
+     * @param initRoads
+     *      The array of roads used to initialized instance variable roads.
+     *      Each road may have its own number of lanes.
+     * @param maxRoads
+     *      The maximum amount of roads, at most ROAD_LIMIT.
+     * @throws IllegalArgumentException
+     *      Indicates that initRoads is null, any index of initRoads is null,
+     *      maxRoads > ROAD_LIMIT or initRoads.length > maxRoads.
+     */
+    public Intersection(TwoWayRoad[] initRoads, int maxRoads) {
         boolean allNull = false;
+        MAX_ROADS = Math.min(maxRoads, ROAD_LIMIT);
         try {
+            if (maxRoads > ROAD_LIMIT)
+                throw new IllegalArgumentException();
             if (initRoads == null || initRoads.length > MAX_ROADS)
                 throw new IllegalArgumentException();
 
@@ -48,12 +116,26 @@ public class Intersection {
                 throw new IllegalArgumentException();
 
             roads = initRoads;
+            int[] lanesPerWay = new int[roads.length];
+            for (int i = 0; i < roads.length; i++)
+                lanesPerWay[i] = roads[i].getNumLanes();
+            layout = new LaneLayout(lanesPerWay);
+            //Each road reports changes in its occupancy to the intersection
+            for (int i = 0; i < roads.length; i++) {
+                roads[i].attach(this, i);
+                if (!roads[i].allLanesEmpty())
+                    roadMask |= 1L << i;
+                vehicleCount += roads[i].getVehicleCount();
+            }
             lightIndex = 0;
             countdownTimer = roads[lightIndex].getGreenTime();
+            controller = new FixedCycleController();
         }
         catch(IllegalArgumentException e) {
             System.out.println("Cannot construct intersection:");
-            if (initRoads == null)
+            if (maxRoads > ROAD_LIMIT)
+                System.out.println("maxRoads > ROAD_LIMIT");
+            else if (initRoads == null)
                 System.out.println("initRoads is null.");
             else if (allNull == true)
                 System.out.println("An index of initRoads is null.");
@@ -66,36 +148,155 @@ public class Intersection {
      * Performs a single iteration through the intersection.
      * @return
      *      An array of Vehicles which have passed through the intersection
-     *      during this time step.
+     *      during this time step, laid out as described by
+     *      TwoWayRoad.proceed(), or null if no Vehicle passed through. The
+     *      Vehicles came from the road at getLightIndex().
      */
     public Vehicle[] timeStep() {
-        //Used if there are no cars in any of the lanes
-        //When the whole array is checked, stop while loop
-        if (countdownTimer == 0) {
-            lightIndex++;
-            if (lightIndex == roads.length)
-                lightIndex = 0;
-            countdownTimer = roads[lightIndex].getGreenTime();
-        }
-        Vehicle[] removedCars = roads[lightIndex].proceed(countdownTimer);
-        //Loop array until there are cars or until we get back to this index
-        int currentIndex = lightIndex;
-        int currentTimer = countdownTimer;
-        while (removedCars == null) {
-            lightIndex++;
-            if (lightIndex == roads.length)
-                lightIndex = 0;
-            //This means we looped through the whole array and still no cars
-            if (lightIndex == currentIndex) {
-                //Set countdownTimer since it still used up a timeStep
-                countdownTimer = currentTimer - 1;
-                return null;
-            }
-            countdownTimer = roads[lightIndex].getGreenTime();
-            removedCars = roads[lightIndex].proceed(countdownTimer);
+        DepartureCollector collector = new DepartureCollector(layout);
+        timeStep(collector);
+        return collector.getOutput();
+    }
+
+    /**
+     * Performs a single iteration through the intersection exactly as
+     * timeStep() does, but hands each Vehicle which passes through to a
+     * listener as primitive values instead of returning an array, so no
+     * objects are allocated.
+     * @param listener
+     *      Told about every Vehicle which passes through, with the index of
+     *      the road it left.
+     * @return
+     *      The number of Vehicles which passed through during this time
+     *      step, all from the road at getLightIndex().
+     */
+    public int timeStep(DepartureListener listener) {
+        int before = lightIndex;
+        int departed = controller.timeStep(this, listener);
+        if (lightIndex != before)
+            phaseChanged(before);
+        return departed;
+    }
+
+    /**
+     * Replaces the controller which decides which road has the active
+     * light. The light itself is kept.
+     * @param newController
+     *      The new controller.
+     * @throws IllegalArgumentException
+     *      Indicates that newController is null.
+     */
+    public void setSignalController(SignalController newController) {
+        if (newController == null)
+            throw new IllegalArgumentException("newController is null");
+        controller = newController;
+    }
+
+    /**
+     * Returns the controller which decides which road has the active light.
+     * @return
+     *      The signal controller, a FixedCycleController unless replaced.
+     */
+    public SignalController getSignalController() {
+        return controller;
+    }
+
+    /**
+     * Returns a road of this intersection, for checkpointing.
+     * @param roadIndex
+     *      The index of the road.
+     * @return
+     *      The road at roadIndex.
+     */
+    TwoWayRoad getRoad(int roadIndex) {
+        return roads[roadIndex];
+    }
+
+    /**
+     * Sets the light, as decided by the controller or saved by a
+     * checkpoint.
+     * @param newLightIndex
+     *      The index of the road with the active light.
+     * @param newCountdownTimer
+     *      The remaining time steps available for that road.
+     */
+    void setSignal(int newLightIndex, int newCountdownTimer) {
+        lightIndex = newLightIndex;
+        countdownTimer = newCountdownTimer;
+    }
+
+    /**
+     * Called by a road of this intersection when its light changes.
+     */
+    void lightChanged() {
+        lightTransitions++;
+    }
+
+    /**
+     * Records that timeStep() moved the active light to another road: it is
+     * counted and a PhaseChangeEvent is committed if JFR is recording it.
+     * @param fromIndex
+     *      The index of the road which had the active light.
+     */
+    private void phaseChanged(int fromIndex) {
+        phaseChanges++;
+        //Loading the event class would start JFR
+        if (!FlightRecorder.isInitialized())
+            return;
+        PhaseChangeEvent event = new PhaseChangeEvent();
+        if (event.shouldCommit()) {
+            event.fromRoad = roads[fromIndex].getName();
+            event.toRoad = roads[lightIndex].getName();
+            event.commit();
         }
-        countdownTimer--;
-        return removedCars;
+    }
+
+    /**
+     * Called by a road of this intersection when a vehicle is enqueued.
+     * @param roadIndex
+     *      The index of the road.
+     */
+    void vehicleEnqueued(int roadIndex) {
+        roadMask |= 1L << roadIndex;
+        vehicleCount++;
+    }
+
+    /**
+     * Called by a road of this intersection when vehicles leave it.
+     * @param roadIndex
+     *      The index of the road.
+     * @param count
+     *      The number of vehicles that left.
+     * @param roadEmpty
+     *      Whether the road is now empty.
+     */
+    void vehiclesDeparted(int roadIndex, int count, boolean roadEmpty) {
+        vehicleCount -= count;
+        if (roadEmpty)
+            roadMask &= ~(1L << roadIndex);
+    }
+
+    /**
+     * Advances the light exactly as the indicated number of calls to
+     * timeStep() would while every road is empty, as the controller
+     * decides, typically in time proportional to the number of roads rather
+     * than the number of steps.
+     * @param steps
+     *      The number of idle steps to skip. Must be >= 0.
+     * @throws IllegalArgumentException
+     *      Indicates that steps < 0.
+     * @throws IllegalStateException
+     *      Indicates that some road is not empty.
+     */
+    public void skipIdleSteps(long steps) {
+        if (steps < 0)
+            throw new IllegalArgumentException("steps < 0");
+        if (!allRoadsEmpty())
+            throw new IllegalStateException("Cannot skip steps while "
+              + "vehicles are waiting.");
+        if (steps == 0)
+            return;
+        controller.skipIdleSteps(this, steps);
     }
 
     /**
@@ -106,9 +307,8 @@ public class Intersection {
      *      Index of the direction the vehicle is headed.
      *      Can be either TwoWayRoad.FORWARD or TwoWayRoad.BACKWARD.
      * @param laneIndex
-     *      Index of the lane on which the vehicle is to be enqueued.
-     *      Can be TwoWayRoad.RIGHT_LANE, TwoWayRoad.MIDDLE_LANE, or
-     *      TwoWayRoad.LEFT_LANE.
+     *      Index of the lane on which the vehicle is to be enqueued, from
+     *      TwoWayRoad.LEFT_LANE up to the road's number of lanes - 1.
      * @param vehicle
      *      The Vehicle to enqueue onto the lane.
      * @throws IllegalArgumentException
@@ -118,8 +318,8 @@ public class Intersection {
     public void enqueueVehicle(int roadIndex, int wayIndex, int laneIndex,
       Vehicle vehicle) {
         try {
-            if (wayIndex > 1 || wayIndex < 0 || laneIndex < 0 || laneIndex > 2
-              || vehicle == null || roadIndex < 0 || roadIndex > roads.length)
+            if (vehicle == null
+              || !layout.contains(roadIndex, wayIndex, laneIndex))
                 throw new IllegalArgumentException();
             roads[roadIndex].enqueueVehicle(wayIndex, laneIndex, vehicle);
         }
@@ -129,14 +329,63 @@ public class Intersection {
         }
     }
 
+    /**
+     * Enqueues a vehicle onto a lane in the intersection by its primitive
+     * data, without allocating a Vehicle.
+     * @param roadIndex
+     *      Index of the road in roads which contains the lane to enqueue onto.
+     * @param wayIndex
+     *      Index of the direction the vehicle is headed.
+     * @param laneIndex
+     *      Index of the lane on which the vehicle is to be enqueued.
+     * @param serialId
+     *      The serialId of the arriving vehicle.
+     * @param timeArrived
+     *      The time the vehicle arrived.
+     * @throws IllegalArgumentException
+     *      Indicates that any of the index parameters are not within the
+     *      valid range.
+     */
+    public void enqueueVehicle(int roadIndex, int wayIndex, int laneIndex,
+      long serialId, int timeArrived) {
+        try {
+            if (roadIndex < 0 || roadIndex >= roads.length)
+                throw new IllegalArgumentException();
+            roads[roadIndex].enqueueVehicle(wayIndex, laneIndex, serialId,
+              timeArrived);
+        }
+        catch(IllegalArgumentException e) {
+            System.out.println("Cannot enqueue vehicle onto lane. Indexes" +
+              " not in valid range");
+        }
+    }
+
     /**
      * Prints the intersection to the terminal in a neatly formatted manner.
+     * The picture is built in a buffer kept between calls and printed at
+     * once.
      */
     public void display() {
+        if (displayBuffer == null)
+            displayBuffer = new StringBuilder(4096);
+        displayBuffer.setLength(0);
+        appendTo(displayBuffer);
+        System.out.print(displayBuffer);
+    }
+
+    /**
+     * Appends the picture of the intersection printed by display(): the
+     * name of each road followed by the road, as TwoWayRoad.appendTo()
+     * draws it, and a blank line.
+     * @param output
+     *      The StringBuilder to append to.
+     */
+    public void appendTo(StringBuilder output) {
         //Loops through each TwoWayRoad
         for (int i = 0; i < roads.length; i++) {
-            System.out.println(roads[i].getName() + ":");
-            System.out.println(roads[i]);
+            output.append(roads[i].getName()).append(":\n");
+            roads[i].appendTo(output);
+            output.append('\n');
         }
     }
 
@@ -149,6 +398,15 @@ public class Intersection {
         return roads.length;
     }
 
+    /**
+     * Returns the flat numbering of the lanes of every road.
+     * @return
+     *      The lane layout of this intersection.
+     */
+    public LaneLayout getLaneLayout() {
+        return layout;
+    }
+
     /**
      * Returns the index of the road with the active light,
      * can be either green or left turn signal.
@@ -184,11 +442,62 @@ public class Intersection {
      *      true if every road is empty, else false.
      */
     public boolean allRoadsEmpty() {
-        for (int i = 0; i < roads.length; i++) {
-            if (!roads[i].allLanesEmpty())
-                return false;
+        return roadMask == 0;
+    }
+
+    /**
+     * Returns the number of vehicles waiting on all roads.
+     * @return
+     *      The number of vehicles waiting at this intersection.
+     */
+    public int getVehicleCount() {
+        return vehicleCount;
+    }
+
+    /**
+     * Returns the number of vehicles in the longest lane of any road.
+     * @return
+     *      The length of the longest lane, 0 if every road is empty.
+     */
+    public int getLongestQueue() {
+        int longest = 0;
+        //Only the occupied roads can hold the longest lane
+        long pending = roadMask;
+        while (pending != 0) {
+            int road = Long.numberOfTrailingZeros(pending);
+            pending &= pending - 1;
+            longest = Math.max(longest, roads[road].getLongestQueue());
         }
-        return true;
+        return longest;
+    }
+
+    /**
+     * Returns the number of times the light of any road has changed since
+     * this intersection was built.
+     * @return
+     *      The number of light transitions.
+     */
+    public long getLightTransitions() {
+        return lightTransitions;
+    }
+
+    /**
+     * Returns the number of times timeStep() has moved the active light to
+     * another road since this intersection was built.
+     * @return
+     *      The number of phase changes.
+     */
+    public long getPhaseChanges() {
+        return phaseChanges;
+    }
+
+    /**
+     * Returns the bitmask of roads holding at least one vehicle.
+     * @return
+     *      The bitmask, with bit i set while road i is not empty.
+     */
+    public long getRoadMask() {
+        return roadMask;
     }
 
 }
@@ -1,5 +1,13 @@
 import java.util.Scanner;
 import java.util.ArrayList;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.nio.file.Paths;
+import javax.management.JMException;
 
 /**
  * This IntersectionSimulator represents the manager of the simulation.
@@ -10,13 +18,31 @@ public class IntersectionSimulator {
      * Starts the application and asks user for following values:
      * simulationTime (int), arrivalProbability (double), numRoads (int),
      * a name for each road, and a "green" time for each road.
-     * This method also parses command line for these args.
+     * This method also parses command line for these args, along with
+     * options such as "--headless" and "--report-interval N".
      * @param args
      *      The args to be used for the values.
      */
     public static void main(String[] args) {
+        SimulationOptions options;
+        try {
+            options = SimulationOptions.parse(args);
+        }
+        catch(IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
+        args = options.getPositionalArgs();
+        //Scenarios come with every simulation argument
+        if (options.getServePort() >= 0) {
+            serveScenarios(options);
+        }
+        //A checkpoint holds every simulation argument
+        else if (options.getResumePath() != null) {
+            resumeHeadless(options);
+        }
         //If there are args, else do interactive
-        if (args.length > 1) {
+        else if (args.length > 1) {
             int simTime = Integer.parseInt(args[0]);
             double prob = Double.parseDouble(args[1]);
             int numRoads = Integer.parseInt(args[2]);
@@ -26,7 +52,7 @@ public class IntersectionSimulator {
                 names[i] = args[3+i];
                 times[i] = Integer.parseInt(args[3 + numRoads + i]);
             }
-            simulate(simTime,prob,names,times);
+            run(options,simTime,prob,names,times);
         }
         else {
             Scanner sc = new Scanner(System.in);
@@ -64,7 +90,7 @@ public class IntersectionSimulator {
                     for (int i = 0; i < streetNames.size(); i++)
                         namesArray[i] = streetNames.get(i);
                     stillInputting = false;
-                    simulate(simTime,simProb,namesArray,allGTimes);
+                    run(options,simTime,simProb,namesArray,allGTimes);
                 }
                 catch(Exception e) {
                     System.out.println("Invalid Input");
@@ -75,6 +101,45 @@ public class IntersectionSimulator {
         }
     }
 
+    /**
+     * Runs the simulation in the mode selected by the options.
+     * @param options
+     *      The options given on the command line.
+     * @param simulationTime
+     *      The simulation time for this simulation.
+     * @param arrivalProbability
+     *      The probability used to check if a car arrives.
+     * @param roadNames
+     *      An array of Strings representing the names of each road.
+     * @param maxGreenTimes
+     *      An array of ints representing the "green" times for each road.
+     */
+    private static void run(SimulationOptions options, int simulationTime,
+      double arrivalProbability, String[] roadNames, int[] maxGreenTimes) {
+        if (options.getOptimizeCandidates() > 0)
+            simulateOptimization(simulationTime,arrivalProbability,roadNames,
+              maxGreenTimes,options);
+        else if (options.getReplications() > 0)
+            simulateReplications(simulationTime,arrivalProbability,roadNames,
+              maxGreenTimes,options);
+        else if (options.isLive())
+            simulateLive(simulationTime,arrivalProbability,roadNames,
+              maxGreenTimes,options);
+        //Tracing, replaying, exports, checkpoints and pacing are only done
+        //by the headless loop
+        else if (options.isHeadless() || options.getTracePath() != null
+          || options.getReplayPath() != null
+          || options.getCheckpointPath() != null
+          || options.getExportPath() != null
+          || options.getTickNanos() > 0)
+            simulateHeadless(simulationTime,arrivalProbability,roadNames,
+              maxGreenTimes,options);
+        else
+            simulate(simulationTime,arrivalProbability,roadNames,
+              maxGreenTimes,options.getSeed(),options.isMaxPressureControl(),
+              options.getLanesPerWay(roadNames.length));
+    }
+
     /**
      * This method does the actual simulation and implements the algorithm
      * described by the "activity" diagram.
@@ -92,30 +157,128 @@ public class IntersectionSimulator {
      */
     public static void simulate(int simulationTime, double arrivalProbability,
       String[] roadNames, int[] maxGreenTimes) {
-        //Initializes simulation time and Boolean source
+        simulate(simulationTime, arrivalProbability, roadNames, maxGreenTimes,
+          RandomStream.randomSeed());
+    }
+
+    /**
+     * Runs the simulation with every lane's arrivals drawn from a stream
+     * derived from the indicated seed. The same seed gives the same
+     * arrivals here as in simulateHeadless().
+     * @param simulationTime
+     *      The simulation time for this simulation (how many timeSteps
+     *      can cars arrive).
+     * @param arrivalProbability
+     *      The probability used to check if a car arrives.
+     * @param roadNames
+     *      An array of Strings representing the names of each road.
+     *      Must be equal to the number of roads.
+     * @param maxGreenTimes
+     *      An array of ints representing the "green" times for each road.
+     *      Must be equal to the number of roads.
+     * @param seed
+     *      The master seed of the simulation.
+     */
+    public static void simulate(int simulationTime, double arrivalProbability,
+      String[] roadNames, int[] maxGreenTimes, long seed) {
+        simulate(simulationTime, arrivalProbability, roadNames, maxGreenTimes,
+          seed, false);
+    }
+
+    /**
+     * Runs the simulation with the indicated seed, with the light either
+     * following the fixed cycle or going to the road with the most vehicles
+     * waiting.
+     * @param simulationTime
+     *      The simulation time for this simulation (how many timeSteps
+     *      can cars arrive).
+     * @param arrivalProbability
+     *      The probability used to check if a car arrives.
+     * @param roadNames
+     *      An array of Strings representing the names of each road.
+     *      Must be equal to the number of roads.
+     * @param maxGreenTimes
+     *      An array of ints representing the "green" times for each road.
+     *      Must be equal to the number of roads.
+     * @param seed
+     *      The master seed of the simulation.
+     * @param maxPressureControl
+     *      true to use a MaxPressureController, false for the fixed cycle.
+     */
+    public static void simulate(int simulationTime, double arrivalProbability,
+      String[] roadNames, int[] maxGreenTimes, long seed,
+      boolean maxPressureControl) {
+        simulate(simulationTime, arrivalProbability, roadNames, maxGreenTimes,
+          seed, maxPressureControl, null);
+    }
+
+    /**
+     * Runs the simulation with the indicated seed, controller and number of
+     * lanes per way of each road.
+     * @param simulationTime
+     *      The simulation time for this simulation (how many timeSteps
+     *      can cars arrive).
+     * @param arrivalProbability
+     *      The probability used to check if a car arrives.
+     * @param roadNames
+     *      An array of Strings representing the names of each road.
+     *      Must be equal to the number of roads.
+     * @param maxGreenTimes
+     *      An array of ints representing the "green" times for each road.
+     *      Must be equal to the number of roads.
+     * @param seed
+     *      The master seed of the simulation.
+     * @param maxPressureControl
+     *      true to use a MaxPressureController, false for the fixed cycle.
+     * @param lanesPerWay
+     *      The number of lanes per way of each road, or null for
+     *      TwoWayRoad.DEFAULT_NUM_LANES on every road.
+     */
+    public static void simulate(int simulationTime, double arrivalProbability,
+      String[] roadNames, int[] maxGreenTimes, long seed,
+      boolean maxPressureControl, int[] lanesPerWay) {
+        //Initializes simulation time
         int simTime = simulationTime;
-        BooleanSource chSource = new BooleanSource(arrivalProbability);
         //roadNames length should be equal to maxGreenTimes
         TwoWayRoad[] roadList = new TwoWayRoad[roadNames.length];
         //Loops and makes the TwoWayRoad array
         for (int i = 0; i < roadNames.length; i++) {
-            roadList[i] = new TwoWayRoad(roadNames[i], maxGreenTimes[i]);
+            int numLanes = lanesPerWay == null ? TwoWayRoad.DEFAULT_NUM_LANES
+              : lanesPerWay[i];
+            roadList[i] = new TwoWayRoad(roadNames[i], maxGreenTimes[i],
+              (int)Math.floor(maxGreenTimes[i] / 3.0), numLanes);
         }
 
         //Makes intersection *****
-        Intersection mainCrossway = new Intersection(roadList);
+        Intersection mainCrossway = new Intersection(roadList,
+          Intersection.ROAD_LIMIT);
+        LaneLayout layout = mainCrossway.getLaneLayout();
+        //A Boolean source for each lane
+        BooleanSource[] chSources = Simulation.laneSources(arrivalProbability,
+          seed, layout);
+        if (maxPressureControl)
+            mainCrossway.setSignalController(
+              new MaxPressureController(roadList.length));
 
         //Keeps track of current time step
         int timeStep = 1;
         //Uses to list name of road to user
         String[] wayNames = new String[]{"FORWARD","BACKWARD"};;
-        String[] laneNames = new String[]{"LEFT","MIDDLE","RIGHT"};;
+        //Numbers the vehicles of this run only
+        VehicleIdAllocator ids = new VehicleIdAllocator();
         //Stores variables needed to print simulation summary
-        int carsPassed = 0;
-        int carsCurrently = 0;
+        long totalVehicles = 0;
+        long carsPassed = 0;
+        long carsCurrently = 0;
 
         int maxWaitTime = 0;
-        int totalWaitTime = 0;
+        long totalWaitTime = 0;
+        //Wait times of the cars that passed through each lane
+        LogHistogram[] laneWaits = new LogHistogram[layout.getNumLanes()];
+        for (int i = 0; i < laneWaits.length; i++)
+            laneWaits[i] = new LogHistogram();
+        //Reused every time step for the cars passing through
+        DepartureBuffer departures = new DepartureBuffer();
 
         System.out.println("\nStarting Simulation...\n");
         //Main loop for simulation
@@ -130,15 +293,19 @@ public class IntersectionSimulator {
                 //Calls occurs() for each road
                 //roadNames.length represents how many roads there are
                 for (int i = 0; i < roadNames.length; i++) {
-                    for (int way = 0; way < 2; way++) {
-                        for (int lane = 0; lane < 3; lane++) {
+                    for (int way = 0; way < LaneLayout.NUM_WAYS; way++) {
+                        for (int lane = 0; lane < layout.getLanesPerWay(i);
+                          lane++) {
                             //If occurs, enqueue and store string to print later
-                            if (chSource.occurs()) {
-                                Vehicle newCar = new Vehicle(timeStep);
-                                mainCrossway.enqueueVehicle(i,way,lane,newCar);
-                                printArrivals += "    Car" + newCar +
+                            if (chSources[layout.index(i,way,lane)].occurs()) {
+                                long newCarId = ids.next();
+                                mainCrossway.enqueueVehicle(i,way,lane,
+                                  newCarId,timeStep);
+                                printArrivals += "    Car" +
+                                  Vehicle.formatSerialId(newCarId) +
                                   " entered " + roadNames[i] + ", going " +
-                                  wayNames[way] + " in " + laneNames[lane] +
+                                  wayNames[way] + " in " +
+                                  laneName(lane, layout.getLanesPerWay(i)) +
                                   " lane.\n";
                                 carsQueued++;
                             }
@@ -146,6 +313,7 @@ public class IntersectionSimulator {
                     }
                 }
                 carsCurrently += carsQueued;
+                totalVehicles += carsQueued;
             }
             else {
                 printArrivals += "Cars no longer arriving.\n\n";
@@ -153,7 +321,8 @@ public class IntersectionSimulator {
             }
 
             //MAIN TIMESTEP METHOD***********************
-            Vehicle[] removedCars = mainCrossway.timeStep();
+            departures.clear();
+            mainCrossway.timeStep(departures);
 
             //Initialize some variables
             int curIndex = mainCrossway.getLightIndex();
@@ -165,7 +334,7 @@ public class IntersectionSimulator {
             else if (lightPrint.equals("GREEN")) {
                 lightPrint = "Green Light";
             }
-            if (carsQueued == 0 && removedCars == null) {
+            if (carsQueued == 0 && departures.size() == 0) {
                 lightPrint = "Red Light";
             }
             int lightTimer = mainCrossway.getCountdownTimer();
@@ -179,20 +348,21 @@ public class IntersectionSimulator {
 
             System.out.println(printArrivals);
             System.out.println("PASSING CARS: ");
-            if (removedCars != null) {
-                for (int i = 0; i < removedCars.length; i++) {
-                    if (removedCars[i] != null) {
-                        int waitTime =
-                          timeStep - removedCars[i].getTimeArrived();
-                        System.out.println("    Car" + removedCars[i]
-                          + " passes through. Wait time of "
-                          + waitTime + ".");
-                        totalWaitTime += waitTime;
-                        if (waitTime > maxWaitTime)
-                            maxWaitTime = waitTime;
-                        carsPassed++;
-                        carsCurrently--;
-                    }
+            if (departures.size() > 0) {
+                for (int i = 0; i < departures.size(); i++) {
+                    int waitTime = timeStep - departures.getTimeArrived(i);
+                    System.out.println("    Car"
+                      + Vehicle.formatSerialId(departures.getSerialId(i))
+                      + " passes through. Wait time of "
+                      + waitTime + ".");
+                    totalWaitTime += waitTime;
+                    if (waitTime > maxWaitTime)
+                        maxWaitTime = waitTime;
+                    laneWaits[layout.index(departures.getRoad(i),
+                      departures.getWay(i), departures.getLane(i))]
+                      .record(waitTime);
+                    carsPassed++;
+                    carsCurrently--;
                 }
                 System.out.println();
             }
@@ -220,7 +390,7 @@ public class IntersectionSimulator {
 
         }
 
-        double avgWaitTime = (double)totalWaitTime / Vehicle.getSerialCounter();
+        double avgWaitTime = (double)totalWaitTime / totalVehicles;
         avgWaitTime = (Math.round(avgWaitTime * 100.0)) / 100.0;
 
         System.out.println((("#".repeat(80) + "\n")).repeat(3));
@@ -230,7 +400,7 @@ public class IntersectionSimulator {
           + (timeStep - 1) + " steps\n");
         System.out.printf("    "
           + String.format("%-22s","Total vehicles:")
-          + Vehicle.getSerialCounter() + " vehicles\n");
+          + totalVehicles + " vehicles\n");
         System.out.printf("    "
           + String.format("%-22s","Longest wait time:")
           + maxWaitTime + " turns\n");
@@ -240,7 +410,699 @@ public class IntersectionSimulator {
         System.out.printf("    "
           + String.format("%-22s","Average wait time:")
           + String.format("%.2f", avgWaitTime) + " turns\n\n");
+        StringBuilder percentiles = new StringBuilder();
+        appendWaitPercentiles(percentiles, roadNames, layout, laneWaits);
+        System.out.print(percentiles);
         System.out.println("End simulation.");
 
     }
+
+    /**
+     * Runs the same simulation as simulate() without rendering each step.
+     * Only a progress line every reportInterval steps and the final summary
+     * are written, through a buffered writer, and no strings are built
+     * between reports.
+     * @param simulationTime
+     *      The simulation time for this simulation (how many timeSteps
+     *      can cars arrive).
+     * @param arrivalProbability
+     *      The probability used to check if a car arrives.
+     * @param roadNames
+     *      An array of Strings representing the names of each road.
+     *      Must be equal to the number of roads.
+     * @param maxGreenTimes
+     *      An array of ints representing the "green" times for each road.
+     *      Must be equal to the number of roads.
+     * @param options
+     *      The options of the run: the report interval (0 prints only the
+     *      summary), the seed, the arrival model, the signal controller,
+     *      whether idle stretches are skipped, the directories to trace the run to or to replay
+     *      arrivals from, and where and how often to write checkpoints.
+     */
+    public static void simulateHeadless(int simulationTime,
+      double arrivalProbability, String[] roadNames, int[] maxGreenTimes,
+      SimulationOptions options) {
+        Simulation simulation = new Simulation(simulationTime,
+          arrivalProbability, roadNames, maxGreenTimes, null,
+          options.getLanesPerWay(roadNames.length), options.getSeed());
+        if (options.isGeometricArrivals())
+            simulation.useGeometricArrivals();
+        if (options.isMaxPressureControl())
+            simulation.useMaxPressureControl();
+        runHeadless(simulation, options);
+    }
+
+    /**
+     * Runs the same simulation as simulateHeadless(), redrawing the
+     * intersection in place on an ANSI terminal after every step. Only the
+     * lines that changed since the previous step are rewritten, and frames
+     * are clipped to the size of the terminal. When the run ends the last
+     * frame is printed whole, followed by the simulation summary.
+     * @param simulationTime
+     *      The simulation time for this simulation (how many timeSteps
+     *      can cars arrive).
+     * @param arrivalProbability
+     *      The probability used to check if a car arrives.
+     * @param roadNames
+     *      An array of Strings representing the names of each road.
+     *      Must be equal to the number of roads.
+     * @param maxGreenTimes
+     *      An array of ints representing the "green" times for each road.
+     *      Must be equal to the number of roads.
+     * @param options
+     *      The options of the run: the seed, the arrival model, the signal
+     *      controller and the lanes of each road.
+     */
+    public static void simulateLive(int simulationTime,
+      double arrivalProbability, String[] roadNames, int[] maxGreenTimes,
+      SimulationOptions options) {
+        Simulation simulation = new Simulation(simulationTime,
+          arrivalProbability, roadNames, maxGreenTimes, null,
+          options.getLanesPerWay(roadNames.length), options.getSeed());
+        if (options.isGeometricArrivals())
+            simulation.useGeometricArrivals();
+        if (options.isMaxPressureControl())
+            simulation.useMaxPressureControl();
+        Intersection intersection = simulation.getIntersection();
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out),
+          1 << 16);
+        int[] size = TerminalRenderer.terminalSize();
+        TerminalRenderer renderer = new TerminalRenderer(out, size[0],
+          size[1]);
+        if (options.isMetrics())
+            attachMetrics(simulation);
+        TickScheduler ticks = options.newTickScheduler();
+        try {
+            while (!simulation.isFinished()) {
+                if (ticks != null)
+                    ticks.awaitTick();
+                simulation.step();
+                if (ticks != null)
+                    ticks.stepDone();
+                StringBuilder frame = renderer.beginFrame();
+                frame.append("Time step: ")
+                  .append(simulation.getStepsExecuted()).append("\n\n");
+                frame.append(intersection.getCurrentLightValue())
+                  .append(" for ")
+                  .append(roadNames[intersection.getLightIndex()])
+                  .append(", timer = ")
+                  .append(intersection.getCountdownTimer() + 1)
+                  .append("\n");
+                frame.append("Cars waiting: ")
+                  .append(simulation.getCarsCurrently())
+                  .append(", passed: ").append(simulation.getCarsPassed())
+                  .append(", average wait: ");
+                appendTwoDecimals(frame, simulation.getAverageWaitTime());
+                frame.append(" turns\n\n");
+                intersection.appendTo(frame);
+                renderer.endFrame();
+            }
+            renderer.finish();
+            writeSummary(out, simulation, ticks, null);
+            out.flush();
+        }
+        catch(IOException e) {
+            System.err.println("Cannot write output: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs the scenario service until the JVM is stopped, answering POST
+     * /simulate with the JSON summary of the scenario posted and GET /stats
+     * with the requests served.
+     * @param options
+     *      The options of the service: its port and admission limits.
+     */
+    public static void serveScenarios(SimulationOptions options) {
+        ScenarioService service = new ScenarioService(options.getServePort(),
+          options.getMaxConcurrent(), options.getMaxQueued());
+        try {
+            service.start();
+        }
+        catch(IOException e) {
+            System.err.println("Cannot start service: " + e.getMessage());
+            return;
+        }
+        System.out.println("Serving scenarios on http://"
+          + InetAddress.getLoopbackAddress().getHostAddress() + ":"
+          + service.getPort() + "/simulate ("
+          + (service.isVirtual() ? "virtual" : "platform") + " threads, "
+          + options.getMaxConcurrent() + " running, "
+          + options.getMaxQueued() + " queued at most)");
+    }
+
+    /**
+     * Resumes a headless simulation from the checkpoint named by the
+     * options and runs it to the end. It continues exactly as the
+     * checkpointed run would have.
+     * @param options
+     *      The options of the run. The checkpoint supplies the simulation
+     *      arguments, seed, arrival model and signal controller.
+     */
+    public static void resumeHeadless(SimulationOptions options) {
+        SimulationCheckpoint checkpoint;
+        try {
+            checkpoint = SimulationCheckpoint.read(
+              Paths.get(options.getResumePath()));
+        }
+        catch(IOException e) {
+            System.err.println("Cannot read checkpoint: " + e.getMessage());
+            return;
+        }
+        System.out.println("\nResuming from time step "
+          + checkpoint.getTimeStep() + ".");
+        runHeadless(Simulation.resume(checkpoint), options);
+    }
+
+    /**
+     * Runs a simulation to the end without rendering each step, as
+     * described by simulateHeadless().
+     * @param simulation
+     *      The simulation to run.
+     * @param options
+     *      The options of the run.
+     */
+    private static void runHeadless(Simulation simulation,
+      SimulationOptions options) {
+        int numRoads = simulation.getIntersection().getNumRoads();
+        int reportInterval = options.getReportInterval();
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out),
+          1 << 16);
+        //Reused for every progress line
+        StringBuilder line = new StringBuilder(128);
+        //Each is null unless asked for, which try skips when closing
+        try (TraceReader replay = openReplay(options, numRoads);
+          TraceWriter trace = options.getTracePath() == null ? null
+            : new TraceWriter(Paths.get(options.getTracePath()), numRoads);
+          DepartureExport export = options.getExportPath() == null ? null
+            : new DepartureExport(Paths.get(options.getExportPath()),
+              numRoads);
+          CheckpointWriter checkpoints = options.getCheckpointPath() == null
+            ? null
+            : new CheckpointWriter(Paths.get(options.getCheckpointPath()))) {
+            if (replay != null)
+                simulation.setArrivalProcess(new TraceArrivals(replay,
+                  simulation.getLaneLayout()));
+            ArrivalFeed[] feeds = startFeeds(options, simulation);
+            simulation.setTrace(trace);
+            simulation.setExport(export);
+            if (options.isMetrics())
+                attachMetrics(simulation);
+            out.write("\nStarting Simulation...\n\n");
+            long nextReport = simulation.getStepsExecuted() + reportInterval;
+            int checkpointInterval = options.getCheckpointInterval();
+            long nextCheckpoint =
+              simulation.getStepsExecuted() + checkpointInterval;
+            //A paced run takes one step per tick, so nothing is skipped
+            TickScheduler ticks = options.newTickScheduler();
+            boolean eventDriven = options.isEventDriven() && ticks == null;
+            while (!simulation.isFinished()) {
+                if (eventDriven) {
+                    simulation.advanceToNextEvent();
+                    if (simulation.isFinished())
+                        break;
+                }
+                if (ticks != null)
+                    ticks.awaitTick();
+                simulation.step();
+                if (ticks != null)
+                    ticks.stepDone();
+                if (reportInterval > 0
+                  && simulation.getStepsExecuted() >= nextReport) {
+                    //Skipped steps may cross several report points at once
+                    while (nextReport <= simulation.getStepsExecuted())
+                        nextReport += reportInterval;
+                    line.setLength(0);
+                    line.append("Time step ")
+                      .append(simulation.getStepsExecuted())
+                      .append(": waiting ").append(simulation.getCarsCurrently())
+                      .append(", passed ").append(simulation.getCarsPassed())
+                      .append(", average wait ");
+                    appendTwoDecimals(line, simulation.getAverageWaitTime());
+                    line.append('\n');
+                    out.append(line);
+                }
+                if (checkpoints != null
+                  && simulation.getStepsExecuted() >= nextCheckpoint) {
+                    while (nextCheckpoint <= simulation.getStepsExecuted())
+                        nextCheckpoint += checkpointInterval;
+                    checkpoints.checkpoint(simulation);
+                }
+                //Progress is shown as it happens when steps follow the clock
+                if (ticks != null)
+                    out.flush();
+            }
+            for (ArrivalFeed feed : feeds)
+                feed.stop();
+            writeSummary(out, simulation, ticks, feeds);
+            out.flush();
+        }
+        catch(IOException e) {
+            System.err.println("Cannot read or write simulation data: "
+              + e.getMessage());
+        }
+        //Traces, replays and exports fail this way in the middle of a step
+        catch(UncheckedIOException e) {
+            System.err.println("Cannot read or write simulation data: "
+              + e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Collects runtime metrics of a simulation and registers them with the
+     * platform MBean server, named after the seed of the simulation, so
+     * they can be watched with a JMX console while the run lasts. The
+     * metrics are collected even if they cannot be registered.
+     * @param simulation
+     *      The simulation to collect metrics of.
+     */
+    private static void attachMetrics(Simulation simulation) {
+        SimulationMetrics metrics = new SimulationMetrics();
+        simulation.setMetrics(metrics);
+        try {
+            metrics.register("seed-" + simulation.getSeed());
+        }
+        catch(JMException e) {
+            System.err.println("Cannot register metrics: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Opens the live sources whose arrivals drive a headless run, if any
+     * were asked for, makes them the arrival process of the simulation and
+     * starts a daemon thread reading each of them.
+     * @param options
+     *      The options of the run.
+     * @param simulation
+     *      The simulation fed.
+     * @return
+     *      The feeds started, or an empty array if arrivals are not fed.
+     * @throws IOException
+     *      Indicates that a source could not be opened. No feed is started.
+     */
+    private static ArrivalFeed[] startFeeds(SimulationOptions options,
+      Simulation simulation) throws IOException {
+        String[] sources = options.getFeedSources();
+        ArrivalFeed[] feeds = new ArrivalFeed[sources.length];
+        if (sources.length == 0)
+            return feeds;
+        ArrivalIngestion ingestion =
+          new ArrivalIngestion(simulation.getLaneLayout());
+        for (int i = 0; i < sources.length; i++)
+            feeds[i] = ArrivalFeed.open(sources[i], ingestion);
+        simulation.setArrivalProcess(ingestion);
+        for (int i = 0; i < feeds.length; i++) {
+            Thread thread = new Thread(feeds[i], "arrival-feed-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return feeds;
+    }
+
+    /**
+     * Opens the trace whose arrivals drive a headless run, if one was asked
+     * for.
+     * @param options
+     *      The options of the run.
+     * @param numRoads
+     *      The number of roads of the simulation.
+     * @return
+     *      The replayed trace, or null if arrivals are random.
+     * @throws IOException
+     *      Indicates that the trace could not be read or was recorded with
+     *      a different number of roads.
+     */
+    private static TraceReader openReplay(SimulationOptions options,
+      int numRoads) throws IOException {
+        if (options.getReplayPath() == null)
+            return null;
+        TraceReader replay = new TraceReader(Paths.get(options.getReplayPath()));
+        if (replay.getNumRoads() != numRoads) {
+            replay.close();
+            throw new IOException("Trace has " + replay.getNumRoads()
+              + " roads, not " + numRoads);
+        }
+        return replay;
+    }
+
+    /**
+     * Runs independent replications of the same simulation in parallel and
+     * prints the mean, variance and 95% confidence interval of the average
+     * wait, longest wait, throughput (cars passed per step) and 95th
+     * percentile wait, followed by the wait time percentiles of every lane
+     * merged over all replications.
+     * @param simulationTime
+     *      The simulation time for each replication.
+     * @param arrivalProbability
+     *      The probability used to check if a car arrives.
+     * @param roadNames
+     *      An array of Strings representing the names of each road.
+     * @param maxGreenTimes
+     *      An array of ints representing the "green" times for each road.
+     * @param options
+     *      The options of the run: the number of replications, the master
+     *      seed the replication seeds derive from, the arrival model, the
+     *      signal controller, whether idle stretches are skipped, the lanes
+     *      of each road and the engine.
+     */
+    public static void simulateReplications(int simulationTime,
+      double arrivalProbability, String[] roadNames, int[] maxGreenTimes,
+      SimulationOptions options) {
+        ReplicationRunner runner = new ReplicationRunner(simulationTime,
+          arrivalProbability, roadNames, maxGreenTimes);
+        int replications = options.getReplications();
+        long seed = options.getSeed();
+        runner.setSeed(seed);
+        runner.setGeometricArrivals(options.isGeometricArrivals());
+        runner.setEventDriven(options.isEventDriven());
+        runner.setMaxPressureControl(options.isMaxPressureControl());
+        runner.setBatchEngine(options.isBatchEngine());
+        int[] lanesPerWay = options.getLanesPerWay(roadNames.length);
+        if (lanesPerWay != null)
+            runner.setLanesPerWay(lanesPerWay);
+        System.out.println("\nRunning " + replications
+          + " replications with seed " + seed + "...\n");
+        SummaryStatistic[] statistics = runner.run(replications);
+        System.out.println("REPLICATION SUMMARY\n");
+        for (int i = 0; i < statistics.length; i++)
+            System.out.println("    " + statistics[i]);
+        StringBuilder percentiles = new StringBuilder("\n");
+        appendWaitPercentiles(percentiles, roadNames, runner.getLaneLayout(),
+          runner.getLaneWaitHistograms());
+        System.out.print(percentiles);
+        System.out.println("End simulation.");
+    }
+
+    /**
+     * Searches for the green and left signal times that minimize the wait
+     * and prints the best timing found next to the timing given.
+     * @param simulationTime
+     *      The simulation time for each replication.
+     * @param arrivalProbability
+     *      The probability used to check if a car arrives.
+     * @param roadNames
+     *      An array of Strings representing the names of each road.
+     * @param maxGreenTimes
+     *      An array of ints representing the "green" times for each road,
+     *      used as the baseline.
+     * @param options
+     *      The options of the run: the number of candidates, the objective,
+     *      the largest green time, the master seed, the arrival model, the
+     *      signal controller and whether idle stretches are skipped.
+     */
+    public static void simulateOptimization(int simulationTime,
+      double arrivalProbability, String[] roadNames, int[] maxGreenTimes,
+      SimulationOptions options) {
+        GreenTimeOptimizer optimizer = new GreenTimeOptimizer(simulationTime,
+          arrivalProbability, roadNames, maxGreenTimes);
+        long seed = options.getSeed();
+        optimizer.setSeed(seed);
+        optimizer.setObjective(options.getObjective());
+        if (options.getMaxGreenTime() > 0)
+            optimizer.setGreenTimeRange(1, options.getMaxGreenTime());
+        optimizer.setGeometricArrivals(options.isGeometricArrivals());
+        optimizer.setEventDriven(options.isEventDriven());
+        optimizer.setMaxPressureControl(options.isMaxPressureControl());
+        optimizer.setLanesPerWay(options.getLanesPerWay(roadNames.length));
+        System.out.println("\nSearching " + options.getOptimizeCandidates()
+          + " timings with seed " + seed + "...\n");
+        SignalTiming best = optimizer.optimize(options.getOptimizeCandidates());
+        SignalTiming baseline = optimizer.getBaseline();
+        int[] greenTimes = best.getGreenTimes();
+        int[] leftSignalTimes = best.getLeftSignalTimes();
+        String measure =
+          options.getObjective() == GreenTimeOptimizer.Objective.P95_WAIT
+          ? "95th pct wait" : "Average wait";
+        StringBuilder sb = new StringBuilder("OPTIMIZATION SUMMARY\n\n");
+        for (int i = 0; i < roadNames.length; i++) {
+            sb.append("    ")
+              .append(String.format("%-22s",roadNames[i] + ":"))
+              .append("green ").append(greenTimes[i]).append(", left signal ")
+              .append(leftSignalTimes[i]).append('\n');
+        }
+        sb.append('\n');
+        sb.append("    ").append(String.format("%-22s",measure + ":"));
+        appendTwoDecimals(sb, optimizer.getScore(best));
+        sb.append(" turns\n");
+        sb.append("    ").append(String.format("%-22s","Baseline:"));
+        appendTwoDecimals(sb, optimizer.getScore(baseline));
+        sb.append(" turns with ").append(baseline).append('\n');
+        sb.append("    ").append(String.format("%-22s","Replications:"))
+          .append(optimizer.getFinalReplications()).append('\n');
+        sb.append("    ").append(String.format("%-22s","Runs:"))
+          .append(optimizer.getEvaluations()).append(" (")
+          .append(optimizer.getCacheHits()).append(" cached)\n\n");
+        System.out.print(sb);
+        System.out.println("End simulation.");
+    }
+
+    /**
+     * Writes the simulation summary of a finished Simulation.
+     * @param out
+     *      The writer to write the summary to.
+     * @param simulation
+     *      The finished simulation.
+     * @param ticks
+     *      The scheduler which paced the run, or null if it was not paced.
+     * @param feeds
+     *      The live feeds of the run, asked to stop, or null or empty if
+     *      arrivals were not fed.
+     * @throws IOException
+     *      Indicates that out could not be written to.
+     */
+    private static void writeSummary(Writer out, Simulation simulation,
+      TickScheduler ticks, ArrivalFeed[] feeds) throws IOException {
+        StringBuilder summary = new StringBuilder();
+        summary.append(("#".repeat(80) + "\n").repeat(3)).append('\n');
+        summary.append("SIMULATION SUMMARY\n\n");
+        summary.append("    ").append(String.format("%-22s","Seed:"))
+          .append(simulation.getSeed()).append('\n');
+        summary.append("    ").append(String.format("%-22s","Total Time:"))
+          .append(simulation.getStepsExecuted()).append(" steps\n");
+        summary.append("    ").append(String.format("%-22s","Total vehicles:"))
+          .append(simulation.getTotalVehicles()).append(" vehicles\n");
+        summary.append("    ")
+          .append(String.format("%-22s","Longest wait time:"))
+          .append(simulation.getMaxWaitTime()).append(" turns\n");
+        summary.append("    ")
+          .append(String.format("%-22s","Total wait time:"))
+          .append(simulation.getTotalWaitTime()).append(" turns\n");
+        summary.append("    ")
+          .append(String.format("%-22s","Average wait time:"))
+          .append(String.format("%.2f", simulation.getAverageWaitTime()))
+          .append(" turns\n\n");
+        appendWaitPercentiles(summary, simulation.getRoadNames(),
+          simulation.getLaneLayout(), simulation.getLaneWaitHistograms());
+        SimulationMetrics metrics = simulation.getMetrics();
+        if (metrics != null) {
+            metrics.publish();
+            appendMetrics(summary, metrics);
+        }
+        if (ticks != null)
+            appendPacing(summary, ticks);
+        if (feeds != null && feeds.length > 0)
+            appendFeeds(summary, feeds);
+        summary.append("End simulation.\n");
+        out.append(summary);
+    }
+
+    /**
+     * Appends what the live feeds of a run read and what became of it.
+     * Once every feed is done, the ingestion is checked to account for
+     * every arrival it accepted.
+     * @param sb
+     *      The summary to append to.
+     * @param feeds
+     *      The live feeds of the run, all pushing into the same ingestion.
+     */
+    private static void appendFeeds(StringBuilder sb, ArrivalFeed[] feeds) {
+        ArrivalIngestion ingestion = feeds[0].getIngestion();
+        long read = 0;
+        long malformed = 0;
+        int open = 0;
+        for (ArrivalFeed feed : feeds) {
+            read += feed.getArrivalsRead();
+            malformed += feed.getMalformedLines();
+            if (!feed.isDone())
+                open++;
+            if (feed.getFailure() != null)
+                System.err.println("Cannot read feed " + feed.getSource()
+                  + ": " + feed.getFailure().getMessage());
+        }
+        sb.append("LIVE FEED\n\n");
+        sb.append("    ").append(String.format("%-22s","Sources:"))
+          .append(feeds.length).append(", ").append(open)
+          .append(" still open\n");
+        sb.append("    ").append(String.format("%-22s","Arrivals read:"))
+          .append(read).append(", ").append(malformed)
+          .append(" malformed lines\n");
+        sb.append("    ").append(String.format("%-22s","Accepted:"))
+          .append(ingestion.getAccepted()).append(", ")
+          .append(ingestion.getRejected())
+          .append(" rejected by full lanes\n");
+        sb.append("    ").append(String.format("%-22s","Delivered:"))
+          .append(ingestion.getDelivered()).append(", ")
+          .append(ingestion.getPendingTotal()).append(" left pending\n");
+        //Counts only add up once no producer is offering
+        sb.append("    ").append(String.format("%-22s","Counts consistent:"))
+          .append(open > 0 ? "not checked, a feed is still open"
+            : ingestion.isConsistent() ? "yes" : "NO").append("\n\n");
+    }
+
+    /**
+     * Appends how well a paced run kept its ticks: the overruns, and the
+     * 50th, 99th percentile and largest tick-start jitter and step time.
+     * @param sb
+     *      The StringBuilder to append to.
+     * @param ticks
+     *      The scheduler which paced the run.
+     */
+    private static void appendPacing(StringBuilder sb, TickScheduler ticks) {
+        long tickMicros = ticks.getTickNanos() / 1000;
+        sb.append("PACING\n\n");
+        sb.append("    ").append(String.format("%-22s","Tick:"))
+          .append(tickMicros).append(" us, overruns ")
+          .append(ticks.getPolicy() == TickScheduler.OverrunPolicy.SKIP
+            ? "skipped" : "caught up").append('\n');
+        sb.append("    ").append(String.format("%-22s","Ticks:"))
+          .append(ticks.getTicks()).append(" run, ")
+          .append(ticks.getOverruns()).append(" overruns, ")
+          .append(ticks.getSkippedTicks()).append(" skipped\n");
+        appendMicros(sb, "Tick-start jitter:", ticks.getJitter());
+        appendMicros(sb, "Step time:", ticks.getStepTimes());
+        sb.append("    ").append(String.format("%-22s","Step budget met:"))
+          .append(ticks.getStepTimes().getMax() <= tickMicros ? "yes" : "no")
+          .append("\n\n");
+    }
+
+    /**
+     * Appends the 50th and 99th percentile and largest value of a histogram
+     * of microseconds.
+     * @param sb
+     *      The StringBuilder to append to.
+     * @param label
+     *      The label of the line.
+     * @param micros
+     *      The histogram.
+     */
+    private static void appendMicros(StringBuilder sb, String label,
+      LogHistogram micros) {
+        sb.append("    ").append(String.format("%-22s",label))
+          .append("p50 ").append(micros.getValueAtPercentile(50))
+          .append(" us, p99 ").append(micros.getValueAtPercentile(99))
+          .append(" us, max ").append(micros.getMax()).append(" us\n");
+    }
+
+    /**
+     * Appends the runtime metrics of a finished simulation.
+     * @param sb
+     *      The StringBuilder to append to.
+     * @param metrics
+     *      The published metrics.
+     */
+    private static void appendMetrics(StringBuilder sb,
+      SimulationMetrics metrics) {
+        sb.append("METRICS\n\n");
+        sb.append("    ").append(String.format("%-22s","Steps recorded:"))
+          .append(metrics.getSteps()).append(" steps\n");
+        sb.append("    ").append(String.format("%-22s","Arrivals per step:"))
+          .append(String.format("%.4f", metrics.getArrivalsPerStep()))
+          .append(" vehicles\n");
+        sb.append("    ").append(String.format("%-22s","Departures per step:"))
+          .append(String.format("%.4f", metrics.getDeparturesPerStep()))
+          .append(" vehicles\n");
+        sb.append("    ").append(String.format("%-22s","Longest queue:"))
+          .append(metrics.getMaxQueue()).append(" vehicles (sampled)\n");
+        sb.append("    ").append(String.format("%-22s","Random draws:"))
+          .append(metrics.getRandomDraws()).append('\n');
+        sb.append("    ").append(String.format("%-22s","Light transitions:"))
+          .append(metrics.getLightTransitions()).append('\n');
+        sb.append("    ").append(String.format("%-22s","Steps sampled:"))
+          .append(metrics.getSamples()).append(" steps\n");
+        sb.append("    ").append(String.format("%-22s","Mean step time:"))
+          .append(String.format("%.1f", metrics.getMeanStepNanos()))
+          .append(" ns\n");
+        sb.append("    ").append(String.format("%-22s","Max step time:"))
+          .append(metrics.getMaxStepNanos()).append(" ns\n\n");
+    }
+
+    /**
+     * Appends the 50th, 95th and 99th percentile wait times of every lane,
+     * every road and the whole intersection.
+     * @param sb
+     *      The StringBuilder to append to.
+     * @param roadNames
+     *      The names of the roads.
+     * @param layout
+     *      The numbering of the lanes.
+     * @param laneWaits
+     *      The wait times of each lane, indexed by flat lane index.
+     */
+    private static void appendWaitPercentiles(StringBuilder sb,
+      String[] roadNames, LaneLayout layout, LogHistogram[] laneWaits) {
+        String[] wayNames = new String[]{"FORWARD","BACKWARD"};
+        LogHistogram all = new LogHistogram();
+        for (int i = 0; i < laneWaits.length; i++)
+            all.add(laneWaits[i]);
+        sb.append("WAIT TIME PERCENTILES\n\n");
+        sb.append("    ").append(String.format("%-22s","All roads:"))
+          .append(all).append('\n');
+        for (int road = 0; road < roadNames.length; road++) {
+            LogHistogram roadWaits = new LogHistogram();
+            int numLanes = layout.getLanesPerWay(road);
+            int offset = layout.getRoadOffset(road);
+            for (int lane = 0; lane < LaneLayout.NUM_WAYS * numLanes; lane++)
+                roadWaits.add(laneWaits[offset + lane]);
+            sb.append("    ")
+              .append(String.format("%-22s",roadNames[road] + ":"))
+              .append(roadWaits).append('\n');
+            for (int way = 0; way < LaneLayout.NUM_WAYS; way++) {
+                for (int lane = 0; lane < numLanes; lane++) {
+                    sb.append("        ")
+                      .append(String.format("%-18s", wayNames[way] + " "
+                        + laneName(lane, numLanes) + ":"))
+                      .append(laneWaits[layout.index(road, way, lane)])
+                      .append('\n');
+                }
+            }
+        }
+        sb.append('\n');
+    }
+
+    /**
+     * Returns the name of a lane as shown to the user.
+     * @param lane
+     *      The lane on its way.
+     * @param numLanes
+     *      The number of lanes of the way.
+     * @return
+     *      "LEFT" or "RIGHT" for the outer lanes, "MIDDLE" for the middle of
+     *      three lanes, else "LANE" followed by its position from the left.
+     */
+    private static String laneName(int lane, int numLanes) {
+        if (lane == 0)
+            return "LEFT";
+        if (lane == numLanes - 1)
+            return "RIGHT";
+        if (numLanes == 3)
+            return "MIDDLE";
+        return "LANE " + (lane + 1);
+    }
+
+    /**
+     * Appends a non-negative value rounded to two decimal places without
+     * going through String.format.
+     * @param sb
+     *      The StringBuilder to append to.
+     * @param value
+     *      The non-negative value to append.
+     */
+    private static void appendTwoDecimals(StringBuilder sb, double value) {
+        long hundredths = Math.round(value * 100.0);
+        sb.append(hundredths / 100).append('.');
+        long fraction = hundredths % 100;
+        if (fraction < 10)
+            sb.append('0');
+        sb.append(fraction);
+    }
 }
@@ -0,0 +1,299 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This JsonReader class parses a JSON document into plain Java values, so
+ * the simulator can accept scenario definitions without a JSON library.
+ *
+ * Objects become LinkedHashMaps keeping their key order, arrays become
+ * ArrayLists, strings become Strings, true and false become Booleans and
+ * null becomes null. A number without a fraction or exponent that fits a
+ * long becomes a Long, so seeds keep every bit; any other number becomes a
+ * Double.
+ */
+public class JsonReader {
+
+    /**
+     * The deepest nesting of objects and arrays accepted, so a hostile
+     * document cannot exhaust the stack.
+     */
+    public static final int MAX_DEPTH = 64;
+
+    /**
+     * The document being parsed.
+     */
+    private String text;
+
+    /**
+     * The index of the next character to read.
+     */
+    private int position;
+
+    /**
+     * The number of objects and arrays the reader is inside.
+     */
+    private int depth;
+
+    /**
+     * Default constructor.
+     * @param initText
+     *      The document to parse.
+     */
+    private JsonReader(String initText) {
+        text = initText;
+    }
+
+    /**
+     * Parses a JSON document.
+     * @param text
+     *      The document. Whitespace may surround the value.
+     * @return
+     *      The value of the document.
+     * @throws IllegalArgumentException
+     *      Indicates that text is not a single valid JSON value.
+     */
+    public static Object parse(String text) {
+        JsonReader reader = new JsonReader(text);
+        Object value = reader.readValue();
+        reader.skipWhitespace();
+        if (reader.position != text.length())
+            throw reader.error("Unexpected text after the value");
+        return value;
+    }
+
+    /**
+     * Reads the value starting at the next non-whitespace character.
+     * @return
+     *      The value read.
+     */
+    private Object readValue() {
+        skipWhitespace();
+        if (position >= text.length())
+            throw error("Unexpected end of document");
+        char c = text.charAt(position);
+        if (c == '{')
+            return readObject();
+        if (c == '[')
+            return readArray();
+        if (c == '"')
+            return readString();
+        if (c == '-' || (c >= '0' && c <= '9'))
+            return readNumber();
+        if (text.startsWith("true", position)) {
+            position += 4;
+            return Boolean.TRUE;
+        }
+        if (text.startsWith("false", position)) {
+            position += 5;
+            return Boolean.FALSE;
+        }
+        if (text.startsWith("null", position)) {
+            position += 4;
+            return null;
+        }
+        throw error("Unexpected character '" + c + "'");
+    }
+
+    /**
+     * Reads an object, the next character being '{'.
+     * @return
+     *      The members of the object in document order.
+     */
+    private Map<String, Object> readObject() {
+        enter();
+        position++;
+        Map<String, Object> members = new LinkedHashMap<String, Object>();
+        skipWhitespace();
+        if (peek() == '}') {
+            position++;
+            depth--;
+            return members;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"')
+                throw error("Expected a member name");
+            String name = readString();
+            skipWhitespace();
+            expect(':');
+            if (members.put(name, readValue()) != null)
+                throw error("Duplicate member \"" + name + "\"");
+            skipWhitespace();
+            if (peek() == ',') {
+                position++;
+                continue;
+            }
+            expect('}');
+            depth--;
+            return members;
+        }
+    }
+
+    /**
+     * Reads an array, the next character being '['.
+     * @return
+     *      The elements of the array in order.
+     */
+    private List<Object> readArray() {
+        enter();
+        position++;
+        List<Object> elements = new ArrayList<Object>();
+        skipWhitespace();
+        if (peek() == ']') {
+            position++;
+            depth--;
+            return elements;
+        }
+        while (true) {
+            elements.add(readValue());
+            skipWhitespace();
+            if (peek() == ',') {
+                position++;
+                continue;
+            }
+            expect(']');
+            depth--;
+            return elements;
+        }
+    }
+
+    /**
+     * Reads a string, the next character being '"'.
+     * @return
+     *      The string with its escapes decoded.
+     */
+    private String readString() {
+        position++;
+        StringBuilder value = new StringBuilder();
+        while (true) {
+            if (position >= text.length())
+                throw error("Unterminated string");
+            char c = text.charAt(position++);
+            if (c == '"')
+                return value.toString();
+            if (c < ' ')
+                throw error("Control character in string");
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            if (position >= text.length())
+                throw error("Unterminated string");
+            char escape = text.charAt(position++);
+            switch (escape) {
+                case '"': value.append('"'); break;
+                case '\\': value.append('\\'); break;
+                case '/': value.append('/'); break;
+                case 'b': value.append('\b'); break;
+                case 'f': value.append('\f'); break;
+                case 'n': value.append('\n'); break;
+                case 'r': value.append('\r'); break;
+                case 't': value.append('\t'); break;
+                case 'u':
+                    if (position + 4 > text.length())
+                        throw error("Truncated unicode escape");
+                    try {
+                        value.append((char)Integer.parseInt(
+                          text.substring(position, position + 4), 16));
+                    }
+                    catch(NumberFormatException e) {
+                        throw error("Invalid unicode escape");
+                    }
+                    position += 4;
+                    break;
+                default:
+                    throw error("Invalid escape '\\" + escape + "'");
+            }
+        }
+    }
+
+    /**
+     * Reads a number, the next character being '-' or a digit.
+     * @return
+     *      A Long if the number is an integer that fits a long, else a
+     *      Double.
+     */
+    private Object readNumber() {
+        int start = position;
+        boolean integral = true;
+        if (peek() == '-')
+            position++;
+        while (position < text.length()) {
+            char c = text.charAt(position);
+            if (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-')
+                integral = false;
+            else if (c < '0' || c > '9')
+                break;
+            position++;
+        }
+        String number = text.substring(start, position);
+        try {
+            if (integral)
+                return Long.parseLong(number);
+        }
+        catch(NumberFormatException e) {
+            //Too large for a long, so it is kept as a double
+        }
+        try {
+            return Double.parseDouble(number);
+        }
+        catch(NumberFormatException e) {
+            throw error("Invalid number " + number);
+        }
+    }
+
+    /**
+     * Counts one more level of nesting.
+     */
+    private void enter() {
+        if (++depth > MAX_DEPTH)
+            throw error("Nested too deeply");
+    }
+
+    /**
+     * Skips the character expected next.
+     * @param c
+     *      The character expected.
+     */
+    private void expect(char c) {
+        if (peek() != c)
+            throw error("Expected '" + c + "'");
+        position++;
+    }
+
+    /**
+     * Returns the next character without reading it.
+     * @return
+     *      The next character, or 0 at the end of the document.
+     */
+    private char peek() {
+        return position < text.length() ? text.charAt(position) : 0;
+    }
+
+    /**
+     * Skips whitespace.
+     */
+    private void skipWhitespace() {
+        while (position < text.length()) {
+            char c = text.charAt(position);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r')
+                return;
+            position++;
+        }
+    }
+
+    /**
+     * Builds the exception thrown for a malformed document.
+     * @param message
+     *      What is wrong.
+     * @return
+     *      The exception, naming the position of the error.
+     */
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at offset "
+          + position);
+    }
+
+}
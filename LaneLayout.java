@@ -0,0 +1,218 @@
+import java.util.Arrays;
+
+/**
+ * This LaneLayout class numbers every lane of an intersection whose roads
+ * may each have their own number of lanes per way.
+ *
+ * The lanes of all roads are laid out in one flat range, road after road,
+ * and within a road forward way before backward way, each way from its left
+ * lane to its right lane. The flat index of a lane is therefore
+ * getRoadOffset(road) + way * getLanesPerWay(road) + lane, which for the
+ * default three lanes per way is road * 6 + way * 3 + lane. The road, way
+ * and lane of every flat index are tabulated, so going either way costs an
+ * array load rather than a division.
+ */
+public class LaneLayout {
+
+    /**
+     * The number of ways of every road: forward and backward.
+     */
+    public static final int NUM_WAYS = 2;
+
+    /**
+     * The number of lanes per way of each road.
+     */
+    private int[] lanesPerWay;
+
+    /**
+     * The flat index of the first lane of each road, followed by the total
+     * number of lanes.
+     */
+    private int[] roadOffsets;
+
+    /**
+     * The road of each flat lane index.
+     */
+    private int[] laneRoads;
+
+    /**
+     * The way of each flat lane index.
+     */
+    private int[] laneWays;
+
+    /**
+     * The lane within its way of each flat lane index.
+     */
+    private int[] laneLanes;
+
+    /**
+     * Default constructor.
+     * @param initLanesPerWay
+     *      The number of lanes per way of each road, each in
+     *      [TwoWayRoad.MIN_LANES, TwoWayRoad.MAX_LANES].
+     * @throws IllegalArgumentException
+     *      Indicates that initLanesPerWay is null or a count is out of range.
+     */
+    public LaneLayout(int[] initLanesPerWay) {
+        if (initLanesPerWay == null)
+            throw new IllegalArgumentException("initLanesPerWay is null");
+        lanesPerWay = initLanesPerWay.clone();
+        roadOffsets = new int[lanesPerWay.length + 1];
+        for (int road = 0; road < lanesPerWay.length; road++) {
+            if (lanesPerWay[road] < TwoWayRoad.MIN_LANES
+              || lanesPerWay[road] > TwoWayRoad.MAX_LANES)
+                throw new IllegalArgumentException("Road " + road + " has "
+                  + lanesPerWay[road] + " lanes per way.");
+            roadOffsets[road + 1] = roadOffsets[road]
+              + NUM_WAYS * lanesPerWay[road];
+        }
+        int numLanes = roadOffsets[lanesPerWay.length];
+        laneRoads = new int[numLanes];
+        laneWays = new int[numLanes];
+        laneLanes = new int[numLanes];
+        int index = 0;
+        for (int road = 0; road < lanesPerWay.length; road++) {
+            for (int way = 0; way < NUM_WAYS; way++) {
+                for (int lane = 0; lane < lanesPerWay[road]; lane++) {
+                    laneRoads[index] = road;
+                    laneWays[index] = way;
+                    laneLanes[index] = lane;
+                    index++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the layout of roads which all have the same number of lanes.
+     * @param numRoads
+     *      The number of roads.
+     * @param lanesPerWay
+     *      The number of lanes per way of every road.
+     * @return
+     *      The layout.
+     * @throws IllegalArgumentException
+     *      Indicates that numRoads < 0 or lanesPerWay is out of range.
+     */
+    public static LaneLayout uniform(int numRoads, int lanesPerWay) {
+        if (numRoads < 0)
+            throw new IllegalArgumentException("numRoads < 0");
+        int[] counts = new int[numRoads];
+        Arrays.fill(counts, lanesPerWay);
+        return new LaneLayout(counts);
+    }
+
+    /**
+     * Returns the flat index of a lane, without range checks.
+     * @param road
+     *      The index of the road.
+     * @param way
+     *      The way on the road.
+     * @param lane
+     *      The lane on the way.
+     * @return
+     *      The flat lane index.
+     */
+    public int index(int road, int way, int lane) {
+        return roadOffsets[road] + way * lanesPerWay[road] + lane;
+    }
+
+    /**
+     * Checks to see if a lane exists in this layout.
+     * @param road
+     *      The index of the road.
+     * @param way
+     *      The way on the road.
+     * @param lane
+     *      The lane on the way.
+     * @return
+     *      true if every index is in range, else false.
+     */
+    public boolean contains(int road, int way, int lane) {
+        return road >= 0 && road < lanesPerWay.length && way >= 0
+          && way < NUM_WAYS && lane >= 0 && lane < lanesPerWay[road];
+    }
+
+    /**
+     * Returns the road of a flat lane index.
+     * @param index
+     *      The flat lane index.
+     * @return
+     *      The index of the road.
+     */
+    public int getRoad(int index) {
+        return laneRoads[index];
+    }
+
+    /**
+     * Returns the way of a flat lane index.
+     * @param index
+     *      The flat lane index.
+     * @return
+     *      The way on the road.
+     */
+    public int getWay(int index) {
+        return laneWays[index];
+    }
+
+    /**
+     * Returns the lane within its way of a flat lane index.
+     * @param index
+     *      The flat lane index.
+     * @return
+     *      The lane on the way.
+     */
+    public int getLane(int index) {
+        return laneLanes[index];
+    }
+
+    /**
+     * Returns the number of roads.
+     * @return
+     *      The number of roads.
+     */
+    public int getNumRoads() {
+        return lanesPerWay.length;
+    }
+
+    /**
+     * Returns the number of lanes of all roads together.
+     * @return
+     *      The number of flat lane indexes.
+     */
+    public int getNumLanes() {
+        return laneRoads.length;
+    }
+
+    /**
+     * Returns the number of lanes per way of a road.
+     * @param road
+     *      The index of the road.
+     * @return
+     *      The number of lanes per way.
+     */
+    public int getLanesPerWay(int road) {
+        return lanesPerWay[road];
+    }
+
+    /**
+     * Returns the number of lanes per way of every road.
+     * @return
+     *      A copy of the lane counts.
+     */
+    public int[] getLanesPerWay() {
+        return lanesPerWay.clone();
+    }
+
+    /**
+     * Returns the flat index of the first lane of a road.
+     * @param road
+     *      The index of the road.
+     * @return
+     *      The flat index of the forward left lane of the road.
+     */
+    public int getRoadOffset(int road) {
+        return roadOffsets[road];
+    }
+
+}
@@ -0,0 +1,36 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * This LightTransitionEvent class is the JFR event recorded when the light
+ * of a road changes during TwoWayRoad.proceed() or when a controller sets
+ * it. While the event is disabled, recording it costs a check of
+ * shouldCommit().
+ */
+@Name("trafficsim.LightTransition")
+@Label("Light Transition")
+@Category("Traffic Simulator")
+@Description("The light of a road changed.")
+public class LightTransitionEvent extends jdk.jfr.Event {
+
+    /**
+     * The name of the road.
+     */
+    @Label("Road")
+    String road;
+
+    /**
+     * The light value before the change.
+     */
+    @Label("From")
+    String from;
+
+    /**
+     * The light value after the change.
+     */
+    @Label("To")
+    String to;
+
+}
@@ -0,0 +1,264 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This LogHistogram class counts non-negative int values, such as wait
+ * times, in a fixed number of log-scaled buckets so that percentiles can be
+ * reported however many values are recorded.
+ *
+ * Values below SUB_BUCKETS are counted exactly. Above that every power of
+ * two is split into SUB_BUCKETS / 2 equal buckets, so a reported percentile
+ * is never more than 1 / 32 (about 3%) above the true value, and the whole
+ * int range fits in 864 counters. Recording is a few shifts and one array
+ * increment. Histograms with the same layout can be added together, so the
+ * histograms of several lanes or replications can be merged.
+ */
+public class LogHistogram {
+
+    /**
+     * log2 of SUB_BUCKETS.
+     */
+    private static final int SUB_BITS = 6;
+
+    /**
+     * The number of values counted exactly, and twice the number of buckets
+     * per power of two above them.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /**
+     * The number of buckets needed for every non-negative int.
+     */
+    private static final int NUM_BUCKETS = bucketIndex(Integer.MAX_VALUE) + 1;
+
+    /**
+     * The number of values counted by each bucket.
+     */
+    private long[] counts;
+
+    /**
+     * The number of values recorded.
+     */
+    private long count;
+
+    /**
+     * The sum of the values recorded.
+     */
+    private long total;
+
+    /**
+     * The largest value recorded.
+     */
+    private int max;
+
+    /**
+     * Default constructor.
+     * Creates an empty histogram.
+     */
+    public LogHistogram() {
+        counts = new long[NUM_BUCKETS];
+    }
+
+    /**
+     * Records one value.
+     * @param value
+     *      The value to record. Must be >= 0.
+     * @throws IllegalArgumentException
+     *      Indicates that value < 0.
+     */
+    public void record(int value) {
+        if (value < 0)
+            throw new IllegalArgumentException("value < 0");
+        counts[bucketIndex(value)]++;
+        count++;
+        total += value;
+        if (value > max)
+            max = value;
+    }
+
+    /**
+     * Adds every value recorded by another histogram to this one.
+     * @param other
+     *      The histogram to merge into this one.
+     */
+    public void add(LogHistogram other) {
+        for (int i = 0; i < counts.length; i++)
+            counts[i] += other.counts[i];
+        count += other.count;
+        total += other.total;
+        if (other.max > max)
+            max = other.max;
+    }
+
+    /**
+     * Returns a snapshot of this histogram that later records do not change.
+     * @return
+     *      A copy of this histogram.
+     */
+    public LogHistogram copy() {
+        LogHistogram copy = new LogHistogram();
+        copy.add(this);
+        return copy;
+    }
+
+    /**
+     * Removes every recorded value.
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        total = 0;
+        max = 0;
+    }
+
+    /**
+     * Writes this histogram compactly: the totals, then the index and
+     * count of each bucket that is not empty.
+     * @param out
+     *      The output to write to.
+     * @throws IOException
+     *      Indicates that out could not be written to.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeLong(count);
+        out.writeLong(total);
+        out.writeInt(max);
+        int used = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0)
+                used++;
+        }
+        out.writeInt(used);
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                out.writeShort(i);
+                out.writeLong(counts[i]);
+            }
+        }
+    }
+
+    /**
+     * Reads a histogram written by writeTo().
+     * @param in
+     *      The input to read from.
+     * @return
+     *      The histogram read.
+     * @throws IOException
+     *      Indicates that in could not be read or does not hold a histogram.
+     */
+    public static LogHistogram readFrom(DataInput in) throws IOException {
+        LogHistogram histogram = new LogHistogram();
+        histogram.count = in.readLong();
+        histogram.total = in.readLong();
+        histogram.max = in.readInt();
+        int used = in.readInt();
+        for (int i = 0; i < used; i++) {
+            int index = in.readUnsignedShort();
+            if (index >= NUM_BUCKETS)
+                throw new IOException("Bad histogram bucket " + index);
+            histogram.counts[index] = in.readLong();
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns the number of values recorded.
+     * @return
+     *      The number of values recorded.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the largest value recorded.
+     * @return
+     *      The largest value, or 0 if no value was recorded.
+     */
+    public int getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the mean of the values recorded, which is exact.
+     * @return
+     *      The mean, or 0 if no value was recorded.
+     */
+    public double getMean() {
+        if (count == 0)
+            return 0;
+        return (double)total / count;
+    }
+
+    /**
+     * Returns the value at or below which the indicated percentage of the
+     * recorded values fall, rounded up to the top of its bucket.
+     * @param percentile
+     *      The percentile, 0 <= percentile <= 100.
+     * @return
+     *      The value at the percentile, or 0 if no value was recorded.
+     * @throws IllegalArgumentException
+     *      Indicates that percentile is not in [0, 100].
+     */
+    public int getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("Illegal percentile");
+        if (count == 0)
+            return 0;
+        long rank = Math.max(1, (long)Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(highestValue(i), max);
+        }
+        return max;
+    }
+
+    /**
+     * The string representation of this LogHistogram class.
+     * @return
+     *      The count and the 50th, 95th and 99th percentiles.
+     */
+    public String toString() {
+        return "count " + count + ", p50 " + getValueAtPercentile(50)
+          + ", p95 " + getValueAtPercentile(95) + ", p99 "
+          + getValueAtPercentile(99) + ", max " + max;
+    }
+
+    /**
+     * Returns the bucket counting a value.
+     * @param value
+     *      A non-negative value.
+     * @return
+     *      The index of the bucket.
+     */
+    private static int bucketIndex(int value) {
+        if (value < SUB_BUCKETS)
+            return value;
+        //Keep the top SUB_BITS bits, so the mantissa is in
+        //[SUB_BUCKETS / 2, SUB_BUCKETS)
+        int shift = 31 - Integer.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+        int mantissa = value >>> shift;
+        return (shift << (SUB_BITS - 1)) + mantissa;
+    }
+
+    /**
+     * Returns the largest value counted by a bucket.
+     * @param index
+     *      The index of the bucket.
+     * @return
+     *      The largest value of the bucket.
+     */
+    private static int highestValue(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int shift = (index >>> (SUB_BITS - 1)) - 1;
+        int mantissa = (index & (SUB_BUCKETS / 2 - 1)) + SUB_BUCKETS / 2;
+        long highest = ((long)(mantissa + 1) << shift) - 1;
+        return (int)Math.min(highest, Integer.MAX_VALUE);
+    }
+
+}
@@ -0,0 +1,194 @@
+/**
+ * This MaxPressureController class picks the road with the active light
+ * from the live queue lengths instead of a fixed order.
+ *
+ * The active road keeps the light for up to its green time, but gives it
+ * up as soon as it has nothing to let through. Whenever the light is up for
+ * grabs, it goes to the road with the most vehicles waiting, which may be
+ * the same road again. Under uneven demand the busy roads therefore get
+ * more of the light than a fixed cycle would give them, while roads without
+ * vehicles never hold it. So that a quiet road is not starved by busy ones,
+ * a road that has been passed over maxSkippedPhases times while vehicles
+ * were waiting on it gets the light next, whatever its queue.
+ *
+ * Vehicle counts are kept up to date by the roads, so a decision costs
+ * O(roads) and a step with no decision costs the same as a fixed cycle.
+ */
+public class MaxPressureController implements SignalController {
+
+    /**
+     * The number of decisions each road has been passed over while it had
+     * vehicles waiting, since it last had the light.
+     */
+    private int[] skippedPhases;
+
+    /**
+     * The number of times a road with vehicles may be passed over before it
+     * is given the light.
+     */
+    private int maxSkippedPhases;
+
+    /**
+     * Default constructor.
+     * A road with vehicles is passed over at most as many times as there
+     * are roads.
+     * @param numRoads
+     *      The number of roads of the intersection.
+     */
+    public MaxPressureController(int numRoads) {
+        this(numRoads, numRoads);
+    }
+
+    /**
+     * Creates a controller with the indicated starvation limit.
+     * @param numRoads
+     *      The number of roads of the intersection.
+     * @param initMaxSkippedPhases
+     *      The number of times a road with vehicles may be passed over
+     *      before it is given the light. Must be > 0.
+     * @throws IllegalArgumentException
+     *      Indicates that numRoads < 0 or initMaxSkippedPhases <= 0.
+     */
+    public MaxPressureController(int numRoads, int initMaxSkippedPhases) {
+        if (numRoads < 0 || initMaxSkippedPhases <= 0)
+            throw new IllegalArgumentException("Invalid controller parameters.");
+        skippedPhases = new int[numRoads];
+        maxSkippedPhases = initMaxSkippedPhases;
+    }
+
+    /**
+     * Performs a single iteration through the intersection.
+     * @param intersection
+     *      The intersection being stepped.
+     * @param listener
+     *      Told about every Vehicle which passes through.
+     * @return
+     *      The number of Vehicles which passed through during this time
+     *      step.
+     */
+    public int timeStep(Intersection intersection, DepartureListener listener) {
+        int lightIndex = intersection.getLightIndex();
+        int countdownTimer = intersection.getCountdownTimer();
+        TwoWayRoad active = intersection.getRoad(lightIndex);
+        int departed = 0;
+        if (countdownTimer > 0 && !active.allLanesEmpty())
+            departed = active.proceed(countdownTimer, lightIndex, listener);
+        if (departed == 0) {
+            //The turn is over or the road has nothing it may let through
+            active.setLightValue(LightValue.RED);
+            long waiting = intersection.getRoadMask();
+            long tried = 0;
+            while (departed == 0) {
+                int next = choosePhase(intersection, lightIndex,
+                  waiting & ~tried);
+                //No road can let anything through
+                if (next < 0) {
+                    intersection.setSignal(lightIndex, 0);
+                    return 0;
+                }
+                lightIndex = next;
+                countdownTimer = intersection.getRoad(next).getGreenTime();
+                departed = intersection.getRoad(next).proceed(countdownTimer,
+                  next, listener);
+                tried |= 1L << next;
+            }
+            for (int i = 0; i < skippedPhases.length; i++) {
+                if (i == lightIndex)
+                    skippedPhases[i] = 0;
+                else if ((waiting & (1L << i)) != 0)
+                    skippedPhases[i]++;
+            }
+        }
+        intersection.setSignal(lightIndex, countdownTimer - 1);
+        return departed;
+    }
+
+    /**
+     * Advances the light over idle steps. With every road empty the first
+     * idle step turns the active light RED and ends its turn, and the rest
+     * change nothing.
+     * @param intersection
+     *      The intersection being stepped. Every road is empty.
+     * @param steps
+     *      The number of idle steps to skip. Must be > 0.
+     */
+    public void skipIdleSteps(Intersection intersection, long steps) {
+        int lightIndex = intersection.getLightIndex();
+        intersection.getRoad(lightIndex).setLightValue(LightValue.RED);
+        intersection.setSignal(lightIndex, 0);
+    }
+
+    /**
+     * Returns the number of longs needed to hold the state of this
+     * controller.
+     * @return
+     *      One per road.
+     */
+    public int stateSize() {
+        return skippedPhases.length;
+    }
+
+    /**
+     * Copies the number of times each road has been passed over.
+     * @param state
+     *      The array to copy into, at least stateSize() long.
+     */
+    public void saveState(long[] state) {
+        for (int i = 0; i < skippedPhases.length; i++)
+            state[i] = skippedPhases[i];
+    }
+
+    /**
+     * Replaces the number of times each road has been passed over.
+     * @param state
+     *      The array to copy from.
+     */
+    public void restoreState(long[] state) {
+        for (int i = 0; i < skippedPhases.length; i++)
+            skippedPhases[i] = (int)state[i];
+    }
+
+    /**
+     * Picks the road to give the light to among the candidates: the road
+     * passed over most often if any has reached maxSkippedPhases, else the
+     * road with the most vehicles. Ties go to the first road after from in
+     * light order, so from itself comes last.
+     * @param intersection
+     *      The intersection being stepped.
+     * @param from
+     *      The index of the road that had the light.
+     * @param candidates
+     *      Bitmask of the roads that may be picked.
+     * @return
+     *      The index of the picked road, or -1 if there are no candidates.
+     */
+    private int choosePhase(Intersection intersection, int from,
+      long candidates) {
+        if (candidates == 0)
+            return -1;
+        int numRoads = skippedPhases.length;
+        int best = -1;
+        int bestPressure = -1;
+        boolean starving = false;
+        for (int k = 1; k <= numRoads; k++) {
+            int i = from + k < numRoads ? from + k : from + k - numRoads;
+            if ((candidates & (1L << i)) == 0)
+                continue;
+            if (skippedPhases[i] >= maxSkippedPhases) {
+                if (!starving || skippedPhases[i] > skippedPhases[best]) {
+                    starving = true;
+                    best = i;
+                }
+            }
+            else if (!starving) {
+                int pressure = intersection.getRoad(i).getVehicleCount();
+                if (pressure > bestPressure) {
+                    bestPressure = pressure;
+                    best = i;
+                }
+            }
+        }
+        return best;
+    }
+
+}
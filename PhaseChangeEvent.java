@@ -0,0 +1,28 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * This PhaseChangeEvent class is the JFR event recorded when
+ * Intersection.timeStep() moves the active light to another road.
+ */
+@Name("trafficsim.PhaseChange")
+@Label("Phase Change")
+@Category("Traffic Simulator")
+@Description("The active light moved to another road.")
+public class PhaseChangeEvent extends jdk.jfr.Event {
+
+    /**
+     * The name of the road which had the active light.
+     */
+    @Label("From Road")
+    String fromRoad;
+
+    /**
+     * The name of the road which has the active light now.
+     */
+    @Label("To Road")
+    String toRoad;
+
+}
@@ -0,0 +1,176 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This RandomStream class is a seedable, splittable pseudo-random generator
+ * based on SplitMix64, the algorithm behind java.util.SplittableRandom.
+ *
+ * A simulation derives every stream it needs from one master seed with
+ * substream(), so each replication, road and lane draws from its own
+ * independent stream. Runs with the same seed are bit-reproducible and
+ * parallel runs never share generator state.
+ */
+public class RandomStream {
+
+    /**
+     * The odd constant added to the seed of the root stream on every draw.
+     */
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    /**
+     * The number of longs saveState() writes.
+     */
+    public static final int STATE_SIZE = 3;
+
+    /**
+     * Scales the top 53 bits of a long into a double in [0, 1). Shared with
+     * BatchSimulation, which keeps the state of its streams in arrays.
+     */
+    static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    /**
+     * Seeds streams created without an explicit seed.
+     */
+    private static final AtomicLong seeder = new AtomicLong(
+      mix64(System.currentTimeMillis()) ^ mix64(System.nanoTime()));
+
+    /**
+     * The seed this stream was created with. Substreams are derived from it
+     * so they do not depend on how many values have been drawn.
+     */
+    private long initialSeed;
+
+    /**
+     * The current state, advanced by gamma on every draw.
+     */
+    private long seed;
+
+    /**
+     * The odd increment of this stream.
+     */
+    private long gamma;
+
+    /**
+     * Default constructor.
+     * Creates a root stream from the indicated seed.
+     * @param initSeed
+     *      The seed of this stream.
+     */
+    public RandomStream(long initSeed) {
+        this(initSeed, GOLDEN_GAMMA);
+    }
+
+    /**
+     * Creates a stream with the indicated seed and increment.
+     * @param initSeed
+     *      The seed of this stream.
+     * @param initGamma
+     *      The increment of this stream. Must be odd.
+     */
+    private RandomStream(long initSeed, long initGamma) {
+        initialSeed = initSeed;
+        seed = initSeed;
+        gamma = initGamma;
+    }
+
+    /**
+     * Returns a seed for runs that were not given one, different for every
+     * call.
+     * @return
+     *      A new seed.
+     */
+    public static long randomSeed() {
+        return mix64(seeder.getAndAdd(2 * GOLDEN_GAMMA));
+    }
+
+    /**
+     * Returns the independent stream with the indicated index. The same
+     * seed and index always give the same substream, whatever has been
+     * drawn from this stream.
+     * @param index
+     *      The index of the substream, such as a replication or lane number.
+     * @return
+     *      The substream with the indicated index.
+     */
+    public RandomStream substream(long index) {
+        long childSeed = mix64(initialSeed + (index + 1) * GOLDEN_GAMMA);
+        long childGamma = mixGamma(childSeed ^ initialSeed);
+        return new RandomStream(mix64(childSeed + childGamma), childGamma);
+    }
+
+    /**
+     * Returns the next pseudo-random long.
+     * @return
+     *      The next pseudo-random long.
+     */
+    public long nextLong() {
+        seed += gamma;
+        return mix64(seed);
+    }
+
+    /**
+     * Returns the next pseudo-random double, uniform in [0, 1).
+     * @return
+     *      The next pseudo-random double.
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * DOUBLE_UNIT;
+    }
+
+    /**
+     * Copies the state of this stream into an array, so the stream can be
+     * checkpointed and later continue exactly where it left off.
+     * @param state
+     *      The array to copy into.
+     * @param offset
+     *      The index of the first of STATE_SIZE longs written.
+     */
+    public void saveState(long[] state, int offset) {
+        state[offset] = initialSeed;
+        state[offset + 1] = seed;
+        state[offset + 2] = gamma;
+    }
+
+    /**
+     * Replaces the state of this stream with one copied by saveState().
+     * @param state
+     *      The array to copy from.
+     * @param offset
+     *      The index of the first of STATE_SIZE longs read.
+     */
+    public void restoreState(long[] state, int offset) {
+        initialSeed = state[offset];
+        seed = state[offset + 1];
+        gamma = state[offset + 2];
+    }
+
+    /**
+     * The SplitMix64 output function (Stafford variant 13). Shared with
+     * BatchSimulation, which keeps the state of its streams in arrays.
+     * @param z
+     *      The value to mix.
+     * @return
+     *      The mixed value.
+     */
+    static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Derives an odd increment with enough bit transitions from a value, as
+     * SplittableRandom does.
+     * @param z
+     *      The value to derive the increment from.
+     * @return
+     *      An odd increment.
+     */
+    private static long mixGamma(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        z = (z ^ (z >>> 33)) | 1L;
+        int n = Long.bitCount(z ^ (z >>> 1));
+        return (n < 24) ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+    }
+
+}
@@ -0,0 +1,400 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This ReplicationRunner class runs independent replications of one
+ * scenario in the same JVM, spread across the available cores, and
+ * summarizes the average wait, the longest wait, the throughput and the
+ * 95th percentile wait over all of them. The wait time histograms of every
+ * replication are also merged, lane by lane.
+ *
+ * Every replication is its own Simulation, with its own random streams and
+ * its own serial IDs, so replications never share state. Replication i is
+ * seeded from substream i of the master seed, so a batch with the same
+ * master seed is reproducible whatever order replications finish in.
+ *
+ * With the batch engine, replications using the fixed cycle and a draw per
+ * lane per step are instead split into one BatchSimulation per thread,
+ * which advances its share of them in lockstep. The results are the same.
+ */
+public class ReplicationRunner {
+
+    /**
+     * The number of time steps during which vehicles may arrive.
+     */
+    private int simulationTime;
+
+    /**
+     * The probability used to check if a car arrives on each lane.
+     */
+    private double arrivalProbability;
+
+    /**
+     * The names of the roads.
+     */
+    private String[] roadNames;
+
+    /**
+     * The "green" times of the roads.
+     */
+    private int[] maxGreenTimes;
+
+    /**
+     * The number of threads replications run on.
+     */
+    private int parallelism;
+
+    /**
+     * The master seed the replication seeds derive from.
+     */
+    private long seed;
+
+    /**
+     * Whether replications use geometric skip-ahead arrivals.
+     */
+    private boolean geometricArrivals;
+
+    /**
+     * Whether replications skip idle stretches.
+     */
+    private boolean eventDriven;
+
+    /**
+     * Whether replications use a MaxPressureController.
+     */
+    private boolean maxPressureControl;
+
+    /**
+     * Whether replications run in BatchSimulations where they can.
+     */
+    private boolean batchEngine;
+
+    /**
+     * The number of lanes per way of each road.
+     */
+    private LaneLayout layout;
+
+    /**
+     * The wait times of each lane merged over the replications of the last
+     * call to run(), indexed by flat lane index.
+     */
+    private LogHistogram[] laneWaits;
+
+    /**
+     * Default constructor.
+     * Replications run on one thread per available processor.
+     * @param initSimulationTime
+     *      The number of time steps during which vehicles may arrive.
+     * @param initArrivalProbability
+     *      The probability used to check if a car arrives on each lane.
+     * @param initRoadNames
+     *      The names of the roads.
+     * @param initMaxGreenTimes
+     *      The "green" times of the roads.
+     */
+    public ReplicationRunner(int initSimulationTime,
+      double initArrivalProbability, String[] initRoadNames,
+      int[] initMaxGreenTimes) {
+        simulationTime = initSimulationTime;
+        arrivalProbability = initArrivalProbability;
+        roadNames = initRoadNames;
+        maxGreenTimes = initMaxGreenTimes;
+        parallelism = Runtime.getRuntime().availableProcessors();
+        seed = RandomStream.randomSeed();
+        setLaneLayout(LaneLayout.uniform(roadNames.length,
+          TwoWayRoad.DEFAULT_NUM_LANES));
+    }
+
+    /**
+     * Sets whether replications run side by side in BatchSimulations rather
+     * than in a Simulation each. Only replications with the fixed cycle and
+     * a draw per lane per step can; the others run in a Simulation each
+     * either way. Results are the same.
+     * @param newBatchEngine
+     *      true to use BatchSimulations where possible, else false.
+     */
+    public void setBatchEngine(boolean newBatchEngine) {
+        batchEngine = newBatchEngine;
+    }
+
+    /**
+     * Sets the number of lanes per way of each road.
+     * @param lanesPerWay
+     *      The number of lanes per way of each road, one per road.
+     * @throws IllegalArgumentException
+     *      Indicates that lanesPerWay does not have a valid count for every
+     *      road.
+     */
+    public void setLanesPerWay(int[] lanesPerWay) {
+        if (lanesPerWay.length != roadNames.length)
+            throw new IllegalArgumentException("Expected lanes for "
+              + roadNames.length + " roads");
+        setLaneLayout(new LaneLayout(lanesPerWay));
+    }
+
+    /**
+     * Returns the numbering of the lanes of the simulated intersection.
+     * @return
+     *      The lane layout.
+     */
+    public LaneLayout getLaneLayout() {
+        return layout;
+    }
+
+    /**
+     * Replaces the lane layout and the histograms sized by it.
+     * @param newLayout
+     *      The lane layout.
+     */
+    private void setLaneLayout(LaneLayout newLayout) {
+        layout = newLayout;
+        laneWaits = new LogHistogram[layout.getNumLanes()];
+        for (int i = 0; i < laneWaits.length; i++)
+            laneWaits[i] = new LogHistogram();
+    }
+
+    /**
+     * Sets the master seed the replication seeds derive from.
+     * @param newSeed
+     *      The master seed.
+     */
+    public void setSeed(long newSeed) {
+        seed = newSeed;
+    }
+
+    /**
+     * Returns the master seed the replication seeds derive from.
+     * @return
+     *      The master seed.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Sets whether replications use geometric skip-ahead arrivals.
+     * @param newGeometricArrivals
+     *      true for geometric arrivals, false for a draw per lane per step.
+     */
+    public void setGeometricArrivals(boolean newGeometricArrivals) {
+        geometricArrivals = newGeometricArrivals;
+    }
+
+    /**
+     * Sets whether replications skip idle stretches instead of stepping
+     * through them.
+     * @param newEventDriven
+     *      true to skip idle stretches, else false.
+     */
+    public void setEventDriven(boolean newEventDriven) {
+        eventDriven = newEventDriven;
+    }
+
+    /**
+     * Sets whether replications give the light to the road with the most
+     * vehicles waiting instead of using the fixed cycle.
+     * @param newMaxPressureControl
+     *      true for a MaxPressureController, false for the fixed cycle.
+     */
+    public void setMaxPressureControl(boolean newMaxPressureControl) {
+        maxPressureControl = newMaxPressureControl;
+    }
+
+    /**
+     * Sets the number of threads replications run on.
+     * @param newParallelism
+     *      The number of threads. Must be > 0.
+     * @throws IllegalArgumentException
+     *      Indicates that newParallelism <= 0.
+     */
+    public void setParallelism(int newParallelism) {
+        if (newParallelism <= 0)
+            throw new IllegalArgumentException("parallelism <= 0");
+        parallelism = newParallelism;
+    }
+
+    /**
+     * Runs the replications and summarizes their results.
+     * @param replications
+     *      The number of replications to run. Must be > 0.
+     * @return
+     *      The average wait, longest wait, throughput and 95th percentile
+     *      wait statistics, in that order.
+     * @throws IllegalArgumentException
+     *      Indicates that replications <= 0.
+     * @throws IllegalStateException
+     *      Indicates that a replication failed or was interrupted.
+     */
+    public SummaryStatistic[] run(int replications) {
+        if (replications <= 0)
+            throw new IllegalArgumentException("replications <= 0");
+        int threads = Math.min(parallelism, replications);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            long[] replicationSeeds = new long[replications];
+            RandomStream root = new RandomStream(seed);
+            for (int i = 0; i < replications; i++)
+                replicationSeeds[i] = root.substream(i).nextLong();
+
+            SummaryStatistic avgWait = new SummaryStatistic("Average wait");
+            SummaryStatistic maxWait = new SummaryStatistic("Longest wait");
+            SummaryStatistic throughput =
+              new SummaryStatistic("Throughput");
+            SummaryStatistic p95Wait = new SummaryStatistic("95th pct wait");
+            SummaryStatistic[] statistics = new SummaryStatistic[]{avgWait,
+              maxWait, throughput, p95Wait};
+            for (int i = 0; i < laneWaits.length; i++)
+                laneWaits[i].reset();
+
+            if (batchEngine && !geometricArrivals && !maxPressureControl) {
+                //Contiguous shares so the batches come back in seed order
+                List<Future<BatchSimulation>> results =
+                  new ArrayList<Future<BatchSimulation>>();
+                for (int t = 0; t < threads; t++) {
+                    int from = (int)((long)replications * t / threads);
+                    int to = (int)((long)replications * (t + 1) / threads);
+                    results.add(executor.submit(
+                      () -> runBatch(replicationSeeds, from, to)));
+                }
+                for (Future<BatchSimulation> result : results) {
+                    BatchSimulation batch = result.get();
+                    for (int k = 0; k < batch.size(); k++)
+                        addReplication(statistics,
+                          batch.getAverageWaitTime(k),
+                          batch.getMaxWaitTime(k), batch.getCarsPassed(k),
+                          batch.getStepsExecuted(k),
+                          batch.getLaneWaitHistograms(k));
+                }
+                return statistics;
+            }
+
+            List<Future<Simulation>> results =
+              new ArrayList<Future<Simulation>>();
+            for (int i = 0; i < replications; i++) {
+                long replicationSeed = replicationSeeds[i];
+                results.add(executor.submit(
+                  () -> runReplication(replicationSeed)));
+            }
+            //Collected in submission order so the summary does not depend
+            //on which replication finishes first
+            for (Future<Simulation> result : results) {
+                Simulation simulation = result.get();
+                addReplication(statistics, simulation.getAverageWaitTime(),
+                  simulation.getMaxWaitTime(), simulation.getCarsPassed(),
+                  simulation.getStepsExecuted(),
+                  simulation.getLaneWaitHistograms());
+            }
+            return statistics;
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Replications interrupted.", e);
+        }
+        catch(ExecutionException e) {
+            throw new IllegalStateException("Replication failed.",
+              e.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Adds the results of a finished replication to the summary and to the
+     * merged histograms.
+     * @param statistics
+     *      The average wait, longest wait, throughput and 95th percentile
+     *      wait statistics, in that order.
+     * @param averageWaitTime
+     *      The average wait of the replication.
+     * @param maxWaitTime
+     *      The longest wait of the replication.
+     * @param carsPassed
+     *      The number of vehicles that passed through.
+     * @param stepsExecuted
+     *      The number of time steps executed.
+     * @param replicationWaits
+     *      The wait times of each lane of the replication.
+     */
+    private void addReplication(SummaryStatistic[] statistics,
+      double averageWaitTime, int maxWaitTime, long carsPassed,
+      int stepsExecuted, LogHistogram[] replicationWaits) {
+        LogHistogram waits = new LogHistogram();
+        for (int i = 0; i < laneWaits.length; i++) {
+            laneWaits[i].add(replicationWaits[i]);
+            waits.add(replicationWaits[i]);
+        }
+        statistics[0].add(averageWaitTime);
+        statistics[1].add(maxWaitTime);
+        statistics[2].add((double)carsPassed / Math.max(1, stepsExecuted));
+        statistics[3].add(waits.getValueAtPercentile(95));
+    }
+
+    /**
+     * Runs a share of the replications side by side to completion.
+     * @param replicationSeeds
+     *      The master seed of every replication.
+     * @param from
+     *      The first replication of the share.
+     * @param to
+     *      The replication after the last one of the share.
+     * @return
+     *      The finished BatchSimulation, holding replication from + k at
+     *      index k.
+     */
+    private BatchSimulation runBatch(long[] replicationSeeds, int from,
+      int to) {
+        int count = to - from;
+        double[] probabilities = new double[count];
+        int[][] greenTimes = new int[count][];
+        long[] seeds = new long[count];
+        for (int k = 0; k < count; k++) {
+            probabilities[k] = arrivalProbability;
+            greenTimes[k] = maxGreenTimes;
+            seeds[k] = replicationSeeds[from + k];
+        }
+        BatchSimulation batch = new BatchSimulation(simulationTime,
+          layout.getLanesPerWay(), probabilities, greenTimes, null, seeds);
+        batch.run();
+        return batch;
+    }
+
+    /**
+     * Runs a single replication to completion.
+     * @param replicationSeed
+     *      The master seed of the replication.
+     * @return
+     *      The finished Simulation.
+     */
+    private Simulation runReplication(long replicationSeed) {
+        Simulation simulation = new Simulation(simulationTime,
+          arrivalProbability, roadNames, maxGreenTimes, null,
+          layout.getLanesPerWay(), replicationSeed);
+        if (geometricArrivals)
+            simulation.useGeometricArrivals();
+        if (maxPressureControl)
+            simulation.useMaxPressureControl();
+        simulation.setEventDriven(eventDriven);
+        simulation.run();
+        return simulation;
+    }
+
+    /**
+     * Returns the wait times of each lane merged over the replications of
+     * the last call to run().
+     * @return
+     *      A copy of the merged histogram of each lane, indexed by flat
+     *      lane index.
+     */
+    public LogHistogram[] getLaneWaitHistograms() {
+        LogHistogram[] snapshot = new LogHistogram[laneWaits.length];
+        for (int i = 0; i < laneWaits.length; i++)
+            snapshot[i] = laneWaits[i].copy();
+        return snapshot;
+    }
+
+}
@@ -0,0 +1,595 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This RoadNetwork class connects several Intersections so that vehicles
+ * leaving one intersection are enqueued onto a lane of a downstream
+ * intersection instead of being dropped.
+ *
+ * Every lane is addressed by its flat index in its intersection's
+ * LaneLayout, road * 6 + way * 3 + lane when roads have three lanes.
+ * Vehicles arrive from outside the network only on entry lanes, which are
+ * lanes no link feeds into. A vehicle leaving a lane without a link exits
+ * the network.
+ *
+ * Each step runs in two phases. In the compute phase every intersection
+ * executes its own timeStep(), touching only its own lanes, so the
+ * intersections may be advanced in parallel on a ForkJoinPool. In the
+ * exchange phase the departures are moved downstream one intersection at a
+ * time in index order, so a parallel run gives exactly the same result as a
+ * single-threaded one.
+ */
+public class RoadNetwork {
+
+    /**
+     * The number of intersections stepped by a single compute task before
+     * the work is split further.
+     */
+    private static final int SPLIT_THRESHOLD = 4;
+
+    /**
+     * The intersections of this network.
+     */
+    private Intersection[] intersections;
+
+    /**
+     * The flat numbering of the lanes of each intersection.
+     */
+    private LaneLayout[] layouts;
+
+    /**
+     * For each intersection and flat lane index, the intersection that
+     * vehicles leaving the lane are sent to, or -1 if they exit the network.
+     */
+    private int[][] linkIntersection;
+
+    /**
+     * For each intersection and flat lane index, the flat lane index on the
+     * downstream intersection that vehicles leaving the lane are sent to.
+     */
+    private int[][] linkLane;
+
+    /**
+     * For each intersection and flat lane index, whether some link feeds
+     * the lane. Vehicles only arrive from outside on lanes that are not fed.
+     */
+    private boolean[][] fed;
+
+    /**
+     * The Vehicles each intersection let through in the current compute
+     * phase. Each intersection only writes its own buffer.
+     */
+    private DepartureBuffer[] departures;
+
+    /**
+     * For each intersection and flat lane index, the source deciding
+     * whether a vehicle arrives on the lane if it is an entry lane.
+     */
+    private BooleanSource[][] arrivalSources;
+
+    /**
+     * The number of time steps during which vehicles may arrive.
+     */
+    private int simulationTime;
+
+    /**
+     * The time step that will be executed by the next call to step().
+     */
+    private int timeStep;
+
+    /**
+     * The pool used for the compute phase, or null to step serially.
+     */
+    private ForkJoinPool pool;
+
+    /**
+     * The number of vehicles that have arrived from outside the network.
+     */
+    private long vehiclesEntered;
+
+    /**
+     * Issues the serialIds of the vehicles arriving in this network.
+     */
+    private VehicleIdAllocator ids;
+
+    /**
+     * The number of vehicles that have left the network.
+     */
+    private long vehiclesExited;
+
+    /**
+     * The number of times a vehicle was moved onto a downstream lane.
+     */
+    private long vehiclesTransferred;
+
+    /**
+     * The sum of the waits of every vehicle at every intersection it has
+     * passed through.
+     */
+    private long totalWaitTime;
+
+    /**
+     * The longest wait of any vehicle at a single intersection.
+     */
+    private int maxWaitTime;
+
+    /**
+     * Default constructor.
+     * No links are made, so every lane starts as an entry lane.
+     * @param initIntersections
+     *      The intersections of this network.
+     * @param initSimulationTime
+     *      The number of time steps during which vehicles may arrive.
+     * @param arrivalProbability
+     *      The probability used to check if a car arrives on an entry lane.
+     * @throws IllegalArgumentException
+     *      Indicates that initIntersections is null or contains null, or
+     *      initSimulationTime < 0.
+     */
+    public RoadNetwork(Intersection[] initIntersections,
+      int initSimulationTime, double arrivalProbability) {
+        this(initIntersections, initSimulationTime, arrivalProbability,
+          RandomStream.randomSeed());
+    }
+
+    /**
+     * Constructor which seeds the arrivals. Intersection i draws its
+     * arrivals from substream i of the seed, split again per lane.
+     * @param initIntersections
+     *      The intersections of this network.
+     * @param initSimulationTime
+     *      The number of time steps during which vehicles may arrive.
+     * @param arrivalProbability
+     *      The probability used to check if a car arrives on an entry lane.
+     * @param seed
+     *      The master seed of the network.
+     * @throws IllegalArgumentException
+     *      Indicates that initIntersections is null or contains null, or
+     *      initSimulationTime < 0.
+     */
+    public RoadNetwork(Intersection[] initIntersections,
+      int initSimulationTime, double arrivalProbability, long seed) {
+        if (initIntersections == null || initSimulationTime < 0)
+            throw new IllegalArgumentException("Invalid network parameters.");
+        int count = initIntersections.length;
+        linkIntersection = new int[count][];
+        linkLane = new int[count][];
+        fed = new boolean[count][];
+        arrivalSources = new BooleanSource[count][];
+        layouts = new LaneLayout[count];
+        RandomStream root = new RandomStream(seed);
+        for (int i = 0; i < count; i++) {
+            if (initIntersections[i] == null)
+                throw new IllegalArgumentException("Intersection " + i
+                  + " is null.");
+            layouts[i] = initIntersections[i].getLaneLayout();
+            int numLanes = layouts[i].getNumLanes();
+            linkIntersection[i] = new int[numLanes];
+            linkLane[i] = new int[numLanes];
+            fed[i] = new boolean[numLanes];
+            arrivalSources[i] = new BooleanSource[numLanes];
+            RandomStream intersectionStream = root.substream(i);
+            for (int j = 0; j < numLanes; j++) {
+                linkIntersection[i][j] = -1;
+                arrivalSources[i][j] = new BooleanSource(arrivalProbability,
+                  intersectionStream.substream(j));
+            }
+        }
+        intersections = initIntersections;
+        departures = new DepartureBuffer[count];
+        for (int i = 0; i < count; i++)
+            departures[i] = new DepartureBuffer();
+        simulationTime = initSimulationTime;
+        timeStep = 1;
+        ids = new VehicleIdAllocator();
+    }
+
+    /**
+     * Builds a corridor of intersections along road 0 whose arrivals are
+     * drawn from a random seed, as described by the seeded corridor().
+     * @param length
+     *      The number of intersections in the corridor.
+     * @param roadNames
+     *      The names of the roads at every intersection.
+     * @param maxGreenTimes
+     *      The "green" times of the roads at every intersection.
+     * @param simulationTime
+     *      The number of time steps during which vehicles may arrive.
+     * @param arrivalProbability
+     *      The probability used to check if a car arrives on an entry lane.
+     * @return
+     *      The corridor network.
+     */
+    public static RoadNetwork corridor(int length, String[] roadNames,
+      int[] maxGreenTimes, int simulationTime, double arrivalProbability) {
+        return corridor(length, roadNames, maxGreenTimes, simulationTime,
+          arrivalProbability, RandomStream.randomSeed());
+    }
+
+    /**
+     * Builds a corridor of intersections along road 0. Vehicles heading
+     * FORWARD on road 0 continue to the next intersection and vehicles
+     * heading BACKWARD continue to the previous one, keeping their lane.
+     * The same seed gives the same run, stepped sequentially or in
+     * parallel.
+     * @param length
+     *      The number of intersections in the corridor.
+     * @param roadNames
+     *      The names of the roads at every intersection.
+     * @param maxGreenTimes
+     *      The "green" times of the roads at every intersection.
+     * @param simulationTime
+     *      The number of time steps during which vehicles may arrive.
+     * @param arrivalProbability
+     *      The probability used to check if a car arrives on an entry lane.
+     * @param seed
+     *      The master seed of the network's arrivals.
+     * @return
+     *      The corridor network.
+     */
+    public static RoadNetwork corridor(int length, String[] roadNames,
+      int[] maxGreenTimes, int simulationTime, double arrivalProbability,
+      long seed) {
+        Intersection[] corridor = new Intersection[length];
+        for (int i = 0; i < length; i++) {
+            TwoWayRoad[] roads = new TwoWayRoad[roadNames.length];
+            for (int j = 0; j < roads.length; j++)
+                roads[j] = new TwoWayRoad(roadNames[j], maxGreenTimes[j]);
+            corridor[i] = new Intersection(roads);
+        }
+        RoadNetwork network = new RoadNetwork(corridor, simulationTime,
+          arrivalProbability, seed);
+        for (int i = 0; i + 1 < length; i++) {
+            network.connect(i, 0, 0, i + 1, 0, 0);
+            network.connect(i + 1, 0, 1, i, 0, 1);
+        }
+        return network;
+    }
+
+    /**
+     * Sends the vehicles leaving every lane of one way of a road onto the
+     * same lanes of a way of a downstream road. If the roads have different
+     * numbers of lanes, the lanes beyond the narrower road are not linked.
+     * @param fromIntersection
+     *      The index of the upstream intersection.
+     * @param fromRoad
+     *      The index of the road on the upstream intersection.
+     * @param fromWay
+     *      The way on the upstream road.
+     * @param toIntersection
+     *      The index of the downstream intersection.
+     * @param toRoad
+     *      The index of the road on the downstream intersection.
+     * @param toWay
+     *      The way on the downstream road.
+     * @throws IllegalArgumentException
+     *      Indicates that any index is out of range.
+     */
+    public void connect(int fromIntersection, int fromRoad, int fromWay,
+      int toIntersection, int toRoad, int toWay) {
+        //Checks both ways exist before their lanes are counted
+        flatLane(fromIntersection, fromRoad, fromWay, 0);
+        flatLane(toIntersection, toRoad, toWay, 0);
+        int lanes = Math.min(layouts[fromIntersection].getLanesPerWay(fromRoad),
+          layouts[toIntersection].getLanesPerWay(toRoad));
+        for (int lane = 0; lane < lanes; lane++)
+            connect(fromIntersection, fromRoad, fromWay, lane,
+              toIntersection, toRoad, toWay, lane);
+    }
+
+    /**
+     * Sends the vehicles leaving one lane onto a lane of a downstream
+     * intersection. The downstream lane stops being an entry lane.
+     * @param fromIntersection
+     *      The index of the upstream intersection.
+     * @param fromRoad
+     *      The index of the road on the upstream intersection.
+     * @param fromWay
+     *      The way on the upstream road.
+     * @param fromLane
+     *      The lane on the upstream way.
+     * @param toIntersection
+     *      The index of the downstream intersection.
+     * @param toRoad
+     *      The index of the road on the downstream intersection.
+     * @param toWay
+     *      The way on the downstream road.
+     * @param toLane
+     *      The lane on the downstream way.
+     * @throws IllegalArgumentException
+     *      Indicates that any index is out of range.
+     */
+    public void connect(int fromIntersection, int fromRoad, int fromWay,
+      int fromLane, int toIntersection, int toRoad, int toWay, int toLane) {
+        int from = flatLane(fromIntersection, fromRoad, fromWay, fromLane);
+        int to = flatLane(toIntersection, toRoad, toWay, toLane);
+        linkIntersection[fromIntersection][from] = toIntersection;
+        linkLane[fromIntersection][from] = to;
+        fed[toIntersection][to] = true;
+    }
+
+    /**
+     * Returns the flat lane index of a lane, checking that it exists.
+     * @param intersection
+     *      The index of the intersection.
+     * @param road
+     *      The index of the road.
+     * @param way
+     *      The way on the road.
+     * @param lane
+     *      The lane on the way.
+     * @return
+     *      The flat lane index in the intersection's layout.
+     * @throws IllegalArgumentException
+     *      Indicates that any index is out of range.
+     */
+    private int flatLane(int intersection, int road, int way, int lane) {
+        if (intersection < 0 || intersection >= intersections.length
+          || !layouts[intersection].contains(road, way, lane))
+            throw new IllegalArgumentException("Lane index out of range.");
+        return layouts[intersection].index(road, way, lane);
+    }
+
+    /**
+     * Sets the pool used to advance intersections in parallel during the
+     * compute phase.
+     * @param newPool
+     *      The pool to use, or null to step every intersection on the
+     *      calling thread.
+     */
+    public void setPool(ForkJoinPool newPool) {
+        pool = newPool;
+    }
+
+    /**
+     * Checks to see if the network has finished. A network finishes once
+     * vehicles stop arriving and every lane of every intersection has
+     * emptied.
+     * @return
+     *      true if the network has finished, else false.
+     */
+    public boolean isFinished() {
+        if (timeStep <= simulationTime)
+            return false;
+        for (int i = 0; i < intersections.length; i++) {
+            if (!intersections[i].allRoadsEmpty())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Executes a single time step: vehicles arrive on the entry lanes, every
+     * intersection lets vehicles through, and the vehicles are moved onto
+     * their downstream lanes.
+     */
+    public void step() {
+        if (timeStep <= simulationTime)
+            arrive();
+
+        //Compute phase, each intersection only touches its own lanes
+        if (pool == null || intersections.length <= SPLIT_THRESHOLD)
+            computeRange(0, intersections.length);
+        else
+            pool.invoke(new ComputeTask(this, 0, intersections.length));
+
+        //Exchange phase, always in index order so results are deterministic
+        for (int i = 0; i < intersections.length; i++) {
+            DepartureBuffer removedCars = departures[i];
+            for (int j = 0; j < removedCars.size(); j++)
+                exchange(i, removedCars.getRoad(j), removedCars.getWay(j),
+                  removedCars.getLane(j), removedCars.getSerialId(j),
+                  removedCars.getTimeArrived(j));
+        }
+        timeStep++;
+    }
+
+    /**
+     * Steps the network until it has finished.
+     */
+    public void run() {
+        while (!isFinished())
+            step();
+    }
+
+    /**
+     * Enqueues newly arrived vehicles onto every entry lane.
+     */
+    private void arrive() {
+        for (int i = 0; i < intersections.length; i++) {
+            boolean[] fedLanes = fed[i];
+            BooleanSource[] sources = arrivalSources[i];
+            LaneLayout layout = layouts[i];
+            for (int lane = 0; lane < fedLanes.length; lane++) {
+                if (!fedLanes[lane] && sources[lane].occurs()) {
+                    intersections[i].enqueueVehicle(layout.getRoad(lane),
+                      layout.getWay(lane), layout.getLane(lane),
+                      ids.reserve(1), timeStep);
+                    vehiclesEntered++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Executes the compute phase for a range of intersections.
+     * @param from
+     *      The first intersection of the range, inclusive.
+     * @param to
+     *      The last intersection of the range, exclusive.
+     */
+    private void computeRange(int from, int to) {
+        for (int i = from; i < to; i++) {
+            departures[i].clear();
+            intersections[i].timeStep(departures[i]);
+        }
+    }
+
+    /**
+     * Records a departure and moves the vehicle onto its downstream lane.
+     * The vehicle arrives downstream at the next time step.
+     * @param intersection
+     *      The intersection the vehicle passed through.
+     * @param road
+     *      The road the vehicle passed through from.
+     * @param way
+     *      The direction the vehicle was headed.
+     * @param lane
+     *      The lane the vehicle passed through from.
+     * @param serialId
+     *      The serialId of the vehicle.
+     * @param timeArrived
+     *      The time the vehicle arrived at the intersection.
+     */
+    private void exchange(int intersection, int road, int way, int lane,
+      long serialId, int timeArrived) {
+        int waitTime = timeStep - timeArrived;
+        totalWaitTime += waitTime;
+        if (waitTime > maxWaitTime)
+            maxWaitTime = waitTime;
+
+        int from = layouts[intersection].index(road, way, lane);
+        int target = linkIntersection[intersection][from];
+        if (target < 0) {
+            vehiclesExited++;
+            return;
+        }
+        int to = linkLane[intersection][from];
+        LaneLayout layout = layouts[target];
+        intersections[target].enqueueVehicle(layout.getRoad(to),
+          layout.getWay(to), layout.getLane(to), serialId, timeStep + 1);
+        vehiclesTransferred++;
+    }
+
+    /**
+     * Returns the intersection at the indicated index.
+     * @param index
+     *      The index of the intersection.
+     * @return
+     *      The intersection at the indicated index.
+     */
+    public Intersection getIntersection(int index) {
+        return intersections[index];
+    }
+
+    /**
+     * Returns the number of intersections in this network.
+     * @return
+     *      The number of intersections in this network.
+     */
+    public int getNumIntersections() {
+        return intersections.length;
+    }
+
+    /**
+     * Returns the number of time steps that have been executed.
+     * @return
+     *      The number of time steps that have been executed.
+     */
+    public int getStepsExecuted() {
+        return timeStep - 1;
+    }
+
+    /**
+     * Returns the number of vehicles that have arrived from outside the
+     * network.
+     * @return
+     *      The number of vehicles that have arrived from outside.
+     */
+    public long getVehiclesEntered() {
+        return vehiclesEntered;
+    }
+
+    /**
+     * Returns the number of vehicles that have left the network.
+     * @return
+     *      The number of vehicles that have left the network.
+     */
+    public long getVehiclesExited() {
+        return vehiclesExited;
+    }
+
+    /**
+     * Returns the number of times a vehicle was moved onto a downstream lane.
+     * @return
+     *      The number of transfers between intersections.
+     */
+    public long getVehiclesTransferred() {
+        return vehiclesTransferred;
+    }
+
+    /**
+     * Returns the sum of the waits of every vehicle at every intersection
+     * it has passed through.
+     * @return
+     *      The total wait time.
+     */
+    public long getTotalWaitTime() {
+        return totalWaitTime;
+    }
+
+    /**
+     * Returns the longest wait of any vehicle at a single intersection.
+     * @return
+     *      The longest wait time.
+     */
+    public int getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    /**
+     * This ComputeTask class runs the compute phase for a range of
+     * intersections, splitting the range in half until it is small.
+     */
+    private static class ComputeTask extends RecursiveAction {
+
+        /**
+         * The serialization version, as RecursiveAction is Serializable.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The network whose intersections are stepped.
+         */
+        private RoadNetwork network;
+
+        /**
+         * The first intersection of the range, inclusive.
+         */
+        private int from;
+
+        /**
+         * The last intersection of the range, exclusive.
+         */
+        private int to;
+
+        /**
+         * Default constructor.
+         * @param initNetwork
+         *      The network whose intersections are stepped.
+         * @param initFrom
+         *      The first intersection of the range, inclusive.
+         * @param initTo
+         *      The last intersection of the range, exclusive.
+         */
+        ComputeTask(RoadNetwork initNetwork, int initFrom, int initTo) {
+            network = initNetwork;
+            from = initFrom;
+            to = initTo;
+        }
+
+        /**
+         * Steps the range, or splits it in two if it is too large.
+         */
+        protected void compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                network.computeRange(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ComputeTask(network, from, middle),
+              new ComputeTask(network, middle, to));
+        }
+    }
+
+}
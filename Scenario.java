@@ -0,0 +1,316 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This Scenario class describes one simulation run requested from the
+ * scenario service: the roads, their green times and lanes, the arrival
+ * probability, the number of steps, the seed and the arrival model and
+ * signal controller. It is read from a JSON object such as
+ *
+ *     {"roads": ["A", "B"], "greens": [3, 4], "probability": 0.25,
+ *      "steps": 10000, "seed": 42}
+ *
+ * where "seed" is optional, "lanes" may give the lanes per way of every
+ * road or of each road, "arrivals" may be "bernoulli" or "geometric",
+ * "eventDriven" may skip idle stretches and "controller" may be "fixed" or
+ * "max-pressure", as on the command line.
+ */
+public class Scenario {
+
+    /**
+     * The names of the roads.
+     */
+    private String[] roadNames;
+
+    /**
+     * The "green" times of the roads.
+     */
+    private int[] maxGreenTimes;
+
+    /**
+     * The number of lanes per way of each road, or null for the default.
+     */
+    private int[] lanesPerWay;
+
+    /**
+     * The probability used to check if a car arrives on each lane.
+     */
+    private double arrivalProbability;
+
+    /**
+     * The number of time steps during which vehicles may arrive.
+     */
+    private int simulationTime;
+
+    /**
+     * The master seed of the run.
+     */
+    private long seed;
+
+    /**
+     * Whether arrivals are sampled with geometric skip-ahead.
+     */
+    private boolean geometricArrivals;
+
+    /**
+     * Whether idle stretches are skipped instead of stepped through.
+     */
+    private boolean eventDriven;
+
+    /**
+     * Whether the light goes to the road with the most vehicles waiting.
+     */
+    private boolean maxPressureControl;
+
+    /**
+     * Default constructor.
+     * Private; scenarios are read by fromJson().
+     */
+    private Scenario() {
+    }
+
+    /**
+     * Reads a scenario from a JSON document.
+     * @param json
+     *      The JSON object describing the scenario.
+     * @return
+     *      The scenario.
+     * @throws IllegalArgumentException
+     *      Indicates that json is malformed, a required member is missing,
+     *      or a member is of the wrong type or out of range.
+     */
+    public static Scenario fromJson(String json) {
+        Object document = JsonReader.parse(json);
+        if (!(document instanceof Map))
+            throw new IllegalArgumentException("Expected a JSON object");
+        Map<?, ?> members = (Map<?, ?>)document;
+        for (Object name : members.keySet()) {
+            if (!name.equals("roads") && !name.equals("greens")
+              && !name.equals("lanes") && !name.equals("probability")
+              && !name.equals("steps") && !name.equals("seed")
+              && !name.equals("arrivals") && !name.equals("eventDriven")
+              && !name.equals("controller"))
+                throw new IllegalArgumentException("Unknown member \""
+                  + name + "\"");
+        }
+
+        Scenario scenario = new Scenario();
+        List<?> roads = list(members, "roads");
+        if (roads.isEmpty() || roads.size() > Intersection.ROAD_LIMIT)
+            throw new IllegalArgumentException("\"roads\" must name 1 to "
+              + Intersection.ROAD_LIMIT + " roads");
+        scenario.roadNames = new String[roads.size()];
+        for (int i = 0; i < roads.size(); i++) {
+            if (!(roads.get(i) instanceof String))
+                throw new IllegalArgumentException(
+                  "\"roads\" must hold strings");
+            scenario.roadNames[i] = (String)roads.get(i);
+            for (int j = 0; j < i; j++) {
+                if (scenario.roadNames[j].equals(scenario.roadNames[i]))
+                    throw new IllegalArgumentException("Duplicate road \""
+                      + scenario.roadNames[i] + "\"");
+            }
+        }
+        scenario.maxGreenTimes = ints(list(members, "greens"), "greens", 1,
+          Integer.MAX_VALUE);
+        if (scenario.maxGreenTimes.length != roads.size())
+            throw new IllegalArgumentException(
+              "\"greens\" must have a green time for every road");
+
+        Object lanes = members.get("lanes");
+        if (lanes instanceof List) {
+            scenario.lanesPerWay = ints((List<?>)lanes, "lanes",
+              TwoWayRoad.MIN_LANES, TwoWayRoad.MAX_LANES);
+            if (scenario.lanesPerWay.length != roads.size())
+                throw new IllegalArgumentException(
+                  "\"lanes\" must have a count for every road");
+        }
+        else if (lanes != null) {
+            int count = (int)number(members, "lanes", TwoWayRoad.MIN_LANES,
+              TwoWayRoad.MAX_LANES);
+            scenario.lanesPerWay = new int[roads.size()];
+            Arrays.fill(scenario.lanesPerWay, count);
+        }
+
+        Object probability = members.get("probability");
+        if (!(probability instanceof Number))
+            throw new IllegalArgumentException(
+              "\"probability\" must be a number");
+        scenario.arrivalProbability = ((Number)probability).doubleValue();
+        if (!(scenario.arrivalProbability > 0)
+          || scenario.arrivalProbability > 1)
+            throw new IllegalArgumentException(
+              "\"probability\" must be in (0, 1]");
+        scenario.simulationTime = (int)number(members, "steps", 0,
+          Integer.MAX_VALUE - 1);
+        scenario.seed = members.containsKey("seed")
+          ? number(members, "seed", Long.MIN_VALUE, Long.MAX_VALUE)
+          : RandomStream.randomSeed();
+
+        String arrivals = string(members, "arrivals", "bernoulli");
+        if (!arrivals.equals("bernoulli") && !arrivals.equals("geometric"))
+            throw new IllegalArgumentException(
+              "\"arrivals\" must be \"bernoulli\" or \"geometric\"");
+        scenario.geometricArrivals = arrivals.equals("geometric");
+        Object eventDriven = members.get("eventDriven");
+        if (eventDriven != null && !(eventDriven instanceof Boolean))
+            throw new IllegalArgumentException(
+              "\"eventDriven\" must be true or false");
+        scenario.eventDriven = Boolean.TRUE.equals(eventDriven);
+        String controller = string(members, "controller", "fixed");
+        if (!controller.equals("fixed") && !controller.equals("max-pressure"))
+            throw new IllegalArgumentException(
+              "\"controller\" must be \"fixed\" or \"max-pressure\"");
+        scenario.maxPressureControl = controller.equals("max-pressure");
+        return scenario;
+    }
+
+    /**
+     * Builds a new, isolated Simulation of this scenario.
+     * @return
+     *      The simulation, not yet run.
+     */
+    public Simulation newSimulation() {
+        Simulation simulation = new Simulation(simulationTime,
+          arrivalProbability, roadNames, maxGreenTimes, null, lanesPerWay,
+          seed);
+        if (geometricArrivals)
+            simulation.useGeometricArrivals();
+        if (maxPressureControl)
+            simulation.useMaxPressureControl();
+        simulation.setEventDriven(eventDriven);
+        return simulation;
+    }
+
+    /**
+     * Returns the names of the roads.
+     * @return
+     *      A copy of the road names.
+     */
+    public String[] getRoadNames() {
+        return roadNames.clone();
+    }
+
+    /**
+     * Returns the number of time steps during which vehicles may arrive.
+     * @return
+     *      The simulation time.
+     */
+    public int getSimulationTime() {
+        return simulationTime;
+    }
+
+    /**
+     * Returns the number of lanes of the intersection, in both directions
+     * of every road.
+     * @return
+     *      The number of lanes vehicles may arrive on.
+     */
+    public int getNumLanes() {
+        int lanes = 0;
+        for (int road = 0; road < roadNames.length; road++)
+            lanes += LaneLayout.NUM_WAYS * (lanesPerWay == null
+              ? TwoWayRoad.DEFAULT_NUM_LANES : lanesPerWay[road]);
+        return lanes;
+    }
+
+    /**
+     * Returns the master seed of the run.
+     * @return
+     *      The seed, drawn at random if the scenario gave none.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Returns a member which must be an array.
+     * @param members
+     *      The members of the scenario.
+     * @param name
+     *      The name of the member.
+     * @return
+     *      The elements of the array.
+     */
+    private static List<?> list(Map<?, ?> members, String name) {
+        Object value = members.get(name);
+        if (!(value instanceof List))
+            throw new IllegalArgumentException("\"" + name
+              + "\" must be an array");
+        return (List<?>)value;
+    }
+
+    /**
+     * Converts the elements of an array member to ints.
+     * @param elements
+     *      The elements.
+     * @param name
+     *      The name of the member, for error messages.
+     * @param min
+     *      The smallest value allowed.
+     * @param max
+     *      The largest value allowed.
+     * @return
+     *      The elements as ints.
+     */
+    private static int[] ints(List<?> elements, String name, int min,
+      int max) {
+        int[] values = new int[elements.size()];
+        for (int i = 0; i < values.length; i++) {
+            Object element = elements.get(i);
+            if (!(element instanceof Long) || (Long)element < min
+              || (Long)element > max)
+                throw new IllegalArgumentException("\"" + name
+                  + "\" must hold integers in [" + min + ", " + max + "]");
+            values[i] = (int)(long)(Long)element;
+        }
+        return values;
+    }
+
+    /**
+     * Returns a member which must be an integer.
+     * @param members
+     *      The members of the scenario.
+     * @param name
+     *      The name of the member.
+     * @param min
+     *      The smallest value allowed.
+     * @param max
+     *      The largest value allowed.
+     * @return
+     *      The value of the member.
+     */
+    private static long number(Map<?, ?> members, String name, long min,
+      long max) {
+        Object value = members.get(name);
+        if (!(value instanceof Long) || (Long)value < min
+          || (Long)value > max)
+            throw new IllegalArgumentException("\"" + name
+              + "\" must be an integer in [" + min + ", " + max + "]");
+        return (Long)value;
+    }
+
+    /**
+     * Returns a member which must be a string if present.
+     * @param members
+     *      The members of the scenario.
+     * @param name
+     *      The name of the member.
+     * @param defaultValue
+     *      The value if the member is missing.
+     * @return
+     *      The value of the member.
+     */
+    private static String string(Map<?, ?> members, String name,
+      String defaultValue) {
+        Object value = members.get(name);
+        if (value == null)
+            return defaultValue;
+        if (!(value instanceof String))
+            throw new IllegalArgumentException("\"" + name
+              + "\" must be a string");
+        return (String)value;
+    }
+
+}
@@ -0,0 +1,528 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * This ScenarioService class is a long-lived local HTTP service which runs
+ * simulations on request, so tools that run many scenarios do not start a
+ * JVM and parse its output for each.
+ *
+ * POST /simulate takes a Scenario as a JSON object and answers with a JSON
+ * summary of the run and how long the request waited and ran. GET /stats
+ * answers with the number of requests served and the percentiles of their
+ * total latency, the same interval each answer reports as its total: from
+ * the request being received until its run finished, before the answer is
+ * written. Every request is handled on its own thread, a virtual
+ * thread where the JVM has them, and runs its own Simulation, so runs share
+ * no state.
+ *
+ * Admission is limited so concurrent runs do not oversubscribe the CPU: at
+ * most maxConcurrent simulations run at once, by default one per available
+ * processor, and at most maxQueued more wait for a turn. A request beyond
+ * that is turned away at once with 503 Service Unavailable rather than
+ * queued without bound. Scenarios are refused with 400 Bad Request if they
+ * ask for more than MAX_STEPS steps or MAX_LANE_STEPS lane steps, so no
+ * single run can hold a turn for hours or fill the heap. The service only
+ * listens on the loopback address.
+ */
+public class ScenarioService {
+
+    /**
+     * The largest request body accepted, in bytes.
+     */
+    public static final int MAX_BODY = 1 << 20;
+
+    /**
+     * The most steps a scenario may ask for, as a run cannot be cancelled
+     * once it holds one of the maxConcurrent turns.
+     */
+    public static final int MAX_STEPS = 10000000;
+
+    /**
+     * The most lane steps (steps times lanes) a scenario may ask for. Every
+     * lane step may add a waiting vehicle, so this bounds both the time and
+     * the memory a run takes.
+     */
+    public static final long MAX_LANE_STEPS = 50000000L;
+
+    /**
+     * The HTTP server, or null before start().
+     */
+    private HttpServer server;
+
+    /**
+     * The executor requests are handled on.
+     */
+    private ExecutorService executor;
+
+    /**
+     * The port to listen on, 0 for any free port.
+     */
+    private int port;
+
+    /**
+     * The number of simulations allowed to run at once.
+     */
+    private int maxConcurrent;
+
+    /**
+     * The number of requests allowed to wait for a turn to run.
+     */
+    private int maxQueued;
+
+    /**
+     * One permit per simulation allowed to run at once.
+     */
+    private Semaphore running;
+
+    /**
+     * One permit per request allowed to run or wait, taken without waiting
+     * so a full service turns requests away.
+     */
+    private Semaphore admitted;
+
+    /**
+     * The total latency of the completed requests in microseconds.
+     */
+    private LogHistogram latencies;
+
+    /**
+     * The number of requests which ran to completion.
+     */
+    private long completed;
+
+    /**
+     * The number of requests turned away because the service was full.
+     */
+    private long rejected;
+
+    /**
+     * The number of requests which were malformed or failed.
+     */
+    private long failed;
+
+    /**
+     * Default constructor.
+     * @param initPort
+     *      The port to listen on, 0 for any free port.
+     * @param initMaxConcurrent
+     *      The number of simulations allowed to run at once. Must be > 0.
+     * @param initMaxQueued
+     *      The number of requests allowed to wait for a turn to run. Must be
+     *      >= 0.
+     * @throws IllegalArgumentException
+     *      Indicates that a limit is out of range.
+     */
+    public ScenarioService(int initPort, int initMaxConcurrent,
+      int initMaxQueued) {
+        if (initMaxConcurrent <= 0 || initMaxQueued < 0)
+            throw new IllegalArgumentException("Invalid admission limits.");
+        port = initPort;
+        maxConcurrent = initMaxConcurrent;
+        maxQueued = initMaxQueued;
+        running = new Semaphore(maxConcurrent, true);
+        admitted = new Semaphore(maxConcurrent + maxQueued);
+        latencies = new LogHistogram();
+    }
+
+    /**
+     * Starts listening. Requests are served until stop() is called.
+     * @throws IOException
+     *      Indicates that the port could not be bound.
+     */
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(
+          InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/simulate", this::simulate);
+        server.createContext("/stats", this::stats);
+        executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Stops listening, waiting up to a second for requests being answered.
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /**
+     * Returns the port the service listens on.
+     * @return
+     *      The bound port once started, else the port asked for.
+     */
+    public int getPort() {
+        return server == null ? port : server.getAddress().getPort();
+    }
+
+    /**
+     * Creates an executor which runs every task on a new virtual thread.
+     * Virtual threads only exist from Java 21, and this code is built for
+     * Java 17, so the factory is looked up by reflection; without it every
+     * task gets a pooled platform thread instead. Either way admission is
+     * limited by the semaphores, not by the executor.
+     * @return
+     *      The executor requests are handled on.
+     */
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService)Executors.class
+              .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch(ReflectiveOperationException | UnsupportedOperationException e) {
+            //Older JVM, or virtual threads still a disabled preview
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Returns whether requests are handled on virtual threads.
+     * @return
+     *      true if the running JVM has virtual threads, else false.
+     */
+    public boolean isVirtual() {
+        return !(executor instanceof ThreadPoolExecutor);
+    }
+
+    /**
+     * Handles POST /simulate: reads the scenario, waits for a turn, runs it
+     * and answers with its summary.
+     * @param exchange
+     *      The request.
+     * @throws IOException
+     *      Indicates that the request could not be read or answered.
+     */
+    private void simulate(HttpExchange exchange) throws IOException {
+        long received = System.nanoTime();
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                respondError(exchange, 405, "Use POST");
+                return;
+            }
+            Scenario scenario;
+            try {
+                scenario = Scenario.fromJson(readBody(exchange));
+            }
+            catch(IllegalArgumentException e) {
+                countFailed();
+                respondError(exchange, 400, e.getMessage());
+                return;
+            }
+            if (scenario.getSimulationTime() > MAX_STEPS
+              || (long)scenario.getSimulationTime() * scenario.getNumLanes()
+              > MAX_LANE_STEPS) {
+                countFailed();
+                respondError(exchange, 400, "\"steps\" must be at most "
+                  + MAX_STEPS + " and steps times lanes at most "
+                  + MAX_LANE_STEPS);
+                return;
+            }
+            if (!admitted.tryAcquire()) {
+                countRejected();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                respondError(exchange, 503, "Too many scenarios in progress");
+                return;
+            }
+            try {
+                running.acquire();
+                long started = System.nanoTime();
+                Simulation simulation;
+                try {
+                    simulation = scenario.newSimulation();
+                    simulation.run();
+                }
+                finally {
+                    running.release();
+                }
+                //Both the answer and /stats report the request up to here,
+                //leaving out the time taken to write the answer
+                long finished = System.nanoTime();
+                StringBuilder json = new StringBuilder(512);
+                json.append('{');
+                appendSummary(json, simulation);
+                json.append(",\"latencyMillis\":{\"queued\":");
+                appendMillis(json, started - received);
+                json.append(",\"run\":");
+                appendMillis(json, finished - started);
+                json.append(",\"total\":");
+                appendMillis(json, finished - received);
+                json.append("}}");
+                respond(exchange, 200, json);
+                countCompleted(finished - received);
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                countFailed();
+                respondError(exchange, 503, "Interrupted");
+            }
+            catch(RuntimeException e) {
+                countFailed();
+                respondError(exchange, 500, String.valueOf(e.getMessage()));
+            }
+            finally {
+                admitted.release();
+            }
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Handles GET /stats: answers with the number of requests served and
+     * the latency percentiles of the completed ones.
+     * @param exchange
+     *      The request.
+     * @throws IOException
+     *      Indicates that the request could not be answered.
+     */
+    private void stats(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                respondError(exchange, 405, "Use GET");
+                return;
+            }
+            int active = maxConcurrent - running.availablePermits();
+            int inFlight = maxConcurrent + maxQueued
+              - admitted.availablePermits();
+            StringBuilder json = new StringBuilder(256);
+            json.append("{\"maxConcurrent\":").append(maxConcurrent)
+              .append(",\"maxQueued\":").append(maxQueued)
+              .append(",\"running\":").append(active)
+              .append(",\"queued\":").append(Math.max(0, inFlight - active));
+            synchronized (this) {
+                json.append(",\"completed\":").append(completed)
+                  .append(",\"rejected\":").append(rejected)
+                  .append(",\"failed\":").append(failed)
+                  .append(",\"latencyMillis\":{\"mean\":");
+                appendMillis(json, (long)(latencies.getMean() * 1000));
+                json.append(",\"p50\":");
+                appendMillis(json,
+                  latencies.getValueAtPercentile(50) * 1000L);
+                json.append(",\"p95\":");
+                appendMillis(json,
+                  latencies.getValueAtPercentile(95) * 1000L);
+                json.append(",\"p99\":");
+                appendMillis(json,
+                  latencies.getValueAtPercentile(99) * 1000L);
+                json.append(",\"max\":");
+                appendMillis(json, latencies.getMax() * 1000L);
+                json.append("}}");
+            }
+            respond(exchange, 200, json);
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Appends the members of the JSON summary of a finished simulation: its
+     * totals and the 50th, 95th and 99th percentile waits of the
+     * intersection and of each road.
+     * @param json
+     *      The StringBuilder to append the members to, inside an object.
+     * @param simulation
+     *      The finished simulation.
+     */
+    public static void appendSummary(StringBuilder json,
+      Simulation simulation) {
+        json.append("\"seed\":").append(simulation.getSeed())
+          .append(",\"steps\":").append(simulation.getStepsExecuted())
+          .append(",\"totalVehicles\":").append(simulation.getTotalVehicles())
+          .append(",\"carsPassed\":").append(simulation.getCarsPassed())
+          .append(",\"longestWait\":").append(simulation.getMaxWaitTime())
+          .append(",\"totalWait\":").append(simulation.getTotalWaitTime())
+          .append(",\"averageWait\":")
+          .append(String.format(Locale.ROOT, "%.4f",
+            simulation.getAverageWaitTime()))
+          .append(",\"waitPercentiles\":");
+        appendPercentiles(json, simulation.getWaitHistogram());
+        json.append(",\"roads\":[");
+        String[] roadNames = simulation.getRoadNames();
+        LaneLayout layout = simulation.getLaneLayout();
+        LogHistogram[] laneWaits = simulation.getLaneWaitHistograms();
+        for (int road = 0; road < roadNames.length; road++) {
+            LogHistogram roadWaits = new LogHistogram();
+            int offset = layout.getRoadOffset(road);
+            int lanes = LaneLayout.NUM_WAYS * layout.getLanesPerWay(road);
+            for (int lane = offset; lane < offset + lanes; lane++)
+                roadWaits.add(laneWaits[lane]);
+            if (road > 0)
+                json.append(',');
+            json.append("{\"name\":");
+            appendString(json, roadNames[road]);
+            json.append(",\"waitPercentiles\":");
+            appendPercentiles(json, roadWaits);
+            json.append('}');
+        }
+        json.append(']');
+    }
+
+    /**
+     * Appends the count and the 50th, 95th and 99th percentiles of a wait
+     * histogram as a JSON object.
+     * @param json
+     *      The StringBuilder to append to.
+     * @param waits
+     *      The histogram.
+     */
+    private static void appendPercentiles(StringBuilder json,
+      LogHistogram waits) {
+        json.append("{\"count\":").append(waits.getCount())
+          .append(",\"p50\":").append(waits.getValueAtPercentile(50))
+          .append(",\"p95\":").append(waits.getValueAtPercentile(95))
+          .append(",\"p99\":").append(waits.getValueAtPercentile(99))
+          .append(",\"max\":").append(waits.getMax()).append('}');
+    }
+
+    /**
+     * Appends a duration as milliseconds with three decimals.
+     * @param json
+     *      The StringBuilder to append to.
+     * @param nanos
+     *      The duration in nanoseconds.
+     */
+    private static void appendMillis(StringBuilder json, long nanos) {
+        json.append(millis(nanos));
+    }
+
+    /**
+     * Formats a duration as milliseconds with three decimals.
+     * @param nanos
+     *      The duration in nanoseconds.
+     * @return
+     *      The number of milliseconds.
+     */
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    /**
+     * Appends a string as a JSON string literal.
+     * @param json
+     *      The StringBuilder to append to.
+     * @param value
+     *      The string.
+     */
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+                json.append('\\').append(c);
+            else if (c < ' ')
+                json.append(String.format("\\u%04x", (int)c));
+            else
+                json.append(c);
+        }
+        json.append('"');
+    }
+
+    /**
+     * Reads the body of a request as UTF-8.
+     * @param exchange
+     *      The request.
+     * @return
+     *      The body.
+     * @throws IOException
+     *      Indicates that the body could not be read.
+     * @throws IllegalArgumentException
+     *      Indicates that the body is longer than MAX_BODY.
+     */
+    private static String readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = exchange.getRequestBody()) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                if (body.size() + read > MAX_BODY)
+                    throw new IllegalArgumentException("Scenario longer than "
+                      + MAX_BODY + " bytes");
+                body.write(buffer, 0, read);
+            }
+        }
+        return body.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Answers a request with a JSON error.
+     * @param exchange
+     *      The request.
+     * @param status
+     *      The HTTP status.
+     * @param message
+     *      What went wrong.
+     * @throws IOException
+     *      Indicates that the answer could not be written.
+     */
+    private static void respondError(HttpExchange exchange, int status,
+      String message) throws IOException {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        appendString(json, message);
+        json.append('}');
+        respond(exchange, status, json);
+    }
+
+    /**
+     * Answers a request with a JSON body.
+     * @param exchange
+     *      The request.
+     * @param status
+     *      The HTTP status.
+     * @param json
+     *      The body.
+     * @throws IOException
+     *      Indicates that the answer could not be written.
+     */
+    private static void respond(HttpExchange exchange, int status,
+      CharSequence json) throws IOException {
+        byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type",
+          "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Counts a completed request and records its latency.
+     * @param nanos
+     *      The total latency the request was answered with, in nanoseconds.
+     */
+    private synchronized void countCompleted(long nanos) {
+        completed++;
+        latencies.record((int)Math.min(Integer.MAX_VALUE, nanos / 1000));
+    }
+
+    /**
+     * Counts a request turned away because the service was full.
+     */
+    private synchronized void countRejected() {
+        rejected++;
+    }
+
+    /**
+     * Counts a malformed or failed request.
+     */
+    private synchronized void countFailed() {
+        failed++;
+    }
+
+}
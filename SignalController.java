@@ -0,0 +1,58 @@
+/**
+ * This SignalController interface decides which road of an intersection has
+ * the active light at each time step and lets its vehicles through. The
+ * light itself, the index of the active road and its countdownTimer, is
+ * kept by the Intersection, which delegates every step to its controller.
+ */
+public interface SignalController {
+
+    /**
+     * Performs a single iteration through the intersection: picks the road
+     * with the active light, lets it proceed and stores the new light with
+     * Intersection.setSignal().
+     * @param intersection
+     *      The intersection being stepped.
+     * @param listener
+     *      Told about every Vehicle which passes through, with the index of
+     *      the road it left.
+     * @return
+     *      The number of Vehicles which passed through during this time
+     *      step, all from the road at intersection.getLightIndex().
+     */
+    int timeStep(Intersection intersection, DepartureListener listener);
+
+    /**
+     * Advances the light exactly as the indicated number of calls to
+     * timeStep() would while every road is empty.
+     * @param intersection
+     *      The intersection being stepped. Every road is empty.
+     * @param steps
+     *      The number of idle steps to skip. Must be > 0.
+     */
+    void skipIdleSteps(Intersection intersection, long steps);
+
+    /**
+     * Returns the number of longs needed to hold the state of this
+     * controller, apart from the light kept by the Intersection.
+     * @return
+     *      The size of the state.
+     */
+    int stateSize();
+
+    /**
+     * Copies the state of this controller so it can later continue exactly
+     * where it left off.
+     * @param state
+     *      The array to copy into, at least stateSize() long.
+     */
+    void saveState(long[] state);
+
+    /**
+     * Replaces the state of this controller with one copied by saveState()
+     * from a controller built with the same parameters.
+     * @param state
+     *      The array to copy from.
+     */
+    void restoreState(long[] state);
+
+}
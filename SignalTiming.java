@@ -0,0 +1,118 @@
+import java.util.Arrays;
+
+/**
+ * This SignalTiming class is one configuration of the light: the green
+ * time of every road and how many steps of it are given to the left
+ * signal. Timings are immutable and compare by value, so they can be used
+ * as keys of a cache.
+ */
+public class SignalTiming {
+
+    /**
+     * The "green" time of each road.
+     */
+    private int[] greenTimes;
+
+    /**
+     * The left signal green time of each road.
+     */
+    private int[] leftSignalTimes;
+
+    /**
+     * Default constructor.
+     * @param initGreenTimes
+     *      The "green" time of each road. Each must be > 0.
+     * @param initLeftSignalTimes
+     *      The left signal green time of each road. Each must be in
+     *      [0, green time of the road].
+     * @throws IllegalArgumentException
+     *      Indicates that either array is null, the arrays are not the same
+     *      length, or a time is out of range.
+     */
+    public SignalTiming(int[] initGreenTimes, int[] initLeftSignalTimes) {
+        if (initGreenTimes == null || initLeftSignalTimes == null
+          || initGreenTimes.length != initLeftSignalTimes.length)
+            throw new IllegalArgumentException("Invalid signal timing.");
+        for (int i = 0; i < initGreenTimes.length; i++) {
+            if (initGreenTimes[i] <= 0 || initLeftSignalTimes[i] < 0
+              || initLeftSignalTimes[i] > initGreenTimes[i])
+                throw new IllegalArgumentException("Invalid signal timing.");
+        }
+        greenTimes = initGreenTimes.clone();
+        leftSignalTimes = initLeftSignalTimes.clone();
+    }
+
+    /**
+     * Creates the timing TwoWayRoad uses by default, where the left signal
+     * gets a third of each green time.
+     * @param greenTimes
+     *      The "green" time of each road.
+     * @return
+     *      The default timing for the green times.
+     */
+    public static SignalTiming withDefaultLeftSignal(int[] greenTimes) {
+        int[] leftSignalTimes = new int[greenTimes.length];
+        for (int i = 0; i < greenTimes.length; i++)
+            leftSignalTimes[i] = (int)(Math.floor((1.0/3) * greenTimes[i]));
+        return new SignalTiming(greenTimes, leftSignalTimes);
+    }
+
+    /**
+     * Returns the "green" time of each road.
+     * @return
+     *      A copy of the green times.
+     */
+    public int[] getGreenTimes() {
+        return greenTimes.clone();
+    }
+
+    /**
+     * Returns the left signal green time of each road.
+     * @return
+     *      A copy of the left signal green times.
+     */
+    public int[] getLeftSignalTimes() {
+        return leftSignalTimes.clone();
+    }
+
+    /**
+     * Checks to see if another object is a timing with the same times.
+     * @param obj
+     *      The object to compare with.
+     * @return
+     *      true if obj has the same green and left signal times.
+     */
+    public boolean equals(Object obj) {
+        if (!(obj instanceof SignalTiming))
+            return false;
+        SignalTiming other = (SignalTiming)obj;
+        return Arrays.equals(greenTimes, other.greenTimes)
+          && Arrays.equals(leftSignalTimes, other.leftSignalTimes);
+    }
+
+    /**
+     * Returns a hash code consistent with equals().
+     * @return
+     *      The hash code of this timing.
+     */
+    public int hashCode() {
+        return 31 * Arrays.hashCode(greenTimes)
+          + Arrays.hashCode(leftSignalTimes);
+    }
+
+    /**
+     * The string representation of this SignalTiming class.
+     * @return
+     *      Each road's green time and left signal time, as green/left.
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < greenTimes.length; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(greenTimes[i]).append('/').append(leftSignalTimes[i]);
+        }
+        return sb.append(']').toString();
+    }
+
+}
@@ -0,0 +1,819 @@
+import jdk.jfr.FlightRecorder;
+
+/**
+ * This Simulation class holds the state of one run of the intersection
+ * simulation so it can be advanced a step at a time without any output.
+ * It performs the same arrivals, time steps and statistics as
+ * IntersectionSimulator.simulate(), but keeps them in fields instead of
+ * printing them, which makes it suitable for long headless runs.
+ */
+public class Simulation {
+
+    /**
+     * The intersection being simulated.
+     */
+    private Intersection intersection;
+
+    /**
+     * The flat numbering of the lanes of the intersection.
+     */
+    private LaneLayout layout;
+
+    /**
+     * The process deciding which lanes a vehicle arrives on at each step.
+     * Lanes are indexed by their flat index in layout.
+     */
+    private ArrivalProcess arrivals;
+
+    /**
+     * Reusable buffer the arrival process writes each step's lanes to.
+     */
+    private int[] arrivingLanes;
+
+    /**
+     * The probability used to check if a car arrives on each lane.
+     */
+    private double arrivalProbability;
+
+    /**
+     * The names of the roads.
+     */
+    private String[] roadNames;
+
+    /**
+     * The "green" times of the roads.
+     */
+    private int[] maxGreenTimes;
+
+    /**
+     * Whether run() jumps over idle stretches instead of stepping through
+     * them.
+     */
+    private boolean eventDriven;
+
+    /**
+     * The master seed every random stream of this simulation derives from.
+     */
+    private long seed;
+
+    /**
+     * The number of time steps during which vehicles may arrive.
+     */
+    private int simulationTime;
+
+    /**
+     * The time step that will be executed by the next call to step().
+     */
+    private int timeStep;
+
+    /**
+     * The number of vehicles that have arrived so far.
+     */
+    private long totalVehicles;
+
+    /**
+     * Issues the serialIds of the vehicles arriving in this simulation, so
+     * simulations running one after another or side by side number their
+     * vehicles independently.
+     */
+    private VehicleIdAllocator ids;
+
+    /**
+     * The number of vehicles that have passed through the intersection.
+     */
+    private long carsPassed;
+
+    /**
+     * The number of vehicles currently waiting in a lane.
+     */
+    private long carsCurrently;
+
+    /**
+     * The longest wait of any vehicle that has passed through.
+     */
+    private int maxWaitTime;
+
+    /**
+     * The sum of the waits of every vehicle that has passed through.
+     */
+    private long totalWaitTime;
+
+    /**
+     * The waits of the vehicles that have passed through each lane,
+     * indexed by flat lane index.
+     */
+    private LogHistogram[] laneWaits;
+
+    /**
+     * Records every arrival and departure, or null if the run is not
+     * traced.
+     */
+    private TraceWriter trace;
+
+    /**
+     * Exports the outcome of every vehicle that passes through, or null if
+     * the run is not exported.
+     */
+    private DepartureExport export;
+
+    /**
+     * Updates the statistics for each vehicle let through by the
+     * intersection, created once so that steps do not allocate.
+     */
+    private DepartureListener departureStats;
+
+    /**
+     * Collects runtime metrics of each step, or null if the run is not
+     * monitored.
+     */
+    private SimulationMetrics metrics;
+
+    /**
+     * Default constructor.
+     * Builds the roads and intersection described by the parameters.
+     * @param initSimulationTime
+     *      The number of time steps during which vehicles may arrive.
+     * @param arrivalProbability
+     *      The probability used to check if a car arrives on each lane.
+     * @param roadNames
+     *      An array of Strings representing the names of each road.
+     * @param maxGreenTimes
+     *      An array of ints representing the "green" times for each road.
+     *      Must be the same length as roadNames.
+     * @throws IllegalArgumentException
+     *      Indicates that initSimulationTime < 0, either array is null, or
+     *      the arrays are not the same length.
+     */
+    public Simulation(int initSimulationTime, double arrivalProbability,
+      String[] roadNames, int[] maxGreenTimes) {
+        this(initSimulationTime, arrivalProbability, roadNames, maxGreenTimes,
+          RandomStream.randomSeed());
+    }
+
+    /**
+     * Constructor which seeds every random stream of the simulation, so
+     * two simulations with the same parameters and seed are identical.
+     * @param initSimulationTime
+     *      The number of time steps during which vehicles may arrive.
+     * @param arrivalProbability
+     *      The probability used to check if a car arrives on each lane.
+     * @param roadNames
+     *      An array of Strings representing the names of each road.
+     * @param maxGreenTimes
+     *      An array of ints representing the "green" times for each road.
+     *      Must be the same length as roadNames.
+     * @param initSeed
+     *      The master seed of the simulation.
+     * @throws IllegalArgumentException
+     *      Indicates that initSimulationTime < 0, either array is null, or
+     *      the arrays are not the same length.
+     */
+    public Simulation(int initSimulationTime, double arrivalProbability,
+      String[] roadNames, int[] maxGreenTimes, long initSeed) {
+        this(initSimulationTime, arrivalProbability, roadNames, maxGreenTimes,
+          null, initSeed);
+    }
+
+    /**
+     * Constructor which also sets the left signal green time of every road.
+     * @param initSimulationTime
+     *      The number of time steps during which vehicles may arrive.
+     * @param arrivalProbability
+     *      The probability used to check if a car arrives on each lane.
+     * @param roadNames
+     *      An array of Strings representing the names of each road.
+     * @param maxGreenTimes
+     *      An array of ints representing the "green" times for each road.
+     *      Must be the same length as roadNames.
+     * @param leftSignalTimes
+     *      The number of steps of each road's green time given to the left
+     *      signal, or null for a third of the green time. Must be the same
+     *      length as roadNames.
+     * @param initSeed
+     *      The master seed of the simulation.
+     * @throws IllegalArgumentException
+     *      Indicates that initSimulationTime < 0, roadNames or maxGreenTimes
+     *      is null, or the arrays are not the same length.
+     */
+    public Simulation(int initSimulationTime, double arrivalProbability,
+      String[] roadNames, int[] maxGreenTimes, int[] leftSignalTimes,
+      long initSeed) {
+        this(initSimulationTime, arrivalProbability, roadNames, maxGreenTimes,
+          leftSignalTimes, null, initSeed);
+    }
+
+    /**
+     * Constructor which also sets the number of lanes per way of every
+     * road. Up to Intersection.ROAD_LIMIT roads may be given.
+     * @param initSimulationTime
+     *      The number of time steps during which vehicles may arrive.
+     * @param arrivalProbability
+     *      The probability used to check if a car arrives on each lane.
+     * @param roadNames
+     *      An array of Strings representing the names of each road.
+     * @param maxGreenTimes
+     *      An array of ints representing the "green" times for each road.
+     *      Must be the same length as roadNames.
+     * @param leftSignalTimes
+     *      The number of steps of each road's green time given to the left
+     *      signal, or null for a third of the green time. Must be the same
+     *      length as roadNames.
+     * @param lanesPerWay
+     *      The number of lanes in each way of each road, or null for
+     *      TwoWayRoad.DEFAULT_NUM_LANES. Must be the same length as
+     *      roadNames.
+     * @param initSeed
+     *      The master seed of the simulation.
+     * @throws IllegalArgumentException
+     *      Indicates that initSimulationTime < 0, roadNames or maxGreenTimes
+     *      is null, the arrays are not the same length, there are more than
+     *      Intersection.ROAD_LIMIT roads or a lane count is out of range.
+     */
+    public Simulation(int initSimulationTime, double arrivalProbability,
+      String[] roadNames, int[] maxGreenTimes, int[] leftSignalTimes,
+      int[] lanesPerWay, long initSeed) {
+        if (initSimulationTime < 0 || roadNames == null
+          || maxGreenTimes == null || roadNames.length != maxGreenTimes.length
+          || roadNames.length > Intersection.ROAD_LIMIT
+          || (leftSignalTimes != null
+            && leftSignalTimes.length != roadNames.length)
+          || (lanesPerWay != null && lanesPerWay.length != roadNames.length))
+            throw new IllegalArgumentException("Invalid simulation parameters.");
+        TwoWayRoad[] roadList = new TwoWayRoad[roadNames.length];
+        for (int i = 0; i < roadNames.length; i++) {
+            int numLanes = lanesPerWay == null ? TwoWayRoad.DEFAULT_NUM_LANES
+              : lanesPerWay[i];
+            if (numLanes < TwoWayRoad.MIN_LANES
+              || numLanes > TwoWayRoad.MAX_LANES)
+                throw new IllegalArgumentException("Invalid lane count.");
+            int leftSignalTime = leftSignalTimes == null
+              ? (int)(Math.floor((1.0/3) * maxGreenTimes[i]))
+              : leftSignalTimes[i];
+            roadList[i] = new TwoWayRoad(roadNames[i], maxGreenTimes[i],
+              leftSignalTime, numLanes);
+        }
+        intersection = new Intersection(roadList, Intersection.ROAD_LIMIT);
+        layout = intersection.getLaneLayout();
+        arrivals = new BernoulliArrivals(
+          laneSources(arrivalProbability, initSeed, layout));
+        arrivingLanes = new int[layout.getNumLanes()];
+        this.arrivalProbability = arrivalProbability;
+        this.roadNames = roadNames.clone();
+        this.maxGreenTimes = maxGreenTimes.clone();
+        seed = initSeed;
+        simulationTime = initSimulationTime;
+        timeStep = 1;
+        laneWaits = new LogHistogram[layout.getNumLanes()];
+        for (int i = 0; i < laneWaits.length; i++)
+            laneWaits[i] = new LogHistogram();
+        departureStats = this::recordDeparture;
+        ids = new VehicleIdAllocator();
+    }
+
+    /**
+     * Creates one BooleanSource per lane of roads with the default number
+     * of lanes, each drawing from its own substream of the master seed,
+     * indexed by road * 6 + way * 3 + lane.
+     * @param arrivalProbability
+     *      The probability used to check if a car arrives on each lane.
+     * @param seed
+     *      The master seed.
+     * @param numRoads
+     *      The number of roads.
+     * @return
+     *      The BooleanSource of every lane.
+     */
+    public static BooleanSource[] laneSources(double arrivalProbability,
+      long seed, int numRoads) {
+        return laneSources(arrivalProbability, seed,
+          LaneLayout.uniform(numRoads, TwoWayRoad.DEFAULT_NUM_LANES));
+    }
+
+    /**
+     * Creates one BooleanSource per lane of a layout, lane i drawing from
+     * substream i of the master seed.
+     * @param arrivalProbability
+     *      The probability used to check if a car arrives on each lane.
+     * @param seed
+     *      The master seed.
+     * @param layout
+     *      The lanes of the intersection.
+     * @return
+     *      The BooleanSource of every lane, indexed by flat lane index.
+     */
+    public static BooleanSource[] laneSources(double arrivalProbability,
+      long seed, LaneLayout layout) {
+        RandomStream root = new RandomStream(seed);
+        BooleanSource[] sources = new BooleanSource[layout.getNumLanes()];
+        for (int i = 0; i < sources.length; i++)
+            sources[i] = new BooleanSource(arrivalProbability,
+              root.substream(i));
+        return sources;
+    }
+
+    /**
+     * Replaces the arrival process. Must be called before the first step.
+     * @param newArrivals
+     *      The new arrival process. It must cover every lane of the
+     *      intersection.
+     */
+    public void setArrivalProcess(ArrivalProcess newArrivals) {
+        arrivals = newArrivals;
+    }
+
+    /**
+     * Records every arrival and departure from now on to a trace. The
+     * caller closes the trace once the run is over.
+     * @param newTrace
+     *      The trace to write to, or null to stop tracing.
+     */
+    public void setTrace(TraceWriter newTrace) {
+        trace = newTrace;
+    }
+
+    /**
+     * Exports the outcome of every vehicle that passes through from now on.
+     * The caller closes the export once the run is over.
+     * @param newExport
+     *      The export to write to, or null to stop exporting.
+     */
+    public void setExport(DepartureExport newExport) {
+        export = newExport;
+    }
+
+    /**
+     * Records runtime metrics of every step from now on. Sampled steps are
+     * timed and their longest queue found; without metrics the clock is
+     * never read.
+     * @param newMetrics
+     *      The metrics to record into, or null to stop recording.
+     */
+    public void setMetrics(SimulationMetrics newMetrics) {
+        metrics = newMetrics;
+    }
+
+    /**
+     * Returns the metrics steps are recorded into.
+     * @return
+     *      The metrics, or null if the run is not monitored.
+     */
+    public SimulationMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Switches to geometric skip-ahead arrivals with the same probability
+     * and seed. The arrivals follow the same distribution as the default
+     * per-lane draws but cost only as much as the vehicles that arrive.
+     * Must be called before the first step.
+     */
+    public void useGeometricArrivals() {
+        arrivals = new GeometricArrivals(arrivalProbability, seed,
+          arrivingLanes.length);
+    }
+
+    /**
+     * Switches the light from the fixed cycle to a MaxPressureController,
+     * which gives the light to the road with the most vehicles waiting.
+     * Must be called before the first step.
+     */
+    public void useMaxPressureControl() {
+        intersection.setSignalController(
+          new MaxPressureController(roadNames.length));
+    }
+
+    /**
+     * Sets whether run() jumps over idle stretches, where every lane is
+     * empty, straight to the next arrival. The light is advanced exactly as
+     * stepping would, so results are identical either way. Only arrival
+     * processes that know their next arrival, such as GeometricArrivals,
+     * leave anything to skip.
+     * @param newEventDriven
+     *      true to skip idle stretches, else false.
+     */
+    public void setEventDriven(boolean newEventDriven) {
+        eventDriven = newEventDriven;
+    }
+
+    /**
+     * Jumps the clock over the idle steps before the next arrival if every
+     * lane is empty. Nothing is skipped if a vehicle is waiting.
+     * @return
+     *      The number of steps skipped.
+     */
+    public int advanceToNextEvent() {
+        if (timeStep > simulationTime || !intersection.allRoadsEmpty())
+            return 0;
+        int next = Math.min(arrivals.nextArrivalStep(), simulationTime + 1);
+        int skipped = next - timeStep;
+        if (skipped <= 0)
+            return 0;
+        intersection.skipIdleSteps(skipped);
+        timeStep = next;
+        return skipped;
+    }
+
+    /**
+     * Checks to see if the simulation has finished. A simulation finishes
+     * once vehicles stop arriving and every lane has emptied.
+     * @return
+     *      true if the simulation has finished, else false.
+     */
+    public boolean isFinished() {
+        return timeStep > simulationTime && intersection.allRoadsEmpty();
+    }
+
+    /**
+     * Executes a single time step: vehicles arrive on each lane, the
+     * intersection lets vehicles through, and the statistics are updated.
+     * The step is recorded as a SimulationStepEvent if JFR is recording
+     * it, and into the metrics if there are any.
+     */
+    public void step() {
+        //Loading an event class starts JFR, so events are only created
+        //once a recording has started it
+        SimulationStepEvent event = null;
+        if (FlightRecorder.isInitialized()) {
+            event = new SimulationStepEvent();
+            event.begin();
+        }
+        boolean sampled = metrics != null && metrics.sampleNext();
+        long start = sampled ? System.nanoTime() : 0;
+        long passedBefore = carsPassed;
+        int count = 0;
+        if (timeStep <= simulationTime) {
+            count = arrivals.arrivals(timeStep, arrivingLanes);
+            //The step's vehicles take consecutive ids, reserved at once
+            long serialId = count == 0 ? 0 : ids.reserve(count);
+            for (int i = 0; i < count; i++, serialId++) {
+                int lane = arrivingLanes[i];
+                int road = layout.getRoad(lane);
+                int way = layout.getWay(lane);
+                int laneIndex = layout.getLane(lane);
+                intersection.enqueueVehicle(road, way, laneIndex, serialId,
+                  timeStep);
+                if (trace != null)
+                    trace.arrival(timeStep, road, way, laneIndex, serialId);
+            }
+            totalVehicles += count;
+            carsCurrently += count;
+        }
+
+        intersection.timeStep(departureStats);
+        if (metrics != null || (event != null && event.shouldCommit()))
+            recordStep(event, sampled, start, count,
+              (int)(carsPassed - passedBefore));
+        timeStep++;
+    }
+
+    /**
+     * Records the step just executed as a SimulationStepEvent if JFR is
+     * recording it, and into the metrics if there are any.
+     * @param event
+     *      The event begun with the step, or null if JFR is not running.
+     * @param sampled
+     *      Whether the metrics sample the step.
+     * @param start
+     *      System.nanoTime() at the start of the step if it is sampled.
+     * @param arrived
+     *      The number of vehicles which arrived during the step.
+     * @param departed
+     *      The number of vehicles which passed through during the step.
+     */
+    private void recordStep(SimulationStepEvent event, boolean sampled,
+      long start, int arrived, int departed) {
+        if (sampled)
+            metrics.recordSample(System.nanoTime() - start,
+              intersection.getLongestQueue());
+        if (event != null && event.shouldCommit()) {
+            event.step = timeStep;
+            event.arrivals = arrived;
+            event.departures = departed;
+            event.queued = carsCurrently;
+            event.longestQueue = intersection.getLongestQueue();
+            event.randomDraws = arrivals.getRandomDraws();
+            event.commit();
+        }
+        if (metrics != null)
+            metrics.recordStep(arrived, departed, carsCurrently,
+              arrivals.getRandomDraws(), intersection.getLightTransitions());
+    }
+
+    /**
+     * Updates the statistics for a vehicle which passed through the
+     * intersection during the current time step.
+     * @param roadIndex
+     *      Index of the road the vehicle left.
+     * @param wayIndex
+     *      Index of the direction the vehicle was headed.
+     * @param laneIndex
+     *      Index of the lane the vehicle left.
+     * @param serialId
+     *      The serialId of the vehicle.
+     * @param timeArrived
+     *      The time the vehicle arrived.
+     */
+    private void recordDeparture(int roadIndex, int wayIndex, int laneIndex,
+      long serialId, int timeArrived) {
+        int waitTime = timeStep - timeArrived;
+        totalWaitTime += waitTime;
+        if (waitTime > maxWaitTime)
+            maxWaitTime = waitTime;
+        laneWaits[layout.index(roadIndex, wayIndex, laneIndex)]
+          .record(waitTime);
+        if (trace != null)
+            trace.departure(timeStep, roadIndex, wayIndex, laneIndex,
+              serialId, waitTime);
+        if (export != null)
+            export.departure(roadIndex, wayIndex, laneIndex, serialId,
+              timeArrived, timeStep);
+        carsPassed++;
+        carsCurrently--;
+    }
+
+    /**
+     * Steps the simulation until it has finished, jumping over idle
+     * stretches if the simulation is event driven.
+     */
+    public void run() {
+        while (!isFinished()) {
+            if (eventDriven) {
+                advanceToNextEvent();
+                if (isFinished())
+                    break;
+            }
+            step();
+        }
+        if (metrics != null)
+            metrics.publish();
+    }
+
+    /**
+     * Copies the complete state of this simulation into a checkpoint, which
+     * can be written out while the simulation carries on. Must be called
+     * between steps.
+     * @param checkpoint
+     *      The checkpoint to fill. Its arrays are reused when large enough.
+     * @throws UnsupportedOperationException
+     *      Indicates that the arrival process or the signal controller is
+     *      not one built by this class and cannot be checkpointed.
+     */
+    public void saveCheckpoint(SimulationCheckpoint checkpoint) {
+        if (!(arrivals instanceof BernoulliArrivals
+          || arrivals instanceof GeometricArrivals))
+            throw new UnsupportedOperationException(
+              "Cannot checkpoint this arrival process.");
+        SignalController controller = intersection.getSignalController();
+        if (!(controller instanceof FixedCycleController
+          || controller instanceof MaxPressureController))
+            throw new UnsupportedOperationException(
+              "Cannot checkpoint this signal controller.");
+        checkpoint.simulationTime = simulationTime;
+        checkpoint.arrivalProbability = arrivalProbability;
+        checkpoint.seed = seed;
+        checkpoint.roadNames = roadNames;
+        checkpoint.maxGreenTimes = maxGreenTimes;
+        checkpoint.lanesPerWay = layout.getLanesPerWay();
+        if (checkpoint.leftSignalTimes == null
+          || checkpoint.leftSignalTimes.length != roadNames.length)
+            checkpoint.leftSignalTimes = new int[roadNames.length];
+        for (int road = 0; road < roadNames.length; road++)
+            checkpoint.leftSignalTimes[road] =
+              intersection.getRoad(road).getLeftSignalGreenTime();
+        checkpoint.geometricArrivals = arrivals instanceof GeometricArrivals;
+        checkpoint.maxPressureControl =
+          controller instanceof MaxPressureController;
+        checkpoint.eventDriven = eventDriven;
+        checkpoint.timeStep = timeStep;
+        checkpoint.totalVehicles = totalVehicles;
+        checkpoint.nextSerialId = ids.getNextUnreserved();
+        checkpoint.carsPassed = carsPassed;
+        checkpoint.carsCurrently = carsCurrently;
+        checkpoint.maxWaitTime = maxWaitTime;
+        checkpoint.totalWaitTime = totalWaitTime;
+        checkpoint.lightIndex = intersection.getLightIndex();
+        checkpoint.countdownTimer = intersection.getCountdownTimer();
+
+        int numRoads = roadNames.length;
+        int numLanes = layout.getNumLanes();
+        if (checkpoint.lightValues == null
+          || checkpoint.lightValues.length != numRoads
+          || checkpoint.laneSizes.length != numLanes) {
+            checkpoint.lightValues = new byte[numRoads];
+            checkpoint.laneSizes = new int[numLanes];
+            checkpoint.laneWaits = new LogHistogram[numLanes];
+            for (int i = 0; i < checkpoint.laneWaits.length; i++)
+                checkpoint.laneWaits[i] = new LogHistogram();
+        }
+        checkpoint.ensureVehicleCapacity(intersection.getVehicleCount());
+        int vehicle = 0;
+        for (int road = 0; road < numRoads; road++) {
+            checkpoint.lightValues[road] =
+              (byte)intersection.getRoad(road).getLightValue().ordinal();
+        }
+        for (int lane = 0; lane < numLanes; lane++) {
+            VehicleQueue queue = intersection.getRoad(layout.getRoad(lane))
+              .getLane(layout.getWay(lane), layout.getLane(lane));
+            checkpoint.laneSizes[lane] = queue.size();
+            for (int i = 0; i < queue.size(); i++, vehicle++) {
+                checkpoint.serialIds[vehicle] = queue.getSerialId(i);
+                checkpoint.timesArrived[vehicle] = queue.getTimeArrived(i);
+            }
+        }
+        if (checkpoint.arrivalState == null
+          || checkpoint.arrivalState.length != arrivals.stateSize())
+            checkpoint.arrivalState = new long[arrivals.stateSize()];
+        arrivals.saveState(checkpoint.arrivalState);
+        if (checkpoint.controllerState == null
+          || checkpoint.controllerState.length != controller.stateSize())
+            checkpoint.controllerState = new long[controller.stateSize()];
+        controller.saveState(checkpoint.controllerState);
+        for (int i = 0; i < laneWaits.length; i++) {
+            checkpoint.laneWaits[i].reset();
+            checkpoint.laneWaits[i].add(laneWaits[i]);
+        }
+    }
+
+    /**
+     * Rebuilds a simulation from a checkpoint. It continues exactly as the
+     * simulation the checkpoint was taken from would have.
+     * @param checkpoint
+     *      The checkpoint to resume from.
+     * @return
+     *      The resumed simulation.
+     */
+    public static Simulation resume(SimulationCheckpoint checkpoint) {
+        Simulation simulation = new Simulation(checkpoint.simulationTime,
+          checkpoint.arrivalProbability, checkpoint.roadNames,
+          checkpoint.maxGreenTimes, checkpoint.leftSignalTimes,
+          checkpoint.lanesPerWay, checkpoint.seed);
+        if (checkpoint.geometricArrivals)
+            simulation.useGeometricArrivals();
+        if (checkpoint.maxPressureControl)
+            simulation.useMaxPressureControl();
+        simulation.eventDriven = checkpoint.eventDriven;
+        simulation.timeStep = checkpoint.timeStep;
+        simulation.totalVehicles = checkpoint.totalVehicles;
+        simulation.ids = new VehicleIdAllocator(checkpoint.nextSerialId,
+          VehicleIdAllocator.DEFAULT_BLOCK_SIZE);
+        simulation.carsPassed = checkpoint.carsPassed;
+        simulation.carsCurrently = checkpoint.carsCurrently;
+        simulation.maxWaitTime = checkpoint.maxWaitTime;
+        simulation.totalWaitTime = checkpoint.totalWaitTime;
+
+        Intersection intersection = simulation.intersection;
+        LightValue[] lightValues = LightValue.values();
+        int vehicle = 0;
+        for (int road = 0; road < checkpoint.roadNames.length; road++) {
+            intersection.getRoad(road).restoreLightValue(
+              lightValues[checkpoint.lightValues[road]]);
+        }
+        LaneLayout layout = simulation.layout;
+        for (int lane = 0; lane < layout.getNumLanes(); lane++) {
+            int size = checkpoint.laneSizes[lane];
+            for (int i = 0; i < size; i++, vehicle++)
+                intersection.enqueueVehicle(layout.getRoad(lane),
+                  layout.getWay(lane), layout.getLane(lane),
+                  checkpoint.serialIds[vehicle],
+                  checkpoint.timesArrived[vehicle]);
+        }
+        intersection.setSignal(checkpoint.lightIndex,
+          checkpoint.countdownTimer);
+        intersection.getSignalController().restoreState(
+          checkpoint.controllerState);
+        simulation.arrivals.restoreState(checkpoint.arrivalState);
+        for (int i = 0; i < simulation.laneWaits.length; i++)
+            simulation.laneWaits[i].add(checkpoint.laneWaits[i]);
+        return simulation;
+    }
+
+    /**
+     * Returns the names of the roads.
+     * @return
+     *      A copy of the names of the roads.
+     */
+    public String[] getRoadNames() {
+        return roadNames.clone();
+    }
+
+    /**
+     * Returns the flat numbering of the lanes of the intersection.
+     * @return
+     *      The lane layout.
+     */
+    public LaneLayout getLaneLayout() {
+        return layout;
+    }
+
+    /**
+     * Returns the intersection being simulated.
+     * @return
+     *      The intersection being simulated.
+     */
+    public Intersection getIntersection() {
+        return intersection;
+    }
+
+    /**
+     * Returns the master seed every random stream of this simulation
+     * derives from.
+     * @return
+     *      The master seed.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Returns the number of time steps that have been executed.
+     * @return
+     *      The number of time steps that have been executed.
+     */
+    public int getStepsExecuted() {
+        return timeStep - 1;
+    }
+
+    /**
+     * Returns the number of vehicles that have arrived so far.
+     * @return
+     *      The number of vehicles that have arrived so far.
+     */
+    public long getTotalVehicles() {
+        return totalVehicles;
+    }
+
+    /**
+     * Returns the number of vehicles that have passed through.
+     * @return
+     *      The number of vehicles that have passed through.
+     */
+    public long getCarsPassed() {
+        return carsPassed;
+    }
+
+    /**
+     * Returns the number of vehicles currently waiting in a lane.
+     * @return
+     *      The number of vehicles currently waiting in a lane.
+     */
+    public long getCarsCurrently() {
+        return carsCurrently;
+    }
+
+    /**
+     * Returns the longest wait of any vehicle that has passed through.
+     * @return
+     *      The longest wait of any vehicle that has passed through.
+     */
+    public int getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    /**
+     * Returns the sum of the waits of every vehicle that has passed through.
+     * @return
+     *      The sum of the waits of every vehicle that has passed through.
+     */
+    public long getTotalWaitTime() {
+        return totalWaitTime;
+    }
+
+    /**
+     * Returns the average wait of the vehicles that have passed through.
+     * @return
+     *      The average wait, or 0 if no vehicle has passed through.
+     */
+    public double getAverageWaitTime() {
+        if (carsPassed == 0)
+            return 0;
+        return (double)totalWaitTime / carsPassed;
+    }
+
+    /**
+     * Returns a snapshot of the wait times of the vehicles that have passed
+     * through each lane.
+     * @return
+     *      A copy of the histogram of each lane, indexed by flat lane
+     *      index as numbered by getLaneLayout().
+     */
+    public LogHistogram[] getLaneWaitHistograms() {
+        LogHistogram[] snapshot = new LogHistogram[laneWaits.length];
+        for (int i = 0; i < laneWaits.length; i++)
+            snapshot[i] = laneWaits[i].copy();
+        return snapshot;
+    }
+
+    /**
+     * Returns a snapshot of the wait times of the vehicles that have passed
+     * through every lane.
+     * @return
+     *      The merged histogram of every lane.
+     */
+    public LogHistogram getWaitHistogram() {
+        LogHistogram merged = new LogHistogram();
+        for (int i = 0; i < laneWaits.length; i++)
+            merged.add(laneWaits[i]);
+        return merged;
+    }
+
+}
@@ -0,0 +1,267 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * This SimulationCheckpoint class holds a copy of the complete state of a
+ * Simulation between two steps: its parameters, the vehicles waiting in
+ * every lane, the light, the state of every random stream and the running
+ * statistics. A Simulation resumed from it continues exactly as the
+ * original would have.
+ *
+ * Simulation.saveCheckpoint() fills the fields in place, growing the lane
+ * arrays only when needed, so one checkpoint can be reused for every
+ * capture. The copy is independent of the Simulation, so it can be written
+ * to disk on another thread while the simulation keeps running.
+ */
+public class SimulationCheckpoint {
+
+    /**
+     * The first int of a checkpoint file, "CKP1" in ASCII.
+     */
+    private static final int MAGIC = 0x434b5031;
+
+    /**
+     * The version of the file layout.
+     */
+    private static final int VERSION = 6;
+
+    //The state below is filled in by Simulation.saveCheckpoint() and read
+    //by Simulation.resume()
+
+    int simulationTime;
+    double arrivalProbability;
+    long seed;
+    String[] roadNames;
+    int[] maxGreenTimes;
+    int[] leftSignalTimes;
+    int[] lanesPerWay;
+    boolean geometricArrivals;
+    boolean maxPressureControl;
+    boolean eventDriven;
+
+    int timeStep;
+    long totalVehicles;
+    long nextSerialId;
+    long carsPassed;
+    long carsCurrently;
+    int maxWaitTime;
+    long totalWaitTime;
+
+    int lightIndex;
+    int countdownTimer;
+
+    /**
+     * The light value of each road, as LightValue ordinals.
+     */
+    byte[] lightValues;
+
+    /**
+     * The number of vehicles in each lane, indexed by flat lane index as
+     * numbered by the LaneLayout of lanesPerWay.
+     */
+    int[] laneSizes;
+
+    /**
+     * The serialIds of the vehicles of every lane, front first, lane after
+     * lane. Only the first sum of laneSizes entries are used.
+     */
+    long[] serialIds = new long[0];
+
+    /**
+     * The arrival times matching serialIds.
+     */
+    int[] timesArrived = new int[0];
+
+    /**
+     * The state of the arrival process.
+     */
+    long[] arrivalState;
+
+    /**
+     * The state of the signal controller.
+     */
+    long[] controllerState;
+
+    /**
+     * The wait time histogram of each lane.
+     */
+    LogHistogram[] laneWaits;
+
+    /**
+     * Default constructor.
+     * Creates an empty checkpoint to be filled by Simulation.saveCheckpoint()
+     * or read().
+     */
+    public SimulationCheckpoint() {
+    }
+
+    /**
+     * Returns the time step the checkpointed simulation will execute next.
+     * @return
+     *      The next time step.
+     */
+    public int getTimeStep() {
+        return timeStep;
+    }
+
+    /**
+     * Makes sure the vehicle arrays can hold the indicated number of
+     * vehicles.
+     * @param vehicles
+     *      The number of vehicles waiting.
+     */
+    void ensureVehicleCapacity(int vehicles) {
+        if (serialIds.length < vehicles) {
+            int capacity = Math.max(vehicles, serialIds.length * 2);
+            serialIds = Arrays.copyOf(serialIds, capacity);
+            timesArrived = Arrays.copyOf(timesArrived, capacity);
+        }
+    }
+
+    /**
+     * Writes this checkpoint to a file. The file is first written next to
+     * the target and then moved over it, so an interrupted write never
+     * leaves a broken checkpoint behind.
+     * @param path
+     *      The file to write.
+     * @throws IOException
+     *      Indicates that the file could not be written.
+     */
+    public void write(Path path) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(temporary),
+            1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(simulationTime);
+            out.writeDouble(arrivalProbability);
+            out.writeLong(seed);
+            out.writeInt(roadNames.length);
+            for (int i = 0; i < roadNames.length; i++) {
+                out.writeUTF(roadNames[i]);
+                out.writeInt(maxGreenTimes[i]);
+                out.writeInt(leftSignalTimes[i]);
+                out.writeInt(lanesPerWay[i]);
+                out.writeByte(lightValues[i]);
+            }
+            out.writeBoolean(geometricArrivals);
+            out.writeBoolean(maxPressureControl);
+            out.writeBoolean(eventDriven);
+
+            out.writeInt(timeStep);
+            out.writeLong(totalVehicles);
+            out.writeLong(nextSerialId);
+            out.writeLong(carsPassed);
+            out.writeLong(carsCurrently);
+            out.writeInt(maxWaitTime);
+            out.writeLong(totalWaitTime);
+            out.writeInt(lightIndex);
+            out.writeInt(countdownTimer);
+
+            int vehicle = 0;
+            for (int i = 0; i < laneSizes.length; i++) {
+                out.writeInt(laneSizes[i]);
+                for (int j = 0; j < laneSizes[i]; j++, vehicle++) {
+                    out.writeLong(serialIds[vehicle]);
+                    out.writeInt(timesArrived[vehicle]);
+                }
+            }
+            out.writeInt(arrivalState.length);
+            for (int i = 0; i < arrivalState.length; i++)
+                out.writeLong(arrivalState[i]);
+            out.writeInt(controllerState.length);
+            for (int i = 0; i < controllerState.length; i++)
+                out.writeLong(controllerState[i]);
+            for (int i = 0; i < laneWaits.length; i++)
+                laneWaits[i].writeTo(out);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a checkpoint written by write().
+     * @param path
+     *      The file to read.
+     * @return
+     *      The checkpoint read.
+     * @throws IOException
+     *      Indicates that the file could not be read or is not a
+     *      checkpoint.
+     */
+    public static SimulationCheckpoint read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+          new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a checkpoint: " + path);
+            SimulationCheckpoint checkpoint = new SimulationCheckpoint();
+            checkpoint.simulationTime = in.readInt();
+            checkpoint.arrivalProbability = in.readDouble();
+            checkpoint.seed = in.readLong();
+            int numRoads = in.readInt();
+            checkpoint.roadNames = new String[numRoads];
+            checkpoint.maxGreenTimes = new int[numRoads];
+            checkpoint.leftSignalTimes = new int[numRoads];
+            checkpoint.lanesPerWay = new int[numRoads];
+            checkpoint.lightValues = new byte[numRoads];
+            for (int i = 0; i < numRoads; i++) {
+                checkpoint.roadNames[i] = in.readUTF();
+                checkpoint.maxGreenTimes[i] = in.readInt();
+                checkpoint.leftSignalTimes[i] = in.readInt();
+                checkpoint.lanesPerWay[i] = in.readInt();
+                checkpoint.lightValues[i] = in.readByte();
+            }
+            checkpoint.geometricArrivals = in.readBoolean();
+            checkpoint.maxPressureControl = in.readBoolean();
+            checkpoint.eventDriven = in.readBoolean();
+
+            checkpoint.timeStep = in.readInt();
+            checkpoint.totalVehicles = in.readLong();
+            checkpoint.nextSerialId = in.readLong();
+            checkpoint.carsPassed = in.readLong();
+            checkpoint.carsCurrently = in.readLong();
+            checkpoint.maxWaitTime = in.readInt();
+            checkpoint.totalWaitTime = in.readLong();
+            checkpoint.lightIndex = in.readInt();
+            checkpoint.countdownTimer = in.readInt();
+
+            int numLanes;
+            try {
+                numLanes = new LaneLayout(checkpoint.lanesPerWay).getNumLanes();
+            }
+            catch(IllegalArgumentException e) {
+                throw new IOException("Bad checkpoint lanes: " + path, e);
+            }
+            checkpoint.laneSizes = new int[numLanes];
+            int vehicle = 0;
+            for (int i = 0; i < checkpoint.laneSizes.length; i++) {
+                int size = in.readInt();
+                checkpoint.laneSizes[i] = size;
+                checkpoint.ensureVehicleCapacity(vehicle + size);
+                for (int j = 0; j < size; j++, vehicle++) {
+                    checkpoint.serialIds[vehicle] = in.readLong();
+                    checkpoint.timesArrived[vehicle] = in.readInt();
+                }
+            }
+            checkpoint.arrivalState = new long[in.readInt()];
+            for (int i = 0; i < checkpoint.arrivalState.length; i++)
+                checkpoint.arrivalState[i] = in.readLong();
+            checkpoint.controllerState = new long[in.readInt()];
+            for (int i = 0; i < checkpoint.controllerState.length; i++)
+                checkpoint.controllerState[i] = in.readLong();
+            checkpoint.laneWaits = new LogHistogram[numLanes];
+            for (int i = 0; i < checkpoint.laneWaits.length; i++)
+                checkpoint.laneWaits[i] = LogHistogram.readFrom(in);
+            return checkpoint;
+        }
+    }
+
+}
@@ -0,0 +1,331 @@
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * This SimulationMetrics class collects runtime metrics of a Simulation:
+ * the wall time of each step, arrivals and departures, the vehicles queued,
+ * the longest queue, random draws and light transitions. It is exposed
+ * through JMX as a SimulationMetricsMBean.
+ *
+ * The simulation thread is the only writer. Recording a step updates plain
+ * fields, and every PUBLISH_INTERVAL steps the totals are copied into a new
+ * snapshot array handed over through a volatile field, which is all a JMX
+ * reader ever sees. Counts are kept for every step, but reading the clock
+ * costs more than a step of a small intersection, so the wall time and the
+ * longest queue are only measured on one step in SAMPLE_INTERVAL. A step
+ * therefore costs a handful of additions and no synchronization, so the
+ * metrics can stay on in production. A simulation without metrics does not
+ * read the clock at all.
+ */
+public class SimulationMetrics implements SimulationMetricsMBean {
+
+    /**
+     * The number of steps between snapshots.
+     */
+    public static final int PUBLISH_INTERVAL = 1024;
+
+    /**
+     * The number of steps between the steps whose wall time and longest
+     * queue are measured.
+     */
+    public static final int SAMPLE_INTERVAL = 16;
+
+    /**
+     * The domain of the JMX names registered by register().
+     */
+    public static final String DOMAIN = "traffic-simulator";
+
+    /**
+     * The positions of the values in a snapshot.
+     */
+    private static final int STEPS = 0;
+    private static final int ARRIVALS = 1;
+    private static final int DEPARTURES = 2;
+    private static final int QUEUED = 3;
+    private static final int LONGEST_QUEUE = 4;
+    private static final int MAX_QUEUE = 5;
+    private static final int RANDOM_DRAWS = 6;
+    private static final int LIGHT_TRANSITIONS = 7;
+    private static final int SAMPLES = 8;
+    private static final int LAST_STEP_NANOS = 9;
+    private static final int TOTAL_STEP_NANOS = 10;
+    private static final int MAX_STEP_NANOS = 11;
+    private static final int SNAPSHOT_SIZE = 12;
+
+    /**
+     * The running values, written only by the simulation thread and laid
+     * out as a snapshot.
+     */
+    private long[] current;
+
+    /**
+     * The values as of the last publish(), never modified once published.
+     */
+    private volatile long[] snapshot;
+
+    /**
+     * The steps left until the next snapshot.
+     */
+    private int untilPublish;
+
+    /**
+     * The steps left until the next sampled step.
+     */
+    private int untilSample;
+
+    /**
+     * Default constructor.
+     * Creates metrics with no step recorded.
+     */
+    public SimulationMetrics() {
+        current = new long[SNAPSHOT_SIZE];
+        snapshot = new long[SNAPSHOT_SIZE];
+        untilPublish = PUBLISH_INTERVAL;
+        untilSample = 1;
+    }
+
+    /**
+     * Tells the simulation whether the step it is starting is sampled, in
+     * which case it times the step and passes the result to
+     * recordSample() before recordStep(). The first step is sampled.
+     * @return
+     *      true if the step is sampled, else false.
+     */
+    public boolean sampleNext() {
+        if (--untilSample > 0)
+            return false;
+        untilSample = SAMPLE_INTERVAL;
+        return true;
+    }
+
+    /**
+     * Records the measurements of a sampled step. Called by the simulation
+     * thread only.
+     * @param nanos
+     *      The wall time of the step in nanoseconds.
+     * @param longestQueue
+     *      The length of the longest lane after the step.
+     */
+    public void recordSample(long nanos, int longestQueue) {
+        long[] values = current;
+        values[SAMPLES]++;
+        values[LAST_STEP_NANOS] = nanos;
+        values[TOTAL_STEP_NANOS] += nanos;
+        if (nanos > values[MAX_STEP_NANOS])
+            values[MAX_STEP_NANOS] = nanos;
+        values[LONGEST_QUEUE] = longestQueue;
+        if (longestQueue > values[MAX_QUEUE])
+            values[MAX_QUEUE] = longestQueue;
+    }
+
+    /**
+     * Records the counts of one step. Called by the simulation thread only.
+     * @param arrivals
+     *      The number of vehicles which arrived during the step.
+     * @param departures
+     *      The number of vehicles which passed through during the step.
+     * @param queued
+     *      The number of vehicles waiting after the step.
+     * @param randomDraws
+     *      The number of random values drawn by the arrival process so far.
+     * @param lightTransitions
+     *      The number of light transitions so far.
+     */
+    public void recordStep(int arrivals, int departures, long queued,
+      long randomDraws, long lightTransitions) {
+        long[] values = current;
+        values[STEPS]++;
+        values[ARRIVALS] += arrivals;
+        values[DEPARTURES] += departures;
+        values[QUEUED] = queued;
+        values[RANDOM_DRAWS] = randomDraws;
+        values[LIGHT_TRANSITIONS] = lightTransitions;
+        if (--untilPublish == 0)
+            publish();
+    }
+
+    /**
+     * Makes the values recorded so far visible to readers. Called by the
+     * simulation thread, which also calls it once the run is over so the
+     * last steps are not left out.
+     */
+    public void publish() {
+        snapshot = current.clone();
+        untilPublish = PUBLISH_INTERVAL;
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server under the
+     * name traffic-simulator:type=Simulation,name=NAME.
+     * @param name
+     *      The name of the simulation. Must be a valid JMX key value.
+     * @return
+     *      The name the metrics were registered under.
+     * @throws JMException
+     *      Indicates that the name is malformed or already registered.
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName(DOMAIN
+          + ":type=Simulation,name=" + name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+          objectName);
+        return objectName;
+    }
+
+    /**
+     * Removes these metrics from the platform MBean server.
+     * @param objectName
+     *      The name returned by register().
+     * @throws JMException
+     *      Indicates that nothing is registered under the name.
+     */
+    public void unregister(ObjectName objectName) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+          objectName);
+    }
+
+    /**
+     * Returns the number of steps recorded.
+     * @return
+     *      The number of steps.
+     */
+    public long getSteps() {
+        return snapshot[STEPS];
+    }
+
+    /**
+     * Returns the number of steps whose wall time and longest queue were
+     * measured.
+     * @return
+     *      The number of sampled steps.
+     */
+    public long getSamples() {
+        return snapshot[SAMPLES];
+    }
+
+    /**
+     * Returns the number of vehicles which arrived during the steps.
+     * @return
+     *      The number of arrivals.
+     */
+    public long getArrivals() {
+        return snapshot[ARRIVALS];
+    }
+
+    /**
+     * Returns the number of vehicles which passed through during the steps.
+     * @return
+     *      The number of departures.
+     */
+    public long getDepartures() {
+        return snapshot[DEPARTURES];
+    }
+
+    /**
+     * Returns the mean number of vehicles which arrived per step.
+     * @return
+     *      The mean arrivals per step, 0 if no step has been recorded.
+     */
+    public double getArrivalsPerStep() {
+        long[] values = snapshot;
+        return perStep(values[ARRIVALS], values[STEPS]);
+    }
+
+    /**
+     * Returns the mean number of vehicles which passed through per step.
+     * @return
+     *      The mean departures per step, 0 if no step has been recorded.
+     */
+    public double getDeparturesPerStep() {
+        long[] values = snapshot;
+        return perStep(values[DEPARTURES], values[STEPS]);
+    }
+
+    /**
+     * Returns the number of vehicles waiting after the last step.
+     * @return
+     *      The number of vehicles queued.
+     */
+    public long getVehiclesQueued() {
+        return snapshot[QUEUED];
+    }
+
+    /**
+     * Returns the length of the longest lane after the last sampled step.
+     * @return
+     *      The longest queue.
+     */
+    public int getLongestQueue() {
+        return (int)snapshot[LONGEST_QUEUE];
+    }
+
+    /**
+     * Returns the length of the longest lane after any sampled step.
+     * @return
+     *      The longest queue ever seen.
+     */
+    public int getMaxQueue() {
+        return (int)snapshot[MAX_QUEUE];
+    }
+
+    /**
+     * Returns the number of random values drawn by the arrival process.
+     * @return
+     *      The number of random draws.
+     */
+    public long getRandomDraws() {
+        return snapshot[RANDOM_DRAWS];
+    }
+
+    /**
+     * Returns the number of times the light of any road has changed.
+     * @return
+     *      The number of light transitions.
+     */
+    public long getLightTransitions() {
+        return snapshot[LIGHT_TRANSITIONS];
+    }
+
+    /**
+     * Returns the wall time of the last sampled step.
+     * @return
+     *      The wall time in nanoseconds.
+     */
+    public long getLastStepNanos() {
+        return snapshot[LAST_STEP_NANOS];
+    }
+
+    /**
+     * Returns the mean wall time of the sampled steps.
+     * @return
+     *      The mean wall time in nanoseconds, 0 if no step has been sampled.
+     */
+    public double getMeanStepNanos() {
+        long[] values = snapshot;
+        return perStep(values[TOTAL_STEP_NANOS], values[SAMPLES]);
+    }
+
+    /**
+     * Returns the longest wall time of any sampled step.
+     * @return
+     *      The longest wall time in nanoseconds.
+     */
+    public long getMaxStepNanos() {
+        return snapshot[MAX_STEP_NANOS];
+    }
+
+    /**
+     * Divides a total by a number of steps.
+     * @param total
+     *      The total.
+     * @param steps
+     *      The number of steps.
+     * @return
+     *      total / steps, or 0 if steps is 0.
+     */
+    private static double perStep(long total, long steps) {
+        return steps == 0 ? 0 : (double)total / steps;
+    }
+
+}
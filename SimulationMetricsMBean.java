@@ -0,0 +1,108 @@
+/**
+ * This SimulationMetricsMBean interface is the JMX management interface of
+ * SimulationMetrics. Every value comes from the snapshot last published by
+ * the simulation, so a monitor never reads a half updated set of values.
+ * Queue lengths and step times are measured on sampled steps only.
+ */
+public interface SimulationMetricsMBean {
+
+    /**
+     * Returns the number of steps recorded.
+     * @return
+     *      The number of steps.
+     */
+    long getSteps();
+
+    /**
+     * Returns the number of steps whose wall time and longest queue were
+     * measured.
+     * @return
+     *      The number of sampled steps.
+     */
+    long getSamples();
+
+    /**
+     * Returns the number of vehicles which arrived during the steps.
+     * @return
+     *      The number of arrivals.
+     */
+    long getArrivals();
+
+    /**
+     * Returns the number of vehicles which passed through during the steps.
+     * @return
+     *      The number of departures.
+     */
+    long getDepartures();
+
+    /**
+     * Returns the mean number of vehicles which arrived per step.
+     * @return
+     *      The mean arrivals per step, 0 if no step has been recorded.
+     */
+    double getArrivalsPerStep();
+
+    /**
+     * Returns the mean number of vehicles which passed through per step.
+     * @return
+     *      The mean departures per step, 0 if no step has been recorded.
+     */
+    double getDeparturesPerStep();
+
+    /**
+     * Returns the number of vehicles waiting after the last step.
+     * @return
+     *      The number of vehicles queued.
+     */
+    long getVehiclesQueued();
+
+    /**
+     * Returns the length of the longest lane after the last sampled step.
+     * @return
+     *      The longest queue.
+     */
+    int getLongestQueue();
+
+    /**
+     * Returns the length of the longest lane after any sampled step.
+     * @return
+     *      The longest queue ever seen.
+     */
+    int getMaxQueue();
+
+    /**
+     * Returns the number of random values drawn by the arrival process.
+     * @return
+     *      The number of random draws.
+     */
+    long getRandomDraws();
+
+    /**
+     * Returns the number of times the light of any road has changed.
+     * @return
+     *      The number of light transitions.
+     */
+    long getLightTransitions();
+
+    /**
+     * Returns the wall time of the last sampled step.
+     * @return
+     *      The wall time in nanoseconds.
+     */
+    long getLastStepNanos();
+
+    /**
+     * Returns the mean wall time of the sampled steps.
+     * @return
+     *      The mean wall time in nanoseconds, 0 if no step has been sampled.
+     */
+    double getMeanStepNanos();
+
+    /**
+     * Returns the longest wall time of any sampled step.
+     * @return
+     *      The longest wall time in nanoseconds.
+     */
+    long getMaxStepNanos();
+
+}
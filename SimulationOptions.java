@@ -0,0 +1,745 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This SimulationOptions class holds the optional settings given on the
+ * command line before the positional simulation arguments, such as
+ * "--headless" or "--report-interval 1000".
+ */
+public class SimulationOptions {
+
+    /**
+     * Whether the simulation runs without per-step rendering.
+     */
+    private boolean headless;
+
+    /**
+     * Whether the intersection is redrawn in place every step.
+     */
+    private boolean live;
+
+    /**
+     * Whether runtime metrics are collected, published through JMX and
+     * written with the summary.
+     */
+    private boolean metrics;
+
+    /**
+     * The wall-clock length of a step in nanoseconds when the run is paced,
+     * or 0 to run as fast as possible.
+     */
+    private long tickNanos;
+
+    /**
+     * What a paced run does with ticks whose deadline has passed.
+     */
+    private TickScheduler.OverrunPolicy overrunPolicy;
+
+    /**
+     * How many steps pass between progress lines in headless mode.
+     * 0 means only the final summary is printed.
+     */
+    private int reportInterval;
+
+    /**
+     * The number of independent replications to run, or 0 to run a single
+     * simulation.
+     */
+    private int replications;
+
+    /**
+     * The master seed of the run.
+     */
+    private long seed;
+
+    /**
+     * Whether arrivals are sampled with geometric skip-ahead instead of a
+     * draw per lane per step.
+     */
+    private boolean geometricArrivals;
+
+    /**
+     * Whether idle stretches are skipped instead of stepped through.
+     */
+    private boolean eventDriven;
+
+    /**
+     * Whether the light goes to the road with the most vehicles waiting
+     * instead of following the fixed cycle.
+     */
+    private boolean maxPressureControl;
+
+    /**
+     * Whether replications run side by side in BatchSimulations.
+     */
+    private boolean batchEngine;
+
+    /**
+     * The directory to write a trace of the run to, or null.
+     */
+    private String tracePath;
+
+    /**
+     * The directory of a trace whose arrivals drive the run, or null.
+     */
+    private String replayPath;
+
+    /**
+     * The live sources arrivals are read from, one per feed thread.
+     */
+    private String[] feedSources;
+
+    /**
+     * The file to export the outcome of every vehicle to, or null.
+     */
+    private String exportPath;
+
+    /**
+     * The file checkpoints are written to, or null.
+     */
+    private String checkpointPath;
+
+    /**
+     * How many steps pass between checkpoints.
+     */
+    private int checkpointInterval;
+
+    /**
+     * The checkpoint file to resume from, or null.
+     */
+    private String resumePath;
+
+    /**
+     * The number of candidate timings to search, or 0 to run the timing
+     * given.
+     */
+    private int optimizeCandidates;
+
+    /**
+     * The measure the optimizer minimizes.
+     */
+    private GreenTimeOptimizer.Objective objective;
+
+    /**
+     * The largest green time the optimizer searches, or 0 for twice the
+     * largest green time given.
+     */
+    private int maxGreenTime;
+
+    /**
+     * The number of lanes per way, one count for every road or a list with
+     * a count per road, or null for the default.
+     */
+    private int[] lanesPerWay;
+
+    /**
+     * The port the scenario service listens on, or -1 to run a single
+     * simulation.
+     */
+    private int servePort;
+
+    /**
+     * The number of scenarios the service runs at once.
+     */
+    private int maxConcurrent;
+
+    /**
+     * The number of scenarios allowed to wait for the service.
+     */
+    private int maxQueued;
+
+    /**
+     * The arguments left over once every option has been read.
+     */
+    private String[] positionalArgs;
+
+    /**
+     * Default constructor.
+     * Every option is initialized to its default and there are no
+     * positional arguments.
+     */
+    public SimulationOptions() {
+        headless = false;
+        live = false;
+        metrics = false;
+        tickNanos = 0;
+        overrunPolicy = TickScheduler.OverrunPolicy.CATCH_UP;
+        reportInterval = 0;
+        replications = 0;
+        seed = RandomStream.randomSeed();
+        geometricArrivals = false;
+        eventDriven = false;
+        maxPressureControl = false;
+        batchEngine = false;
+        tracePath = null;
+        replayPath = null;
+        feedSources = new String[0];
+        exportPath = null;
+        checkpointPath = null;
+        checkpointInterval = 100000;
+        resumePath = null;
+        optimizeCandidates = 0;
+        objective = GreenTimeOptimizer.Objective.MEAN_WAIT;
+        maxGreenTime = 0;
+        lanesPerWay = null;
+        servePort = -1;
+        maxConcurrent = Runtime.getRuntime().availableProcessors();
+        maxQueued = 4 * maxConcurrent;
+        positionalArgs = new String[0];
+    }
+
+    /**
+     * Reads the options from the command line. Options start with "--" and
+     * may appear anywhere; every other argument is kept, in order, as a
+     * positional argument.
+     * @param args
+     *      The command line arguments.
+     * @return
+     *      The options read from args.
+     * @throws IllegalArgumentException
+     *      Indicates that an option is unknown, is missing its value or
+     *      cannot be combined with another option given.
+     */
+    public static SimulationOptions parse(String[] args) {
+        SimulationOptions options = new SimulationOptions();
+        ArrayList<String> positional = new ArrayList<String>();
+        ArrayList<String> feeds = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                positional.add(arg);
+                continue;
+            }
+            if (arg.equals("--headless")) {
+                options.headless = true;
+            }
+            else if (arg.equals("--live")) {
+                options.live = true;
+            }
+            else if (arg.equals("--metrics")) {
+                options.metrics = true;
+            }
+            else if (arg.equals("--tick")) {
+                double millis = Double.parseDouble(value(args, i));
+                if (!(millis > 0) || millis > 3.6e6)
+                    throw new IllegalArgumentException(
+                      "Tick must be in (0, 3600000] ms");
+                options.tickNanos = Math.max(1, Math.round(millis * 1e6));
+                i++;
+            }
+            else if (arg.equals("--overrun")) {
+                String policy = value(args, i);
+                if (policy.equals("catch-up"))
+                    options.overrunPolicy =
+                      TickScheduler.OverrunPolicy.CATCH_UP;
+                else if (policy.equals("skip"))
+                    options.overrunPolicy = TickScheduler.OverrunPolicy.SKIP;
+                else
+                    throw new IllegalArgumentException(
+                      "Unknown overrun policy " + policy);
+                i++;
+            }
+            else if (arg.equals("--report-interval")) {
+                options.reportInterval = Integer.parseInt(value(args, i));
+                i++;
+            }
+            else if (arg.equals("--replications")) {
+                options.replications = Integer.parseInt(value(args, i));
+                i++;
+            }
+            else if (arg.equals("--seed")) {
+                options.seed = Long.parseLong(value(args, i));
+                i++;
+            }
+            else if (arg.equals("--event-driven")) {
+                options.eventDriven = true;
+            }
+            else if (arg.equals("--trace")) {
+                options.tracePath = value(args, i);
+                i++;
+            }
+            else if (arg.equals("--replay")) {
+                options.replayPath = value(args, i);
+                i++;
+            }
+            else if (arg.equals("--feed")) {
+                feeds.add(value(args, i));
+                i++;
+            }
+            else if (arg.equals("--export")) {
+                options.exportPath = value(args, i);
+                i++;
+            }
+            else if (arg.equals("--checkpoint")) {
+                options.checkpointPath = value(args, i);
+                i++;
+            }
+            else if (arg.equals("--checkpoint-interval")) {
+                options.checkpointInterval = Integer.parseInt(value(args, i));
+                if (options.checkpointInterval <= 0)
+                    throw new IllegalArgumentException(
+                      "Checkpoint interval must be > 0");
+                i++;
+            }
+            else if (arg.equals("--resume")) {
+                options.resumePath = value(args, i);
+                i++;
+            }
+            else if (arg.equals("--optimize")) {
+                options.optimizeCandidates = Integer.parseInt(value(args, i));
+                if (options.optimizeCandidates <= 0)
+                    throw new IllegalArgumentException(
+                      "Candidates must be > 0");
+                i++;
+            }
+            else if (arg.equals("--objective")) {
+                String measure = value(args, i);
+                if (measure.equals("mean"))
+                    options.objective = GreenTimeOptimizer.Objective.MEAN_WAIT;
+                else if (measure.equals("p95"))
+                    options.objective = GreenTimeOptimizer.Objective.P95_WAIT;
+                else
+                    throw new IllegalArgumentException("Unknown objective "
+                      + measure);
+                i++;
+            }
+            else if (arg.equals("--max-green")) {
+                options.maxGreenTime = Integer.parseInt(value(args, i));
+                if (options.maxGreenTime <= 0)
+                    throw new IllegalArgumentException(
+                      "Max green time must be > 0");
+                i++;
+            }
+            else if (arg.equals("--lanes")) {
+                String[] counts = value(args, i).split(",");
+                options.lanesPerWay = new int[counts.length];
+                for (int j = 0; j < counts.length; j++) {
+                    options.lanesPerWay[j] = Integer.parseInt(counts[j]);
+                    if (options.lanesPerWay[j] < TwoWayRoad.MIN_LANES
+                      || options.lanesPerWay[j] > TwoWayRoad.MAX_LANES)
+                        throw new IllegalArgumentException("Lanes must be in ["
+                          + TwoWayRoad.MIN_LANES + ", " + TwoWayRoad.MAX_LANES
+                          + "]");
+                }
+                i++;
+            }
+            else if (arg.equals("--serve")) {
+                options.servePort = Integer.parseInt(value(args, i));
+                if (options.servePort < 0 || options.servePort > 65535)
+                    throw new IllegalArgumentException(
+                      "Port must be in [0, 65535]");
+                i++;
+            }
+            else if (arg.equals("--max-concurrent")) {
+                options.maxConcurrent = Integer.parseInt(value(args, i));
+                if (options.maxConcurrent <= 0)
+                    throw new IllegalArgumentException(
+                      "Max concurrent scenarios must be > 0");
+                i++;
+            }
+            else if (arg.equals("--max-queued")) {
+                options.maxQueued = Integer.parseInt(value(args, i));
+                if (options.maxQueued < 0)
+                    throw new IllegalArgumentException(
+                      "Max queued scenarios must be >= 0");
+                i++;
+            }
+            else if (arg.equals("--controller")) {
+                String controller = value(args, i);
+                if (controller.equals("max-pressure"))
+                    options.maxPressureControl = true;
+                else if (controller.equals("fixed"))
+                    options.maxPressureControl = false;
+                else
+                    throw new IllegalArgumentException("Unknown controller "
+                      + controller);
+                i++;
+            }
+            else if (arg.equals("--engine")) {
+                String engine = value(args, i);
+                if (engine.equals("batch"))
+                    options.batchEngine = true;
+                else if (engine.equals("object"))
+                    options.batchEngine = false;
+                else
+                    throw new IllegalArgumentException("Unknown engine "
+                      + engine);
+                i++;
+            }
+            else if (arg.equals("--arrivals")) {
+                String model = value(args, i);
+                if (model.equals("geometric"))
+                    options.geometricArrivals = true;
+                else if (model.equals("bernoulli"))
+                    options.geometricArrivals = false;
+                else
+                    throw new IllegalArgumentException("Unknown arrival model "
+                      + model);
+                i++;
+            }
+            else {
+                throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        options.positionalArgs = positional.toArray(new String[0]);
+        options.feedSources = feeds.toArray(new String[0]);
+        options.checkCombinations();
+        return options;
+    }
+
+    /**
+     * Rejects options that cannot be used together, before any file they
+     * name is opened.
+     * @throws IllegalArgumentException
+     *      Indicates that two options given cannot be combined.
+     */
+    private void checkCombinations() {
+        //The writer would replace the segments the replay has yet to read
+        if (tracePath != null && replayPath != null) {
+            Path trace = realPath(tracePath);
+            Path replay = realPath(replayPath);
+            if (trace.startsWith(replay) || replay.startsWith(trace))
+                throw new IllegalArgumentException(
+                  "Cannot trace into the replayed trace " + replayPath);
+        }
+        //A replay cannot be saved part way through
+        if (replayPath != null && checkpointPath != null)
+            throw new IllegalArgumentException(
+              "Cannot checkpoint a replayed run");
+        if (feedSources.length > 0) {
+            //Live arrivals come from outside and cannot be saved either
+            if (checkpointPath != null)
+                throw new IllegalArgumentException(
+                  "Cannot checkpoint a run fed live arrivals");
+            if (replayPath != null)
+                throw new IllegalArgumentException(
+                  "Cannot both replay a trace and feed live arrivals");
+            //Unpaced steps would outrun any live source
+            if (tickNanos == 0)
+                throw new IllegalArgumentException(
+                  "Live arrivals need --tick");
+        }
+    }
+
+    /**
+     * Returns the real path of a file which may not exist yet: the real
+     * path of its nearest existing ancestor followed by the rest of it.
+     * @param name
+     *      The name of the file.
+     * @return
+     *      The absolute path of the file with every link resolved.
+     */
+    private static Path realPath(String name) {
+        Path path = Paths.get(name).toAbsolutePath().normalize();
+        Path existing = path;
+        while (existing != null && !Files.exists(existing))
+            existing = existing.getParent();
+        if (existing == null)
+            return path;
+        try {
+            return existing.toRealPath().resolve(existing.relativize(path));
+        }
+        catch(IOException e) {
+            return path;
+        }
+    }
+
+    /**
+     * Returns the value following the option at index i.
+     * @param args
+     *      The command line arguments.
+     * @param i
+     *      The index of the option.
+     * @return
+     *      The argument at index i + 1.
+     * @throws IllegalArgumentException
+     *      Indicates that the option is the last argument.
+     */
+    private static String value(String[] args, int i) {
+        if (i + 1 >= args.length)
+            throw new IllegalArgumentException("Missing value for " + args[i]);
+        return args[i + 1];
+    }
+
+    /**
+     * Returns whether the simulation runs without per-step rendering.
+     * @return
+     *      true if the simulation is headless, else false.
+     */
+    public boolean isHeadless() {
+        return headless;
+    }
+
+    /**
+     * Returns whether the intersection is redrawn in place every step on an
+     * ANSI terminal instead of printed below the previous step.
+     * @return
+     *      true if the display is live, else false.
+     */
+    public boolean isLive() {
+        return live;
+    }
+
+    /**
+     * Returns whether runtime metrics are collected, registered as a JMX
+     * MBean while the run lasts and written with the summary.
+     * @return
+     *      true if metrics are collected, else false.
+     */
+    public boolean isMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the wall-clock length of a step when the run is paced.
+     * @return
+     *      The tick length in nanoseconds, or 0 to run as fast as possible.
+     */
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    /**
+     * Returns what a paced run does with ticks whose deadline has passed.
+     * @return
+     *      The overrun policy, CATCH_UP unless given.
+     */
+    public TickScheduler.OverrunPolicy getOverrunPolicy() {
+        return overrunPolicy;
+    }
+
+    /**
+     * Returns a scheduler pacing the run as the options ask.
+     * @return
+     *      A new TickScheduler, or null if the run is not paced.
+     */
+    public TickScheduler newTickScheduler() {
+        if (tickNanos == 0)
+            return null;
+        return new TickScheduler(tickNanos, overrunPolicy);
+    }
+
+    /**
+     * Returns how many steps pass between progress lines in headless mode.
+     * @return
+     *      The report interval, or 0 if only the summary is printed.
+     */
+    public int getReportInterval() {
+        return reportInterval;
+    }
+
+    /**
+     * Returns the number of independent replications to run.
+     * @return
+     *      The number of replications, or 0 to run a single simulation.
+     */
+    public int getReplications() {
+        return replications;
+    }
+
+    /**
+     * Returns the master seed of the run. A random seed is chosen when
+     * "--seed" is not given.
+     * @return
+     *      The master seed.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Returns whether arrivals are sampled with geometric skip-ahead.
+     * @return
+     *      true for geometric arrivals, false for a draw per lane per step.
+     */
+    public boolean isGeometricArrivals() {
+        return geometricArrivals;
+    }
+
+    /**
+     * Returns whether idle stretches are skipped instead of stepped through.
+     * @return
+     *      true if the run is event driven, else false.
+     */
+    public boolean isEventDriven() {
+        return eventDriven;
+    }
+
+    /**
+     * Returns whether the light goes to the road with the most vehicles
+     * waiting instead of following the fixed cycle.
+     * @return
+     *      true for a MaxPressureController, false for the fixed cycle.
+     */
+    public boolean isMaxPressureControl() {
+        return maxPressureControl;
+    }
+
+    /**
+     * Returns whether replications run side by side in BatchSimulations.
+     * @return
+     *      true for the batch engine, else false.
+     */
+    public boolean isBatchEngine() {
+        return batchEngine;
+    }
+
+    /**
+     * Returns the directory to write a trace of the run to.
+     * @return
+     *      The trace directory, or null if the run is not traced.
+     */
+    public String getTracePath() {
+        return tracePath;
+    }
+
+    /**
+     * Returns the live sources arrivals are read from instead of drawn,
+     * each a file such as a named pipe or "-" for the standard input.
+     * @return
+     *      The sources, or an empty array if arrivals are not fed.
+     */
+    public String[] getFeedSources() {
+        return feedSources.clone();
+    }
+
+    /**
+     * Returns the file to export the outcome of every vehicle to.
+     * @return
+     *      The export file, or null if the run is not exported.
+     */
+    public String getExportPath() {
+        return exportPath;
+    }
+
+    /**
+     * Returns the directory of a trace whose arrivals drive the run instead
+     * of random draws.
+     * @return
+     *      The replayed trace directory, or null if arrivals are random.
+     */
+    public String getReplayPath() {
+        return replayPath;
+    }
+
+    /**
+     * Returns the file checkpoints are written to.
+     * @return
+     *      The checkpoint file, or null if no checkpoints are written.
+     */
+    public String getCheckpointPath() {
+        return checkpointPath;
+    }
+
+    /**
+     * Returns how many steps pass between checkpoints.
+     * @return
+     *      The checkpoint interval, 100000 unless given.
+     */
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * Returns the checkpoint file to resume from.
+     * @return
+     *      The checkpoint file, or null to start a new simulation.
+     */
+    public String getResumePath() {
+        return resumePath;
+    }
+
+    /**
+     * Returns the number of candidate timings the optimizer searches.
+     * @return
+     *      The number of candidates, or 0 to run the timing given.
+     */
+    public int getOptimizeCandidates() {
+        return optimizeCandidates;
+    }
+
+    /**
+     * Returns the measure the optimizer minimizes.
+     * @return
+     *      The objective, MEAN_WAIT unless given.
+     */
+    public GreenTimeOptimizer.Objective getObjective() {
+        return objective;
+    }
+
+    /**
+     * Returns the largest green time the optimizer searches.
+     * @return
+     *      The largest green time, or 0 for twice the largest green time
+     *      given.
+     */
+    public int getMaxGreenTime() {
+        return maxGreenTime;
+    }
+
+    /**
+     * Returns the number of lanes per way of each road.
+     * @param numRoads
+     *      The number of roads of the simulation.
+     * @return
+     *      A count for each road, or null if "--lanes" is not given.
+     * @throws IllegalArgumentException
+     *      Indicates that a list of counts was given whose length is not
+     *      numRoads.
+     */
+    public int[] getLanesPerWay(int numRoads) {
+        if (lanesPerWay == null)
+            return null;
+        if (lanesPerWay.length == 1) {
+            int[] counts = new int[numRoads];
+            Arrays.fill(counts, lanesPerWay[0]);
+            return counts;
+        }
+        if (lanesPerWay.length != numRoads)
+            throw new IllegalArgumentException("Expected lanes for "
+              + numRoads + " roads");
+        return lanesPerWay.clone();
+    }
+
+    /**
+     * Returns the port the scenario service listens on.
+     * @return
+     *      The port, 0 for any free port, or -1 to run a single simulation.
+     */
+    public int getServePort() {
+        return servePort;
+    }
+
+    /**
+     * Returns the number of scenarios the service runs at once.
+     * @return
+     *      The limit, one per available processor unless given.
+     */
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * Returns the number of scenarios allowed to wait for the service
+     * before more are turned away.
+     * @return
+     *      The limit, four times the concurrent limit unless given.
+     */
+    public int getMaxQueued() {
+        return maxQueued;
+    }
+
+    /**
+     * Returns the arguments left over once every option has been read.
+     * @return
+     *      The positional arguments.
+     */
+    public String[] getPositionalArgs() {
+        return positionalArgs;
+    }
+
+}
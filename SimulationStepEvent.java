@@ -0,0 +1,54 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * This SimulationStepEvent class is the JFR event recorded for each
+ * Simulation.step(). Its duration is the wall time of the step. The fields
+ * are only filled in when the event will be committed, so a disabled event
+ * costs little more than a check of shouldCommit().
+ */
+@Name("trafficsim.SimulationStep")
+@Label("Simulation Step")
+@Category("Traffic Simulator")
+@Description("One time step of a simulation.")
+public class SimulationStepEvent extends jdk.jfr.Event {
+
+    /**
+     * The time step executed.
+     */
+    @Label("Step")
+    int step;
+
+    /**
+     * The number of vehicles which arrived during the step.
+     */
+    @Label("Arrivals")
+    int arrivals;
+
+    /**
+     * The number of vehicles which passed through during the step.
+     */
+    @Label("Departures")
+    int departures;
+
+    /**
+     * The number of vehicles waiting after the step.
+     */
+    @Label("Vehicles Queued")
+    long queued;
+
+    /**
+     * The length of the longest lane after the step.
+     */
+    @Label("Longest Queue")
+    int longestQueue;
+
+    /**
+     * The number of random values drawn by the arrival process so far.
+     */
+    @Label("Random Draws")
+    long randomDraws;
+
+}
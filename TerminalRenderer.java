@@ -0,0 +1,326 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+
+/**
+ * This TerminalRenderer class redraws a picture on an ANSI terminal in
+ * place, frame after frame, rewriting only the lines that changed since
+ * the previous frame.
+ *
+ * A frame is built by appending text to the StringBuilder returned by
+ * beginFrame() and drawn by endFrame(). The first frame switches to the
+ * terminal's alternate screen, clears it and is written whole. Every later
+ * frame is compared line by line with the one before, and each changed line
+ * is written at its row with a cursor movement, so a step that only changes
+ * a few lanes costs a few lines of output. The frame buffers are kept
+ * between frames, so drawing allocates nothing once they have grown to the
+ * size of a frame.
+ *
+ * Rows are only right while nothing scrolls, so frames are clipped to the
+ * size of the terminal: lines below its last row but one are not drawn and
+ * lines are cut at its width. finish() goes back to the normal screen and
+ * prints the last frame whole, so it stays in the terminal's history.
+ */
+public class TerminalRenderer {
+
+    /**
+     * Starts an ANSI control sequence.
+     */
+    private static final String CSI = "\033[";
+
+    /**
+     * The number of rows assumed when the terminal cannot be asked.
+     */
+    public static final int DEFAULT_ROWS = 24;
+
+    /**
+     * The number of columns assumed when the terminal cannot be asked.
+     */
+    public static final int DEFAULT_COLUMNS = 80;
+
+    /**
+     * Where frames are written.
+     */
+    private Writer out;
+
+    /**
+     * The number of rows of the terminal.
+     */
+    private int rows;
+
+    /**
+     * The number of columns of the terminal.
+     */
+    private int columns;
+
+    /**
+     * The frame being built.
+     */
+    private StringBuilder frame;
+
+    /**
+     * The frame last drawn.
+     */
+    private StringBuilder previous;
+
+    /**
+     * The start of each line of the frame being built, followed by one past
+     * the end of its last line.
+     */
+    private int[] lineStarts;
+
+    /**
+     * The start of each line of the frame last drawn, followed by one past
+     * the end of its last line.
+     */
+    private int[] previousLineStarts;
+
+    /**
+     * The number of lines of the frame last drawn.
+     */
+    private int previousLines;
+
+    /**
+     * The text written to the terminal for the current frame.
+     */
+    private StringBuilder output;
+
+    /**
+     * Whether a frame has been drawn.
+     */
+    private boolean drawn;
+
+    /**
+     * The number of lines rewritten by the last call to endFrame().
+     */
+    private int linesWritten;
+
+    /**
+     * Default constructor.
+     * Frames are clipped to a DEFAULT_ROWS by DEFAULT_COLUMNS terminal.
+     * @param initOut
+     *      The writer frames are written to, typically wrapping System.out.
+     */
+    public TerminalRenderer(Writer initOut) {
+        this(initOut, DEFAULT_ROWS, DEFAULT_COLUMNS);
+    }
+
+    /**
+     * Constructor which sets the size of the terminal frames are clipped to.
+     * @param initOut
+     *      The writer frames are written to, typically wrapping System.out.
+     * @param initRows
+     *      The number of rows of the terminal. Must be >= 2.
+     * @param initColumns
+     *      The number of columns of the terminal. Must be > 0.
+     * @throws IllegalArgumentException
+     *      Indicates that the terminal is too small.
+     */
+    public TerminalRenderer(Writer initOut, int initRows, int initColumns) {
+        if (initRows < 2 || initColumns <= 0)
+            throw new IllegalArgumentException("Terminal is too small");
+        out = initOut;
+        rows = initRows;
+        columns = initColumns;
+        frame = new StringBuilder(4096);
+        previous = new StringBuilder(4096);
+        lineStarts = new int[64];
+        previousLineStarts = new int[64];
+        output = new StringBuilder(4096);
+    }
+
+    /**
+     * Starts a new frame.
+     * @return
+     *      The empty buffer to append the frame to. Lines end with '\n'.
+     */
+    public StringBuilder beginFrame() {
+        frame.setLength(0);
+        return frame;
+    }
+
+    /**
+     * Returns the size of the terminal the program runs in, read from the
+     * LINES and COLUMNS environment variables or else from "stty size".
+     * @return
+     *      The number of rows and the number of columns, or DEFAULT_ROWS and
+     *      DEFAULT_COLUMNS if the size cannot be found.
+     */
+    public static int[] terminalSize() {
+        try {
+            String lines = System.getenv("LINES");
+            String cols = System.getenv("COLUMNS");
+            if (lines != null && cols != null)
+                return new int[]{Integer.parseInt(lines.trim()),
+                  Integer.parseInt(cols.trim())};
+        }
+        catch(NumberFormatException e) {
+            //Falls back on stty
+        }
+        try {
+            Process stty = new ProcessBuilder("stty", "size")
+              .redirectInput(ProcessBuilder.Redirect.from(new File("/dev/tty")))
+              .redirectError(ProcessBuilder.Redirect.DISCARD).start();
+            String size;
+            try (BufferedReader reader = new BufferedReader(
+              new InputStreamReader(stty.getInputStream()))) {
+                size = reader.readLine();
+            }
+            if (stty.waitFor() == 0 && size != null) {
+                String[] parts = size.trim().split("\\s+");
+                return new int[]{Integer.parseInt(parts[0]),
+                  Integer.parseInt(parts[1])};
+            }
+        }
+        catch(IOException | RuntimeException e) {
+            //No terminal or no stty
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return new int[]{DEFAULT_ROWS, DEFAULT_COLUMNS};
+    }
+
+    /**
+     * Draws the frame appended since beginFrame(), rewriting the lines that
+     * differ from the frame last drawn, and leaves the cursor below it.
+     * @throws IOException
+     *      Indicates that the frame could not be written.
+     */
+    public void endFrame() throws IOException {
+        //The last row is kept for the cursor, so the screen never scrolls
+        int lines = Math.min(indexLines(frame), rows - 1);
+        output.setLength(0);
+        linesWritten = 0;
+        if (!drawn) {
+            //Switches to the alternate screen, clears it and moves to the
+            //top left corner
+            output.append(CSI).append("?1049h").append(CSI).append("2J")
+              .append(CSI).append('H');
+            for (int i = 0; i < lines; i++)
+                appendLine(i);
+            drawn = true;
+        }
+        else {
+            for (int i = 0; i < lines; i++) {
+                if (i >= previousLines || !sameLine(i)) {
+                    output.append(CSI).append(i + 1).append(";1H");
+                    appendLine(i);
+                }
+            }
+            //Clears whatever is left of a longer previous frame
+            output.append(CSI).append(lines + 1).append(";1H");
+            if (lines < previousLines)
+                output.append(CSI).append('J');
+        }
+        out.append(output);
+        out.flush();
+
+        //Keeps this frame to compare the next one against
+        StringBuilder swap = previous;
+        previous = frame;
+        frame = swap;
+        int[] swapStarts = previousLineStarts;
+        previousLineStarts = lineStarts;
+        lineStarts = swapStarts;
+        previousLines = lines;
+    }
+
+    /**
+     * Goes back to the normal screen and prints the frame last drawn there
+     * whole, leaving the cursor below it. Nothing is written if no frame
+     * was drawn. Frames may be drawn again afterwards.
+     * @throws IOException
+     *      Indicates that the frame could not be written.
+     */
+    public void finish() throws IOException {
+        if (!drawn)
+            return;
+        drawn = false;
+        out.append(CSI).append("?1049l");
+        out.append(previous);
+        if (previous.length() > 0 && previous.charAt(previous.length() - 1)
+          != '\n')
+            out.append('\n');
+        out.flush();
+    }
+
+    /**
+     * Returns the number of lines rewritten by the last frame drawn.
+     * @return
+     *      The number of lines rewritten.
+     */
+    public int getLinesWritten() {
+        return linesWritten;
+    }
+
+    /**
+     * Records where each line of a frame starts in lineStarts.
+     * @param text
+     *      The frame.
+     * @return
+     *      The number of lines. A last line without '\n' is counted.
+     */
+    private int indexLines(StringBuilder text) {
+        int lines = 0;
+        int start = 0;
+        int length = text.length();
+        while (start < length) {
+            int end = start;
+            while (end < length && text.charAt(end) != '\n')
+                end++;
+            if (lines + 2 > lineStarts.length) {
+                int[] grown = new int[lineStarts.length * 2];
+                System.arraycopy(lineStarts, 0, grown, 0, lines);
+                lineStarts = grown;
+            }
+            lineStarts[lines] = start;
+            lines++;
+            start = end + 1;
+        }
+        //One past the end of the last line, where the next line would start
+        lineStarts[lines] = start;
+        return lines;
+    }
+
+    /**
+     * Checks to see if a line of the frame being drawn is the same as the
+     * line at the same row of the frame last drawn.
+     * @param line
+     *      The row of the line.
+     * @return
+     *      true if the lines are the same, else false.
+     */
+    private boolean sameLine(int line) {
+        int start = lineStarts[line];
+        int length = Math.min(lineStarts[line + 1] - 1 - start, columns);
+        int previousStart = previousLineStarts[line];
+        if (Math.min(previousLineStarts[line + 1] - 1 - previousStart,
+          columns) != length)
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (frame.charAt(start + i) != previous.charAt(previousStart + i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Appends a line of the frame being drawn to the output, cut at the
+     * width of the terminal, in place of whatever its row held.
+     * @param line
+     *      The row of the line.
+     */
+    private void appendLine(int line) {
+        int start = lineStarts[line];
+        int end = Math.min(lineStarts[line + 1] - 1, start + columns);
+        //Clears the row first, as clearing after a line as wide as the
+        //terminal would erase its last character
+        output.append(CSI).append("2K").append(frame, start, end)
+          .append('\n');
+        linesWritten++;
+    }
+
+}
@@ -0,0 +1,242 @@
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This TickScheduler class paces a simulation to one step per fixed
+ * wall-clock tick, for demonstrations driven by real time, and measures how
+ * well the pace is kept.
+ *
+ * Tick k is due at the absolute deadline start + k * tickNanos rather than
+ * one tick after the previous step finished, so the time taken by steps,
+ * rendering and late wake-ups never accumulates as drift. The scheduler
+ * parks until shortly before a deadline and spins the rest of the way. When
+ * a tick's work runs past the next deadline, the overrun policy decides what
+ * happens: CATCH_UP runs the late ticks back to back until the schedule is
+ * met again, so every tick is executed; SKIP drops every tick whose whole
+ * period has passed and runs the current one at once, so the run never
+ * falls a tick or more behind. A tick that is late by less than a tick is
+ * run late under both policies. One stall counts as one overrun however
+ * many ticks start late before the schedule is met again.
+ *
+ * The lateness of every tick start (jitter) and the duration of every step
+ * are recorded in microseconds in LogHistograms, so it can be shown that
+ * steps fit the tick budget.
+ */
+public class TickScheduler {
+
+    /**
+     * What to do with ticks whose deadline passed while an earlier tick was
+     * still running.
+     */
+    public enum OverrunPolicy {
+        CATCH_UP, SKIP
+    }
+
+    /**
+     * How long before a deadline the scheduler stops parking and spins, as
+     * a parked thread may wake up this late.
+     */
+    public static final long SPIN_NANOS = 100000;
+
+    /**
+     * The length of a tick in nanoseconds.
+     */
+    private long tickNanos;
+
+    /**
+     * What to do with ticks whose deadline has passed.
+     */
+    private OverrunPolicy policy;
+
+    /**
+     * The deadline of the next tick, in System.nanoTime() time.
+     */
+    private long nextDeadline;
+
+    /**
+     * Whether the first tick has been awaited.
+     */
+    private boolean started;
+
+    /**
+     * When the current tick started.
+     */
+    private long tickStart;
+
+    /**
+     * How late each tick started, in microseconds.
+     */
+    private LogHistogram jitter;
+
+    /**
+     * How long each step took, in microseconds.
+     */
+    private LogHistogram stepTimes;
+
+    /**
+     * The number of ticks started.
+     */
+    private long ticks;
+
+    /**
+     * The number of times the schedule fell behind: a tick started late
+     * after the previous one had started on time.
+     */
+    private long overruns;
+
+    /**
+     * Whether the last tick started late.
+     */
+    private boolean behind;
+
+    /**
+     * The number of ticks dropped by the SKIP policy.
+     */
+    private long skippedTicks;
+
+    /**
+     * Default constructor.
+     * @param initTickNanos
+     *      The length of a tick in nanoseconds. Must be > 0.
+     * @param initPolicy
+     *      What to do with ticks whose deadline passed while an earlier
+     *      tick was still running.
+     * @throws IllegalArgumentException
+     *      Indicates that initTickNanos <= 0 or initPolicy is null.
+     */
+    public TickScheduler(long initTickNanos, OverrunPolicy initPolicy) {
+        if (initTickNanos <= 0 || initPolicy == null)
+            throw new IllegalArgumentException("Invalid tick.");
+        tickNanos = initTickNanos;
+        policy = initPolicy;
+        jitter = new LogHistogram();
+        stepTimes = new LogHistogram();
+    }
+
+    /**
+     * Waits for the deadline of the next tick and starts it. The first
+     * call starts the schedule at once. If the previous tick ran past this
+     * deadline, the tick is handled by the policy, and the overrun is
+     * counted unless the schedule was already behind.
+     */
+    public void awaitTick() {
+        long now = System.nanoTime();
+        if (!started) {
+            started = true;
+            nextDeadline = now;
+        }
+        else if (now > nextDeadline) {
+            //Late ticks caught up after one stall are one overrun
+            if (!behind)
+                overruns++;
+            behind = true;
+            if (policy == OverrunPolicy.SKIP) {
+                //Drops only the ticks whose whole period has passed
+                long missed = (now - nextDeadline) / tickNanos;
+                skippedTicks += missed;
+                nextDeadline += missed * tickNanos;
+            }
+        }
+        else {
+            behind = false;
+        }
+        while (true) {
+            long remaining = nextDeadline - now;
+            if (remaining <= 0)
+                break;
+            if (remaining > SPIN_NANOS)
+                LockSupport.parkNanos(remaining - SPIN_NANOS);
+            else
+                Thread.onSpinWait();
+            now = System.nanoTime();
+        }
+        tickStart = now;
+        jitter.record(micros(tickStart - nextDeadline));
+        ticks++;
+        nextDeadline += tickNanos;
+    }
+
+    /**
+     * Records that the step of the current tick has finished. Work done
+     * after it, such as drawing the step, counts towards the tick but not
+     * towards the step duration.
+     */
+    public void stepDone() {
+        stepTimes.record(micros(System.nanoTime() - tickStart));
+    }
+
+    /**
+     * Returns the length of a tick.
+     * @return
+     *      The tick length in nanoseconds.
+     */
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    /**
+     * Returns what is done with ticks whose deadline has passed.
+     * @return
+     *      The overrun policy.
+     */
+    public OverrunPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Returns the number of ticks started.
+     * @return
+     *      The number of ticks.
+     */
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * Returns the number of times the schedule fell behind. A stall is
+     * counted once, not once for each tick it made late.
+     * @return
+     *      The number of overruns.
+     */
+    public long getOverruns() {
+        return overruns;
+    }
+
+    /**
+     * Returns the number of ticks dropped by the SKIP policy.
+     * @return
+     *      The number of skipped ticks, 0 with CATCH_UP.
+     */
+    public long getSkippedTicks() {
+        return skippedTicks;
+    }
+
+    /**
+     * Returns how late each tick started after its deadline.
+     * @return
+     *      The tick-start jitter in microseconds.
+     */
+    public LogHistogram getJitter() {
+        return jitter;
+    }
+
+    /**
+     * Returns how long each step took.
+     * @return
+     *      The step durations in microseconds.
+     */
+    public LogHistogram getStepTimes() {
+        return stepTimes;
+    }
+
+    /**
+     * Converts nanoseconds to whole microseconds that fit a histogram.
+     * @param nanos
+     *      The duration in nanoseconds, >= 0.
+     * @return
+     *      The duration in microseconds, at most Integer.MAX_VALUE.
+     */
+    private static int micros(long nanos) {
+        return (int)Math.min(Integer.MAX_VALUE, nanos / 1000);
+    }
+
+}
@@ -0,0 +1,167 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * This TraceArrivals class replays the arrivals recorded in a trace, so a
+ * Simulation can be driven through exactly the same arrivals, with the same
+ * serial IDs, without any random draws. Departure records are skipped; they
+ * are produced again by the intersection.
+ */
+public class TraceArrivals implements ArrivalProcess {
+
+    /**
+     * The trace the arrivals are read from.
+     */
+    private TraceReader reader;
+
+    /**
+     * The flat numbering of the lanes of the simulated intersection.
+     */
+    private LaneLayout layout;
+
+    /**
+     * The time step of the next arrival, or Integer.MAX_VALUE at the end of
+     * the trace.
+     */
+    private int pendingStep;
+
+    /**
+     * The flat lane index of the next arrival.
+     */
+    private int pendingLane;
+
+    /**
+     * Default constructor.
+     * Every road has the default number of lanes.
+     * @param initReader
+     *      The trace to replay, positioned before its first record.
+     * @throws UncheckedIOException
+     *      Indicates that the trace could not be read.
+     */
+    public TraceArrivals(TraceReader initReader) {
+        this(initReader, LaneLayout.uniform(initReader.getNumRoads(),
+          TwoWayRoad.DEFAULT_NUM_LANES));
+    }
+
+    /**
+     * Constructor for an intersection whose roads have other numbers of
+     * lanes.
+     * @param initReader
+     *      The trace to replay, positioned before its first record.
+     * @param initLayout
+     *      The lanes of the simulated intersection.
+     * @throws UncheckedIOException
+     *      Indicates that the trace could not be read or has an arrival on
+     *      a lane the layout does not have.
+     */
+    public TraceArrivals(TraceReader initReader, LaneLayout initLayout) {
+        reader = initReader;
+        layout = initLayout;
+        advance();
+    }
+
+    /**
+     * Writes the lanes the trace has an arrival on at the indicated step,
+     * in the order they were recorded.
+     * @param timeStep
+     *      The time step vehicles arrive at.
+     * @param lanes
+     *      The caller-owned buffer the lanes are written to.
+     * @return
+     *      The number of lanes written to lanes.
+     * @throws UncheckedIOException
+     *      Indicates that the trace could not be read.
+     */
+    public int arrivals(int timeStep, int[] lanes) {
+        int count = 0;
+        //Arrivals before timeStep belong to steps that were never asked for
+        while (pendingStep <= timeStep) {
+            if (pendingStep == timeStep)
+                lanes[count++] = pendingLane;
+            advance();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the time step of the next arrival in the trace.
+     * @return
+     *      The next arrival step, or Integer.MAX_VALUE at the end of the
+     *      trace.
+     */
+    public int nextArrivalStep() {
+        return pendingStep;
+    }
+
+    /**
+     * A replay draws no random values.
+     * @return
+     *      0.
+     */
+    public long getRandomDraws() {
+        return 0;
+    }
+
+    /**
+     * A replay cannot be checkpointed, as its position in the trace is not
+     * part of any state that can be saved.
+     * @return
+     *      Never returns.
+     * @throws UnsupportedOperationException
+     *      Always.
+     */
+    public int stateSize() {
+        throw new UnsupportedOperationException(
+          "Trace replays cannot be checkpointed.");
+    }
+
+    /**
+     * A replay cannot be checkpointed.
+     * @param state
+     *      Unused.
+     * @throws UnsupportedOperationException
+     *      Always.
+     */
+    public void saveState(long[] state) {
+        throw new UnsupportedOperationException(
+          "Trace replays cannot be checkpointed.");
+    }
+
+    /**
+     * A replay cannot be checkpointed.
+     * @param state
+     *      Unused.
+     * @throws UnsupportedOperationException
+     *      Always.
+     */
+    public void restoreState(long[] state) {
+        throw new UnsupportedOperationException(
+          "Trace replays cannot be checkpointed.");
+    }
+
+    /**
+     * Moves to the next arrival record of the trace.
+     * @throws UncheckedIOException
+     *      Indicates that the trace could not be read.
+     */
+    private void advance() {
+        try {
+            while (reader.next()) {
+                if (reader.isArrival()) {
+                    if (!layout.contains(reader.getRoad(), reader.getWay(),
+                      reader.getLane()))
+                        throw new IOException("Trace lane out of range.");
+                    pendingStep = reader.getStep();
+                    pendingLane = layout.index(reader.getRoad(),
+                      reader.getWay(), reader.getLane());
+                    return;
+                }
+            }
+            pendingStep = Integer.MAX_VALUE;
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -0,0 +1,251 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This TraceReader class reads back a trace written by TraceWriter, one
+ * record at a time, in the order the records were written. Segments are
+ * memory-mapped read-only one after another.
+ *
+ * Call next() to move to the next record, then read its fields with the
+ * getters.
+ */
+public class TraceReader implements Closeable {
+
+    /**
+     * The directory of the trace.
+     */
+    private Path directory;
+
+    /**
+     * The number of roads of the traced intersection.
+     */
+    private int numRoads;
+
+    /**
+     * The index of the segment being read.
+     */
+    private int segmentIndex;
+
+    /**
+     * The mapping of the segment being read, or null at the end.
+     */
+    private MappedByteBuffer buffer;
+
+    /**
+     * The byte offset of the next record in the segment being read.
+     */
+    private int position;
+
+    /**
+     * The byte offset of the end of the records of the segment being read.
+     */
+    private int end;
+
+    /**
+     * The type of the current record.
+     */
+    private byte type;
+
+    /**
+     * The road of the current record.
+     */
+    private int road;
+
+    /**
+     * The way of the current record.
+     */
+    private int way;
+
+    /**
+     * The lane of the current record.
+     */
+    private int lane;
+
+    /**
+     * The time step of the current record.
+     */
+    private int step;
+
+    /**
+     * The serialId of the current record.
+     */
+    private long serialId;
+
+    /**
+     * The wait of the current record.
+     */
+    private int wait;
+
+    /**
+     * Default constructor.
+     * Opens the first segment of a trace.
+     * @param initDirectory
+     *      The directory of the trace.
+     * @throws IOException
+     *      Indicates that the first segment could not be read or is not a
+     *      trace segment.
+     */
+    public TraceReader(Path initDirectory) throws IOException {
+        directory = initDirectory;
+        segmentIndex = -1;
+        if (!openNextSegment())
+            throw new IOException("No trace in " + directory);
+    }
+
+    /**
+     * Moves to the next record.
+     * @return
+     *      true if there is a next record, false at the end of the trace.
+     * @throws IOException
+     *      Indicates that a segment could not be read.
+     */
+    public boolean next() throws IOException {
+        while (buffer != null) {
+            if (position + TraceWriter.RECORD_SIZE <= end) {
+                type = buffer.get(position);
+                if (type == 0) {
+                    //The rest of an unfinished segment
+                    buffer = null;
+                    return false;
+                }
+                road = buffer.get(position + 1) & 0xff;
+                way = buffer.get(position + 2);
+                lane = buffer.get(position + 3);
+                step = buffer.getInt(position + 4);
+                wait = buffer.getInt(position + 8);
+                serialId = buffer.getLong(position + 12);
+                position += TraceWriter.RECORD_SIZE;
+                return true;
+            }
+            openNextSegment();
+        }
+        return false;
+    }
+
+    /**
+     * Checks to see if the current record is an arrival.
+     * @return
+     *      true for an arrival, false for a departure.
+     */
+    public boolean isArrival() {
+        return type == TraceWriter.ARRIVAL;
+    }
+
+    /**
+     * Returns the number of roads of the traced intersection.
+     * @return
+     *      The number of roads.
+     */
+    public int getNumRoads() {
+        return numRoads;
+    }
+
+    /**
+     * Returns the road of the current record.
+     * @return
+     *      The index of the road.
+     */
+    public int getRoad() {
+        return road;
+    }
+
+    /**
+     * Returns the way of the current record.
+     * @return
+     *      The index of the direction.
+     */
+    public int getWay() {
+        return way;
+    }
+
+    /**
+     * Returns the lane of the current record.
+     * @return
+     *      The index of the lane.
+     */
+    public int getLane() {
+        return lane;
+    }
+
+    /**
+     * Returns the time step of the current record.
+     * @return
+     *      The time step the vehicle arrived or passed through at.
+     */
+    public int getStep() {
+        return step;
+    }
+
+    /**
+     * Returns the serialId of the current record.
+     * @return
+     *      The serialId of the vehicle.
+     */
+    public long getSerialId() {
+        return serialId;
+    }
+
+    /**
+     * Returns the wait of the current record.
+     * @return
+     *      The number of steps a departing vehicle waited, or 0 for an
+     *      arrival.
+     */
+    public int getWait() {
+        return wait;
+    }
+
+    /**
+     * Stops reading the trace.
+     */
+    public void close() {
+        buffer = null;
+    }
+
+    /**
+     * Maps the next segment of the trace, if there is one.
+     * @return
+     *      true if a segment was opened, false at the end of the trace.
+     * @throws IOException
+     *      Indicates that the segment could not be read, is not a trace
+     *      segment or holds fewer records than its header says.
+     */
+    private boolean openNextSegment() throws IOException {
+        buffer = null;
+        Path path = TraceWriter.segmentPath(directory, segmentIndex + 1);
+        if (!Files.exists(path))
+            return false;
+        segmentIndex++;
+        try (FileChannel channel = FileChannel.open(path,
+          StandardOpenOption.READ)) {
+            MappedByteBuffer segment = channel.map(
+              FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            segment.order(ByteOrder.LITTLE_ENDIAN);
+            if (segment.limit() < TraceWriter.HEADER_SIZE
+              || segment.getInt(0) != TraceWriter.MAGIC
+              || segment.getInt(4) != TraceWriter.VERSION
+              || segment.getInt(12) != segmentIndex)
+                throw new IOException("Not a trace segment: " + path);
+            long records = segment.getLong(TraceWriter.RECORD_COUNT_OFFSET);
+            if (records == TraceWriter.UNFINISHED)
+                end = segment.limit();
+            else if (records >= 0 && records <= (segment.limit()
+              - TraceWriter.HEADER_SIZE) / TraceWriter.RECORD_SIZE)
+                end = TraceWriter.HEADER_SIZE
+                  + (int)records * TraceWriter.RECORD_SIZE;
+            else
+                throw new IOException("Truncated trace segment: " + path);
+            numRoads = segment.getInt(8);
+            buffer = segment;
+        }
+        position = TraceWriter.HEADER_SIZE;
+        return true;
+    }
+
+}
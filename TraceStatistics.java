@@ -0,0 +1,200 @@
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * This TraceStatistics class rebuilds the statistics of a run from its
+ * trace: the vehicles that arrived and passed through, the total and
+ * longest wait, and the wait time histogram of each lane. Only the trace
+ * is read, so the statistics can be recomputed or broken down differently
+ * without running the simulation again.
+ */
+public class TraceStatistics {
+
+    /**
+     * The number of arrival records read.
+     */
+    private long arrivals;
+
+    /**
+     * The number of departure records read.
+     */
+    private long departures;
+
+    /**
+     * The sum of the waits of every departure.
+     */
+    private long totalWaitTime;
+
+    /**
+     * The longest wait of any departure.
+     */
+    private int maxWaitTime;
+
+    /**
+     * The latest time step of any record.
+     */
+    private int lastStep;
+
+    /**
+     * The flat numbering of the lanes of the traced intersection.
+     */
+    private LaneLayout layout;
+
+    /**
+     * The waits of the departures from each lane, indexed by flat lane
+     * index.
+     */
+    private LogHistogram[] laneWaits;
+
+    /**
+     * Default constructor.
+     * Every road has the default number of lanes.
+     * @param numRoads
+     *      The number of roads of the traced intersection.
+     */
+    public TraceStatistics(int numRoads) {
+        this(LaneLayout.uniform(numRoads, TwoWayRoad.DEFAULT_NUM_LANES));
+    }
+
+    /**
+     * Constructor for an intersection whose roads have other numbers of
+     * lanes.
+     * @param initLayout
+     *      The lanes of the traced intersection.
+     */
+    public TraceStatistics(LaneLayout initLayout) {
+        layout = initLayout;
+        laneWaits = new LogHistogram[layout.getNumLanes()];
+        for (int i = 0; i < laneWaits.length; i++)
+            laneWaits[i] = new LogHistogram();
+    }
+
+    /**
+     * Reads a whole trace and returns its statistics.
+     * @param directory
+     *      The directory of the trace.
+     * @return
+     *      The statistics of the trace.
+     * @throws IOException
+     *      Indicates that the trace could not be read.
+     */
+    public static TraceStatistics read(Path directory) throws IOException {
+        return read(directory, null);
+    }
+
+    /**
+     * Reads a whole trace of an intersection with the indicated lanes and
+     * returns its statistics.
+     * @param directory
+     *      The directory of the trace.
+     * @param layout
+     *      The lanes of the traced intersection, or null if every road has
+     *      the default number of lanes.
+     * @return
+     *      The statistics of the trace.
+     * @throws IOException
+     *      Indicates that the trace could not be read or does not match
+     *      the layout.
+     */
+    public static TraceStatistics read(Path directory, LaneLayout layout)
+      throws IOException {
+        try (TraceReader reader = new TraceReader(directory)) {
+            if (layout != null && layout.getNumRoads() != reader.getNumRoads())
+                throw new IOException("Trace has " + reader.getNumRoads()
+                  + " roads, not " + layout.getNumRoads());
+            TraceStatistics statistics = layout == null
+              ? new TraceStatistics(reader.getNumRoads())
+              : new TraceStatistics(layout);
+            while (reader.next())
+                statistics.add(reader);
+            return statistics;
+        }
+    }
+
+    /**
+     * Adds the current record of a reader.
+     * @param reader
+     *      The reader positioned on the record to add.
+     */
+    public void add(TraceReader reader) {
+        if (reader.getStep() > lastStep)
+            lastStep = reader.getStep();
+        if (reader.isArrival()) {
+            arrivals++;
+            return;
+        }
+        departures++;
+        int wait = reader.getWait();
+        totalWaitTime += wait;
+        if (wait > maxWaitTime)
+            maxWaitTime = wait;
+        laneWaits[layout.index(reader.getRoad(), reader.getWay(),
+          reader.getLane())].record(wait);
+    }
+
+    /**
+     * Returns the number of vehicles that arrived.
+     * @return
+     *      The number of arrival records.
+     */
+    public long getArrivals() {
+        return arrivals;
+    }
+
+    /**
+     * Returns the number of vehicles that passed through.
+     * @return
+     *      The number of departure records.
+     */
+    public long getDepartures() {
+        return departures;
+    }
+
+    /**
+     * Returns the sum of the waits of every vehicle that passed through.
+     * @return
+     *      The total wait.
+     */
+    public long getTotalWaitTime() {
+        return totalWaitTime;
+    }
+
+    /**
+     * Returns the longest wait of any vehicle that passed through.
+     * @return
+     *      The longest wait.
+     */
+    public int getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    /**
+     * Returns the latest time step of any record.
+     * @return
+     *      The latest time step.
+     */
+    public int getLastStep() {
+        return lastStep;
+    }
+
+    /**
+     * Returns the average wait of the vehicles that passed through.
+     * @return
+     *      The average wait, or 0 if no vehicle passed through.
+     */
+    public double getAverageWaitTime() {
+        if (departures == 0)
+            return 0;
+        return (double)totalWaitTime / departures;
+    }
+
+    /**
+     * Returns the wait time histogram of each lane.
+     * @return
+     *      The histogram of each lane, indexed by flat lane index.
+     */
+    public LogHistogram[] getLaneWaitHistograms() {
+        return laneWaits;
+    }
+
+}
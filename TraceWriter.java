@@ -0,0 +1,329 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This TraceWriter class records every arrival and departure of a
+ * simulation as fixed-width binary records, for analysis after the run.
+ *
+ * A trace is a directory of segment files named trace-000000.bin,
+ * trace-000001.bin and so on. Each segment is memory-mapped at its full
+ * size when it is created, so writing a record is a handful of puts into
+ * the page cache and no system call. When a segment is full the next one is
+ * started. Segments keep their full size, as a file cannot portably be
+ * shrunk while it is mapped; on most file systems the part never written
+ * takes no space.
+ *
+ * A segment starts with a HEADER_SIZE byte little-endian header: the ints
+ * MAGIC, VERSION, the number of roads and the index of the segment, then
+ * the long number of records in the segment, which is UNFINISHED until the
+ * segment is full or the trace is closed. Each RECORD_SIZE byte record
+ * after it is laid out as
+ * <pre>
+ *     byte type, byte road, byte way, byte lane,
+ *     int step, int wait, long serialId
+ * </pre>
+ * where type is ARRIVAL or DEPARTURE, and wait is 0 for arrivals. In a
+ * segment left UNFINISHED, such as by a run that was killed, a type of 0
+ * marks the end of the trace.
+ * TraceReader reads traces back.
+ */
+public class TraceWriter implements Closeable {
+
+    /**
+     * The first int of every segment, "TRC1" in ASCII.
+     */
+    public static final int MAGIC = 0x54524331;
+
+    /**
+     * The version of the record layout.
+     */
+    public static final int VERSION = 3;
+
+    /**
+     * The number of bytes in a segment header.
+     */
+    public static final int HEADER_SIZE = 24;
+
+    /**
+     * The byte offset in a segment header of the number of records.
+     */
+    public static final int RECORD_COUNT_OFFSET = 16;
+
+    /**
+     * The number of records in the header of a segment still being written.
+     */
+    public static final long UNFINISHED = -1;
+
+    /**
+     * The number of bytes in a record.
+     */
+    public static final int RECORD_SIZE = 20;
+
+    /**
+     * The type of an arrival record.
+     */
+    public static final byte ARRIVAL = 1;
+
+    /**
+     * The type of a departure record.
+     */
+    public static final byte DEPARTURE = 2;
+
+    /**
+     * The number of records in a segment unless told otherwise, making
+     * 20 MB segments.
+     */
+    public static final int DEFAULT_SEGMENT_RECORDS = 1 << 20;
+
+    /**
+     * The directory the segments are written to.
+     */
+    private Path directory;
+
+    /**
+     * The number of roads of the traced intersection.
+     */
+    private int numRoads;
+
+    /**
+     * The number of records each segment holds.
+     */
+    private int segmentRecords;
+
+    /**
+     * The index of the segment being written.
+     */
+    private int segmentIndex;
+
+    /**
+     * The channel of the segment being written.
+     */
+    private FileChannel channel;
+
+    /**
+     * The mapping of the segment being written, or null once closed.
+     */
+    private MappedByteBuffer buffer;
+
+    /**
+     * The byte offset of the next record in the segment being written.
+     */
+    private int position;
+
+    /**
+     * The number of records written to every segment.
+     */
+    private long recordsWritten;
+
+    /**
+     * Default constructor.
+     * Segments hold DEFAULT_SEGMENT_RECORDS records.
+     * @param initDirectory
+     *      The directory to write the segments to. It is created if needed,
+     *      and any trace already in it is replaced.
+     * @param initNumRoads
+     *      The number of roads of the traced intersection.
+     * @throws IOException
+     *      Indicates that the first segment could not be created.
+     */
+    public TraceWriter(Path initDirectory, int initNumRoads)
+      throws IOException {
+        this(initDirectory, initNumRoads, DEFAULT_SEGMENT_RECORDS);
+    }
+
+    /**
+     * Constructor which sets the number of records in each segment.
+     * @param initDirectory
+     *      The directory to write the segments to. It is created if needed,
+     *      and any trace already in it is replaced.
+     * @param initNumRoads
+     *      The number of roads of the traced intersection. 0 < initNumRoads
+     *      <= 255.
+     * @param initSegmentRecords
+     *      The number of records in each segment. Must be > 0.
+     * @throws IllegalArgumentException
+     *      Indicates that initNumRoads or initSegmentRecords is out of range.
+     * @throws IOException
+     *      Indicates that the first segment could not be created.
+     */
+    public TraceWriter(Path initDirectory, int initNumRoads,
+      int initSegmentRecords) throws IOException {
+        if (initNumRoads <= 0 || initNumRoads > 255)
+            throw new IllegalArgumentException("Illegal number of roads");
+        if (initSegmentRecords <= 0 || initSegmentRecords
+          > (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE)
+            throw new IllegalArgumentException("Illegal segment size");
+        directory = initDirectory;
+        numRoads = initNumRoads;
+        segmentRecords = initSegmentRecords;
+        Files.createDirectories(directory);
+        //Remove an older trace so the reader does not run into its segments
+        int stale = 0;
+        while (Files.deleteIfExists(segmentPath(directory, stale)))
+            stale++;
+        segmentIndex = -1;
+        roll();
+    }
+
+    /**
+     * Records a vehicle arriving on a lane.
+     * @param step
+     *      The time step the vehicle arrived at.
+     * @param road
+     *      The index of the road.
+     * @param way
+     *      The index of the direction.
+     * @param lane
+     *      The index of the lane.
+     * @param serialId
+     *      The serialId of the vehicle.
+     * @throws UncheckedIOException
+     *      Indicates that a new segment could not be created.
+     */
+    public void arrival(int step, int road, int way, int lane,
+      long serialId) {
+        write(ARRIVAL, step, road, way, lane, serialId, 0);
+    }
+
+    /**
+     * Records a vehicle passing through the intersection.
+     * @param step
+     *      The time step the vehicle passed through at.
+     * @param road
+     *      The index of the road it left.
+     * @param way
+     *      The index of the direction.
+     * @param lane
+     *      The index of the lane it left.
+     * @param serialId
+     *      The serialId of the vehicle.
+     * @param wait
+     *      The number of steps the vehicle waited.
+     * @throws UncheckedIOException
+     *      Indicates that a new segment could not be created.
+     */
+    public void departure(int step, int road, int way, int lane,
+      long serialId, int wait) {
+        write(DEPARTURE, step, road, way, lane, serialId, wait);
+    }
+
+    /**
+     * Returns the number of records written.
+     * @return
+     *      The number of records written to every segment.
+     */
+    public long getRecordsWritten() {
+        return recordsWritten;
+    }
+
+    /**
+     * Records the number of records in the last segment and closes it.
+     * Further records are not allowed.
+     * @throws IOException
+     *      Indicates that the segment could not be closed.
+     */
+    public void close() throws IOException {
+        if (buffer == null)
+            return;
+        finishSegment();
+        buffer = null;
+        channel.close();
+    }
+
+    /**
+     * Returns the path of a segment of a trace.
+     * @param directory
+     *      The directory of the trace.
+     * @param index
+     *      The index of the segment.
+     * @return
+     *      The path of the segment.
+     */
+    static Path segmentPath(Path directory, int index) {
+        return directory.resolve(String.format("trace-%06d.bin", index));
+    }
+
+    /**
+     * Writes one record, starting a new segment if the current one is full.
+     * @param type
+     *      ARRIVAL or DEPARTURE.
+     * @param step
+     *      The time step of the event.
+     * @param road
+     *      The index of the road.
+     * @param way
+     *      The index of the direction.
+     * @param lane
+     *      The index of the lane.
+     * @param serialId
+     *      The serialId of the vehicle.
+     * @param wait
+     *      The wait of a departure, or 0.
+     * @throws IllegalStateException
+     *      Indicates that the writer is closed.
+     */
+    private void write(byte type, int step, int road, int way, int lane,
+      long serialId, int wait) {
+        if (buffer == null)
+            throw new IllegalStateException("Trace is closed.");
+        if (position == buffer.capacity()) {
+            try {
+                roll();
+            }
+            catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        buffer.put(position, type);
+        buffer.put(position + 1, (byte)road);
+        buffer.put(position + 2, (byte)way);
+        buffer.put(position + 3, (byte)lane);
+        buffer.putInt(position + 4, step);
+        buffer.putInt(position + 8, wait);
+        buffer.putLong(position + 12, serialId);
+        position += RECORD_SIZE;
+        recordsWritten++;
+    }
+
+    /**
+     * Records in the header of the segment being written how many records
+     * it holds.
+     */
+    private void finishSegment() {
+        buffer.putLong(RECORD_COUNT_OFFSET,
+          (position - HEADER_SIZE) / RECORD_SIZE);
+    }
+
+    /**
+     * Closes the current segment, which is full, and maps the next one.
+     * @throws IOException
+     *      Indicates that the segment could not be created.
+     */
+    private void roll() throws IOException {
+        if (channel != null) {
+            finishSegment();
+            channel.close();
+        }
+        segmentIndex++;
+        channel = FileChannel.open(segmentPath(directory, segmentIndex),
+          StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+          StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+          HEADER_SIZE + (long)segmentRecords * RECORD_SIZE);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, numRoads);
+        buffer.putInt(12, segmentIndex);
+        buffer.putLong(RECORD_COUNT_OFFSET, UNFINISHED);
+        position = HEADER_SIZE;
+    }
+
+}
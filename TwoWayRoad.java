@@ -1,3 +1,5 @@
+import jdk.jfr.FlightRecorder;
+
 /**
  * This TwoWayRoad class represents one of the roads in our intersection.
  */
@@ -10,12 +12,38 @@ public class TwoWayRoad {
     public final int NUM_WAYS = 2;
 
     /**
-     * Each road has 3 lanes: left, middle, and right.
+     * By default each way has 3 lanes: left, middle, and right. A way may
+     * have from MIN_LANES to MAX_LANES lanes; lane 0 is always the left
+     * lane and the last lane the right lane.
      */
     public final int LEFT_LANE = 0;
     public final int MIDDLE_LANE = 1;
     public final int RIGHT_LANE = 2;
-    public final int NUM_LANES = 3;
+    public static final int DEFAULT_NUM_LANES = 3;
+    public static final int MIN_LANES = 2;
+    public static final int MAX_LANES = 16;
+
+    /**
+     * The number of columns the vehicles of a lane are drawn in.
+     */
+    public static final int LANE_WIDTH = 30;
+
+    /**
+     * The width of a line of the string representation, not counting the
+     * line break.
+     */
+    private static final int RULE_WIDTH = 75;
+
+    /**
+     * Starts the marker counting the vehicles of a lane that are not drawn,
+     * including the space separating it from the vehicles.
+     */
+    private static final String MORE_CARS = " ... +";
+
+    /**
+     * Ends the marker counting the vehicles of a lane that are not drawn.
+     */
+    private static final String CARS = " cars";
 
     /**
      * The name of the road.
@@ -34,20 +62,54 @@ public class TwoWayRoad {
     private int leftSignalGreenTime;
 
     /**
-     * Stores the lanes of this road. 1st index indicates direction of
-     * travel on the road and the 2nd index indicates the lane of the road.
+     * The number of lanes in each way of this road.
      */
-    private VehicleQueue lanes[][];
+    private int numLanes;
+
+    /**
+     * Stores the lanes of this road, forward way then backward way, each
+     * from the left lane to the right lane, so the lane of a way is at
+     * index way * numLanes + lane.
+     */
+    private VehicleQueue[] lanes;
 
     /**
      * The current light value of this road.
      */
     private LightValue lightValue;
 
+    /**
+     * Occupancy bitmask of the lanes. Bit way * numLanes + lane is set
+     * while that lane holds at least one vehicle.
+     */
+    private int laneMask;
+
+    /**
+     * The bits of laneMask belonging to the left lanes of both ways.
+     */
+    private int leftLanesMask;
+
+    /**
+     * The number of vehicles waiting in all lanes of this road.
+     */
+    private int vehicleCount;
+
+    /**
+     * The intersection this road belongs to, told whenever the road gains
+     * or loses vehicles, or null if the road is not part of one.
+     */
+    private Intersection owner;
+
+    /**
+     * The index of this road in the owner's roads.
+     */
+    private int ownerIndex;
+
     /**
      * Default constructor.
      * All instance variables initialized and the road is initialized
-     * with all lanes initialized to empty queues.
+     * with all lanes initialized to empty queues. The left signal is
+     * given a third of the green time.
      * @param initName
      *      The name of this road.
      * @param initGreenTime
@@ -59,27 +121,82 @@ public class TwoWayRoad {
      *      Indicates that initGreenTime <= 0 or initName = null.
      */
     public TwoWayRoad(String initName, int initGreenTime) {
+        this(initName, initGreenTime,
+          (int)(Math.floor((1.0/3) * initGreenTime)));
+    }
+
+    /**
+     * Constructor which sets how much of the green time is given to the
+     * left signal.
+     * @param initName
+     *      The name of this road.
+     * @param initGreenTime
+     *      The amount of time that the light will be active for this
+     *      particular road, including the left signal.
+     * @param initLeftSignalGreenTime
+     *      The number of steps at the end of the green time during which
+     *      only the left lanes may proceed.
+     *      0 <= initLeftSignalGreenTime <= initGreenTime.
+     * @throws IllegalArgumentException
+     *      Indicates that initGreenTime <= 0, initName = null or
+     *      initLeftSignalGreenTime is out of range.
+     */
+    public TwoWayRoad(String initName, int initGreenTime,
+      int initLeftSignalGreenTime) {
+        this(initName, initGreenTime, initLeftSignalGreenTime,
+          DEFAULT_NUM_LANES);
+    }
+
+    /**
+     * Constructor which also sets the number of lanes in each way.
+     * @param initName
+     *      The name of this road.
+     * @param initGreenTime
+     *      The amount of time that the light will be active for this
+     *      particular road, including the left signal.
+     * @param initLeftSignalGreenTime
+     *      The number of steps at the end of the green time during which
+     *      only the left lanes may proceed.
+     *      0 <= initLeftSignalGreenTime <= initGreenTime.
+     * @param initNumLanes
+     *      The number of lanes in each way: the left lane and the lanes
+     *      that proceed on GREEN. MIN_LANES <= initNumLanes <= MAX_LANES.
+     * @throws IllegalArgumentException
+     *      Indicates that initGreenTime <= 0, initName = null, or
+     *      initLeftSignalGreenTime or initNumLanes is out of range.
+     */
+    public TwoWayRoad(String initName, int initGreenTime,
+      int initLeftSignalGreenTime, int initNumLanes) {
         try {
             if (initGreenTime <= 0 || initName == null)
                 throw new IllegalArgumentException();
+            if (initLeftSignalGreenTime < 0
+              || initLeftSignalGreenTime > initGreenTime) {
+                System.out.println("Cannot construct TwoWayRoad. " +
+                  "initLeftSignalGreenTime not in [0, initGreenTime].");
+                return;
+            }
+            if (initNumLanes < MIN_LANES || initNumLanes > MAX_LANES) {
+                System.out.println("Cannot construct TwoWayRoad. " +
+                  "initNumLanes not in [MIN_LANES, MAX_LANES].");
+                return;
+            }
 
             //Array representation:
-            //F Way: Left, Middle, Right
-            //B way: Left, Middle, Right
+            //F Way: Left, Middle, ..., Right
+            //B way: Left, Middle, ..., Right
 
-            //2d Array of Vehicle Queues
-            lanes = new VehicleQueue[NUM_WAYS][NUM_LANES];
+            //Flat array of Vehicle Queues
+            numLanes = initNumLanes;
+            lanes = new VehicleQueue[NUM_WAYS * numLanes];
             //Initialize array
-            for (int i = 0; i < lanes.length; i++) {
-                for (int j = 0; j < lanes[0].length; j++) {
-                    lanes[i][j] = new VehicleQueue();
-                }
-            }
+            for (int i = 0; i < lanes.length; i++)
+                lanes[i] = new VehicleQueue();
+            leftLanesMask = (1 << LEFT_LANE) | (1 << (numLanes + LEFT_LANE));
 
             name = initName;
             greenTime = initGreenTime;
-            leftSignalGreenTime =
-                    (int)(Math.floor((1.0/NUM_LANES) * initGreenTime));
+            leftSignalGreenTime = initLeftSignalGreenTime;
             lightValue = LightValue.RED;
         }
         catch(IllegalArgumentException e) {
@@ -101,10 +218,11 @@ public class TwoWayRoad {
      */
     public void enqueueVehicle(int wayIndex, int laneIndex, Vehicle vehicle) {
         try {
-            if (wayIndex > 1 || wayIndex < 0 || laneIndex < 0
-              || laneIndex > 2 || vehicle == null)
+            if (wayIndex >= NUM_WAYS || wayIndex < 0 || laneIndex < 0
+              || laneIndex >= numLanes || vehicle == null)
                 throw new IllegalArgumentException();
-            lanes[wayIndex][laneIndex].enqueue(vehicle);
+            lanes[wayIndex * numLanes + laneIndex].enqueue(vehicle);
+            occupied(wayIndex, laneIndex);
         }
         catch(IllegalArgumentException e) {
             System.out.println("Cannot enqueue vehicle. " +
@@ -112,6 +230,36 @@ public class TwoWayRoad {
         }
     }
 
+    /**
+     * Enqueues a vehicle into a specified lane by its primitive data, without
+     * allocating a Vehicle.
+     * @param wayIndex
+     *      The direction the car is going in.
+     * @param laneIndex
+     *      The lane the car arrives in.
+     * @param serialId
+     *      The serialId of the arriving vehicle.
+     * @param timeArrived
+     *      The time the vehicle arrived.
+     * @throws IllegalArgumentException
+     *      If wayIndex or laneIndex are not in the appropriate bounds.
+     */
+    public void enqueueVehicle(int wayIndex, int laneIndex, long serialId,
+      int timeArrived) {
+        try {
+            if (wayIndex >= NUM_WAYS || wayIndex < 0 || laneIndex < 0
+              || laneIndex >= numLanes)
+                throw new IllegalArgumentException();
+            lanes[wayIndex * numLanes + laneIndex].enqueue(serialId,
+              timeArrived);
+            occupied(wayIndex, laneIndex);
+        }
+        catch(IllegalArgumentException e) {
+            System.out.println("Cannot enqueue vehicle. " +
+              "Indexes out of range.");
+        }
+    }
+
     /**
      * Executes the passage of time in the simulation. The light should be
      * in state GREEN any time timerVal >= leftSignalGreenTime. When
@@ -122,85 +270,128 @@ public class TwoWayRoad {
      *      The current value of a countdown timer counting down total green
      *      time steps.
      * @return
+     *      The Vehicles which passed through, or null if the light is RED.
+     *      Each lane has a fixed slot so callers can tell where a Vehicle
+     *      came from: a GREEN array has length 2 * (lanes per way - 1),
+     *      4 by default, with the lane at index
+     *      way * (lanes per way - 1) + (lane - 1), and a LEFT_SIGNAL array
+     *      has length 2 with the left lane of each way at index way. Slots
+     *      of empty lanes are null.
+     * @throws IllegalArgumentException
      *      Indicates that timerVal <= 0.
      */
     public Vehicle[] proceed(int timerVal) {
+        DepartureCollector collector = new DepartureCollector(numLanes);
+        proceed(timerVal, ownerIndex, collector);
+        return collector.getOutput();
+    }
+
+    /**
+     * Executes the passage of time in the simulation exactly as
+     * proceed(int) does, but hands each Vehicle which passes through to a
+     * listener as primitive values instead of returning an array, so no
+     * objects are allocated.
+     * @param timerVal
+     *      The current value of a countdown timer counting down total green
+     *      time steps.
+     * @param roadIndex
+     *      The road index passed on to the listener.
+     * @param listener
+     *      Told about every Vehicle which passes through, forward way
+     *      before backward way and lanes in increasing order.
+     * @return
+     *      The number of Vehicles which passed through, 0 if the light is
+     *      RED.
+     * @throws IllegalArgumentException
+     *      Indicates that timerVal <= 0.
+     */
+    public int proceed(int timerVal, int roadIndex,
+      DepartureListener listener) {
+        LightValue before = lightValue;
+        int departed = proceedLanes(timerVal, roadIndex, listener);
+        if (lightValue != before)
+            lightChanged(before);
+        return departed;
+    }
+
+    /**
+     * Does the work of proceed(int, int, DepartureListener). The light may
+     * pass through several values on the way; only the value it ends on is
+     * recorded as a transition by the caller.
+     * @param timerVal
+     *      The current value of a countdown timer counting down total green
+     *      time steps.
+     * @param roadIndex
+     *      The road index passed on to the listener.
+     * @param listener
+     *      Told about every Vehicle which passes through.
+     * @return
+     *      The number of Vehicles which passed through, 0 if the light is
+     *      RED.
+     */
+    private int proceedLanes(int timerVal, int roadIndex,
+      DepartureListener listener) {
         try {
             if (timerVal <= 0)
                 throw new IllegalArgumentException();
             lightValue = lightValue.GREEN;
-            boolean leftEmpty = true;
-            boolean midRightEmpty = true;
-            //Loops through number of rows
-            for (int i = 0; i < lanes.length; i++) {
-                //Loops through number of columns
-                for (int j = 0; j < lanes[0].length; j++) {
-                    //j == 0 refers to left lane, checks to see if its empty
-                    if (!lanes[i][j].isEmpty() && j == 0)
-                        leftEmpty = false;
-                        //If any other lane is empty
-                    else if (!lanes[i][j].isEmpty())
-                        midRightEmpty = false;
-                }
-            }
+            //Occupancy comes straight from the lane bitmask
+            boolean leftEmpty = (laneMask & leftLanesMask) == 0;
+            boolean midRightEmpty = (laneMask & ~leftLanesMask) == 0;
             if (timerVal <= leftSignalGreenTime || midRightEmpty) {
                 lightValue = LightValue.LEFT_SIGNAL;
                 //If leftLane empty, change light to red
                 if (leftEmpty) {
-                    //Will return null indicating to increment lightIndex
+                    //Will return 0 indicating to increment lightIndex
                     lightValue = LightValue.RED;
                 }
             }
             //ANY lane can only be enqueued and dequeued once
-            //Max. 6 can be enqueued while Max. 4 can be dequeued
+            //Max. 2 * numLanes can be enqueued while Max. 2 * (numLanes - 1)
+            //can be dequeued
             //Ex. 4 Green: F.Mid, F.Right, B.Mid, B.Right
             //Ex. 2 Left: F.Left, B.Left
 
             //If the light will be green
             if (lightValue == LightValue.GREEN) {
-                Vehicle[] output = new Vehicle[4];
-                //Represents the index we are on in the output array
-                int vehicleIndex = 0;
-                //First loop loops through the rows, lanes.length is # of rows
-                for (int i = 0; i < lanes.length; i++) {
-                    //Second loop loops through the columns, initial 1 because
-                    // we want to skip the first column (left lane)
-                    for (int j = 1; j < lanes[0].length; j++) {
-                        if (!lanes[i][j].isEmpty()) {
-                            output[vehicleIndex] = lanes[i][j].dequeue();
-                            vehicleIndex++;
-                        }
-                    }
+                int departed = 0;
+                //Visits only the occupied lanes other than the left lanes,
+                //in bit order: forward way then backward way, left to right
+                int pending = laneMask & ~leftLanesMask;
+                while (pending != 0) {
+                    int bit = Integer.numberOfTrailingZeros(pending);
+                    pending &= pending - 1;
+                    int way = bit < numLanes ? 0 : 1;
+                    dequeueLane(roadIndex, way, bit - way * numLanes,
+                      listener);
+                    departed++;
                 }
+                departed(departed);
                 if (timerVal == 1)
                     lightValue = LightValue.RED;
-                return output;
+                return departed;
             }
             //If the light will be left
             else if (lightValue == LightValue.LEFT_SIGNAL) {
-                Vehicle[] output = new Vehicle[2];
-                //Represents the index we are on in the output array
-                int vehicleIndex = 0;
-                //First loop loops through the rows, lanes.length is # of rows
-                for (int i = 0; i < lanes.length; i++) {
-                    //Second loop loops through columns, stops at 1 because we only
-                    // want to loop the first column
-                    for (int j = 0; j < 1; j++) {
-                        if (!lanes[i][j].isEmpty()) {
-                            output[vehicleIndex] = lanes[i][j].dequeue();
-                            vehicleIndex++;
-                        }
+                //Loops through the rows, only the left lane of each row
+                // may proceed
+                int departed = 0;
+                for (int i = 0; i < NUM_WAYS; i++) {
+                    if (!isEmpty(i, LEFT_LANE)) {
+                        dequeueLane(roadIndex, i, LEFT_LANE, listener);
+                        departed++;
                     }
                 }
+                departed(departed);
                 if (timerVal == 1)
                     lightValue = LightValue.RED;
-                return output;
+                return departed;
             }
-            return null;
+            return 0;
         }
         catch(IllegalArgumentException e) {
             System.out.println("Cannot proceed()! timerVal <= 0");
-            return null;
+            return 0;
         }
     }
 
@@ -217,9 +408,10 @@ public class TwoWayRoad {
      */
     public boolean isLaneEmpty(int wayIndex, int laneIndex) {
         try {
-            if (wayIndex > 1 || wayIndex < 0 || laneIndex < 0 || laneIndex > 2)
+            if (wayIndex >= NUM_WAYS || wayIndex < 0 || laneIndex < 0
+              || laneIndex >= numLanes)
                 throw new IllegalArgumentException();
-            return lanes[wayIndex][laneIndex].isEmpty();
+            return isEmpty(wayIndex, laneIndex);
         }
         catch(IllegalArgumentException e) {
             System.out.println("Lane empty indexes out of range.");
@@ -236,6 +428,25 @@ public class TwoWayRoad {
         return greenTime;
     }
 
+    /**
+     * Returns the number of steps at the end of the green time during which
+     * only the left lanes may proceed.
+     * @return
+     *      The left signal green time.
+     */
+    public int getLeftSignalGreenTime() {
+        return leftSignalGreenTime;
+    }
+
+    /**
+     * Returns the number of lanes in each way of this road.
+     * @return
+     *      The number of lanes per way.
+     */
+    public int getNumLanes() {
+        return numLanes;
+    }
+
     /**
      * Returns the current light value of this road.
      * @return
@@ -245,6 +456,23 @@ public class TwoWayRoad {
         return lightValue;
     }
 
+    /**
+     * Returns the number of vehicles in the longest lane of this road.
+     * @return
+     *      The length of the longest lane, 0 if the road is empty.
+     */
+    public int getLongestQueue() {
+        int longest = 0;
+        //Only the occupied lanes can be the longest
+        int pending = laneMask;
+        while (pending != 0) {
+            int bit = Integer.numberOfTrailingZeros(pending);
+            pending &= pending - 1;
+            longest = Math.max(longest, lanes[bit].size());
+        }
+        return longest;
+    }
+
     /**
      * Returns the name of this TwoWayRoad.
      * @return
@@ -260,45 +488,156 @@ public class TwoWayRoad {
      *      The string representation of this TwoWayRoad class.
      */
     public String toString() {
-        String output = "";
-        //2nd index of 2d array represents the lane of the
-        String[] laneSymbols = new String[]{" [L] "," [M] "," [R] "};
-        //We start at index 2 to print the right roads because order reversed
-        int rightIndex = 2;
+        StringBuilder output = new StringBuilder(
+          (2 * numLanes + 2) * (RULE_WIDTH + 1) + 60);
+        appendTo(output);
+        return output.toString();
+    }
+
+    /**
+     * Appends the string representation of this TwoWayRoad, as toString()
+     * returns it, to a StringBuilder which may be reused between calls.
+     * Each lane is drawn in LANE_WIDTH columns. A lane with more vehicles
+     * than fit shows the vehicles nearest the light and "... +N cars" for
+     * the rest, so the work done per lane does not grow with its queue.
+     * @param output
+     *      The StringBuilder to append to.
+     */
+    public void appendTo(StringBuilder output) {
+        //We start at the last index to print the right roads because order
+        //reversed
+        int rightIndex = numLanes - 1;
         //Basically, print FORWARD lanes 0,1,2 and BACKWARD lanes 2,1,0
 
-        output += " ".repeat(23) + "FORWARD";
+        appendRepeated(output, ' ', 23).append("FORWARD");
         //Gap in the middle is 15 units
-        output += " ".repeat(15) + "BACKWARD\n";
-        output += "=".repeat(30) + " ".repeat(14) + "=".repeat(31) + "\n";
-        //Loops 3 times to print the 3 lanes on both sides
-        for (int i = 0; i < 3; i++) {
-            String currentLane = "";
-            //Gets String representation of a FORWARD lane
-            //Front is towards the right
-            for (int j = lanes[0][i].size() - 1; j >= 0; j--)
-                currentLane += lanes[0][i].get(j);
-            //Without dash, right justify
-            output += String.format("%30s", currentLane) + laneSymbols[i] + xStr(i);
-
-            output += "   "; //PRINTING RIGHT SIDE OF LINE NOW
-
-            //Reset currentLane for backward way printing
-            currentLane = "";
-            //Gets String representation of a BACKWARD lane
-            //Front is towards to left
-            for (int j = 0; j < lanes[1][rightIndex].size(); j++)
-                currentLane += lanes[1][rightIndex].get(j);
-            output += xStr(rightIndex) + laneSymbols[rightIndex] + String.format("%-30s", currentLane) + "\n";
-            if (i != 2)
-                output += "-".repeat(30) + " ".repeat(14) + "-".repeat(31) + "\n";
+        appendRepeated(output, ' ', 15).append("BACKWARD\n");
+        appendRule(output, '=');
+        //Loops once per lane to print the lanes on both sides
+        for (int i = 0; i < numLanes; i++) {
+            //Front is towards the right, so right justify
+            appendLane(output, lanes[i], true);
+            output.append(laneSymbol(i)).append(xStr(i));
+
+            output.append("   "); //PRINTING RIGHT SIDE OF LINE NOW
+
+            //Front is towards to left, so left justify
+            output.append(xStr(rightIndex)).append(laneSymbol(rightIndex));
+            appendLane(output, lanes[numLanes + rightIndex], false);
+            output.append('\n');
+            if (i != numLanes - 1)
+                appendRule(output, '-');
             rightIndex--;
         }
-        output += "=".repeat(30) + " ".repeat(14) + "=".repeat(31) + "\n";
+        appendRule(output, '=');
+    }
+
+    /**
+     * Appends the vehicles of a lane padded to LANE_WIDTH columns, front
+     * vehicle next to the light. Vehicles that do not fit are counted by a
+     * "... +N cars" marker on the far side.
+     * @param output
+     *      The StringBuilder to append to.
+     * @param lane
+     *      The lane to draw.
+     * @param forward
+     *      true to draw the lane right justified with its front vehicle
+     *      last, false to draw it left justified with its front vehicle
+     *      first.
+     */
+    private static void appendLane(StringBuilder output, VehicleQueue lane,
+      boolean forward) {
+        int size = lane.size();
+        //Counts how many vehicles fit, from the front
+        int shown = 0;
+        int width = 0;
+        while (shown < size) {
+            int next = Vehicle.serialIdWidth(lane.getSerialId(shown));
+            if (width + next > LANE_WIDTH)
+                break;
+            width += next;
+            shown++;
+        }
+        int hidden = 0;
+        int markerWidth = 0;
+        if (shown < size) {
+            //Makes room for the marker
+            while (true) {
+                hidden = size - shown;
+                markerWidth = MORE_CARS.length() + digits(hidden)
+                  + CARS.length();
+                if (width + markerWidth <= LANE_WIDTH || shown == 0)
+                    break;
+                shown--;
+                width -= Vehicle.serialIdWidth(lane.getSerialId(shown));
+            }
+        }
+        int padding = Math.max(0, LANE_WIDTH - width - markerWidth);
+        if (forward) {
+            appendRepeated(output, ' ', padding);
+            if (hidden > 0)
+                output.append(MORE_CARS, 1, MORE_CARS.length())
+                  .append(hidden).append(CARS).append(' ');
+            for (int j = shown - 1; j >= 0; j--)
+                Vehicle.appendSerialId(output, lane.getSerialId(j));
+        }
+        else {
+            for (int j = 0; j < shown; j++)
+                Vehicle.appendSerialId(output, lane.getSerialId(j));
+            if (hidden > 0)
+                output.append(MORE_CARS).append(hidden).append(CARS);
+            appendRepeated(output, ' ', padding);
+        }
+    }
 
+    /**
+     * Appends a separator line between lanes, leaving a gap for the
+     * intersection in the middle.
+     * @param output
+     *      The StringBuilder to append to.
+     * @param c
+     *      The character the separator is drawn with.
+     */
+    private static void appendRule(StringBuilder output, char c) {
+        appendRepeated(output, c, 30);
+        appendRepeated(output, ' ', 14);
+        appendRepeated(output, c, 31).append('\n');
+    }
+
+    /**
+     * Appends a character a number of times.
+     * @param output
+     *      The StringBuilder to append to.
+     * @param c
+     *      The character to append.
+     * @param count
+     *      The number of times to append it.
+     * @return
+     *      output.
+     */
+    private static StringBuilder appendRepeated(StringBuilder output, char c,
+      int count) {
+        for (int i = 0; i < count; i++)
+            output.append(c);
         return output;
     }
 
+    /**
+     * Returns the number of decimal digits of a positive number.
+     * @param n
+     *      The number. Must be > 0.
+     * @return
+     *      The number of digits.
+     */
+    private static int digits(int n) {
+        int count = 1;
+        while (n >= 10) {
+            n /= 10;
+            count++;
+        }
+        return count;
+    }
+
     /**
      * Returns a string containing a 'x' or an empty space.
      * This is determined based on the current light value
@@ -310,20 +649,28 @@ public class TwoWayRoad {
      */
     public String xStr(int lane) {
         //Returns if there should be a x printed regarding a lane
-        String output = "";
-        String[] xGreen = new String[]{"x"," "," "};
-        String[] xLeft = new String[]{" ","x","x"};
-        String[] xRed = new String[]{"x","x","x"};
-        if (lightValue == LightValue.GREEN) {
-            output += xGreen[lane];
-        }
-        else if (lightValue == LightValue.LEFT_SIGNAL) {
-            output += xLeft[lane];
-        }
-        else if (lightValue == LightValue.RED) {
-            output += xRed[lane];
-        }
-        return output;
+        //GREEN stops only the left lane, LEFT_SIGNAL every other lane
+        if (lightValue == LightValue.GREEN)
+            return lane == LEFT_LANE ? "x" : " ";
+        else if (lightValue == LightValue.LEFT_SIGNAL)
+            return lane == LEFT_LANE ? " " : "x";
+        else if (lightValue == LightValue.RED)
+            return "x";
+        return "";
+    }
+
+    /**
+     * Returns the symbol printed next to a lane: [L] for the left lane,
+     * [R] for the right lane and [M] for the lanes between them.
+     * @param lane
+     *      The lane the symbol is for.
+     * @return
+     *      The symbol of the lane, padded with a space on each side.
+     */
+    private String laneSymbol(int lane) {
+        if (lane == LEFT_LANE)
+            return " [L] ";
+        return lane == numLanes - 1 ? " [R] " : " [M] ";
     }
 
     /**
@@ -332,13 +679,159 @@ public class TwoWayRoad {
      *      true if all lanes are empty, else falase.
      */
     public boolean allLanesEmpty() {
-        for (int i = 0; i < lanes.length; i++) {
-            for (int j = 0; j < lanes[0].length; j++) {
-                if (!lanes[i][j].isEmpty())
-                    return false;
-            }
+        return laneMask == 0;
+    }
+
+    /**
+     * Returns the number of vehicles waiting in all lanes of this road.
+     * @return
+     *      The number of vehicles waiting on this road.
+     */
+    public int getVehicleCount() {
+        return vehicleCount;
+    }
+
+    /**
+     * Returns the occupancy bitmask of the lanes. Bit
+     * way * getNumLanes() + lane is set while that lane holds a vehicle.
+     * @return
+     *      The occupancy bitmask.
+     */
+    public int getLaneMask() {
+        return laneMask;
+    }
+
+    /**
+     * Makes this road part of an intersection, which is then told whenever
+     * the road gains or loses vehicles.
+     * @param newOwner
+     *      The intersection this road belongs to.
+     * @param index
+     *      The index of this road in the intersection's roads.
+     */
+    void attach(Intersection newOwner, int index) {
+        owner = newOwner;
+        ownerIndex = index;
+    }
+
+    /**
+     * Returns a lane of this road, for checkpointing.
+     * @param wayIndex
+     *      The direction of the lane.
+     * @param laneIndex
+     *      The index of the lane.
+     * @return
+     *      The queue of the lane.
+     */
+    VehicleQueue getLane(int wayIndex, int laneIndex) {
+        return lanes[wayIndex * numLanes + laneIndex];
+    }
+
+    /**
+     * Sets the light, as decided by a signal controller. A change is
+     * recorded as a light transition.
+     * @param newLightValue
+     *      The light value of this road.
+     */
+    void setLightValue(LightValue newLightValue) {
+        LightValue before = lightValue;
+        lightValue = newLightValue;
+        if (lightValue != before)
+            lightChanged(before);
+    }
+
+    /**
+     * Puts the light back to a value saved by a checkpoint, without
+     * recording a light transition.
+     * @param newLightValue
+     *      The light value of this road.
+     */
+    void restoreLightValue(LightValue newLightValue) {
+        lightValue = newLightValue;
+    }
+
+    /**
+     * Records that the light of this road changed: the owner counts it and
+     * a LightTransitionEvent is committed if JFR is recording it.
+     * @param before
+     *      The light value before the change.
+     */
+    private void lightChanged(LightValue before) {
+        if (owner != null)
+            owner.lightChanged();
+        //Loading the event class would start JFR
+        if (!FlightRecorder.isInitialized())
+            return;
+        LightTransitionEvent event = new LightTransitionEvent();
+        if (event.shouldCommit()) {
+            event.road = name;
+            event.from = before.name();
+            event.to = lightValue.name();
+            event.commit();
         }
-        return true;
+    }
+
+    /**
+     * Checks the occupancy bit of a lane without range checks.
+     * @param wayIndex
+     *      The direction of the lane.
+     * @param laneIndex
+     *      The index of the lane.
+     * @return
+     *      true if the lane is empty, else false.
+     */
+    private boolean isEmpty(int wayIndex, int laneIndex) {
+        return (laneMask & (1 << (wayIndex * numLanes + laneIndex))) == 0;
+    }
+
+    /**
+     * Records that a vehicle was enqueued onto a lane.
+     * @param wayIndex
+     *      The direction of the lane.
+     * @param laneIndex
+     *      The index of the lane.
+     */
+    private void occupied(int wayIndex, int laneIndex) {
+        laneMask |= 1 << (wayIndex * numLanes + laneIndex);
+        vehicleCount++;
+        if (owner != null)
+            owner.vehicleEnqueued(ownerIndex);
+    }
+
+    /**
+     * Dequeues the front vehicle of a non-empty lane and hands it to a
+     * listener, clearing the lane's occupancy bit if it empties.
+     * @param roadIndex
+     *      The road index passed on to the listener.
+     * @param wayIndex
+     *      The direction of the lane.
+     * @param laneIndex
+     *      The index of the lane.
+     * @param listener
+     *      Told about the dequeued vehicle.
+     */
+    private void dequeueLane(int roadIndex, int wayIndex, int laneIndex,
+      DepartureListener listener) {
+        int index = wayIndex * numLanes + laneIndex;
+        VehicleQueue lane = lanes[index];
+        long serialId = lane.peekSerialId();
+        int timeArrived = lane.peekTimeArrived();
+        lane.removeFront();
+        if (lane.isEmpty())
+            laneMask &= ~(1 << index);
+        listener.departed(roadIndex, wayIndex, laneIndex, serialId,
+          timeArrived);
+    }
+
+    /**
+     * Records that vehicles left this road during a call to proceed().
+     * @param count
+     *      The number of vehicles that left.
+     */
+    private void departed(int count) {
+        vehicleCount -= count;
+        if (owner != null)
+            owner.vehiclesDeparted(ownerIndex, count, laneMask == 0);
     }
 
 }
@@ -1,24 +1,23 @@
 /**
  * This Vehicle class represents a car which passes through the intersection.
  * Each instance contains a serialId (first car to arrive at the intersection
- * is serialId 1, 2nd is 2, n'th car to arrive is n stored as an int). The car
- * must be initialized with a serialId and the time it arrived.
+ * is serialId 1, 2nd is 2, n'th car to arrive is n stored as a long), issued
+ * by the VehicleIdAllocator of its simulation. The car must be initialized
+ * with a serialId and the time it arrived.
  *
  * The vehicle class is immutable (no data within the instance can be changed
  * once it is constructed) but data can be read with getter methods.
+ *
+ * Lanes store vehicles as primitive columns (see VehicleQueue), so a Vehicle
+ * is usually a view created with view() only when something asks for one.
  */
 public class Vehicle {
 
-    /**
-     * The number of vehicles that have arrived at the intersection so far.
-     */
-    private static int serialCounter = 0;
-
     /**
      * The first car to arrive at the intersection is serialId 1, 2nd car is 2,
      * n'th car to arrive is n.
      */
-    private int serialId;
+    private long serialId;
 
     /**
      * The time the vehicle arrived at the intersection;
@@ -27,20 +26,20 @@ public class Vehicle {
 
     /**
      * Default constructor.
-     * The Vehicle's serialId and timeArrived is logged and serialCounter
-     * is incremented.
+     * The Vehicle's timeArrived is logged and its serialId is issued by ids.
+     * @param ids
+     *      The allocator of the simulation the vehicle arrives in.
      * @param initTimeArrived
      *      Time the vehicle arrived at the intersection.
      * @throws IllegalArgumentException
      *      Indicates that initTimeArrived < 0.
      */
-    public Vehicle(int initTimeArrived) {
+    public Vehicle(VehicleIdAllocator ids, int initTimeArrived) {
         try {
             if (initTimeArrived <= 0)
                 throw new IllegalArgumentException();
             timeArrived = initTimeArrived;
-            serialId = serialCounter + 1;
-            serialCounter++;
+            serialId = ids.next();
         }
         catch(IllegalArgumentException e) {
             System.out.println("Vehicle timeArrived <= 0");
@@ -48,12 +47,39 @@ public class Vehicle {
 
     }
 
+    /**
+     * Constructor used for views of vehicles already stored in a lane.
+     * No serialId is issued.
+     * @param initSerialId
+     *      The serialId of the vehicle.
+     * @param initTimeArrived
+     *      Time the vehicle arrived at the intersection.
+     */
+    private Vehicle(long initSerialId, int initTimeArrived) {
+        serialId = initSerialId;
+        timeArrived = initTimeArrived;
+    }
+
+    /**
+     * Creates a Vehicle view of a vehicle whose serialId has already been
+     * issued, such as one stored in a VehicleQueue.
+     * @param serialId
+     *      The serialId of the vehicle.
+     * @param timeArrived
+     *      Time the vehicle arrived at the intersection.
+     * @return
+     *      A Vehicle with the indicated serialId and timeArrived.
+     */
+    public static Vehicle view(long serialId, int timeArrived) {
+        return new Vehicle(serialId, timeArrived);
+    }
+
     /**
      * Returns the serial ID of this Vehicle.
      * @return
      *      The serialId of this Vehicle.
      */
-    public int getSerialId() {
+    public long getSerialId() {
         return serialId;
     }
 
@@ -72,23 +98,59 @@ public class Vehicle {
      *      The string representation of this Vehicle class.
      */
     public String toString() {
-        String output = "";
-        if (serialId < 10)
-            output += "[00" + serialId + "]";
-        else if (serialId < 100)
-            output += "[0" + serialId + "]";
-        else
-            output += "[" + serialId + "]";
-        return output;
+        return formatSerialId(serialId);
+    }
+
+    /**
+     * Returns the string representation of a vehicle with the indicated
+     * serialId, without needing a Vehicle instance.
+     * @param serialId
+     *      The serialId to format.
+     * @return
+     *      The serialId inside square brackets, padded with zeros to at
+     *      least 3 digits.
+     */
+    public static String formatSerialId(long serialId) {
+        return appendSerialId(new StringBuilder(serialIdWidth(serialId)),
+          serialId).toString();
+    }
+
+    /**
+     * Appends the string representation of a vehicle with the indicated
+     * serialId, as formatSerialId() returns it, without building a String.
+     * @param sb
+     *      The StringBuilder to append to.
+     * @param serialId
+     *      The serialId to format.
+     * @return
+     *      sb.
+     */
+    public static StringBuilder appendSerialId(StringBuilder sb,
+      long serialId) {
+        sb.append('[');
+        //Ids have as many digits as they need, short ones are padded
+        if (serialId >= 0 && serialId < 10)
+            sb.append("00");
+        else if (serialId >= 0 && serialId < 100)
+            sb.append('0');
+        return sb.append(serialId).append(']');
     }
 
     /**
-     * Returns the number of vehicles that have arrived at the intersection
-     * so far (serialCounter).
+     * Returns the length of the string representation of a vehicle with
+     * the indicated serialId.
+     * @param serialId
+     *      The serialId to measure.
      * @return
-     *      The number of vehicles that have arrived at the intersection so far.
+     *      The number of characters formatSerialId() returns.
      */
-    public static int getSerialCounter() {
-        return serialCounter;
+    public static int serialIdWidth(long serialId) {
+        //Padded to at least 3 digits, as formatSerialId() does
+        if (serialId >= 0 && serialId < 1000)
+            return 5;
+        int digits = serialId < 0 ? 2 : 1;
+        for (long rest = Math.abs(serialId / 10); rest > 0; rest /= 10)
+            digits++;
+        return digits + 2;
     }
 }
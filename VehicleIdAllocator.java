@@ -0,0 +1,117 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This VehicleIdAllocator class issues the serialIds of the vehicles of one
+ * simulation. Every simulation owns its allocator, so simulations running
+ * one after another or side by side in the same JVM each number their
+ * vehicles from 1 and never share state. Ids are longs, so they do not
+ * wrap on very long runs.
+ *
+ * Ids are reserved from a single atomic counter in blocks. A simulation
+ * stepping on one thread reserves exactly the ids of each step with
+ * reserve(), so its ids stay consecutive and reproducible. Producers on
+ * several threads call next(), which hands out ids from a block reserved
+ * for the calling thread and only touches the shared counter once per
+ * block, so they do not contend on it. Ids are unique across both, but an
+ * id from next() may be smaller than one reserved earlier by another
+ * thread, and the unused rest of a thread's block is never issued.
+ */
+public class VehicleIdAllocator {
+
+    /**
+     * The number of ids reserved at a time for a thread calling next()
+     * unless told otherwise.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+    /**
+     * The smallest id not yet reserved.
+     */
+    private AtomicLong nextUnreserved;
+
+    /**
+     * The number of ids reserved at a time for a thread calling next().
+     */
+    private int blockSize;
+
+    /**
+     * The block of each thread calling next(): the next id to issue and
+     * the end of the block, exclusive.
+     */
+    private ThreadLocal<long[]> blocks;
+
+    /**
+     * Default constructor.
+     * The first id issued is 1, and threads reserve DEFAULT_BLOCK_SIZE ids
+     * at a time.
+     */
+    public VehicleIdAllocator() {
+        this(1, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Constructor which sets the first id and the block size, such as to
+     * carry on from a checkpoint.
+     * @param firstId
+     *      The first id to issue.
+     * @param initBlockSize
+     *      The number of ids reserved at a time for a thread calling next().
+     *      Must be > 0.
+     * @throws IllegalArgumentException
+     *      Indicates that initBlockSize <= 0.
+     */
+    public VehicleIdAllocator(long firstId, int initBlockSize) {
+        if (initBlockSize <= 0)
+            throw new IllegalArgumentException("Block size must be > 0");
+        nextUnreserved = new AtomicLong(firstId);
+        blockSize = initBlockSize;
+        blocks = ThreadLocal.withInitial(() -> new long[2]);
+    }
+
+    /**
+     * Reserves consecutive ids, such as those of the vehicles arriving in
+     * one time step. Safe to call from any thread.
+     * @param count
+     *      The number of ids to reserve. Must be >= 0.
+     * @return
+     *      The first id reserved; the others follow it.
+     */
+    public long reserve(int count) {
+        return nextUnreserved.getAndAdd(count);
+    }
+
+    /**
+     * Issues one id from the calling thread's block, reserving a new block
+     * when it runs out. Safe to call from any thread.
+     * @return
+     *      The id issued.
+     */
+    public long next() {
+        long[] block = blocks.get();
+        if (block[0] == block[1]) {
+            block[0] = reserve(blockSize);
+            block[1] = block[0] + blockSize;
+        }
+        return block[0]++;
+    }
+
+    /**
+     * Returns the smallest id not yet reserved. When ids are only taken
+     * with reserve(), it is one more than the last id issued.
+     * @return
+     *      The next id to be reserved.
+     */
+    public long getNextUnreserved() {
+        return nextUnreserved.get();
+    }
+
+    /**
+     * Returns the number of ids reserved at a time by next().
+     * @return
+     *      The block size.
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+}
@@ -1,28 +1,280 @@
 /**
  * This VehicleQueue class represents a queue abstract data type.
- * It is modeled as a queue of Vehicles.
+ * It is modeled as a growable circular buffer so that both enqueue and
+ * dequeue run in constant time regardless of queue length.
+ *
+ * Vehicles are not stored as objects. Each queue keeps parallel primitive
+ * columns of serial IDs and arrival times, and a Vehicle is only created as
+ * a view when one is asked for through get() or dequeue().
  */
-import java.util.ArrayList;
+public class VehicleQueue {
 
-public class VehicleQueue extends ArrayList<Vehicle> {
+    /**
+     * The capacity of a newly constructed queue.
+     */
+    public static final int DEFAULT_CAPACITY = 16;
+
+    /**
+     * Circular buffer column holding the serialId of each queued vehicle.
+     */
+    private long[] serialIds;
+
+    /**
+     * Circular buffer column holding the arrival time of each queued vehicle,
+     * parallel to serialIds.
+     */
+    private int[] timesArrived;
+
+    /**
+     * Index in the buffer columns of the front of the queue.
+     */
+    private int head;
+
+    /**
+     * The number of vehicles currently in the queue.
+     */
+    private int size;
+
+    /**
+     * Whether the buffer is halved once the queue drains below a quarter of
+     * its capacity, releasing memory after a rush clears.
+     */
+    private boolean shrinkOnDrain;
+
+    /**
+     * Default constructor.
+     * The queue is initialized empty with DEFAULT_CAPACITY and does not
+     * shrink on drain.
+     */
+    public VehicleQueue() {
+        this(false);
+    }
+
+    /**
+     * Constructor which sets whether the buffer shrinks as the queue drains.
+     * @param initShrinkOnDrain
+     *      true if the buffer should be halved whenever the queue drains below
+     *      a quarter of its capacity, else false.
+     */
+    public VehicleQueue(boolean initShrinkOnDrain) {
+        serialIds = new long[DEFAULT_CAPACITY];
+        timesArrived = new int[DEFAULT_CAPACITY];
+        head = 0;
+        size = 0;
+        shrinkOnDrain = initShrinkOnDrain;
+    }
 
     /**
-     * Enqueues by adding the Vehicle to the end of the arraylist.
-     * 0 index represents front, size() - 1 index represents rear.
+     * Enqueues by adding the Vehicle's data to the rear of the buffer.
      * @param vehicle
      *      The Vehicle to be enqueued.
      */
     public void enqueue(Vehicle vehicle) {
-        add(vehicle);
+        enqueue(vehicle.getSerialId(), vehicle.getTimeArrived());
+    }
+
+    /**
+     * Enqueues a vehicle by its primitive data without allocating a Vehicle.
+     * The buffer doubles in size when full.
+     * @param serialId
+     *      The serialId of the vehicle to be enqueued.
+     * @param timeArrived
+     *      The time the vehicle arrived.
+     */
+    public void enqueue(long serialId, int timeArrived) {
+        if (size == serialIds.length)
+            resize(serialIds.length * 2);
+        int tail = (head + size) & (serialIds.length - 1);
+        serialIds[tail] = serialId;
+        timesArrived[tail] = timeArrived;
+        size++;
     }
 
     /**
-     * Dequeues by removing the Vehicle from the first index of the arraylist.
+     * Dequeues by removing the vehicle at the front of the buffer.
      * @return
-     *      The Vehicle that is dequeued.
+     *      A Vehicle view of the vehicle that is dequeued.
+     * @throws IllegalStateException
+     *      Indicates that the queue is empty.
      */
     public Vehicle dequeue() {
-        return remove(0);
+        Vehicle front = Vehicle.view(peekSerialId(), peekTimeArrived());
+        removeFront();
+        return front;
+    }
+
+    /**
+     * Removes the vehicle at the front of the buffer without creating a
+     * Vehicle view. Read it first with peekSerialId() and peekTimeArrived().
+     * @throws IllegalStateException
+     *      Indicates that the queue is empty.
+     */
+    public void removeFront() {
+        if (size == 0)
+            throw new IllegalStateException("Cannot dequeue from empty queue.");
+        head = (head + 1) & (serialIds.length - 1);
+        size--;
+        if (shrinkOnDrain && serialIds.length > DEFAULT_CAPACITY
+          && size < serialIds.length / 4)
+            resize(serialIds.length / 2);
+    }
+
+    /**
+     * Returns the serialId of the vehicle at the front of the queue.
+     * @return
+     *      The serialId of the vehicle at the front of the queue.
+     * @throws IllegalStateException
+     *      Indicates that the queue is empty.
+     */
+    public long peekSerialId() {
+        if (size == 0)
+            throw new IllegalStateException("Queue is empty.");
+        return serialIds[head];
+    }
+
+    /**
+     * Returns the arrival time of the vehicle at the front of the queue.
+     * @return
+     *      The arrival time of the vehicle at the front of the queue.
+     * @throws IllegalStateException
+     *      Indicates that the queue is empty.
+     */
+    public int peekTimeArrived() {
+        if (size == 0)
+            throw new IllegalStateException("Queue is empty.");
+        return timesArrived[head];
+    }
+
+    /**
+     * Returns a Vehicle view of the vehicle at the indicated position of the
+     * queue. 0 index represents front, size() - 1 index represents rear.
+     * @param index
+     *      The position of the vehicle from the front of the queue.
+     * @return
+     *      A Vehicle view of the vehicle at the indicated position.
+     * @throws IndexOutOfBoundsException
+     *      Indicates that index < 0 or index >= size().
+     */
+    public Vehicle get(int index) {
+        return Vehicle.view(getSerialId(index), getTimeArrived(index));
+    }
+
+    /**
+     * Returns the serialId of the vehicle at the indicated position.
+     * @param index
+     *      The position of the vehicle from the front of the queue.
+     * @return
+     *      The serialId of the vehicle at the indicated position.
+     * @throws IndexOutOfBoundsException
+     *      Indicates that index < 0 or index >= size().
+     */
+    public long getSerialId(int index) {
+        return serialIds[slot(index)];
+    }
+
+    /**
+     * Returns the arrival time of the vehicle at the indicated position.
+     * @param index
+     *      The position of the vehicle from the front of the queue.
+     * @return
+     *      The arrival time of the vehicle at the indicated position.
+     * @throws IndexOutOfBoundsException
+     *      Indicates that index < 0 or index >= size().
+     */
+    public int getTimeArrived(int index) {
+        return timesArrived[slot(index)];
+    }
+
+    /**
+     * Returns the number of vehicles in the queue.
+     * @return
+     *      The number of vehicles in the queue.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks to see if the queue is empty.
+     * @return
+     *      true if the queue is empty, else false.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the current capacity of the underlying buffer.
+     * @return
+     *      The current capacity of the underlying buffer.
+     */
+    public int capacity() {
+        return serialIds.length;
+    }
+
+    /**
+     * Converts a position from the front of the queue into a buffer index.
+     * @param index
+     *      The position from the front of the queue.
+     * @return
+     *      The index into the buffer columns.
+     * @throws IndexOutOfBoundsException
+     *      Indicates that index < 0 or index >= size().
+     */
+    private int slot(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index
+              + ", Size: " + size);
+        return (head + index) & (serialIds.length - 1);
+    }
+
+    /**
+     * Copies the queue into new buffer columns of the indicated capacity with
+     * the front of the queue at index 0. Capacity is always a power of 2
+     * so indexes can wrap with a bit mask.
+     * @param newCapacity
+     *      The capacity of the new buffer. Must be >= size.
+     */
+    private void resize(int newCapacity) {
+        serialIds = copyColumn(serialIds, newCapacity);
+        timesArrived = copyColumn(timesArrived, newCapacity);
+        head = 0;
+    }
+
+    /**
+     * Copies one circular buffer column into a new array starting at the
+     * front of the queue.
+     * @param column
+     *      The column to copy.
+     * @param newCapacity
+     *      The length of the new array.
+     * @return
+     *      The new array.
+     */
+    private int[] copyColumn(int[] column, int newCapacity) {
+        int[] newColumn = new int[newCapacity];
+        int firstPart = Math.min(size, column.length - head);
+        System.arraycopy(column, head, newColumn, 0, firstPart);
+        System.arraycopy(column, 0, newColumn, firstPart, size - firstPart);
+        return newColumn;
+    }
+
+    /**
+     * Copies one circular buffer column of longs into a new array starting
+     * at the front of the queue.
+     * @param column
+     *      The column to copy.
+     * @param newCapacity
+     *      The length of the new array.
+     * @return
+     *      The new array.
+     */
+    private long[] copyColumn(long[] column, int newCapacity) {
+        long[] newColumn = new long[newCapacity];
+        int firstPart = Math.min(size, column.length - head);
+        System.arraycopy(column, head, newColumn, 0, firstPart);
+        System.arraycopy(column, 0, newColumn, firstPart, size - firstPart);
+        return newColumn;
     }
 
     /**
@@ -31,10 +283,10 @@ public class VehicleQueue extends ArrayList<Vehicle> {
      *      The string representation of this Vehicle Queue class.
      */
     public String toString() {
-        String output = "";
-        for (int i = 0; i < size(); i++)
-            output += (get(i).getSerialId() + ", ");
+        StringBuilder output = new StringBuilder(size * 8);
+        for (int i = 0; i < size; i++)
+            output.append(getSerialId(i)).append(", ");
 
-        return output;
+        return output.toString();
     }
 }
@@ -0,0 +1,105 @@
+package bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of pushing arrivals into an ArrivalIngestion from several producer
+ * threads while one consumer drains it as Simulation.step() does, each
+ * producer offering to random lanes.
+ *
+ * After every iteration, with the producers stopped, the ingestion is
+ * checked to have lost no arrival: accepted must equal delivered plus
+ * pending, and draining it must deliver every accepted arrival, which it
+ * only does if no pending lane lost its bit.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArrivalIngestionBenchmark {
+
+    @Param({"4", "64"})
+    public int roads;
+
+    @Param({"64"})
+    public int capacity;
+
+    private Object ingestion;
+
+    private int numLanes;
+
+    @Setup
+    public void setUp() throws Throwable {
+        Object layout = (Object)Simulator.LANE_LAYOUT_UNIFORM.invokeExact(
+          roads, 3);
+        ingestion = (Object)Simulator.NEW_INGESTION.invokeExact(layout,
+          capacity);
+        numLanes = roads * 6;
+    }
+
+    /**
+     * Buffer of the consumer, which is the only thread using it.
+     */
+    @State(Scope.Thread)
+    public static class ConsumerBuffer {
+        int[] lanes = new int[64 * 6];
+        int step;
+    }
+
+    @TearDown(Level.Iteration)
+    public void checkNothingLost() throws Throwable {
+        if (!(boolean)Simulator.INGESTION_IS_CONSISTENT.invokeExact(
+          ingestion))
+            throw new IllegalStateException(
+              "Pending counts and lane bits disagree");
+        int[] lanes = new int[numLanes];
+        int step = Integer.MAX_VALUE / 2;
+        while ((int)Simulator.INGESTION_ARRIVALS.invokeExact(ingestion,
+          ++step, lanes) > 0) {
+        }
+        long accepted = (long)Simulator.INGESTION_ACCEPTED.invokeExact(
+          ingestion);
+        long delivered = (long)Simulator.INGESTION_DELIVERED.invokeExact(
+          ingestion);
+        if (accepted != delivered)
+            throw new IllegalStateException("Accepted " + accepted
+              + " arrivals but delivered " + delivered);
+    }
+
+    @Benchmark
+    @Group("ingest")
+    @GroupThreads(3)
+    public boolean offer() throws Throwable {
+        int lane = ThreadLocalRandom.current().nextInt(numLanes);
+        return (boolean)Simulator.INGESTION_OFFER.invokeExact(ingestion,
+          lane);
+    }
+
+    @Benchmark
+    @Group("ingest")
+    @GroupThreads(1)
+    public int drain(ConsumerBuffer buffer) throws Throwable {
+        return (int)Simulator.INGESTION_ARRIVALS.invokeExact(ingestion,
+          ++buffer.step, buffer.lanes);
+    }
+
+}
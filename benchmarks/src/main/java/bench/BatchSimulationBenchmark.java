@@ -0,0 +1,79 @@
+package bench;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of advancing many independent intersections by one step, either as
+ * one seeded Simulation each or together in one BatchSimulation. Both hold
+ * the same scenarios, so the two benchmarks do the same work.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchSimulationBenchmark {
+
+    @Param({"1000"})
+    public int intersections;
+
+    @Param({"4"})
+    public int roads;
+
+    @Param({"0.01", "0.05"})
+    public double probability;
+
+    private Object[] simulations;
+
+    private Object batch;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Throwable {
+        String[] names = new String[roads];
+        int[] greenTimes = new int[roads];
+        for (int i = 0; i < roads; i++)
+            names[i] = "Road" + i;
+        Arrays.fill(greenTimes, 12);
+        double[] probabilities = new double[intersections];
+        int[][] batchGreenTimes = new int[intersections][];
+        long[] seeds = new long[intersections];
+        simulations = new Object[intersections];
+        for (int k = 0; k < intersections; k++) {
+            probabilities[k] = probability;
+            batchGreenTimes[k] = greenTimes;
+            seeds[k] = 42L + k;
+            simulations[k] = (Object)Simulator.NEW_SIMULATION.invokeExact(
+              Integer.MAX_VALUE - 1, probability, names, greenTimes, seeds[k]);
+        }
+        batch = (Object)Simulator.NEW_BATCH_SIMULATION.invokeExact(
+          Integer.MAX_VALUE - 1, (int[])null, probabilities, batchGreenTimes,
+          (int[][])null, seeds);
+    }
+
+    @Benchmark
+    public void objects() throws Throwable {
+        for (int k = 0; k < simulations.length; k++)
+            Simulator.SIMULATION_STEP.invokeExact(simulations[k]);
+    }
+
+    @Benchmark
+    public void batch() throws Throwable {
+        Simulator.BATCH_STEP.invokeExact(batch);
+    }
+
+}
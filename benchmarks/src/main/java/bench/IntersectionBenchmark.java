@@ -0,0 +1,101 @@
+package bench;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of Intersection.timeStep() with every lane of every road holding a
+ * constant number of vehicles. Departures are replaced on the lane they
+ * left, so the light cycles through every road and phase.
+ * timeStepIntoBuffer() measures the allocation-free overload that reports
+ * departures to a DepartureBuffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntersectionBenchmark {
+
+    @Param({"2", "4"})
+    public int roads;
+
+    @Param({"1", "64", "4096"})
+    public int depth;
+
+    private Object intersection;
+
+    private int nextId;
+
+    private Object buffer;
+
+    @Setup
+    public void setUp() throws Throwable {
+        int[] greenTimes = new int[roads];
+        Arrays.fill(greenTimes, 12);
+        intersection = Simulator.newIntersection(greenTimes);
+        nextId = 1;
+        for (int road = 0; road < roads; road++) {
+            for (int way = 0; way < 2; way++) {
+                for (int lane = 0; lane < 3; lane++) {
+                    for (int i = 0; i < depth; i++) {
+                        Simulator.INTERSECTION_ENQUEUE.invokeExact(
+                          intersection, road, way, lane, (long)nextId, nextId);
+                        nextId++;
+                    }
+                }
+            }
+        }
+        buffer = (Object)Simulator.NEW_DEPARTURE_BUFFER.invokeExact();
+    }
+
+    @Benchmark
+    public Object timeStep() throws Throwable {
+        Object[] removed = (Object[])(Object)
+          Simulator.INTERSECTION_TIME_STEP.invokeExact(intersection);
+        if (removed != null) {
+            int road = (int)Simulator.INTERSECTION_LIGHT_INDEX
+              .invokeExact(intersection);
+            for (int slot = 0; slot < removed.length; slot++) {
+                if (removed[slot] != null) {
+                    Simulator.INTERSECTION_ENQUEUE.invokeExact(intersection,
+                      road, Simulator.slotWay(removed.length, slot),
+                      Simulator.slotLane(removed.length, slot),
+                      (long)nextId, nextId);
+                    nextId++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    @Benchmark
+    public int timeStepIntoBuffer() throws Throwable {
+        Simulator.BUFFER_CLEAR.invokeExact(buffer);
+        int count = (int)Simulator.INTERSECTION_TIME_STEP_INTO
+          .invokeExact(intersection, buffer);
+        for (int i = 0; i < count; i++) {
+            Simulator.INTERSECTION_ENQUEUE.invokeExact(intersection,
+              (int)Simulator.BUFFER_ROAD.invokeExact(buffer, i),
+              (int)Simulator.BUFFER_WAY.invokeExact(buffer, i),
+              (int)Simulator.BUFFER_LANE.invokeExact(buffer, i),
+              (long)nextId, nextId);
+            nextId++;
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,68 @@
+package bench;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of drawing an intersection whose every lane holds a constant number
+ * of vehicles, into a StringBuilder reused between frames as
+ * Intersection.display() does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+
+    @Param({"4"})
+    public int roads;
+
+    @Param({"1", "64", "4096"})
+    public int depth;
+
+    private Object intersection;
+
+    private StringBuilder frame;
+
+    @Setup
+    public void setUp() throws Throwable {
+        int[] greenTimes = new int[roads];
+        Arrays.fill(greenTimes, 12);
+        intersection = Simulator.newIntersection(greenTimes);
+        int nextId = 1;
+        for (int road = 0; road < roads; road++) {
+            for (int way = 0; way < 2; way++) {
+                for (int lane = 0; lane < 3; lane++) {
+                    for (int i = 0; i < depth; i++) {
+                        Simulator.INTERSECTION_ENQUEUE.invokeExact(
+                          intersection, road, way, lane, (long)nextId, nextId);
+                        nextId++;
+                    }
+                }
+            }
+        }
+        frame = new StringBuilder(4096);
+    }
+
+    @Benchmark
+    public int appendTo() throws Throwable {
+        frame.setLength(0);
+        Simulator.INTERSECTION_APPEND_TO.invokeExact(intersection, frame);
+        return frame.length();
+    }
+
+}
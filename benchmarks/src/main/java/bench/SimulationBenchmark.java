@@ -0,0 +1,61 @@
+package bench;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of one step of the headless simulation loop: arrivals, the
+ * intersection time step and the statistics. A fresh seeded Simulation is
+ * built for every iteration so the queues cannot grow without bound.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimulationBenchmark {
+
+    @Param({"2", "4"})
+    public int roads;
+
+    @Param({"0.01", "0.05", "0.1"})
+    public double probability;
+
+    @Param({"bernoulli", "geometric"})
+    public String arrivals;
+
+    private Object simulation;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Throwable {
+        String[] names = new String[roads];
+        int[] greenTimes = new int[roads];
+        for (int i = 0; i < roads; i++)
+            names[i] = "Road" + i;
+        Arrays.fill(greenTimes, 12);
+        simulation = (Object)Simulator.NEW_SIMULATION.invokeExact(
+          Integer.MAX_VALUE - 1, probability, names, greenTimes, 42L);
+        if (arrivals.equals("geometric"))
+            Simulator.SIMULATION_USE_GEOMETRIC.invokeExact(simulation);
+    }
+
+    @Benchmark
+    public void step() throws Throwable {
+        Simulator.SIMULATION_STEP.invokeExact(simulation);
+    }
+
+}
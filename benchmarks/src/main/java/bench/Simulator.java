@@ -0,0 +1,236 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * This Simulator class gives the benchmarks access to the simulator classes.
+ *
+ * The simulator lives in the unnamed package, which a named package cannot
+ * import, while JMH refuses benchmarks in the unnamed package. Each simulator
+ * method is therefore looked up once as a MethodHandle typed with Object in
+ * place of simulator classes. The handles are static final, so the JIT
+ * inlines invokeExact() calls through them like direct calls.
+ */
+final class Simulator {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    static final Class<?> VEHICLE_QUEUE = type("VehicleQueue");
+    static final Class<?> TWO_WAY_ROAD = type("TwoWayRoad");
+    static final Class<?> INTERSECTION = type("Intersection");
+    static final Class<?> SIMULATION = type("Simulation");
+    static final Class<?> DEPARTURE_BUFFER = type("DepartureBuffer");
+    static final Class<?> BATCH_SIMULATION = type("BatchSimulation");
+    static final Class<?> LANE_LAYOUT = type("LaneLayout");
+    static final Class<?> ARRIVAL_INGESTION = type("ArrivalIngestion");
+
+    /** (boolean shrinkOnDrain) -> VehicleQueue */
+    static final MethodHandle NEW_QUEUE =
+      constructor(VEHICLE_QUEUE, boolean.class);
+    /** (VehicleQueue, long serialId, int timeArrived) -> void */
+    static final MethodHandle QUEUE_ENQUEUE = virtual(VEHICLE_QUEUE,
+      "enqueue", void.class, long.class, int.class);
+    /** (VehicleQueue) -> Vehicle */
+    static final MethodHandle QUEUE_DEQUEUE =
+      virtual(VEHICLE_QUEUE, "dequeue", type("Vehicle"));
+    /** (VehicleQueue) -> long */
+    static final MethodHandle QUEUE_PEEK_ID =
+      virtual(VEHICLE_QUEUE, "peekSerialId", long.class);
+    /** (VehicleQueue) -> void */
+    static final MethodHandle QUEUE_REMOVE_FRONT =
+      virtual(VEHICLE_QUEUE, "removeFront", void.class);
+
+    /** (String name, int greenTime) -> TwoWayRoad */
+    static final MethodHandle NEW_ROAD =
+      constructor(TWO_WAY_ROAD, String.class, int.class);
+    /** (TwoWayRoad, int way, int lane, long serialId, int timeArrived) */
+    static final MethodHandle ROAD_ENQUEUE = virtual(TWO_WAY_ROAD,
+      "enqueueVehicle", void.class, int.class, int.class, long.class,
+      int.class);
+    /** (TwoWayRoad, int timerVal) -> Vehicle[] */
+    static final MethodHandle ROAD_PROCEED = virtual(TWO_WAY_ROAD, "proceed",
+      type("[LVehicle;"), int.class);
+    /** (TwoWayRoad, int timerVal, int road, DepartureListener) -> int */
+    static final MethodHandle ROAD_PROCEED_INTO = virtual(TWO_WAY_ROAD,
+      "proceed", int.class, int.class, int.class, type("DepartureListener"));
+
+    /** (TwoWayRoad[]) -> Intersection */
+    static final MethodHandle NEW_INTERSECTION =
+      constructor(INTERSECTION, type("[LTwoWayRoad;"));
+    /** (Intersection, int road, int way, int lane, long id, int time) */
+    static final MethodHandle INTERSECTION_ENQUEUE = virtual(INTERSECTION,
+      "enqueueVehicle", void.class, int.class, int.class, int.class,
+      long.class, int.class);
+    /** (Intersection) -> Vehicle[] */
+    static final MethodHandle INTERSECTION_TIME_STEP =
+      virtual(INTERSECTION, "timeStep", type("[LVehicle;"));
+    /** (Intersection, DepartureListener) -> int */
+    static final MethodHandle INTERSECTION_TIME_STEP_INTO = virtual(
+      INTERSECTION, "timeStep", int.class, type("DepartureListener"));
+    /** (Intersection) -> int */
+    static final MethodHandle INTERSECTION_LIGHT_INDEX =
+      virtual(INTERSECTION, "getLightIndex", int.class);
+    /** (Intersection, StringBuilder) -> void */
+    static final MethodHandle INTERSECTION_APPEND_TO = virtual(INTERSECTION,
+      "appendTo", void.class, StringBuilder.class);
+
+    /** () -> DepartureBuffer */
+    static final MethodHandle NEW_DEPARTURE_BUFFER =
+      constructor(DEPARTURE_BUFFER);
+    /** (DepartureBuffer) -> void */
+    static final MethodHandle BUFFER_CLEAR =
+      virtual(DEPARTURE_BUFFER, "clear", void.class);
+    /** (DepartureBuffer) -> int */
+    static final MethodHandle BUFFER_SIZE =
+      virtual(DEPARTURE_BUFFER, "size", int.class);
+    /** (DepartureBuffer, int index) -> int */
+    static final MethodHandle BUFFER_ROAD =
+      virtual(DEPARTURE_BUFFER, "getRoad", int.class, int.class);
+    /** (DepartureBuffer, int index) -> int */
+    static final MethodHandle BUFFER_WAY =
+      virtual(DEPARTURE_BUFFER, "getWay", int.class, int.class);
+    /** (DepartureBuffer, int index) -> int */
+    static final MethodHandle BUFFER_LANE =
+      virtual(DEPARTURE_BUFFER, "getLane", int.class, int.class);
+
+    /** (int time, double probability, String[] names, int[] greens,
+     *  long seed) -> Simulation */
+    static final MethodHandle NEW_SIMULATION = constructor(SIMULATION,
+      int.class, double.class, String[].class, int[].class, long.class);
+    /** (Simulation) -> void */
+    static final MethodHandle SIMULATION_STEP =
+      virtual(SIMULATION, "step", void.class);
+    /** (Simulation) -> void */
+    static final MethodHandle SIMULATION_USE_GEOMETRIC =
+      virtual(SIMULATION, "useGeometricArrivals", void.class);
+
+    /** (int time, int[] lanes, double[] probabilities, int[][] greens,
+     *  int[][] lefts, long[] seeds) -> BatchSimulation */
+    static final MethodHandle NEW_BATCH_SIMULATION = constructor(
+      BATCH_SIMULATION, int.class, int[].class, double[].class,
+      int[][].class, int[][].class, long[].class);
+    /** (BatchSimulation) -> void */
+    static final MethodHandle BATCH_STEP =
+      virtual(BATCH_SIMULATION, "step", void.class);
+
+    /** (int roads, int lanesPerWay) -> LaneLayout */
+    static final MethodHandle LANE_LAYOUT_UNIFORM = staticMethod(LANE_LAYOUT,
+      "uniform", LANE_LAYOUT, int.class, int.class);
+
+    /** (LaneLayout, int capacity) -> ArrivalIngestion */
+    static final MethodHandle NEW_INGESTION =
+      constructor(ARRIVAL_INGESTION, LANE_LAYOUT, int.class);
+    /** (ArrivalIngestion, int lane) -> boolean */
+    static final MethodHandle INGESTION_OFFER = virtual(ARRIVAL_INGESTION,
+      "offer", boolean.class, int.class);
+    /** (ArrivalIngestion, int timeStep, int[] lanes) -> int */
+    static final MethodHandle INGESTION_ARRIVALS = virtual(ARRIVAL_INGESTION,
+      "arrivals", int.class, int.class, int[].class);
+    /** (ArrivalIngestion) -> boolean */
+    static final MethodHandle INGESTION_IS_CONSISTENT = virtual(
+      ARRIVAL_INGESTION, "isConsistent", boolean.class);
+    /** (ArrivalIngestion) -> long */
+    static final MethodHandle INGESTION_ACCEPTED = virtual(ARRIVAL_INGESTION,
+      "getAccepted", long.class);
+    /** (ArrivalIngestion) -> long */
+    static final MethodHandle INGESTION_DELIVERED = virtual(ARRIVAL_INGESTION,
+      "getDelivered", long.class);
+
+    private Simulator() {
+    }
+
+    /**
+     * Creates an Intersection of roads with the indicated green times.
+     */
+    static Object newIntersection(int[] greenTimes) throws Throwable {
+        Object[] roads = (Object[])java.lang.reflect.Array.newInstance(
+          TWO_WAY_ROAD, greenTimes.length);
+        for (int i = 0; i < roads.length; i++)
+            roads[i] = (Object)NEW_ROAD.invokeExact("Road" + i, greenTimes[i]);
+        return (Object)NEW_INTERSECTION.invokeExact((Object)roads);
+    }
+
+    /**
+     * Returns the way of a vehicle from its slot in the array returned by
+     * TwoWayRoad.proceed().
+     */
+    static int slotWay(int slots, int slot) {
+        return slots == 4 ? slot / 2 : slot;
+    }
+
+    /**
+     * Returns the lane of a vehicle from its slot in the array returned by
+     * TwoWayRoad.proceed().
+     */
+    static int slotLane(int slots, int slot) {
+        return slots == 4 ? slot % 2 + 1 : 0;
+    }
+
+    private static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        }
+        catch(ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle constructor(Class<?> owner,
+      Class<?>... params) {
+        try {
+            MethodHandle handle = LOOKUP.findConstructor(owner,
+              MethodType.methodType(void.class, params));
+            return handle.asType(erase(handle.type()));
+        }
+        catch(ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle staticMethod(Class<?> owner, String name,
+      Class<?> returnType, Class<?>... params) {
+        try {
+            MethodHandle handle = LOOKUP.findStatic(owner, name,
+              MethodType.methodType(returnType, params));
+            return handle.asType(erase(handle.type()));
+        }
+        catch(ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle virtual(Class<?> owner, String name,
+      Class<?> returnType, Class<?>... params) {
+        try {
+            MethodHandle handle = LOOKUP.findVirtual(owner, name,
+              MethodType.methodType(returnType, params));
+            return handle.asType(erase(handle.type()));
+        }
+        catch(ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Replaces every simulator class in a method type with Object so call
+     * sites can be written without naming it.
+     */
+    private static MethodType erase(MethodType type) {
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (isSimulatorType(type.parameterType(i)))
+                type = type.changeParameterType(i, Object.class);
+        }
+        if (isSimulatorType(type.returnType()))
+            type = type.changeReturnType(Object.class);
+        return type;
+    }
+
+    private static boolean isSimulatorType(Class<?> type) {
+        while (type.isArray())
+            type = type.getComponentType();
+        return !type.isPrimitive() && type.getPackageName().isEmpty();
+    }
+
+}
@@ -0,0 +1,99 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of TwoWayRoad.proceed() with every lane holding a constant number of
+ * vehicles. The timer counts down through a whole green time so both the
+ * GREEN and LEFT_SIGNAL phases are measured, and every departure is
+ * replaced on the lane it left. proceedIntoBuffer() measures the
+ * allocation-free overload that reports departures to a DepartureBuffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TwoWayRoadBenchmark {
+
+    private static final int GREEN_TIME = 30;
+
+    @Param({"1", "64", "4096"})
+    public int depth;
+
+    private Object road;
+
+    private int timer;
+
+    private int nextId;
+
+    private Object buffer;
+
+    @Setup
+    public void setUp() throws Throwable {
+        road = (Object)Simulator.NEW_ROAD.invokeExact("Road", GREEN_TIME);
+        nextId = 1;
+        for (int way = 0; way < 2; way++) {
+            for (int lane = 0; lane < 3; lane++) {
+                for (int i = 0; i < depth; i++) {
+                    Simulator.ROAD_ENQUEUE.invokeExact(road, way, lane,
+                      (long)nextId, nextId);
+                    nextId++;
+                }
+            }
+        }
+        timer = GREEN_TIME;
+        buffer = (Object)Simulator.NEW_DEPARTURE_BUFFER.invokeExact();
+    }
+
+    @Benchmark
+    public Object proceed() throws Throwable {
+        Object[] removed =
+          (Object[])(Object)Simulator.ROAD_PROCEED.invokeExact(road, timer);
+        if (--timer == 0)
+            timer = GREEN_TIME;
+        if (removed != null) {
+            for (int slot = 0; slot < removed.length; slot++) {
+                if (removed[slot] != null) {
+                    Simulator.ROAD_ENQUEUE.invokeExact(road,
+                      Simulator.slotWay(removed.length, slot),
+                      Simulator.slotLane(removed.length, slot),
+                      (long)nextId, nextId);
+                    nextId++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    @Benchmark
+    public int proceedIntoBuffer() throws Throwable {
+        Simulator.BUFFER_CLEAR.invokeExact(buffer);
+        int count = (int)Simulator.ROAD_PROCEED_INTO.invokeExact(road, timer,
+          0, buffer);
+        if (--timer == 0)
+            timer = GREEN_TIME;
+        for (int i = 0; i < count; i++) {
+            Simulator.ROAD_ENQUEUE.invokeExact(road,
+              (int)Simulator.BUFFER_WAY.invokeExact(buffer, i),
+              (int)Simulator.BUFFER_LANE.invokeExact(buffer, i),
+              (long)nextId, nextId);
+            nextId++;
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,67 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Dequeue cost of a VehicleQueue holding a constant number of vehicles.
+ * Every operation dequeues the front vehicle and enqueues a new one at the
+ * rear, so the queue depth never changes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VehicleQueueBenchmark {
+
+    @Param({"16", "1024", "65536"})
+    public int depth;
+
+    private Object queue;
+
+    private int nextId;
+
+    @Setup
+    public void setUp() throws Throwable {
+        queue = (Object)Simulator.NEW_QUEUE.invokeExact(false);
+        for (nextId = 1; nextId <= depth; nextId++)
+            Simulator.QUEUE_ENQUEUE.invokeExact(queue, (long)nextId, nextId);
+    }
+
+    /**
+     * dequeue(), which creates a Vehicle view of the front vehicle.
+     */
+    @Benchmark
+    public Object dequeue() throws Throwable {
+        Object vehicle = (Object)Simulator.QUEUE_DEQUEUE.invokeExact(queue);
+        Simulator.QUEUE_ENQUEUE.invokeExact(queue, (long)nextId, nextId);
+        nextId++;
+        return vehicle;
+    }
+
+    /**
+     * peekSerialId() and removeFront(), which allocate nothing.
+     */
+    @Benchmark
+    public long removeFront() throws Throwable {
+        long id = (long)Simulator.QUEUE_PEEK_ID.invokeExact(queue);
+        Simulator.QUEUE_REMOVE_FRONT.invokeExact(queue);
+        Simulator.QUEUE_ENQUEUE.invokeExact(queue, (long)nextId, nextId);
+        nextId++;
+        return id;
+    }
+
+}